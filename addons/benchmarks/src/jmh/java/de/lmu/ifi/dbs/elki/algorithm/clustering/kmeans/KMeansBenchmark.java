@@ -0,0 +1,123 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.synthetic.bymodel.GeneratorMain;
+import de.lmu.ifi.dbs.elki.data.synthetic.bymodel.GeneratorSingleCluster;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.datasource.MultipleObjectsBundleDatabaseConnection;
+import de.lmu.ifi.dbs.elki.math.statistics.distribution.NormalDistribution;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Benchmark of the k-means variants on synthetic Gaussian clusters.
+ * <p>
+ * All variants use the same seed, hence the same initial means, and should
+ * converge to the same result.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KMeansBenchmark {
+  /**
+   * k-means variant, relative to this package.
+   */
+  @Param({ "KMeansLloyd", "KMeansMacQueen", "KMeansCompare", "KMeansSort", //
+      "KMeansElkan", "KMeansSimplifiedElkan", "KMeansHamerly", //
+      "KMeansExponion", "KMeansAnnulus", //
+      "parallel.ParallelLloydKMeans", "parallel.ParallelHamerlyKMeans" })
+  public String variant;
+
+  /**
+   * Data set size.
+   */
+  @Param({ "100000" })
+  public int size;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "2", "10" })
+  public int dim;
+
+  /**
+   * Number of clusters, both generated and searched.
+   */
+  @Param({ "10", "100" })
+  public int k;
+
+  /**
+   * Database.
+   */
+  private Database db;
+
+  /**
+   * Algorithm instance.
+   */
+  private KMeans<?, ?> kmeans;
+
+  /**
+   * Generate the data set.
+   *
+   * @throws ClassNotFoundException when the variant is not found
+   */
+  @Setup
+  public void setup() throws ClassNotFoundException {
+    Random r = new Random(0L);
+    GeneratorMain gen = new GeneratorMain();
+    gen.setTestAgainstModel(false);
+    for(int i = 0; i < k; i++) {
+      GeneratorSingleCluster c = new GeneratorSingleCluster("Cluster" + i, size / k, 1., new Random(r.nextLong()));
+      for(int d = 0; d < dim; d++) {
+        c.addGenerator(new NormalDistribution(r.nextDouble() * 10., .2 + r.nextDouble() * .8, new Random(r.nextLong())));
+      }
+      gen.addCluster(c);
+    }
+    db = new StaticArrayDatabase(new MultipleObjectsBundleDatabaseConnection(gen.generate()), null);
+    db.initialize();
+    @SuppressWarnings("unchecked")
+    Class<Object> cls = (Class<Object>) (Class<?>) Class.forName(getClass().getPackage().getName() + "." + variant).asSubclass(KMeans.class);
+    kmeans = new ELKIBuilder<Object>(cls) //
+        .with(KMeans.K_ID, k) //
+        .with(KMeans.SEED_ID, 0L) //
+        .<KMeans<?, ?>> build();
+  }
+
+  /**
+   * Run k-means.
+   *
+   * @return Clustering
+   */
+  @Benchmark
+  public Clustering<?> run() {
+    return kmeans.run(db);
+  }
+}
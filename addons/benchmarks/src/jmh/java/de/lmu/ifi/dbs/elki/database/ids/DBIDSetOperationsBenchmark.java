@@ -0,0 +1,123 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.database.ids;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark of the set operations in {@link DBIDUtil}.
+ * <p>
+ * Both inputs are random samples of half of a DBID range, so about half of
+ * each set is shared.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DBIDSetOperationsBenchmark {
+  /**
+   * Size of each set.
+   */
+  @Param({ "1000", "100000" })
+  public int size;
+
+  /**
+   * Storage of the sets: "array" or "hashset".
+   */
+  @Param({ "array", "hashset" })
+  public String storage;
+
+  /**
+   * First set.
+   */
+  private DBIDs first;
+
+  /**
+   * Second set.
+   */
+  private DBIDs second;
+
+  /**
+   * Prepare the data.
+   */
+  @Setup
+  public void setup() {
+    DBIDRange all = DBIDUtil.generateStaticDBIDRange(size << 1);
+    Random r = new Random(0L);
+    first = convert(DBIDUtil.randomSample(all, size, r));
+    second = convert(DBIDUtil.randomSample(all, size, r));
+  }
+
+  /**
+   * Convert to the benchmarked storage.
+   *
+   * @param ids Input ids
+   * @return Converted ids
+   */
+  private DBIDs convert(DBIDs ids) {
+    return "hashset".equals(storage) ? DBIDUtil.newHashSet(ids) : DBIDUtil.newArray(ids);
+  }
+
+  /**
+   * Benchmark {@link DBIDUtil#intersection}.
+   *
+   * @return Intersection
+   */
+  @Benchmark
+  public DBIDs intersection() {
+    return DBIDUtil.intersection(first, second);
+  }
+
+  /**
+   * Benchmark {@link DBIDUtil#intersectionSize}.
+   *
+   * @return Intersection size
+   */
+  @Benchmark
+  public int intersectionSize() {
+    return DBIDUtil.intersectionSize(first, second);
+  }
+
+  /**
+   * Benchmark {@link DBIDUtil#union}.
+   *
+   * @return Union
+   */
+  @Benchmark
+  public DBIDs union() {
+    return DBIDUtil.union(first, second);
+  }
+
+  /**
+   * Benchmark {@link DBIDUtil#difference}.
+   *
+   * @return Difference
+   */
+  @Benchmark
+  public DBIDs difference() {
+    return DBIDUtil.difference(first, second);
+  }
+}
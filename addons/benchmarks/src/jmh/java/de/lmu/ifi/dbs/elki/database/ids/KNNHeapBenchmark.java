@@ -0,0 +1,107 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.database.ids;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark of the kNN heap, as used by every kNN query.
+ * <p>
+ * Each invocation offers {@link #SIZE} random distances to a fresh heap, as a
+ * linear scan would.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KNNHeapBenchmark {
+  /**
+   * Number of candidates.
+   */
+  private static final int SIZE = 100000;
+
+  /**
+   * Heap size.
+   */
+  @Param({ "1", "10", "100", "1000" })
+  public int k;
+
+  /**
+   * Candidate ids.
+   */
+  private DBIDRange ids;
+
+  /**
+   * Candidate distances.
+   */
+  private double[] dists;
+
+  /**
+   * Prepare the data.
+   */
+  @Setup
+  public void setup() {
+    ids = DBIDUtil.generateStaticDBIDRange(SIZE);
+    Random r = new Random(0L);
+    dists = new double[SIZE];
+    for(int i = 0; i < SIZE; i++) {
+      dists[i] = r.nextDouble();
+    }
+  }
+
+  /**
+   * Insert all candidates using {@link KNNHeap#insert(double, DBIDRef)}.
+   *
+   * @return kNN list
+   */
+  @Benchmark
+  public KNNList insert() {
+    KNNHeap heap = DBIDUtil.newHeap(k);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      heap.insert(dists[it.getOffset()], it);
+    }
+    return heap.toKNNList();
+  }
+
+  /**
+   * Insert candidates with a check of the current kNN distance first, as most
+   * of our index queries do.
+   *
+   * @return kNN list
+   */
+  @Benchmark
+  public KNNList insertFiltered() {
+    KNNHeap heap = DBIDUtil.newHeap(k);
+    double kdist = Double.POSITIVE_INFINITY;
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      final double d = dists[it.getOffset()];
+      if(d <= kdist) {
+        kdist = heap.insert(d, it);
+      }
+    }
+    return heap.toKNNList();
+  }
+}
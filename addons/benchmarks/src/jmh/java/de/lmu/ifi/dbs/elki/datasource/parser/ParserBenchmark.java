@@ -0,0 +1,98 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.datasource.parser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
+
+/**
+ * Benchmark of the parser throughput on an in-memory CSV file.
+ * <p>
+ * Each row has {@link #dim} numeric columns and a trailing label.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParserBenchmark {
+  /**
+   * Parser to use: "serial" or "parallel".
+   */
+  @Param({ "serial", "parallel" })
+  public String parser;
+
+  /**
+   * Number of rows.
+   */
+  @Param({ "100000" })
+  public int rows;
+
+  /**
+   * Number of numeric columns.
+   */
+  @Param({ "2", "20" })
+  public int dim;
+
+  /**
+   * Serialized data.
+   */
+  private byte[] data;
+
+  /**
+   * Prepare the data.
+   */
+  @Setup
+  public void setup() {
+    Random r = new Random(0L);
+    StringBuilder buf = new StringBuilder(rows * (dim * 20 + 10));
+    for(int i = 0; i < rows; i++) {
+      for(int d = 0; d < dim; d++) {
+        buf.append(r.nextGaussian()).append(' ');
+      }
+      buf.append("label").append(i % 10).append('\n');
+    }
+    data = buf.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Parse the data.
+   *
+   * @return Parsed data
+   */
+  @Benchmark
+  public MultipleObjectsBundle parse() {
+    NumberVectorLabelParser<DoubleVector> p = "parallel".equals(parser) ? //
+        new ParallelNumberVectorLabelParser<>(DoubleVector.FACTORY) : //
+        new NumberVectorLabelParser<>(DoubleVector.FACTORY);
+    MultipleObjectsBundle bundle = p.parse(new ByteArrayInputStream(data));
+    p.cleanup();
+    return bundle;
+  }
+}
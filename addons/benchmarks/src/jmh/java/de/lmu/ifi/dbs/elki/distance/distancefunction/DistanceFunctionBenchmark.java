@@ -0,0 +1,114 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.distance.distancefunction;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Benchmark of primitive distance functions on dense vectors.
+ * <p>
+ * Each invocation computes the distances of {@link #SIZE} consecutive pairs of
+ * random vectors.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DistanceFunctionBenchmark {
+  /**
+   * Number of vectors.
+   */
+  private static final int SIZE = 1024;
+
+  /**
+   * Distance function, relative to this package.
+   */
+  @Param({ "minkowski.EuclideanDistanceFunction", //
+      "minkowski.SquaredEuclideanDistanceFunction", //
+      "minkowski.ManhattanDistanceFunction", //
+      "minkowski.MaximumDistanceFunction", //
+      "CosineDistanceFunction", //
+      "CanberraDistanceFunction", //
+      "colorhistogram.HistogramIntersectionDistanceFunction", //
+      "correlation.PearsonCorrelationDistanceFunction" })
+  public String distance;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "2", "10", "100" })
+  public int dim;
+
+  /**
+   * Distance function instance.
+   */
+  private PrimitiveDistanceFunction<? super NumberVector> df;
+
+  /**
+   * Vectors.
+   */
+  private DoubleVector[] vecs;
+
+  /**
+   * Prepare the data.
+   *
+   * @throws ClassNotFoundException when the distance function is not found
+   */
+  @SuppressWarnings("unchecked")
+  @Setup
+  public void setup() throws ClassNotFoundException {
+    Class<Object> cls = (Class<Object>) Class.forName(getClass().getPackage().getName() + "." + distance);
+    df = new ELKIBuilder<Object>(cls).<PrimitiveDistanceFunction<? super NumberVector>> build();
+    Random r = new Random(0L);
+    vecs = new DoubleVector[SIZE];
+    for(int i = 0; i < SIZE; i++) {
+      double[] v = new double[dim];
+      for(int d = 0; d < dim; d++) {
+        v[d] = r.nextDouble();
+      }
+      vecs[i] = DoubleVector.wrap(v);
+    }
+  }
+
+  /**
+   * Compute the distances of all consecutive pairs.
+   *
+   * @return Sum of distances
+   */
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public double distance() {
+    double sum = 0.;
+    for(int i = 0, j = SIZE - 1; i < SIZE; j = i++) {
+      sum += df.distance(vecs[i], vecs[j]);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.covertree.CoverTree;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.mtree.MTreeFactory;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.kd.SmallMemoryKDTree;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar.RStarTreeFactory;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Benchmark of Euclidean kNN queries with different index structures.
+ * <p>
+ * The data are uniform random vectors; index construction is not measured.
+ * "linear" uses no index, i.e. a linear scan.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KNNQueryBenchmark {
+  /**
+   * Number of queries per invocation.
+   */
+  private static final int QUERIES = 100;
+
+  /**
+   * Index type.
+   */
+  @Param({ "linear", "rstar", "mtree", "covertree", "kdtree" })
+  public String index;
+
+  /**
+   * Data set size.
+   */
+  @Param({ "10000", "100000" })
+  public int size;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "2", "8" })
+  public int dim;
+
+  /**
+   * Number of neighbors.
+   */
+  @Param({ "10" })
+  public int k;
+
+  /**
+   * kNN query.
+   */
+  private KNNQuery<NumberVector> knnq;
+
+  /**
+   * Query points.
+   */
+  private DBIDs queries;
+
+  /**
+   * Build the database and index.
+   */
+  @Setup
+  public void setup() {
+    Random r = new Random(0L);
+    double[][] data = new double[size][dim];
+    for(double[] row : data) {
+      for(int d = 0; d < dim; d++) {
+        row[d] = r.nextDouble();
+      }
+    }
+    IndexFactory<?> factory = makeFactory(index);
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), factory != null ? Arrays.asList(factory) : null);
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    knnq = QueryUtil.getKNNQuery(rel, EuclideanDistanceFunction.STATIC, k);
+    queries = DBIDUtil.randomSample(rel.getDBIDs(), QUERIES, r);
+  }
+
+  /**
+   * Make the index factory.
+   *
+   * @param index Index name
+   * @return Factory, or {@code null} for the linear scan
+   */
+  private static IndexFactory<?> makeFactory(String index) {
+    switch(index){
+    case "linear":
+      return null;
+    case "rstar":
+      return new ELKIBuilder<>(RStarTreeFactory.class).build();
+    case "mtree":
+      return new ELKIBuilder<>(MTreeFactory.class).build();
+    case "covertree":
+      return new ELKIBuilder<>(CoverTree.Factory.class) //
+          .with(CoverTree.Factory.Parameterizer.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class) //
+          .build();
+    case "kdtree":
+      return new ELKIBuilder<>(SmallMemoryKDTree.Factory.class).build();
+    default:
+      throw new IllegalArgumentException("Unknown index: " + index);
+    }
+  }
+
+  /**
+   * Run the kNN queries.
+   *
+   * @param bh Blackhole
+   */
+  @Benchmark
+  @OperationsPerInvocation(QUERIES)
+  public void knn(Blackhole bh) {
+    for(DBIDIter it = queries.iter(); it.valid(); it.advance()) {
+      bh.consume(knnq.getKNNForDBID(it, k));
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.datastructures;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark of {@link QuickSelect}, compared to full sorting.
+ * <p>
+ * Because selection reorders the data, every invocation first copies the
+ * input; {@link #copy()} measures this overhead alone.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QuickSelectBenchmark {
+  /**
+   * Array size.
+   */
+  @Param({ "100", "10000", "1000000" })
+  public int size;
+
+  /**
+   * Input data.
+   */
+  private double[] data;
+
+  /**
+   * Scratch buffer.
+   */
+  private double[] scratch;
+
+  /**
+   * Prepare the data.
+   */
+  @Setup
+  public void setup() {
+    Random r = new Random(0L);
+    data = new double[size];
+    for(int i = 0; i < size; i++) {
+      data[i] = r.nextDouble();
+    }
+    scratch = new double[size];
+  }
+
+  /**
+   * Copy only, as baseline.
+   *
+   * @return First value
+   */
+  @Benchmark
+  public double copy() {
+    System.arraycopy(data, 0, scratch, 0, size);
+    return scratch[0];
+  }
+
+  /**
+   * Median with {@link QuickSelect#median(double[])}.
+   *
+   * @return Median
+   */
+  @Benchmark
+  public double median() {
+    System.arraycopy(data, 0, scratch, 0, size);
+    return QuickSelect.median(scratch);
+  }
+
+  /**
+   * First quartile with {@link QuickSelect#quantile(double[], double)}.
+   *
+   * @return Quartile
+   */
+  @Benchmark
+  public double quartile() {
+    System.arraycopy(data, 0, scratch, 0, size);
+    return QuickSelect.quantile(scratch, .25);
+  }
+
+  /**
+   * Median by sorting, for comparison.
+   *
+   * @return Median
+   */
+  @Benchmark
+  public double sort() {
+    System.arraycopy(data, 0, scratch, 0, size);
+    Arrays.sort(scratch);
+    return scratch[size >> 1];
+  }
+}
@@ -73,6 +73,31 @@ public interface EMClusterModel<M extends MeanModel> {
    */
   void updateE(NumberVector vec, double weight);
 
+  /**
+   * Create an empty accumulator, to process a partition of the data in a
+   * separate thread. The accumulator uses the current parameters of this
+   * model, and collects the {@link #firstPassE} or {@link #updateE} statistics
+   * of one pass over its partition. These are then combined using
+   * {@link #mergeE(EMClusterModel)} before the pass is finalized.
+   * <p>
+   * By default, this is not supported, and {@code null} is returned.
+   *
+   * @return Accumulator, or {@code null}
+   */
+  default EMClusterModel<M> newAccumulator() {
+    return null;
+  }
+
+  /**
+   * Merge the statistics collected by an accumulator obtained from
+   * {@link #newAccumulator()}.
+   *
+   * @param other Accumulator to merge
+   */
+  default void mergeE(EMClusterModel<M> other) {
+    throw new UnsupportedOperationException("Accumulators are not supported by " + getClass().getName());
+  }
+
   /**
    * Finalize the E step.
    * 
@@ -121,6 +121,17 @@ public class TextbookMultivariateGaussianModel implements EMClusterModel<EMModel
     updateCholesky();
   }
 
+  /**
+   * Constructor for an empty accumulator.
+   *
+   * @param dim Dimensionality
+   */
+  private TextbookMultivariateGaussianModel(int dim) {
+    this.mean = new double[dim];
+    this.tmp = new double[dim];
+    this.covariance = new double[dim][dim];
+  }
+
   @Override
   public void beginEStep() {
     wsum = 0.;
@@ -151,6 +162,25 @@ public class TextbookMultivariateGaussianModel implements EMClusterModel<EMModel
     wsum += wei;
   }
 
+  @Override
+  public TextbookMultivariateGaussianModel newAccumulator() {
+    return new TextbookMultivariateGaussianModel(mean.length);
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<EMModel> other) {
+    final TextbookMultivariateGaussianModel o = (TextbookMultivariateGaussianModel) other;
+    // Naive aggregates are simply added:
+    for(int i = 0; i < mean.length; i++) {
+      mean[i] += o.mean[i];
+      final double[] cov_i = covariance[i], ocov_i = o.covariance[i];
+      for(int j = 0; j <= i; j++) {
+        cov_i[j] += ocov_i[j];
+      }
+    }
+    wsum += o.wsum;
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     this.weight = weight;
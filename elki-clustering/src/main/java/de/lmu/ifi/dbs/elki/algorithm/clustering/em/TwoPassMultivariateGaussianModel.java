@@ -118,6 +118,17 @@ public class TwoPassMultivariateGaussianModel implements EMClusterModel<EMModel>
     updateCholesky();
   }
 
+  /**
+   * Constructor for an empty accumulator.
+   *
+   * @param mean Current mean (for the second pass)
+   */
+  private TwoPassMultivariateGaussianModel(double[] mean) {
+    this.mean = mean;
+    this.tmp = new double[mean.length];
+    this.covariance = new double[mean.length][mean.length];
+  }
+
   @Override
   public void beginEStep() {
     wsum = 0.;
@@ -185,6 +196,32 @@ public class TwoPassMultivariateGaussianModel implements EMClusterModel<EMModel>
     // Should we assert that the weight sum matches the first step?
   }
 
+  @Override
+  public TwoPassMultivariateGaussianModel newAccumulator() {
+    // In the first pass, the mean is zero, in the second pass it is used.
+    return new TwoPassMultivariateGaussianModel(mean.clone());
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<EMModel> other) {
+    final TwoPassMultivariateGaussianModel o = (TwoPassMultivariateGaussianModel) other;
+    final int dim = mean.length;
+    // First pass: weighted sums, the second pass does not update wsum.
+    if(o.wsum > 0) {
+      for(int i = 0; i < dim; i++) {
+        mean[i] += o.mean[i];
+      }
+      wsum += o.wsum;
+    }
+    // Second pass: centered sums of squares (still zero in the first pass).
+    for(int i = 0; i < dim; i++) {
+      final double[] cov_i = covariance[i], ocov_i = o.covariance[i];
+      for(int j = 0; j <= i; j++) {
+        cov_i[j] += ocov_i[j];
+      }
+    }
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     this.weight = weight;
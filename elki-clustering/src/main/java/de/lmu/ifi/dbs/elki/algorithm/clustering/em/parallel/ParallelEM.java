@@ -0,0 +1,462 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.em.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EM;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EMClusterModel;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EMClusterModelFactory;
+import de.lmu.ifi.dbs.elki.data.Cluster;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.MeanModel;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+import net.jafama.FastMath;
+
+/**
+ * Parallel clustering by expectation maximization (EM-Algorithm), also known
+ * as Gaussian Mixture Modeling (GMM), with optional MAP regularization.
+ * <p>
+ * The data is split into blocks of consecutive objects, which are processed by
+ * different threads. The expectation step stores the cluster probabilities of
+ * all objects in a single flat array with k values per object. In the
+ * maximization step, each block collects its statistics in separate
+ * accumulators ({@link EMClusterModel#newAccumulator()}), which are merged in
+ * block order. Models that do not support accumulators are updated on a
+ * single thread.
+ * <p>
+ * The result is the same as with {@link EM}, except for differences caused by
+ * the different summation order of floating point values.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <V> vector type to analyze
+ * @param <M> model type to produce
+ */
+public class ParallelEM<V extends NumberVector, M extends MeanModel> extends EM<V, M> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelEM.class);
+
+  /**
+   * Key for statistics logging.
+   */
+  private static final String KEY = ParallelEM.class.getName();
+
+  /**
+   * Minimum number of objects per block.
+   */
+  private static final int MIN_BLOCK = 256;
+
+  /**
+   * Constructor.
+   *
+   * @param k k parameter
+   * @param delta delta parameter
+   * @param mfactory EM cluster model factory
+   * @param maxiter Maximum number of iterations
+   * @param prior MAP prior
+   * @param soft Include soft assignments
+   */
+  public ParallelEM(int k, double delta, EMClusterModelFactory<V, M> mfactory, int maxiter, double prior, boolean soft) {
+    super(k, delta, mfactory, maxiter, prior, soft);
+  }
+
+  @Override
+  public Clustering<M> run(Database database, Relation<V> relation) {
+    if(relation.size() == 0) {
+      throw new IllegalArgumentException("database empty: must contain elements");
+    }
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    if((long) ids.size() * k > Integer.MAX_VALUE) {
+      throw new AbortException("Too many objects and clusters for parallel EM.");
+    }
+    // initial models
+    List<? extends EMClusterModel<M>> models = mfactory.buildInitialModels(database, relation, k, SquaredEuclideanDistanceFunction.STATIC);
+    // Cluster probabilities, k values per object.
+    final double[] probs = new double[ids.size() * k];
+    final ParallelCore core = ParallelCore.getCore();
+    // A few blocks per thread; each block needs its own accumulators.
+    final int blocksize = Math.max(MIN_BLOCK, (ids.size() + (core.getParallelism() << 2) - 1) / (core.getParallelism() << 2));
+    int it = 0;
+    core.connect();
+    try {
+      double loglikelihood = expectationStep(relation, ids, models, probs, blocksize);
+      DoubleStatistic likestat = LOG.isStatistics() ? new DoubleStatistic(KEY + ".loglikelihood") : null;
+      if(LOG.isStatistics()) {
+        LOG.statistics(likestat.setDouble(loglikelihood));
+      }
+
+      // iteration unless no change
+      int lastimprovement = 0;
+      double bestloglikelihood = loglikelihood; // For detecting instabilities.
+      for(++it; it < maxiter || maxiter < 0; it++) {
+        final double oldloglikelihood = loglikelihood;
+        maximizationStep(relation, ids, models, probs, blocksize);
+        // reassign probabilities
+        loglikelihood = expectationStep(relation, ids, models, probs, blocksize);
+
+        if(LOG.isStatistics()) {
+          LOG.statistics(likestat.setDouble(loglikelihood));
+        }
+        if(loglikelihood - bestloglikelihood > delta) {
+          lastimprovement = it;
+          bestloglikelihood = loglikelihood;
+        }
+        if(Math.abs(loglikelihood - oldloglikelihood) <= delta || lastimprovement < it >> 1) {
+          break;
+        }
+      }
+    }
+    finally {
+      core.disconnect();
+    }
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(KEY + ".iterations", it));
+    }
+
+    // fill result with clusters and models
+    List<ModifiableDBIDs> hardClusters = new ArrayList<>(k);
+    for(int i = 0; i < k; i++) {
+      hardClusters.add(DBIDUtil.newArray());
+    }
+    WritableDataStore<double[]> probClusterIGivenX = isSoft() ? DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_SORTED, double[].class) : null;
+    // provide a hard clustering
+    for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+      final int off = iditer.getOffset() * k;
+      int best = 0;
+      for(int i = 1; i < k; i++) {
+        best = probs[off + i] > probs[off + best] ? i : best;
+      }
+      hardClusters.get(best).add(iditer);
+      if(probClusterIGivenX != null) {
+        double[] p = new double[k];
+        System.arraycopy(probs, off, p, 0, k);
+        probClusterIGivenX.put(iditer, p);
+      }
+    }
+    Clustering<M> result = new Clustering<>("EM Clustering", "em-clustering");
+    // provide models within the result
+    for(int i = 0; i < k; i++) {
+      result.addToplevelCluster(new Cluster<>(hardClusters.get(i), models.get(i).finalizeCluster()));
+    }
+    if(probClusterIGivenX != null) {
+      result.addChildResult(new MaterializedRelation<>("cluster assignments", "em-soft-score", SOFT_TYPE, probClusterIGivenX, ids));
+    }
+    return result;
+  }
+
+  /**
+   * Assign the cluster probabilities to all objects, and compute the
+   * expectation value of the current mixture of distributions.
+   *
+   * @param relation Data relation
+   * @param ids Object ids
+   * @param models Cluster models
+   * @param probs Output storage for cluster probabilities
+   * @param blocksize Block size
+   * @return the expectation value of the current mixture of distributions
+   */
+  protected double expectationStep(Relation<V> relation, ArrayDBIDs ids, List<? extends EMClusterModel<M>> models, double[] probs, int blocksize) {
+    List<ExpectationTask> tasks = new ArrayList<>();
+    for(int begin = 0; begin < ids.size(); begin += blocksize) {
+      tasks.add(new ExpectationTask(relation, ids, models, probs, begin, Math.min(begin + blocksize, ids.size())));
+    }
+    ParallelExecutor.run(tasks);
+    double emSum = 0.;
+    for(ExpectationTask task : tasks) {
+      emSum += task.emSum;
+    }
+    return emSum / ids.size();
+  }
+
+  /**
+   * Recompute the cluster models.
+   *
+   * @param relation Data relation
+   * @param ids Object ids
+   * @param models Cluster models to update
+   * @param probs Cluster probabilities
+   * @param blocksize Block size
+   */
+  protected void maximizationStep(Relation<V> relation, ArrayDBIDs ids, List<? extends EMClusterModel<M>> models, double[] probs, int blocksize) {
+    boolean needsTwoPass = false;
+    for(EMClusterModel<M> m : models) {
+      m.beginEStep();
+      needsTwoPass |= m.needsTwoPass();
+    }
+    // First pass, only for two-pass models.
+    if(needsTwoPass) {
+      maximizationPass(relation, ids, models, probs, blocksize, true);
+      for(EMClusterModel<M> m : models) {
+        m.finalizeFirstPassE();
+      }
+    }
+    double[] wsum = maximizationPass(relation, ids, models, probs, blocksize, false);
+    for(int i = 0; i < k; i++) {
+      // MLE / MAP
+      final double weight = prior <= 0. ? wsum[i] / ids.size() : (wsum[i] + prior - 1) / (ids.size() + prior * k - k);
+      models.get(i).finalizeEStep(weight, prior);
+    }
+  }
+
+  /**
+   * Perform one pass over the data in the maximization step.
+   *
+   * @param relation Data relation
+   * @param ids Object ids
+   * @param models Cluster models to update
+   * @param probs Cluster probabilities
+   * @param blocksize Block size
+   * @param firstPass First pass of a two-pass model
+   * @return Cluster weight sums
+   */
+  private double[] maximizationPass(Relation<V> relation, ArrayDBIDs ids, List<? extends EMClusterModel<M>> models, double[] probs, int blocksize, boolean firstPass) {
+    List<MaximizationTask> tasks = new ArrayList<>();
+    for(int begin = 0; begin < ids.size(); begin += blocksize) {
+      List<EMClusterModel<M>> accumulators = new ArrayList<>(k);
+      for(EMClusterModel<M> m : models) {
+        EMClusterModel<M> acc = m.newAccumulator();
+        if(acc == null) { // Not supported, process on a single thread.
+          MaximizationTask task = new MaximizationTask(relation, ids, models, probs, 0, ids.size(), firstPass);
+          task.run();
+          return task.wsum;
+        }
+        accumulators.add(acc);
+      }
+      tasks.add(new MaximizationTask(relation, ids, accumulators, probs, begin, Math.min(begin + blocksize, ids.size()), firstPass));
+    }
+    ParallelExecutor.run(tasks);
+    // Merge in a fixed order:
+    double[] wsum = new double[k];
+    for(MaximizationTask task : tasks) {
+      for(int i = 0; i < k; i++) {
+        models.get(i).mergeE(task.models.get(i));
+        wsum[i] += task.wsum[i];
+      }
+    }
+    return wsum;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Expectation step for a block of objects.
+   *
+   * @author Erich Schubert
+   */
+  private class ExpectationTask implements Runnable {
+    /**
+     * Data relation.
+     */
+    private final Relation<V> relation;
+
+    /**
+     * Object ids.
+     */
+    private final ArrayDBIDs ids;
+
+    /**
+     * Cluster models.
+     */
+    private final List<? extends EMClusterModel<M>> models;
+
+    /**
+     * Cluster probabilities.
+     */
+    private final double[] probs;
+
+    /**
+     * Block range.
+     */
+    private final int begin, end;
+
+    /**
+     * Sum of the log likelihoods of the block.
+     */
+    double emSum;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param ids Object ids
+     * @param models Cluster models
+     * @param probs Cluster probabilities
+     * @param begin First object offset
+     * @param end End offset (exclusive)
+     */
+    ExpectationTask(Relation<V> relation, ArrayDBIDs ids, List<? extends EMClusterModel<M>> models, double[] probs, int begin, int end) {
+      this.relation = relation;
+      this.ids = ids;
+      this.models = models;
+      this.probs = probs;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    public void run() {
+      final int k = models.size();
+      double emSum = 0.;
+      for(DBIDArrayIter iditer = ids.iter().seek(begin); iditer.getOffset() < end; iditer.advance()) {
+        final V vec = relation.get(iditer);
+        final int off = iditer.getOffset() * k, last = off + k;
+        for(int i = 0; i < k; i++) {
+          double v = models.get(i).estimateLogDensity(vec);
+          probs[off + i] = v > MIN_LOGLIKELIHOOD ? v : MIN_LOGLIKELIHOOD;
+        }
+        final double logP = logSumExp(probs, off, last);
+        for(int i = off; i < last; i++) {
+          probs[i] = FastMath.exp(probs[i] - logP);
+        }
+        emSum += logP;
+      }
+      this.emSum = emSum;
+    }
+  }
+
+  /**
+   * Maximization step for a block of objects.
+   *
+   * @author Erich Schubert
+   */
+  private class MaximizationTask implements Runnable {
+    /**
+     * Data relation.
+     */
+    private final Relation<V> relation;
+
+    /**
+     * Object ids.
+     */
+    private final ArrayDBIDs ids;
+
+    /**
+     * Cluster models (or accumulators) to update.
+     */
+    final List<? extends EMClusterModel<M>> models;
+
+    /**
+     * Cluster probabilities.
+     */
+    private final double[] probs;
+
+    /**
+     * Block range.
+     */
+    private final int begin, end;
+
+    /**
+     * First pass of a two-pass model.
+     */
+    private final boolean firstPass;
+
+    /**
+     * Cluster weight sums of the block.
+     */
+    final double[] wsum;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param ids Object ids
+     * @param models Cluster models (or accumulators) to update
+     * @param probs Cluster probabilities
+     * @param begin First object offset
+     * @param end End offset (exclusive)
+     * @param firstPass First pass of a two-pass model
+     */
+    MaximizationTask(Relation<V> relation, ArrayDBIDs ids, List<? extends EMClusterModel<M>> models, double[] probs, int begin, int end, boolean firstPass) {
+      this.relation = relation;
+      this.ids = ids;
+      this.models = models;
+      this.probs = probs;
+      this.begin = begin;
+      this.end = end;
+      this.firstPass = firstPass;
+      this.wsum = new double[models.size()];
+    }
+
+    @Override
+    public void run() {
+      final int k = models.size();
+      for(DBIDArrayIter iditer = ids.iter().seek(begin); iditer.getOffset() < end; iditer.advance()) {
+        final V vec = relation.get(iditer);
+        final int off = iditer.getOffset() * k;
+        for(int i = 0; i < k; i++) {
+          final double prob = probs[off + i];
+          if(prob > 1e-10) {
+            if(firstPass) {
+              models.get(i).firstPassE(vec, prob);
+            }
+            else {
+              models.get(i).updateE(vec, prob);
+            }
+          }
+          wsum[i] += prob;
+        }
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <V> vector type
+   * @param <M> model type
+   */
+  public static class Parameterizer<V extends NumberVector, M extends MeanModel> extends EM.Parameterizer<V, M> {
+    @Override
+    protected ParallelEM<V, M> makeInstance() {
+      return new ParallelEM<>(k, delta, initializer, maxiter, prior, false);
+    }
+  }
+}
@@ -20,7 +20,8 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.parallel;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.ClusteringAlgorithm;
@@ -28,10 +29,6 @@ import de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.CorePredicate;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.EpsilonNeighborPredicate;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.MinPtsCorePredicate;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.NeighborPredicate;
-import de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.util.Assignment;
-import de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.util.Border;
-import de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.util.Core;
-import de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.util.MultiBorder;
 import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
 import de.lmu.ifi.dbs.elki.data.model.ClusterModel;
@@ -41,7 +38,7 @@ import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
-import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.*;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
@@ -64,10 +61,10 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * sequentially expand a cluster, but processes points in arbitrary order and
  * merges clusters when neighboring core points occur.
  * <p>
- * Because of synchronization when labeling points, the speedup will only be
- * sublinear in the number of cores. But in particular without an index and on
- * large data, the majority of the work is finding the neighbors; not in
- * labeling the points.
+ * Points are labeled without locking: core points are merged using a
+ * concurrent union-find on primitive arrays (using compare-and-swap), while
+ * border points only remember one neighboring core point, and are resolved to
+ * their cluster in a final parallel pass.
  * <p>
  * Reference:
  * <p>
@@ -77,7 +74,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * appears to be a similar union-find approach to ours, and whose DSDBSCAN
  * appears rather similar. The main benefit of our approach is that we avoid
  * using the union-find data structure for every object, but only use it for
- * merging clusters.
+ * merging core points.
  * <p>
  * M. Patwary, D. Palsetia, A. Agrawal, W. K. Liao, F. Manne, A. Choudhary<br>
  * A new scalable parallel DBSCAN algorithm using the disjoint-set data
@@ -170,6 +167,16 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
    * @composed - - - NeighborPredicate.Instance
    */
   public static class Instance<T> implements Processor {
+    /**
+     * State of points not (yet) in the neighborhood of a core point.
+     */
+    private static final int NOISE = -1;
+
+    /**
+     * State of core points. Border points store the offset of a core point.
+     */
+    private static final int CORE = -2;
+
     /**
      * The neighborhood predicate
      */
@@ -186,24 +193,26 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
     protected boolean coremodel = false;
 
     /**
-     * Cluster assignment storage.
+     * Objects to process.
      */
-    private WritableDataStore<Assignment> clusterids;
+    private DBIDs ids;
 
     /**
-     * Core objects (shared)
+     * Offsets of the objects, unless the ids are a range.
      */
-    private Core[] cores;
+    private WritableIntegerDataStore offsets;
 
     /**
-     * Border objects (shared)
+     * Union-find forest of the core points, by offset. Roots point to
+     * themselves, and always to the smallest offset of their tree.
      */
-    private Border[] borders;
+    private AtomicIntegerArray parent;
 
     /**
-     * Next cluster number assigned.
+     * Point states: {@link #NOISE}, {@link #CORE}, or the offset of a
+     * neighboring core point for border points.
      */
-    private int nextclus = 0;
+    private AtomicIntegerArray state;
 
     /**
      * Database for cloning neighbor predicates.
@@ -215,11 +224,6 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
      */
     private NeighborPredicate<? extends T> npreds;
 
-    /**
-     * Progress logger.
-     */
-    private FiniteProgress progress;
-
     /**
      * Full Constructor
      *
@@ -235,9 +239,21 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
       this.npreds = npreds;
       this.corepred = corepred.instantiate(database);
       this.coremodel = coremodel;
-      this.clusterids = DataStoreUtil.makeStorage(npred.getIDs(), DataStoreFactory.HINT_TEMP, Assignment.class);
-      this.cores = new Core[100];
-      this.borders = new Border[100];
+      this.ids = npred.getIDs();
+      final int size = ids.size();
+      if(!(ids instanceof DBIDRange)) {
+        offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, -1);
+        int i = 0;
+        for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+          offsets.putInt(it, i++);
+        }
+      }
+      this.parent = new AtomicIntegerArray(size);
+      this.state = new AtomicIntegerArray(size);
+      for(int i = 0; i < size; i++) {
+        parent.lazySet(i, i);
+        state.lazySet(i, NOISE);
+      }
     }
 
     /**
@@ -246,52 +262,44 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
      * @return Clustering result
      */
     public Clustering<Model> run() {
-      DBIDs ids = npred.getIDs();
-
-      progress = LOG.isVerbose() ? new FiniteProgress("DBSCAN clustering", ids.size(), LOG) : null;
+      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("DBSCAN clustering", ids.size(), LOG) : null;
       // Do the majority of the work in parallel:
       // (This will call "instantiate".)
-      ParallelExecutor.run(ids, this);
+      ParallelExecutor.run(ids, progress, LOG, this);
       LOG.ensureCompleted(progress);
+      // Point all core and border points to their root, in parallel.
+      ParallelExecutor.run(ids, new Resolver());
 
       // Build the final result
       FiniteProgress pprog = LOG.isVerbose() ? new FiniteProgress("Building final result", ids.size(), LOG) : null;
-      ModifiableDBIDs[] clusters = new ModifiableDBIDs[nextclus];
+      ArrayList<ModifiableDBIDs> clusters = new ArrayList<>();
       ModifiableDBIDs noise = DBIDUtil.newArray();
       for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
-        Assignment cids = clusterids.get(it);
-        if(cids == null) {
+        final int off = offset(it);
+        if(state.get(off) == NOISE) {
           noise.add(it);
           LOG.incrementProcessed(pprog);
           continue;
         }
-        if(cids instanceof MultiBorder) {
-          cids = ((MultiBorder) cids).getCore();
-        }
-        else if(cids instanceof Border) {
-          cids = ((Border) cids).core;
-        }
-        assert (cids instanceof Core);
-        Core co = (Core) cids;
-        while(cores[co.num].num != co.num) {
-          co = cores[co.num = cores[co.num].num];
-        }
-        ModifiableDBIDs clu = clusters[co.num];
-        if(clu == null) {
-          clu = clusters[co.num] = DBIDUtil.newArray();
+        // Roots store -3 - cluster number in state, once numbered.
+        final int root = parent.get(off);
+        int c = state.get(root);
+        if(c == CORE) {
+          state.set(root, c = CORE - 1 - clusters.size());
+          clusters.add(DBIDUtil.newArray());
         }
-        clu.add(it);
+        clusters.get(CORE - 1 - c).add(it);
         LOG.incrementProcessed(pprog);
       }
       LOG.ensureCompleted(pprog);
-      clusterids.destroy();
+      if(offsets != null) {
+        offsets.destroy();
+      }
 
       // Wrap into final format
       Clustering<Model> result = new Clustering<>("DBSCAN Clustering", "dbscan-clustering");
-      for(int i = 0; i < clusters.length; i++) {
-        if(clusters[i] != null) {
-          result.addToplevelCluster(new Cluster<Model>(clusters[i], ClusterModel.CLUSTER));
-        }
+      for(ModifiableDBIDs clu : clusters) {
+        result.addToplevelCluster(new Cluster<Model>(clu, ClusterModel.CLUSTER));
       }
       if(noise.size() > 0) {
         result.addToplevelCluster(new Cluster<Model>(noise, true, ClusterModel.CLUSTER));
@@ -300,64 +308,89 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
     }
 
     /**
-     * Synchronize function to process the neighbors.
+     * Get the array offset of an object.
+     *
+     * @param id Object
+     * @return Offset
+     */
+    private int offset(DBIDRef id) {
+      return offsets == null ? ((DBIDRange) ids).getOffset(id) : offsets.intValue(id);
+    }
+
+    /**
+     * Process the neighbors of a point, without locking.
      *
      * @param id Current point
      * @param neighbors Neighbors
      */
     protected void processNeighbors(DBIDRef id, T neighbors) {
       if(!corepred.isCorePoint(id, neighbors)) {
-        LOG.incrementProcessed(progress);
         return;
       }
-      Core core = null;
-      // Find a possible cluster assignment
+      final int off = offset(id);
+      // Publish before reading the neighbors, so that of two neighboring core
+      // points processed concurrently at least one sees the other.
+      state.set(off, CORE);
       for(DBIDIter it = npred.iterDBIDs(neighbors); it.valid(); it.advance()) {
-        Assignment cand = clusterids.get(it);
-        if(cand instanceof Core) { // Another core point
-          core = (Core) cand;
-          break;
+        final int o = offset(it);
+        if(o == off) {
+          continue;
         }
-      }
-      synchronized(this) {
-        // Make a new cluster
-        if(core == null) {
-          // Grow arrays when necessary:
-          if(nextclus == cores.length) {
-            cores = Arrays.copyOf(cores, cores.length + (cores.length >> 1));
-            borders = Arrays.copyOf(borders, cores.length);
+        int s = state.get(o);
+        while(s == NOISE) { // Claim as border point
+          if(state.compareAndSet(o, NOISE, off)) {
+            break;
           }
-          core = cores[nextclus] = new Core(nextclus);
-          borders[nextclus] = new Border(core);
-          ++nextclus;
+          s = state.get(o);
         }
-        Border border = borders[core.num];
-        clusterids.put(id, core);
-        // Label neighbors, execute merges.
-        for(DBIDIter it = npred.iterDBIDs(neighbors); it.valid(); it.advance()) {
-          Assignment oclus = clusterids.get(it);
-          if(oclus == core) {
-            continue;
-          }
-          if(oclus == null) { // Neighbor is still noise:
-            clusterids.put(it, border);
-          }
-          else if(oclus instanceof Core) { // Core and core - merge!
-            core.mergeWith((Core) oclus);
-          }
-          else if(oclus instanceof Border) { // Border point -> MultiBorder
-            Border oborder = (Border) oclus;
-            if(border.core.num != oborder.core.num) {
-              clusterids.put(it, new MultiBorder(border, oborder));
-            }
-          }
-          else { // Point is already border for multiple clusters
-            assert (oclus instanceof MultiBorder);
-            clusterids.put(it, ((MultiBorder) oclus).update(border));
-          }
+        if(s == CORE) { // Core and core - merge!
+          union(off, o);
+        }
+      }
+    }
+
+    /**
+     * Find the root of a core point, with path halving.
+     *
+     * @param x Offset of a core point
+     * @return Offset of the root
+     */
+    private int find(int x) {
+      int p = parent.get(x);
+      while(p != x) {
+        final int gp = parent.get(p);
+        if(gp != p) {
+          parent.compareAndSet(x, p, gp); // May fail, which is harmless.
+        }
+        x = gp;
+        p = parent.get(x);
+      }
+      return x;
+    }
+
+    /**
+     * Merge the trees of two core points.
+     *
+     * @param a Offset of the first core point
+     * @param b Offset of the second core point
+     */
+    private void union(int a, int b) {
+      while(true) {
+        a = find(a);
+        b = find(b);
+        if(a == b) {
+          return;
+        }
+        // Always link the larger root below the smaller, to avoid cycles.
+        if(a < b) {
+          final int t = a;
+          a = b;
+          b = t;
+        }
+        if(parent.compareAndSet(a, a, b)) {
+          return;
         }
       }
-      LOG.incrementProcessed(progress);
     }
 
     @Override
@@ -396,6 +429,35 @@ public class ParallelGeneralizedDBSCAN extends AbstractAlgorithm<Clustering<Mode
         processNeighbors(id, predicate.getNeighbors(id));
       }
     }
+
+    /**
+     * Point core and border points directly to the root of their cluster.
+     *
+     * @author Erich Schubert
+     */
+    private class Resolver implements Processor, Processor.Instance {
+      @Override
+      public Resolver instantiate(Executor executor) {
+        return this; // Stateless
+      }
+
+      @Override
+      public void cleanup(Processor.Instance inst) {
+        // Nothing to do.
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        final int off = offset(id);
+        final int s = state.get(off);
+        if(s == CORE) {
+          parent.set(off, find(off));
+        }
+        else if(s >= 0) { // Border point: no other point links to it.
+          parent.set(off, find(s));
+        }
+      }
+    }
   }
 
   /**
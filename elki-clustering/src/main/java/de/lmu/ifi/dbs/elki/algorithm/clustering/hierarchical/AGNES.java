@@ -38,6 +38,8 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanD
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.ChunkedTriangularStorageFactory;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.TriangularStorage;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
@@ -117,6 +119,11 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
    */
   Linkage linkage = WardLinkage.STATIC;
 
+  /**
+   * Storage for the distance matrix.
+   */
+  TriangularStorage.Factory storage;
+
   /**
    * Constructor.
    *
@@ -124,8 +131,20 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
    * @param linkage Linkage method
    */
   public AGNES(DistanceFunction<? super O> distanceFunction, Linkage linkage) {
+    this(distanceFunction, linkage, ChunkedTriangularStorageFactory.STATIC);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function to use
+   * @param linkage Linkage method
+   * @param storage Storage for the distance matrix
+   */
+  public AGNES(DistanceFunction<? super O> distanceFunction, Linkage linkage, TriangularStorage.Factory storage) {
     super(distanceFunction);
     this.linkage = linkage;
+    this.storage = storage;
   }
 
   /**
@@ -143,23 +162,28 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
     final int size = ids.size();
     DistanceQuery<O> dq = db.getDistanceQuery(relation, getDistanceFunction());
 
-    // Compute the initial (lower triangular) distance matrix.
-    MatrixParadigm mat = new MatrixParadigm(ids);
-    initializeDistanceMatrix(mat, dq, linkage);
-
     // Initialize space for result:
     PointerHierarchyRepresentationBuilder builder = new PointerHierarchyRepresentationBuilder(ids, dq.getDistanceFunction().isSquared());
 
-    // Repeat until everything merged into 1 cluster
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Agglomerative clustering", size - 1, LOG) : null;
-    // Use end to shrink the matrix virtually as the tailing objects disappear
-    DBIDArrayIter ix = mat.ix;
-    for(int i = 1, end = size; i < size; i++) {
-      end = shrinkActiveSet(ix, builder, end, //
-          findMerge(end, mat, builder));
-      LOG.incrementProcessed(prog);
+    // Compute the initial (lower triangular) distance matrix.
+    MatrixParadigm mat = new MatrixParadigm(ids, storage);
+    try {
+      initializeDistanceMatrix(mat, dq, linkage);
+
+      // Repeat until everything merged into 1 cluster
+      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Agglomerative clustering", size - 1, LOG) : null;
+      // Use end to shrink the matrix virtually as the tailing objects disappear
+      DBIDArrayIter ix = mat.ix;
+      for(int i = 1, end = size; i < size; i++) {
+        end = shrinkActiveSet(ix, builder, end, //
+            findMerge(end, mat, builder));
+        LOG.incrementProcessed(prog);
+      }
+      LOG.ensureCompleted(prog);
+    }
+    finally {
+      mat.close();
     }
-    LOG.ensureCompleted(prog);
 
     return builder.complete();
   }
@@ -191,26 +215,7 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
    * @param linkage Linkage method
    */
   protected static void initializeDistanceMatrix(MatrixParadigm mat, DistanceQuery<?> dq, Linkage linkage) {
-    final DBIDArrayIter ix = mat.ix, iy = mat.iy;
-    final double[] matrix = mat.matrix;
-    final boolean issquare = dq.getDistanceFunction().isSquared();
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Distance matrix computation", matrix.length, LOG) : null;
-    int pos = 0;
-    for(ix.seek(0); ix.valid(); ix.advance()) {
-      final int x = ix.getOffset();
-      assert (pos == MatrixParadigm.triangleSize(x));
-      for(iy.seek(0); iy.getOffset() < x; iy.advance()) {
-        matrix[pos++] = linkage.initial(dq.distance(ix, iy), issquare);
-      }
-      if(prog != null) {
-        prog.setProcessed(pos, LOG);
-      }
-    }
-    // Avoid logging errors in case scratch space was too large:
-    if(prog != null) {
-      prog.setProcessed(matrix.length, LOG);
-    }
-    LOG.ensureCompleted(prog);
+    mat.initializeWithDistances(dq, linkage, LOG);
   }
 
   /**
@@ -224,11 +229,12 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
   protected int findMerge(int end, MatrixParadigm mat, PointerHierarchyRepresentationBuilder builder) {
     assert (end > 0);
     final DBIDArrayIter ix = mat.ix, iy = mat.iy;
-    final double[] matrix = mat.matrix;
+    final TriangularStorage matrix = mat.matrix;
     double mindist = Double.POSITIVE_INFINITY;
     int x = -1, y = -1;
     // Find minimum:
-    for(int ox = 0, xbase = 0; ox < end; xbase += ox++) {
+    long xbase = 0;
+    for(int ox = 0; ox < end; xbase += ox++) {
       // Skip if object has already joined a cluster:
       if(builder.isLinked(ix.seek(ox))) {
         continue;
@@ -239,7 +245,7 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
         if(builder.isLinked(iy.seek(oy))) {
           continue;
         }
-        final double dist = matrix[xbase + oy];
+        final double dist = matrix.get(xbase + oy);
         if(dist <= mindist) { // Prefer later on ==, to truncate more often.
           mindist = dist;
           x = ox;
@@ -293,9 +299,9 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
    */
   protected void updateMatrix(int end, MatrixParadigm mat, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y, final int sizex, final int sizey) {
     // Update distance matrix. Note: y < x
-    final int xbase = MatrixParadigm.triangleSize(x);
-    final int ybase = MatrixParadigm.triangleSize(y);
-    double[] scratch = mat.matrix;
+    final long xbase = MatrixParadigm.triangleSize(x);
+    final long ybase = MatrixParadigm.triangleSize(y);
+    final TriangularStorage scratch = mat.matrix;
     DBIDArrayIter ij = mat.ix;
 
     // Write to (y, j), with j < y
@@ -305,18 +311,18 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
         continue;
       }
       assert (j < y); // Otherwise, ybase + j is the wrong position!
-      final int yb = ybase + j;
-      scratch[yb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[yb], builder.getSize(ij), mindist);
+      final long yb = ybase + j;
+      scratch.set(yb, linkage.combine(sizex, scratch.get(xbase + j), sizey, scratch.get(yb), builder.getSize(ij), mindist));
     }
     j++; // Skip y
     // Write to (j, y), with y < j < x
-    int jbase = MatrixParadigm.triangleSize(j);
+    long jbase = MatrixParadigm.triangleSize(j);
     for(; j < x; jbase += j++) {
       if(builder.isLinked(ij.seek(j))) {
         continue;
       }
-      final int jb = jbase + y;
-      scratch[jb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[jb], builder.getSize(ij), mindist);
+      final long jb = jbase + y;
+      scratch.set(jb, linkage.combine(sizex, scratch.get(xbase + j), sizey, scratch.get(jb), builder.getSize(ij), mindist));
     }
     jbase += j++; // Skip x
     // Write to (j, y), with y < x < j
@@ -324,8 +330,8 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
       if(builder.isLinked(ij.seek(j))) {
         continue;
       }
-      final int jb = jbase + y;
-      scratch[jb] = linkage.combine(sizex, scratch[jbase + x], sizey, scratch[jb], builder.getSize(ij), mindist);
+      final long jb = jbase + y;
+      scratch.set(jb, linkage.combine(sizex, scratch.get(jbase + x), sizey, scratch.get(jb), builder.getSize(ij), mindist));
     }
   }
 
@@ -355,11 +361,21 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
      */
     public static final OptionID LINKAGE_ID = new OptionID("hierarchical.linkage", "Linkage method to use (e.g. Ward, Single-Link)");
 
+    /**
+     * Option ID for the distance matrix storage.
+     */
+    public static final OptionID STORAGE_ID = new OptionID("hierarchical.matrix", "Storage for the distance matrix (on-heap, off-heap, or memory-mapped).");
+
     /**
      * Current linkage in use.
      */
     protected Linkage linkage;
 
+    /**
+     * Storage for the distance matrix.
+     */
+    protected TriangularStorage.Factory storage;
+
     @Override
     protected void makeOptions(Parameterization config) {
       // We don't call super, because we want a different default distance.
@@ -373,11 +389,24 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
       if(config.grab(linkageP)) {
         linkage = linkageP.instantiateClass(config);
       }
+
+      storage = makeStorageParameter(config);
+    }
+
+    /**
+     * Get the matrix storage parameter.
+     *
+     * @param config Parameterization
+     * @return Storage factory
+     */
+    protected static TriangularStorage.Factory makeStorageParameter(Parameterization config) {
+      ObjectParameter<TriangularStorage.Factory> storageP = new ObjectParameter<>(STORAGE_ID, TriangularStorage.Factory.class, ChunkedTriangularStorageFactory.class);
+      return config.grab(storageP) ? storageP.instantiateClass(config) : null;
     }
 
     @Override
     protected AGNES<O> makeInstance() {
-      return new AGNES<>(distanceFunction, linkage);
+      return new AGNES<>(distanceFunction, linkage, storage);
     }
   }
 }
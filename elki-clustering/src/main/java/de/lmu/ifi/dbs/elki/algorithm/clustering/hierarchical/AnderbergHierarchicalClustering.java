@@ -40,6 +40,8 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanD
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.ChunkedTriangularStorageFactory;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.TriangularStorage;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
@@ -88,6 +90,11 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
    */
   Linkage linkage = WardLinkage.STATIC;
 
+  /**
+   * Storage for the distance matrix.
+   */
+  TriangularStorage.Factory storage;
+
   /**
    * Constructor.
    *
@@ -95,8 +102,20 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
    * @param linkage Linkage method
    */
   public AnderbergHierarchicalClustering(DistanceFunction<? super O> distanceFunction, Linkage linkage) {
+    this(distanceFunction, linkage, ChunkedTriangularStorageFactory.STATIC);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function to use
+   * @param linkage Linkage method
+   * @param storage Storage for the distance matrix
+   */
+  public AnderbergHierarchicalClustering(DistanceFunction<? super O> distanceFunction, Linkage linkage, TriangularStorage.Factory storage) {
     super(distanceFunction);
     this.linkage = linkage;
+    this.storage = storage;
   }
 
   /**
@@ -112,29 +131,34 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
     }
     DistanceQuery<O> dq = db.getDistanceQuery(relation, getDistanceFunction());
     final DBIDs ids = relation.getDBIDs();
-    MatrixParadigm mat = new MatrixParadigm(ids);
     final int size = ids.size();
 
-    // Position counter - must agree with computeOffset!
-    AGNES.initializeDistanceMatrix(mat, dq, linkage);
-
-    // Arrays used for caching:
-    double[] bestd = new double[size];
-    int[] besti = new int[size];
-    initializeNNCache(mat.matrix, bestd, besti);
-
     // Initialize space for result:
     PointerHierarchyRepresentationBuilder builder = new PointerHierarchyRepresentationBuilder(ids, dq.getDistanceFunction().isSquared());
 
-    // Repeat until everything merged into 1 cluster
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Agglomerative clustering", size - 1, LOG) : null;
-    DBIDArrayIter ix = mat.ix;
-    for(int i = 1, end = size; i < size; i++) {
-      end = AGNES.shrinkActiveSet(ix, builder, end, //
-          findMerge(end, mat, bestd, besti, builder));
-      LOG.incrementProcessed(prog);
+    MatrixParadigm mat = new MatrixParadigm(ids, storage);
+    try {
+      // Position counter - must agree with computeOffset!
+      AGNES.initializeDistanceMatrix(mat, dq, linkage);
+
+      // Arrays used for caching:
+      double[] bestd = new double[size];
+      int[] besti = new int[size];
+      initializeNNCache(mat.matrix, bestd, besti);
+
+      // Repeat until everything merged into 1 cluster
+      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Agglomerative clustering", size - 1, LOG) : null;
+      DBIDArrayIter ix = mat.ix;
+      for(int i = 1, end = size; i < size; i++) {
+        end = AGNES.shrinkActiveSet(ix, builder, end, //
+            findMerge(end, mat, bestd, besti, builder));
+        LOG.incrementProcessed(prog);
+      }
+      LOG.ensureCompleted(prog);
+    }
+    finally {
+      mat.close();
     }
-    LOG.ensureCompleted(prog);
 
     return builder.complete();
   }
@@ -146,16 +170,17 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
    * @param bestd Best distance
    * @param besti Best index
    */
-  private static void initializeNNCache(double[] scratch, double[] bestd, int[] besti) {
+  private static void initializeNNCache(TriangularStorage scratch, double[] bestd, int[] besti) {
     final int size = bestd.length;
     Arrays.fill(bestd, Double.POSITIVE_INFINITY);
     Arrays.fill(besti, -1);
-    for(int x = 0, p = 0; x < size; x++) {
+    long p = 0;
+    for(int x = 0; x < size; x++) {
       assert (p == MatrixParadigm.triangleSize(x));
       double bestdx = Double.POSITIVE_INFINITY;
       int bestix = -1;
       for(int y = 0; y < x; y++, p++) {
-        final double v = scratch[p];
+        final double v = scratch.get(p);
         if(v < bestd[y]) {
           bestd[y] = v;
           besti[y] = x;
@@ -256,10 +281,10 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
    * @param sizex Old size of first cluster
    * @param sizey Old size of second cluster
    */
-  protected void updateMatrix(int size, double[] scratch, DBIDArrayIter ij, double[] bestd, int[] besti, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y, final int sizex, final int sizey) {
+  protected void updateMatrix(int size, TriangularStorage scratch, DBIDArrayIter ij, double[] bestd, int[] besti, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y, final int sizex, final int sizey) {
     // Update distance matrix. Note: miny < minx
-    final int xbase = MatrixParadigm.triangleSize(x);
-    final int ybase = MatrixParadigm.triangleSize(y);
+    final long xbase = MatrixParadigm.triangleSize(x);
+    final long ybase = MatrixParadigm.triangleSize(y);
 
     // Write to (y, j), with j < y
     int j = 0;
@@ -268,20 +293,22 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
         continue;
       }
       final int sizej = builder.getSize(ij);
-      final int yb = ybase + j;
-      final double d = scratch[yb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[yb], sizej, mindist);
+      final long yb = ybase + j;
+      final double d = linkage.combine(sizex, scratch.get(xbase + j), sizey, scratch.get(yb), sizej, mindist);
+      scratch.set(yb, d);
       updateCache(size, scratch, bestd, besti, x, y, j, d);
     }
     j++; // Skip y
     // Write to (j, y), with y < j < x
-    int jbase = MatrixParadigm.triangleSize(j);
+    long jbase = MatrixParadigm.triangleSize(j);
     for(; j < x; jbase += j++) {
       if(builder.isLinked(ij.seek(j))) {
         continue;
       }
       final int sizej = builder.getSize(ij);
-      final int jb = jbase + y;
-      final double d = scratch[jb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[jb], sizej, mindist);
+      final long jb = jbase + y;
+      final double d = linkage.combine(sizex, scratch.get(xbase + j), sizey, scratch.get(jb), sizej, mindist);
+      scratch.set(jb, d);
       updateCache(size, scratch, bestd, besti, x, y, j, d);
     }
     jbase += j++; // Skip x
@@ -291,8 +318,9 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
         continue;
       }
       final int sizej = builder.getSize(ij);
-      final int jb = jbase + y;
-      final double d = scratch[jb] = linkage.combine(sizex, scratch[jbase + x], sizey, scratch[jb], sizej, mindist);
+      final long jb = jbase + y;
+      final double d = linkage.combine(sizex, scratch.get(jbase + x), sizey, scratch.get(jb), sizej, mindist);
+      scratch.set(jb, d);
       updateCache(size, scratch, bestd, besti, x, y, j, d);
     }
   }
@@ -309,7 +337,7 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
    * @param j Updated value d(y, j)
    * @param d New distance
    */
-  private void updateCache(int size, double[] scratch, double[] bestd, int[] besti, int x, int y, int j, double d) {
+  private void updateCache(int size, TriangularStorage scratch, double[] bestd, int[] besti, int x, int y, int j, double d) {
     // New best
     if(d <= bestd[j]) {
       bestd[j] = d;
@@ -322,27 +350,29 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
     }
   }
 
-  protected void findBest(int size, double[] scratch, double[] bestd, int[] besti, int j) {
-    final int jbase = MatrixParadigm.triangleSize(j);
+  protected void findBest(int size, TriangularStorage scratch, double[] bestd, int[] besti, int j) {
+    final long jbase = MatrixParadigm.triangleSize(j);
     // The distance has increased, we may no longer be the best merge.
     double bestdj = Double.POSITIVE_INFINITY;
     int bestij = -1;
-    for(int i = 0, o = jbase; i < j; i++, o++) {
+    long o = jbase;
+    for(int i = 0; i < j; i++, o++) {
       if(besti[i] < 0) {
         continue;
       }
-      final double dist = scratch[o];
+      final double dist = scratch.get(o);
       if(dist <= bestdj) {
         bestdj = dist;
         bestij = i;
       }
     }
-    for(int i = j + 1, o = jbase + j + j; i < size; o += i, i++) {
+    o = jbase + j + j;
+    for(int i = j + 1; i < size; o += i, i++) {
       // assert(o == MatrixParadigm.triangleSize(i) + j);
       if(besti[i] < 0) {
         continue;
       }
-      final double dist = scratch[o];
+      final double dist = scratch.get(o);
       if(dist <= bestdj) {
         bestdj = dist;
         bestij = i;
@@ -378,6 +408,11 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
      */
     protected Linkage linkage;
 
+    /**
+     * Storage for the distance matrix.
+     */
+    protected TriangularStorage.Factory storage;
+
     @Override
     protected void makeOptions(Parameterization config) {
       // We don't call super, because we want a different default distance.
@@ -391,11 +426,13 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
       if(config.grab(linkageP)) {
         linkage = linkageP.instantiateClass(config);
       }
+
+      storage = AGNES.Parameterizer.makeStorageParameter(config);
     }
 
     @Override
     protected AnderbergHierarchicalClustering<O> makeInstance() {
-      return new AnderbergHierarchicalClustering<>(distanceFunction, linkage);
+      return new AnderbergHierarchicalClustering<>(distanceFunction, linkage, storage);
     }
   }
 }
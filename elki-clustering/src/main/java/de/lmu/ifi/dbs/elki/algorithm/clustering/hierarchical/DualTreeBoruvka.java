@@ -0,0 +1,607 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.lmu.ifi.dbs.elki.data.ModifiableHyperBoundingBox;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.DoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.SpatialPrimitiveDistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.math.geometry.PrimsMinimumSpanningTree;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.QuickSelect;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+
+/**
+ * Dual-tree Borůvka algorithm for computing the minimum spanning tree of the
+ * HDBSCAN mutual reachability graph (or, without core distances, of the
+ * single-linkage graph) of vector data.
+ * <p>
+ * A k-d-tree is built over the data. In every Borůvka round, the nearest
+ * outgoing edge of each component is found with a dual-tree search, where
+ * pairs of nodes are pruned using the minimum distance of their bounding
+ * boxes, the minimum core distances, the component labels of the nodes, and
+ * the best edge found so far for each component. The cheapest outgoing edge
+ * of every component is then added to the spanning tree, until only one
+ * component remains. Query subtrees only modify the candidates of their own
+ * points, and are processed in parallel; the per-component bounds are shared.
+ * <p>
+ * Edges that would close a cycle are skipped, hence ties (which are very
+ * common with mutual reachability distances) can be resolved arbitrarily, and
+ * only edges strictly better than the current bound need to be considered.
+ * <p>
+ * Reference:
+ * <p>
+ * W. B. March, P. Ram, A. G. Gray<br>
+ * Fast Euclidean minimum spanning tree: algorithm, analysis, and
+ * applications<br>
+ * Proc. 16th ACM SIGKDD Int. Conf. Knowledge Discovery and Data Mining
+ * <p>
+ * L. McInnes, J. Healy<br>
+ * Accelerated Hierarchical Density Based Clustering<br>
+ * IEEE Int. Conf. Data Mining Workshops (ICDMW)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <V> Vector type
+ */
+@Reference(authors = "W. B. March, P. Ram, A. G. Gray", //
+    title = "Fast Euclidean minimum spanning tree: algorithm, analysis, and applications", //
+    booktitle = "Proc. 16th ACM SIGKDD Int. Conf. Knowledge Discovery and Data Mining", //
+    url = "https://doi.org/10.1145/1835804.1835882", //
+    bibkey = "DBLP:conf/kdd/MarchRG10")
+@Reference(authors = "L. McInnes, J. Healy", //
+    title = "Accelerated Hierarchical Density Based Clustering", //
+    booktitle = "IEEE Int. Conf. Data Mining Workshops (ICDMW)", //
+    url = "https://doi.org/10.1109/ICDMW.2017.12", //
+    bibkey = "DBLP:conf/icdm/McInnesH17")
+public class DualTreeBoruvka<V extends NumberVector> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(DualTreeBoruvka.class);
+
+  /**
+   * Maximum number of points in a leaf.
+   */
+  private static final int LEAFSIZE = 32;
+
+  /**
+   * Minimum size of a query subtree to process as separate tasks.
+   */
+  private static final int TASKSIZE = 1024;
+
+  /**
+   * Bits of positive infinity.
+   */
+  private static final long INFINITY_BITS = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+
+  /**
+   * Distance function.
+   */
+  private SpatialPrimitiveDistanceFunction<? super V> distance;
+
+  /**
+   * Vectors, in tree order.
+   */
+  private V[] vecs;
+
+  /**
+   * Offsets in the original ids, in tree order.
+   */
+  private int[] idx;
+
+  /**
+   * Core distances, in tree order.
+   */
+  private double[] core;
+
+  /**
+   * Union-find structure of the components.
+   */
+  private int[] parent;
+
+  /**
+   * Component of each point in the current round.
+   */
+  private int[] comp;
+
+  /**
+   * Best candidate in a different component for each point.
+   */
+  private int[] bestTo;
+
+  /**
+   * Distance to the best candidate of each point.
+   */
+  private double[] bestD;
+
+  /**
+   * Upper bound of the cheapest outgoing edge of each component, as raw long
+   * bits of the double value, shared by all threads.
+   */
+  private AtomicLongArray cbound;
+
+  /**
+   * Root of the tree.
+   */
+  private Node root;
+
+  /**
+   * Number of distance computations.
+   */
+  private final AtomicLong distcalc = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param ids Object ids, in the order used for the output edges
+   * @param distance Distance function
+   * @param coredists Core distances, may be {@code null} for single-linkage
+   */
+  @SuppressWarnings("unchecked")
+  public DualTreeBoruvka(Relation<? extends V> relation, ArrayDBIDs ids, SpatialPrimitiveDistanceFunction<? super V> distance, DoubleDataStore coredists) {
+    final int size = ids.size();
+    this.distance = distance;
+    this.vecs = (V[]) new NumberVector[size];
+    this.idx = new int[size];
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      vecs[it.getOffset()] = relation.get(it);
+      idx[it.getOffset()] = it.getOffset();
+    }
+    this.root = size > 0 ? build(0, size) : null;
+    this.core = new double[size];
+    if(coredists != null) {
+      DBIDArrayIter it = ids.iter();
+      for(int i = 0; i < size; i++) {
+        core[i] = coredists.doubleValue(it.seek(idx[i]));
+      }
+    }
+    if(root != null) {
+      initCore(root);
+    }
+  }
+
+  /**
+   * Test whether the dual-tree algorithm can be used.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @return {@code true} for vector data and spatial distance functions
+   */
+  public static boolean isApplicable(Relation<?> relation, DistanceFunction<?> distance) {
+    return distance instanceof SpatialPrimitiveDistanceFunction //
+        && TypeUtil.NUMBER_VECTOR_FIELD.isAssignableFromType(relation.getDataTypeInformation());
+  }
+
+  /**
+   * Compute the minimum spanning tree.
+   *
+   * @param collector Edge collector, receiving offsets of the ids
+   */
+  public void run(PrimsMinimumSpanningTree.Collector collector) {
+    final int size = idx.length;
+    parent = new int[size];
+    comp = new int[size];
+    bestTo = new int[size];
+    bestD = new double[size];
+    cbound = new AtomicLongArray(size);
+    for(int i = 0; i < size; i++) {
+      parent[i] = i;
+    }
+    Arrays.fill(bestTo, -1);
+    Arrays.fill(bestD, Double.POSITIVE_INFINITY);
+    final int[] cfrom = new int[size];
+    final double[] cdist = new double[size];
+    int edges = 0, rounds = 0;
+    while(edges < size - 1) {
+      ++rounds;
+      for(int i = 0; i < size; i++) {
+        comp[i] = find(i);
+      }
+      // Candidates to the same component are obsolete, all others remain
+      // valid upper bounds for their component.
+      for(int i = 0; i < size; i++) {
+        cbound.set(i, INFINITY_BITS);
+      }
+      for(int i = 0; i < size; i++) {
+        if(bestTo[i] >= 0 && comp[bestTo[i]] == comp[i]) {
+          bestTo[i] = -1;
+          bestD[i] = Double.POSITIVE_INFINITY;
+        }
+        else if(bestD[i] < getBound(comp[i])) {
+          cbound.set(comp[i], Double.doubleToLongBits(bestD[i]));
+        }
+      }
+      initRound(root);
+      ParallelCore.getCore().invoke(new QueryTask(root));
+      // Cheapest outgoing edge of each component:
+      Arrays.fill(cfrom, -1);
+      Arrays.fill(cdist, Double.POSITIVE_INFINITY);
+      for(int i = 0; i < size; i++) {
+        final int c = comp[i];
+        if(bestTo[i] >= 0 && bestD[i] <= cdist[c]) {
+          cdist[c] = bestD[i];
+          cfrom[c] = i;
+        }
+      }
+      int added = 0;
+      for(int c = 0; c < size; c++) {
+        final int i = cfrom[c];
+        if(i < 0) {
+          continue;
+        }
+        final int ri = find(i), rj = find(bestTo[i]);
+        if(ri != rj) { // Skip edges closing a cycle
+          parent[ri] = rj;
+          collector.addEdge(cdist[c], idx[i], idx[bestTo[i]]);
+          ++added;
+        }
+      }
+      if(added == 0) {
+        LOG.warning("Minimum spanning tree is incomplete, distances must be finite.");
+        break;
+      }
+      edges += added;
+      if(LOG.isDebuggingFine()) {
+        LOG.debugFine("Borůvka round " + rounds + ": " + (size - edges) + " components remaining.");
+      }
+    }
+    LOG.statistics(new LongStatistic(DualTreeBoruvka.class.getName() + ".rounds", rounds));
+    LOG.statistics(new LongStatistic(DualTreeBoruvka.class.getName() + ".distance-computations", distcalc.get()));
+  }
+
+  /**
+   * Get the bound of a component.
+   *
+   * @param c Component
+   * @return Upper bound of the cheapest outgoing edge
+   */
+  private double getBound(int c) {
+    return Double.longBitsToDouble(cbound.get(c));
+  }
+
+  /**
+   * Lower the bound of a component.
+   *
+   * @param c Component
+   * @param d New bound
+   */
+  private void decreaseBound(int c, double d) {
+    final long bits = Double.doubleToLongBits(d);
+    while(true) {
+      final long cur = cbound.get(c);
+      if(!(d < Double.longBitsToDouble(cur)) || cbound.compareAndSet(c, cur, bits)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Find the component of a point, with path halving.
+   *
+   * @param i Point
+   * @return Component representative
+   */
+  private int find(int i) {
+    while(parent[i] != i) {
+      i = parent[i] = parent[parent[i]];
+    }
+    return i;
+  }
+
+  /**
+   * Build the k-d-tree, splitting at the median of the widest dimension.
+   *
+   * @param begin Begin of the subtree
+   * @param end End of the subtree (exclusive)
+   * @return Node
+   */
+  private Node build(int begin, int end) {
+    ModifiableHyperBoundingBox box = new ModifiableHyperBoundingBox(vecs[begin]);
+    for(int i = begin + 1; i < end; i++) {
+      box.extend(vecs[i]);
+    }
+    Node node = new Node(begin, end, box);
+    if(end - begin <= LEAFSIZE) {
+      return node;
+    }
+    int dim = 0;
+    double width = -1;
+    for(int d = 0, dims = box.getDimensionality(); d < dims; d++) {
+      final double w = box.getMax(d) - box.getMin(d);
+      if(w > width) {
+        width = w;
+        dim = d;
+      }
+    }
+    if(!(width > 0)) {
+      return node; // All duplicates
+    }
+    final int middle = (begin + end) >>> 1;
+    QuickSelect.quickSelect(this, new SplitAdapter(dim), begin, end, middle);
+    node.left = build(begin, middle);
+    node.right = build(middle, end);
+    return node;
+  }
+
+  /**
+   * Initialize the minimum core distances of the nodes.
+   *
+   * @param node Subtree
+   * @return Minimum core distance
+   */
+  private double initCore(Node node) {
+    if(node.left == null) {
+      double m = Double.POSITIVE_INFINITY;
+      for(int i = node.begin; i < node.end; i++) {
+        m = core[i] < m ? core[i] : m;
+      }
+      return node.minCore = m;
+    }
+    final double l = initCore(node.left), r = initCore(node.right);
+    return node.minCore = l < r ? l : r;
+  }
+
+  /**
+   * Initialize the component labels and bounds of the nodes for a round.
+   *
+   * @param node Subtree
+   */
+  private void initRound(Node node) {
+    if(node.left == null) {
+      int c = comp[node.begin];
+      double b = getBound(c);
+      for(int i = node.begin + 1; i < node.end; i++) {
+        final double bi = getBound(comp[i]);
+        c = comp[i] == c ? c : -1;
+        b = bi > b ? bi : b;
+      }
+      node.comp = c;
+      node.bound = b;
+      return;
+    }
+    initRound(node.left);
+    initRound(node.right);
+    node.comp = node.left.comp == node.right.comp ? node.left.comp : -1;
+    node.bound = Math.max(node.left.bound, node.right.bound);
+  }
+
+  /**
+   * Lower bound of the mutual reachability distances of two nodes.
+   *
+   * @param q Query node
+   * @param r Reference node
+   * @return Lower bound
+   */
+  private double lowerBound(Node q, Node r) {
+    return Math.max(distance.minDist(q.box, r.box), Math.max(q.minCore, r.minCore));
+  }
+
+  /**
+   * Dual-tree search for the nearest neighbors in other components.
+   *
+   * @param q Query node
+   * @param r Reference node
+   * @param lb Lower bound of the distances
+   * @return Number of distance computations
+   */
+  private long search(Node q, Node r, double lb) {
+    if((q.comp >= 0 && q.comp == r.comp) || lb >= q.bound) {
+      return 0;
+    }
+    if(q.left == null && r.left == null) {
+      return searchLeaves(q, r);
+    }
+    long dists = 0;
+    if(r.left == null || (q.left != null && q.end - q.begin >= r.end - r.begin)) {
+      dists += search(q.left, r, lowerBound(q.left, r));
+      dists += search(q.right, r, lowerBound(q.right, r));
+      q.bound = Math.max(q.left.bound, q.right.bound);
+      return dists;
+    }
+    final double ll = lowerBound(q, r.left), lr = lowerBound(q, r.right);
+    if(ll <= lr) {
+      dists += search(q, r.left, ll);
+      dists += search(q, r.right, lr);
+    }
+    else {
+      dists += search(q, r.right, lr);
+      dists += search(q, r.left, ll);
+    }
+    return dists;
+  }
+
+  /**
+   * Search a pair of leaves.
+   *
+   * @param q Query leaf
+   * @param r Reference leaf
+   * @return Number of distance computations
+   */
+  private long searchLeaves(Node q, Node r) {
+    long dists = 0;
+    double bound = 0;
+    for(int i = q.begin; i < q.end; i++) {
+      final int ci = comp[i];
+      final double corei = core[i];
+      double cb = getBound(ci);
+      final V vi = vecs[i];
+      if(ci != r.comp && Math.max(corei, r.minCore) < cb && distance.minDist(vi, r.box) < cb) {
+        for(int j = r.begin; j < r.end; j++) {
+          if(comp[j] == ci) {
+            continue;
+          }
+          final double lb = Math.max(corei, core[j]);
+          if(lb >= cb) {
+            continue;
+          }
+          final double d = Math.max(distance.distance(vi, vecs[j]), lb);
+          ++dists;
+          if(d < cb) {
+            bestD[i] = d;
+            bestTo[i] = j;
+            decreaseBound(ci, cb = d);
+          }
+        }
+        cb = getBound(ci);
+      }
+      bound = cb > bound ? cb : bound;
+    }
+    q.bound = bound;
+    return dists;
+  }
+
+  /**
+   * Node of the k-d-tree.
+   *
+   * @author Erich Schubert
+   */
+  private static class Node {
+    /**
+     * Range of the points.
+     */
+    int begin, end;
+
+    /**
+     * Bounding box.
+     */
+    ModifiableHyperBoundingBox box;
+
+    /**
+     * Child nodes, {@code null} for leaves.
+     */
+    Node left, right;
+
+    /**
+     * Minimum core distance.
+     */
+    double minCore;
+
+    /**
+     * Component of all points, or -1 if mixed.
+     */
+    int comp;
+
+    /**
+     * Maximum candidate distance of all points.
+     */
+    double bound;
+
+    /**
+     * Constructor.
+     *
+     * @param begin First point
+     * @param end End of points (exclusive)
+     * @param box Bounding box
+     */
+    Node(int begin, int end, ModifiableHyperBoundingBox box) {
+      this.begin = begin;
+      this.end = end;
+      this.box = box;
+    }
+  }
+
+  /**
+   * Adapter for partitioning the points along one dimension.
+   *
+   * @author Erich Schubert
+   */
+  private class SplitAdapter implements QuickSelect.Adapter<DualTreeBoruvka<V>> {
+    /**
+     * Splitting dimension.
+     */
+    private int dim;
+
+    /**
+     * Constructor.
+     *
+     * @param dim Splitting dimension
+     */
+    SplitAdapter(int dim) {
+      this.dim = dim;
+    }
+
+    @Override
+    public void swap(DualTreeBoruvka<V> data, int i, int j) {
+      final V v = vecs[i];
+      vecs[i] = vecs[j];
+      vecs[j] = v;
+      final int t = idx[i];
+      idx[i] = idx[j];
+      idx[j] = t;
+    }
+
+    @Override
+    public boolean compareGreater(DualTreeBoruvka<V> data, int i, int j) {
+      return vecs[i].doubleValue(dim) > vecs[j].doubleValue(dim);
+    }
+  }
+
+  /**
+   * Task to search the nearest neighbors of a query subtree.
+   *
+   * @author Erich Schubert
+   */
+  private class QueryTask extends RecursiveAction {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Query subtree.
+     */
+    private Node q;
+
+    /**
+     * Constructor.
+     *
+     * @param q Query subtree
+     */
+    QueryTask(Node q) {
+      this.q = q;
+    }
+
+    @Override
+    protected void compute() {
+      if(q.left != null && q.end - q.begin > TASKSIZE) {
+        invokeAll(new QueryTask(q.left), new QueryTask(q.right));
+        q.bound = Math.max(q.left.bound, q.right.bound);
+        return;
+      }
+      distcalc.addAndGet(search(q, root, lowerBound(q, root)));
+    }
+  }
+}
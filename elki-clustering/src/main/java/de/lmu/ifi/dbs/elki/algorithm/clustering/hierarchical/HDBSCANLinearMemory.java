@@ -20,6 +20,7 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
 
+import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.Database;
@@ -33,6 +34,7 @@ import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.SpatialPrimitiveDistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.math.geometry.PrimsMinimumSpanningTree;
@@ -57,6 +59,10 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
  * clusterings (the compact pointer representation introduced in {@link SLINK})
  * we have to perform a postprocessing conversion.
  * <p>
+ * For vector data and spatial distance functions, the spanning tree is
+ * computed with the {@link DualTreeBoruvka} algorithm, which avoids computing
+ * all pairwise distances.
+ * <p>
  * This implementation does <em>not</em> include the cluster extraction
  * discussed as Step 4, which is provided in a separate step. For this reason,
  * we also do <em>not include self-edges</em>.
@@ -71,6 +77,7 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
  * @since 0.7.0
  *
  * @has - - - PointerDensityHierarchyRepresentationResult
+ * @composed - - - DualTreeBoruvka
  *
  * @param <O> Object type
  */
@@ -118,9 +125,17 @@ public class HDBSCANLinearMemory<O> extends AbstractHDBSCAN<O, PointerDensityHie
     DoubleLongHeap heap = new DoubleLongMinHeap(numedges);
     // 2. Build spanning tree.
     FiniteProgress mprog = LOG.isVerbose() ? new FiniteProgress("Computing minimum spanning tree (n-1 edges)", numedges, LOG) : null;
-    PrimsMinimumSpanningTree.processDense(ids, //
-        new HDBSCANAdapter(ids, coredists, distQ), //
-        new HeapMSTCollector(heap, mprog, LOG));
+    HeapMSTCollector collector = new HeapMSTCollector(heap, mprog, LOG);
+    if(DualTreeBoruvka.isApplicable(relation, getDistanceFunction())) {
+      @SuppressWarnings("unchecked")
+      Relation<NumberVector> vrel = (Relation<NumberVector>) relation;
+      @SuppressWarnings("unchecked")
+      SpatialPrimitiveDistanceFunction<NumberVector> df = (SpatialPrimitiveDistanceFunction<NumberVector>) getDistanceFunction();
+      new DualTreeBoruvka<>(vrel, ids, df, coredists).run(collector);
+    }
+    else {
+      PrimsMinimumSpanningTree.processDense(ids, new HDBSCANAdapter(ids, coredists, distQ), collector);
+    }
     LOG.ensureCompleted(mprog);
     // Storage for pointer representation:
     WritableDBIDDataStore pi = DataStoreUtil.makeDBIDStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC);
@@ -20,12 +20,22 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
 
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.linkage.Linkage;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreIDMap;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
-import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.ChunkedTriangularStorageFactory;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.TriangularStorage;
 
 /**
  * Shared code for algorithms that work on a strict matrix paradigm.
@@ -38,7 +48,12 @@ import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
  * While this will usually store (merge-) distances when clustering, it can
  * store arbitrary doubles.
  *
+ * The matrix is held in a {@link TriangularStorage}, addressed by
+ * {@code long} offsets, so the size is not limited by the Java array size.
+ *
  * @author Erich Schubert
+ *
+ * @composed - - - TriangularStorage
  */
 public class MatrixParadigm {
   /**
@@ -49,7 +64,7 @@ public class MatrixParadigm {
   /**
    * Distance matrix (<b>modifiable</b>).
    */
-  public final double[] matrix;
+  public final TriangularStorage matrix;
 
   /**
    * Number of rows/columns.
@@ -57,21 +72,67 @@ public class MatrixParadigm {
   public final int size;
 
   /**
-   * Constructor.
+   * Object ids.
+   */
+  private final ArrayDBIDs aids;
+
+  /**
+   * Map from object ids to rows, initialized on demand.
+   */
+  private DataStoreIDMap idmap;
+
+  /**
+   * Constructor, using on-heap storage.
    *
    * @param ids Database ids.
    */
   public MatrixParadigm(DBIDs ids) {
+    this(ids, ChunkedTriangularStorageFactory.STATIC);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param ids Database ids.
+   * @param storage Matrix storage factory
+   */
+  public MatrixParadigm(DBIDs ids, TriangularStorage.Factory storage) {
     size = ids.size();
-    if(size > 0x10000) {
-      throw new AbortException("This implementation does not scale to data sets larger than " + //
-          0x10000 // = 65535
-          + " instances (~16 GB RAM), at which point the Java maximum array size is reached.");
-    }
-    ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+    aids = DBIDUtil.ensureArray(ids);
     ix = aids.iter();
     iy = aids.iter();
-    matrix = new double[triangleSize(size)];
+    matrix = storage.newStorage(size);
+  }
+
+  /**
+   * Get a new iterator over the objects, in matrix order.
+   *
+   * @return Iterator
+   */
+  public DBIDArrayIter iter() {
+    return aids.iter();
+  }
+
+  /**
+   * Get the row (and column) number of an object.
+   *
+   * @param id Object
+   * @return Row number
+   */
+  public int getOffset(DBIDRef id) {
+    return getIDMap().mapDBIDToOffset(id);
+  }
+
+  /**
+   * Get the map from object ids to rows.
+   *
+   * @return ID map
+   */
+  private DataStoreIDMap getIDMap() {
+    if(idmap == null) {
+      idmap = DataStoreUtil.makeIDMap(aids);
+    }
+    return idmap;
   }
 
   /**
@@ -80,8 +141,8 @@ public class MatrixParadigm {
    * @param x Offset
    * @return Size of complete triangle
    */
-  public static int triangleSize(int x) {
-    return (x * (x - 1)) >>> 1;
+  public static long triangleSize(int x) {
+    return TriangularStorage.triangleSize(x);
   }
 
   /**
@@ -95,9 +156,7 @@ public class MatrixParadigm {
    * @return Distance
    */
   public double get(int x, int y) {
-    return (x == y) ? 0 : (x < y) //
-        ? matrix[MatrixParadigm.triangleSize(y) + x] //
-        : matrix[MatrixParadigm.triangleSize(x) + y];
+    return (x == y) ? 0 : matrix.get(TriangularStorage.offset(x, y));
   }
 
   /**
@@ -107,16 +166,103 @@ public class MatrixParadigm {
    * @return this
    */
   public MatrixParadigm initializeWithDistances(DistanceQuery<?> dq) {
-    final DBIDArrayIter ix = this.ix, iy = this.iy;
-    final double[] matrix = this.matrix;
-    int pos = 0;
-    for(ix.seek(0); ix.valid(); ix.advance()) {
-      final int x = ix.getOffset();
-      assert (pos == triangleSize(x));
-      for(iy.seek(0); iy.getOffset() < x; iy.advance()) {
-        matrix[pos++] = dq.distance(ix, iy);
-      }
+    return initializeWithDistances(dq, null, null);
+  }
+
+  /**
+   * Initialize a distance matrix, in parallel.
+   *
+   * @param dq Distance query
+   * @param linkage Linkage to transform the distances, may be {@code null}
+   * @param log Logger for progress reporting, may be {@code null}
+   * @return this
+   */
+  public MatrixParadigm initializeWithDistances(DistanceQuery<?> dq, Linkage linkage, Logging log) {
+    FiniteProgress prog = log != null && log.isVerbose() ? new FiniteProgress("Distance matrix computation", size, log) : null;
+    ParallelExecutor.run(aids, prog, log, new DistanceMatrixProcessor(dq, linkage));
+    if(log != null) {
+      log.ensureCompleted(prog);
     }
     return this;
   }
+
+  /**
+   * Release the matrix storage.
+   */
+  public void close() {
+    matrix.close();
+  }
+
+  /**
+   * Processor to compute one row of the distance matrix at a time.
+   *
+   * @author Erich Schubert
+   */
+  private class DistanceMatrixProcessor implements Processor {
+    /**
+     * Map object ids to rows.
+     */
+    private final DataStoreIDMap rows;
+
+    /**
+     * Distance query
+     */
+    private final DistanceQuery<?> dq;
+
+    /**
+     * Linkage, may be {@code null}
+     */
+    private final Linkage linkage;
+
+    /**
+     * Distance is squared.
+     */
+    private final boolean issquare;
+
+    /**
+     * Constructor.
+     *
+     * @param dq Distance query
+     * @param linkage Linkage, may be {@code null}
+     */
+    DistanceMatrixProcessor(DistanceQuery<?> dq, Linkage linkage) {
+      this.rows = getIDMap();
+      this.dq = dq;
+      this.linkage = linkage;
+      this.issquare = dq.getDistanceFunction().isSquared();
+    }
+
+    @Override
+    public Processor.Instance instantiate(Executor executor) {
+      return new Instance();
+    }
+
+    @Override
+    public void cleanup(Processor.Instance inst) {
+      // Nothing to do.
+    }
+
+    /**
+     * Thread-local instance.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance implements Processor.Instance {
+      /**
+       * Iterator for the columns.
+       */
+      private final DBIDArrayIter iy = aids.iter();
+
+      @Override
+      public void map(DBIDRef id) {
+        final int x = rows.mapDBIDToOffset(id);
+        long pos = triangleSize(x);
+        // Row x holds the values (x, y) for y < x.
+        for(iy.seek(0); iy.getOffset() < x; iy.advance(), pos++) {
+          final double d = dq.distance(id, iy);
+          matrix.set(pos, linkage != null ? linkage.initial(d, issquare) : d);
+        }
+      }
+    }
+  }
 }
@@ -31,7 +31,11 @@ import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.ChunkedIntegerTriangularStorage;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.ChunkedTriangularStorageFactory;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.TriangularStorage;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 
@@ -71,13 +75,29 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
    */
   private static final Logging LOG = Logging.getLogger(MiniMax.class);
 
+  /**
+   * Storage for the distance matrix.
+   */
+  TriangularStorage.Factory storage;
+
   /**
    * Constructor.
    *
    * @param distanceFunction Distance function to use.
    */
   public MiniMax(DistanceFunction<? super O> distanceFunction) {
+    this(distanceFunction, ChunkedTriangularStorageFactory.STATIC);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function to use.
+   * @param storage Storage for the distance matrix
+   */
+  public MiniMax(DistanceFunction<? super O> distanceFunction, TriangularStorage.Factory storage) {
     super(distanceFunction);
+    this.storage = storage;
   }
 
   /**
@@ -97,19 +117,24 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
     Int2ObjectOpenHashMap<ModifiableDBIDs> clusters = new Int2ObjectOpenHashMap<>(size);
 
     // Allocate working space:
-    MatrixParadigm mat = new MatrixParadigm(ids);
-    ArrayModifiableDBIDs prots = DBIDUtil.newArray(MatrixParadigm.triangleSize(size));
-    initializeMatrices(mat, prots, dq);
-
-    DBIDArrayMIter protiter = prots.iter();
-    FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("MiniMax clustering", size - 1, LOG) : null;
-    DBIDArrayIter ix = mat.ix;
-    for(int i = 1, end = size; i < size; i++) {
-      end = AGNES.shrinkActiveSet(ix, builder, end, //
-          findMerge(end, mat, protiter, builder, clusters, dq));
-      LOG.incrementProcessed(progress);
+    ChunkedIntegerTriangularStorage prots = new ChunkedIntegerTriangularStorage(size);
+    MatrixParadigm mat = new MatrixParadigm(ids, storage);
+    try {
+      initializeMatrices(mat, prots, dq);
+
+      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("MiniMax clustering", size - 1, LOG) : null;
+      DBIDArrayIter ix = mat.ix;
+      for(int i = 1, end = size; i < size; i++) {
+        end = AGNES.shrinkActiveSet(ix, builder, end, //
+            findMerge(end, mat, prots, builder, clusters, dq));
+        LOG.incrementProcessed(progress);
+      }
+      LOG.ensureCompleted(progress);
+    }
+    finally {
+      mat.close();
+      prots.close();
     }
-    LOG.ensureCompleted(progress);
     return (PointerPrototypeHierarchyRepresentationResult) builder.complete();
   }
 
@@ -117,20 +142,19 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
    * Initializes the inter-cluster distance matrix of possible merges
    * 
    * @param mat Matrix
+   * @param prots Prototypes, as object offsets
    * @param dq The distance query
    */
-  protected static <O> void initializeMatrices(MatrixParadigm mat, ArrayModifiableDBIDs prots, DistanceQuery<O> dq) {
-    final DBIDArrayIter ix = mat.ix, iy = mat.iy;
-    final double[] distances = mat.matrix;
-    int pos = 0;
-    for(ix.seek(0); ix.valid(); ix.advance()) {
-      for(iy.seek(0); iy.getOffset() < ix.getOffset(); iy.advance()) {
-        distances[pos] = dq.distance(ix, iy);
-        prots.add(iy);
-        pos++;
+  protected static <O> void initializeMatrices(MatrixParadigm mat, ChunkedIntegerTriangularStorage prots, DistanceQuery<O> dq) {
+    mat.initializeWithDistances(dq, null, LOG);
+    // Initially, the prototype of each pair (x, y) is y:
+    long pos = 0;
+    for(int x = 0; x < mat.size; x++) {
+      for(int y = 0; y < x; y++) {
+        prots.set(pos++, y);
       }
     }
-    assert (prots.size() == pos);
+    assert (pos == MatrixParadigm.triangleSize(mat.size));
   }
 
   /**
@@ -143,9 +167,9 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
    * @param dq Distance query
    * @return x, for shrinking the working set.
    */
-  protected static int findMerge(int end, MatrixParadigm mat, DBIDArrayMIter prots, PointerHierarchyRepresentationBuilder builder, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters, DistanceQuery<?> dq) {
+  protected static int findMerge(int end, MatrixParadigm mat, ChunkedIntegerTriangularStorage prots, PointerHierarchyRepresentationBuilder builder, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters, DistanceQuery<?> dq) {
     final DBIDArrayIter ix = mat.ix, iy = mat.iy;
-    final double[] distances = mat.matrix;
+    final TriangularStorage distances = mat.matrix;
     double mindist = Double.POSITIVE_INFINITY;
     int x = -1, y = -1;
 
@@ -154,7 +178,7 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
       if(builder.isLinked(ix.seek(dx))) {
         continue;
       }
-      final int xoffset = MatrixParadigm.triangleSize(dx);
+      final long xoffset = MatrixParadigm.triangleSize(dx);
 
       for(int dy = 0; dy < dx; dy++) {
         // Skip if object is already linked
@@ -162,7 +186,7 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
           continue;
         }
 
-        double dist = distances[xoffset + dy];
+        double dist = distances.get(xoffset + dy);
         if(dist < mindist) {
           mindist = dist;
           x = dx;
@@ -189,14 +213,14 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
    * @param x first cluster to merge
    * @param y second cluster to merge
    */
-  protected static void merge(int size, MatrixParadigm mat, DBIDArrayMIter prots, PointerHierarchyRepresentationBuilder builder, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters, DistanceQuery<?> dq, int x, int y) {
+  protected static void merge(int size, MatrixParadigm mat, ChunkedIntegerTriangularStorage prots, PointerHierarchyRepresentationBuilder builder, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters, DistanceQuery<?> dq, int x, int y) {
     assert (y < x);
     final DBIDArrayIter ix = mat.ix.seek(x), iy = mat.iy.seek(y);
-    final double[] distances = mat.matrix;
-    int offset = MatrixParadigm.triangleSize(x) + y;
+    final TriangularStorage distances = mat.matrix;
+    final long offset = MatrixParadigm.triangleSize(x) + y;
 
     if(LOG.isDebuggingFine()) {
-      LOG.debugFine("Merging: " + DBIDUtil.toString(ix) + " -> " + DBIDUtil.toString(iy) + " " + distances[offset]);
+      LOG.debugFine("Merging: " + DBIDUtil.toString(ix) + " -> " + DBIDUtil.toString(iy) + " " + distances.get(offset));
     }
 
     ModifiableDBIDs cx = clusters.get(x), cy = clusters.get(y);
@@ -216,7 +240,7 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
     clusters.put(y, cy);
 
     // parent of x is set to y
-    builder.add(ix, distances[offset], iy, prots.seek(offset));
+    builder.add(ix, distances.get(offset), iy, mat.iter().seek(prots.get(offset)));
 
     updateMatrices(size, mat, prots, builder, clusters, dq, y);
   }
@@ -233,7 +257,7 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
    * @param dq distance query of the data set
    * @param c the cluster to update distances to
    */
-  protected static <O> void updateMatrices(int size, MatrixParadigm mat, DBIDArrayMIter prots, PointerHierarchyRepresentationBuilder builder, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters, DistanceQuery<O> dq, int c) {
+  protected static <O> void updateMatrices(int size, MatrixParadigm mat, ChunkedIntegerTriangularStorage prots, PointerHierarchyRepresentationBuilder builder, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters, DistanceQuery<O> dq, int c) {
     final DBIDArrayIter ix = mat.ix, iy = mat.iy;
     // c is the new cluster.
     // Update entries (at (x,y) with x > y) in the matrix where x = c or y = c
@@ -269,10 +293,9 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
    * @param x index of cluster, {@code x > y}
    * @param y index of cluster, {@code y < x}
    */
-  protected static void updateEntry(MatrixParadigm mat, DBIDArrayMIter prots, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters, DistanceQuery<?> dq, int x, int y) {
+  protected static void updateEntry(MatrixParadigm mat, ChunkedIntegerTriangularStorage prots, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters, DistanceQuery<?> dq, int x, int y) {
     assert (y < x);
     final DBIDArrayIter ix = mat.ix, iy = mat.iy;
-    final double[] distances = mat.matrix;
     ModifiableDBIDs cx = clusters.get(x), cy = clusters.get(y);
 
     DBIDVar prototype = DBIDUtil.newVar(ix.seek(x)); // Default prototype
@@ -295,9 +318,9 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
       prototype.set(ix);
     }
 
-    final int offset = MatrixParadigm.triangleSize(x) + y;
-    distances[offset] = minMaxDist;
-    prots.seek(offset).setDBID(prototype);
+    final long offset = MatrixParadigm.triangleSize(x) + y;
+    mat.matrix.set(offset, minMaxDist);
+    prots.set(offset, mat.getOffset(prototype));
   }
 
   /**
@@ -411,9 +434,20 @@ public class MiniMax<O> extends AbstractDistanceBasedAlgorithm<O, PointerPrototy
    * @param <O> Object type
    */
   public static class Parameterizer<O> extends AbstractDistanceBasedAlgorithm.Parameterizer<O> {
+    /**
+     * Storage for the distance matrix.
+     */
+    protected TriangularStorage.Factory storage;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      storage = AGNES.Parameterizer.makeStorageParameter(config);
+    }
+
     @Override
     protected MiniMax<O> makeInstance() {
-      return new MiniMax<>(distanceFunction);
+      return new MiniMax<>(distanceFunction, storage);
     }
   }
 }
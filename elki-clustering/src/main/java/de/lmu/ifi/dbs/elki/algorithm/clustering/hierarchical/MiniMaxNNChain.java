@@ -32,7 +32,11 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.IntegerArray;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.ChunkedIntegerTriangularStorage;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.ChunkedTriangularStorageFactory;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.TriangularStorage;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 
@@ -72,13 +76,29 @@ public class MiniMaxNNChain<O> extends AbstractDistanceBasedAlgorithm<O, Pointer
    */
   private static final Logging LOG = Logging.getLogger(MiniMaxNNChain.class);
 
+  /**
+   * Storage for the distance matrix.
+   */
+  TriangularStorage.Factory storage;
+
   /**
    * Constructor.
    *
    * @param distanceFunction Distance function
    */
   public MiniMaxNNChain(DistanceFunction<? super O> distanceFunction) {
+    this(distanceFunction, ChunkedTriangularStorageFactory.STATIC);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param storage Storage for the distance matrix
+   */
+  public MiniMaxNNChain(DistanceFunction<? super O> distanceFunction, TriangularStorage.Factory storage) {
     super(distanceFunction);
+    this.storage = storage;
   }
 
   /**
@@ -96,12 +116,17 @@ public class MiniMaxNNChain<O> extends AbstractDistanceBasedAlgorithm<O, Pointer
     PointerHierarchyRepresentationBuilder builder = new PointerHierarchyRepresentationBuilder(ids, dq.getDistanceFunction().isSquared());
     Int2ObjectOpenHashMap<ModifiableDBIDs> clusters = new Int2ObjectOpenHashMap<>(ids.size());
 
-    MatrixParadigm mat = new MatrixParadigm(ids);
-    ArrayModifiableDBIDs prots = DBIDUtil.newArray(MatrixParadigm.triangleSize(ids.size()));
-
-    MiniMax.initializeMatrices(mat, prots, dq);
+    ChunkedIntegerTriangularStorage prots = new ChunkedIntegerTriangularStorage(ids.size());
+    MatrixParadigm mat = new MatrixParadigm(ids, storage);
+    try {
+      MiniMax.initializeMatrices(mat, prots, dq);
 
-    nnChainCore(mat, prots.iter(), dq, builder, clusters);
+      nnChainCore(mat, prots, dq, builder, clusters);
+    }
+    finally {
+      mat.close();
+      prots.close();
+    }
 
     return (PointerPrototypeHierarchyRepresentationResult) builder.complete();
   }
@@ -116,9 +141,9 @@ public class MiniMaxNNChain<O> extends AbstractDistanceBasedAlgorithm<O, Pointer
    * @param builder Result builder
    * @param clusters current clusters
    */
-  private void nnChainCore(MatrixParadigm mat, DBIDArrayMIter prots, DistanceQuery<O> dq, PointerHierarchyRepresentationBuilder builder, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters) {
+  private void nnChainCore(MatrixParadigm mat, ChunkedIntegerTriangularStorage prots, DistanceQuery<O> dq, PointerHierarchyRepresentationBuilder builder, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters) {
     final DBIDArrayIter ix = mat.ix;
-    final double[] distances = mat.matrix;
+    final TriangularStorage distances = mat.matrix;
     final int size = mat.size;
     // The maximum chain size = number of ids + 1
     IntegerArray chain = new IntegerArray(size + 1);
@@ -153,10 +178,10 @@ public class MiniMaxNNChain<O> extends AbstractDistanceBasedAlgorithm<O, Pointer
       double minDist = mat.get(a, b);
       do {
         int c = b;
-        final int ta = MatrixParadigm.triangleSize(a);
+        final long ta = MatrixParadigm.triangleSize(a);
         for(int i = 0; i < a; i++) {
           if(i != b && !builder.isLinked(ix.seek(i))) {
-            double dist = distances[ta + i];
+            double dist = distances.get(ta + i);
             if(dist < minDist) {
               minDist = dist;
               c = i;
@@ -165,7 +190,7 @@ public class MiniMaxNNChain<O> extends AbstractDistanceBasedAlgorithm<O, Pointer
         }
         for(int i = a + 1; i < size; i++) {
           if(i != b && !builder.isLinked(ix.seek(i))) {
-            double dist = distances[MatrixParadigm.triangleSize(i) + a];
+            double dist = distances.get(MatrixParadigm.triangleSize(i) + a);
             if(dist < minDist) {
               minDist = dist;
               c = i;
@@ -215,9 +240,20 @@ public class MiniMaxNNChain<O> extends AbstractDistanceBasedAlgorithm<O, Pointer
    * @param <O> Object type
    */
   public static class Parameterizer<O> extends AbstractDistanceBasedAlgorithm.Parameterizer<O> {
+    /**
+     * Storage for the distance matrix.
+     */
+    protected TriangularStorage.Factory storage;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      storage = AGNES.Parameterizer.makeStorageParameter(config);
+    }
+
     @Override
     protected MiniMaxNNChain<O> makeInstance() {
-      return new MiniMaxNNChain<>(distanceFunction);
+      return new MiniMaxNNChain<>(distanceFunction, storage);
     }
   }
 }
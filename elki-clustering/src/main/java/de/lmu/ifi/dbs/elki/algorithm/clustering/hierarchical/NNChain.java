@@ -31,6 +31,7 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.IntegerArray;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.TriangularStorage;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
 /**
@@ -70,11 +71,23 @@ public class NNChain<O> extends AGNES<O> {
    * Constructor.
    *
    * @param distanceFunction Distance function
+   * @param linkage Linkage method
    */
   public NNChain(DistanceFunction<? super O> distanceFunction, Linkage linkage) {
     super(distanceFunction, linkage);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param linkage Linkage method
+   * @param storage Storage for the distance matrix
+   */
+  public NNChain(DistanceFunction<? super O> distanceFunction, Linkage linkage, TriangularStorage.Factory storage) {
+    super(distanceFunction, linkage, storage);
+  }
+
   /**
    * Run the algorithm
    * 
@@ -88,15 +101,19 @@ public class NNChain<O> extends AGNES<O> {
     }
     DistanceQuery<O> dq = db.getDistanceQuery(relation, getDistanceFunction());
     final DBIDs ids = relation.getDBIDs();
-    MatrixParadigm mat = new MatrixParadigm(ids);
-
-    // Compute the initial (lower triangular) distance matrix.
-    initializeDistanceMatrix(mat, dq, linkage);
-
     // Initialize space for result:
     PointerHierarchyRepresentationBuilder builder = new PointerHierarchyRepresentationBuilder(ids, dq.getDistanceFunction().isSquared());
 
-    nnChainCore(mat, builder);
+    MatrixParadigm mat = new MatrixParadigm(ids, storage);
+    try {
+      // Compute the initial (lower triangular) distance matrix.
+      initializeDistanceMatrix(mat, dq, linkage);
+
+      nnChainCore(mat, builder);
+    }
+    finally {
+      mat.close();
+    }
     return builder.complete();
   }
 
@@ -109,7 +126,7 @@ public class NNChain<O> extends AGNES<O> {
    */
   private void nnChainCore(MatrixParadigm mat, PointerHierarchyRepresentationBuilder builder) {
     final DBIDArrayIter ix = mat.ix;
-    final double[] distances = mat.matrix;
+    final TriangularStorage distances = mat.matrix;
     final int size = mat.size;
     // The maximum chain size = number of ids + 1
     IntegerArray chain = new IntegerArray(size + 1);
@@ -144,10 +161,10 @@ public class NNChain<O> extends AGNES<O> {
       double minDist = mat.get(a, b);
       do {
         int c = b;
-        final int ta = MatrixParadigm.triangleSize(a);
+        final long ta = MatrixParadigm.triangleSize(a);
         for(int i = 0; i < a; i++) {
           if(i != b && !builder.isLinked(ix.seek(i))) {
-            double dist = distances[ta + i];
+            double dist = distances.get(ta + i);
             if(dist < minDist) {
               minDist = dist;
               c = i;
@@ -156,7 +173,7 @@ public class NNChain<O> extends AGNES<O> {
         }
         for(int i = a + 1; i < size; i++) {
           if(i != b && !builder.isLinked(ix.seek(i))) {
-            double dist = distances[MatrixParadigm.triangleSize(i) + a];
+            double dist = distances.get(MatrixParadigm.triangleSize(i) + a);
             if(dist < minDist) {
               minDist = dist;
               c = i;
@@ -222,7 +239,7 @@ public class NNChain<O> extends AGNES<O> {
   public static class Parameterizer<O> extends AGNES.Parameterizer<O> {
     @Override
     protected NNChain<O> makeInstance() {
-      return new NNChain<>(distanceFunction, linkage);
+      return new NNChain<>(distanceFunction, linkage, storage);
     }
   }
 }
@@ -181,6 +181,14 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
    * @param vec Vector to add
    */
   public static void plusEquals(double[] sum, NumberVector vec) {
+    if(vec instanceof PackedDoubleVector) {
+      final PackedDoubleVector p = (PackedDoubleVector) vec;
+      final double[] data = p.getData();
+      for(int d = 0, j = p.getOffset(); d < sum.length; d++, j++) {
+        sum[d] += data[j];
+      }
+      return;
+    }
     for(int d = 0; d < sum.length; d++) {
       sum[d] += vec.doubleValue(d);
     }
@@ -193,6 +201,14 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
    * @param vec Vector to subtract
    */
   public static void minusEquals(double[] sum, NumberVector vec) {
+    if(vec instanceof PackedDoubleVector) {
+      final PackedDoubleVector p = (PackedDoubleVector) vec;
+      final double[] data = p.getData();
+      for(int d = 0, j = p.getOffset(); d < sum.length; d++, j++) {
+        sum[d] -= data[j];
+      }
+      return;
+    }
     for(int d = 0; d < sum.length; d++) {
       sum[d] -= vec.doubleValue(d);
     }
@@ -206,6 +222,16 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
    * @param vec Vector to subtract
    */
   public static void plusMinusEquals(double[] add, double[] sub, NumberVector vec) {
+    if(vec instanceof PackedDoubleVector) {
+      final PackedDoubleVector p = (PackedDoubleVector) vec;
+      final double[] data = p.getData();
+      for(int d = 0, j = p.getOffset(); d < add.length; d++, j++) {
+        final double v = data[j];
+        add[d] += v;
+        sub[d] -= v;
+      }
+      return;
+    }
     for(int d = 0; d < add.length; d++) {
       final double v = vec.doubleValue(d);
       add[d] += v;
@@ -308,7 +334,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
     /**
      * Cluster means.
      */
-    double[][] means;
+    protected double[][] means;
 
     /**
      * Store the elements per cluster.
@@ -389,12 +415,22 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
       return df.distance(x, y);
     }
 
+    /**
+     * Add distance computations performed outside of this instance, e.g., by
+     * worker threads.
+     *
+     * @param count Number of distance computations
+     */
+    protected void addDistanceComputations(long count) {
+      diststat += count;
+    }
+
     /**
      * Run the clustering.
      *
      * @param maxiter Maximum number of iterations
      */
-    protected void run(int maxiter) {
+    public void run(int maxiter) {
       final Logging log = getLogger();
       IndefiniteProgress prog = log.isVerbose() ? new IndefiniteProgress("Iteration") : null;
       int iteration = 0;
@@ -555,7 +591,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
      * @param relation Data relation (only needed if varstat is set)
      * @return Clustering result
      */
-    protected Clustering<KMeansModel> buildResult(boolean varstat, Relation<? extends NumberVector> relation) {
+    public Clustering<KMeansModel> buildResult(boolean varstat, Relation<? extends NumberVector> relation) {
       double totalvariance = 0.;
       Clustering<KMeansModel> result = new Clustering<>("k-Means Clustering", "kmeans-clustering");
       for(int i = 0; i < clusters.size(); i++) {
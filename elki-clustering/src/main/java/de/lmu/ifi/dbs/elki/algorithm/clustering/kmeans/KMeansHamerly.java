@@ -102,27 +102,27 @@ public class KMeansHamerly<V extends NumberVector> extends AbstractKMeans<V, KMe
     /**
      * Sum aggregate for the new mean.
      */
-    double[][] sums;
+    protected double[][] sums;
 
     /**
      * Temporary storage for the new means.
      */
-    double[][] newmeans;
+    protected double[][] newmeans;
 
     /**
      * Separation of means / distance moved.
      */
-    double[] sep;
+    protected double[] sep;
 
     /**
      * Upper bounding distance
      */
-    WritableDoubleDataStore upper;
+    protected WritableDoubleDataStore upper;
 
     /**
      * Lower bounding distance
      */
-    WritableDoubleDataStore lower;
+    protected WritableDoubleDataStore lower;
 
     /**
      * Constructor.
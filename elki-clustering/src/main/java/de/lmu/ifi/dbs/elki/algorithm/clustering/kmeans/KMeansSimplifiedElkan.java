@@ -104,27 +104,27 @@ public class KMeansSimplifiedElkan<V extends NumberVector> extends AbstractKMean
     /**
      * Upper bounds
      */
-    WritableDoubleDataStore upper;
+    protected WritableDoubleDataStore upper;
 
     /**
      * Lower bounds
      */
-    WritableDataStore<double[]> lower;
+    protected WritableDataStore<double[]> lower;
 
     /**
      * Sums of clusters.
      */
-    double[][] sums;
+    protected double[][] sums;
 
     /**
      * Scratch space for new means.
      */
-    double[][] newmeans;
+    protected double[][] newmeans;
 
     /**
      * Cluster separation
      */
-    double[] sep = new double[k];
+    protected double[] sep = new double[k];
 
     /**
      * Constructor.
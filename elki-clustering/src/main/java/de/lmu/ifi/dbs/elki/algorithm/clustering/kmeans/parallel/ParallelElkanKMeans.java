@@ -0,0 +1,180 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansElkan;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.KMeansInitialization;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.KMeansModel;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+
+import net.jafama.FastMath;
+
+/**
+ * Parallel version of Elkan's k-means algorithm.
+ * <p>
+ * The bounds are maintained and the objects are reassigned in parallel. The
+ * cluster sums are updated afterwards in a deterministic order, so the result
+ * is the same as with {@link KMeansElkan}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <V> vector datatype
+ */
+public class ParallelElkanKMeans<V extends NumberVector> extends KMeansElkan<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelElkanKMeans.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public ParallelElkanKMeans(NumberVectorDistanceFunction<? super V> distanceFunction, int k, int maxiter, KMeansInitialization initializer, boolean varstat) {
+    super(distanceFunction, k, maxiter, initializer, varstat);
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Database database, Relation<V> relation) {
+    Instance instance = new Instance(relation, getDistanceFunction(), initialMeans(database, relation));
+    instance.run(maxiter);
+    return instance.buildResult(varstat, relation);
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends ParallelSimplifiedElkanKMeans.Instance {
+    /**
+     * Cluster center distances
+     */
+    protected double[][] cdist;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistanceFunction<?> df, double[][] means) {
+      super(relation, df, means);
+      cdist = new double[k][k];
+    }
+
+    @Override
+    protected void recomputeSeperation() {
+      recomputeSeperation(sep, cdist);
+    }
+
+    @Override
+    public Worker instantiate(Executor executor) {
+      return new ElkanWorker();
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+
+    /**
+     * Worker thread instance.
+     *
+     * @author Erich Schubert
+     */
+    protected class ElkanWorker extends Worker {
+      @Override
+      protected void assign(DBIDRef it) {
+        final int orig = assignment.intValue(it);
+        double u = upper.doubleValue(it);
+        // Upper bound check (#2):
+        if(u <= sep[orig]) {
+          return;
+        }
+        boolean recompute_u = true; // Elkan's r(x)
+        NumberVector fv = relation.get(it);
+        double[] l = lower.get(it);
+        // Check all (other) means:
+        int cur = orig;
+        for(int j = 0; j < k; j++) {
+          if(orig == j || u <= l[j] || u <= cdist[cur][j]) {
+            continue; // Condition #3 i-iii not satisfied
+          }
+          if(recompute_u) { // Need to update bound? #3a
+            u = distance(fv, DoubleVector.wrap(means[cur]));
+            u = isSquared ? FastMath.sqrt(u) : u;
+            upper.putDouble(it, u);
+            recompute_u = false; // Once only
+            if(u <= l[j] || u <= cdist[cur][j]) { // #3b
+              continue;
+            }
+          }
+          double dist = distance(fv, DoubleVector.wrap(means[j]));
+          dist = isSquared ? FastMath.sqrt(dist) : dist;
+          l[j] = dist;
+          if(dist < u) {
+            cur = j;
+            u = dist;
+          }
+        }
+        // Object is to be reassigned.
+        if(cur != orig) {
+          upper.putDouble(it, u); // Remember bound.
+          assignment.putInt(it, cur);
+          log.add(it, orig);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Parameterizer<V extends NumberVector> extends KMeansElkan.Parameterizer<V> {
+    @Override
+    protected ParallelElkanKMeans<V> makeInstance() {
+      return new ParallelElkanKMeans<>(distanceFunction, k, maxiter, initializer, varstat);
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansExponion;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.KMeansInitialization;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.KMeansModel;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+
+import net.jafama.FastMath;
+
+/**
+ * Parallel version of the Exponion k-means algorithm.
+ * <p>
+ * The bounds are maintained and the objects are reassigned in parallel. The
+ * cluster sums are updated afterwards in a deterministic order, so the result
+ * is the same as with {@link KMeansExponion}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <V> vector datatype
+ */
+public class ParallelExponionKMeans<V extends NumberVector> extends KMeansExponion<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelExponionKMeans.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public ParallelExponionKMeans(NumberVectorDistanceFunction<? super V> distanceFunction, int k, int maxiter, KMeansInitialization initializer, boolean varstat) {
+    super(distanceFunction, k, maxiter, initializer, varstat);
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Database database, Relation<V> relation) {
+    Instance instance = new Instance(relation, getDistanceFunction(), initialMeans(database, relation));
+    instance.run(maxiter);
+    return instance.buildResult(varstat, relation);
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends ParallelHamerlyKMeans.Instance {
+    /**
+     * Cluster center distances.
+     */
+    protected double[][] cdist;
+
+    /**
+     * Sorted neighbors
+     */
+    protected int[][] cnum;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistanceFunction<?> df, double[][] means) {
+      super(relation, df, means);
+      cdist = new double[k][k];
+      cnum = new int[k][k - 1];
+    }
+
+    @Override
+    protected void recomputeSeperation() {
+      recomputeSeperation(sep, cdist);
+      nearestMeans(cdist, cnum);
+    }
+
+    @Override
+    public Worker instantiate(Executor executor) {
+      return new ExponionWorker();
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+
+    /**
+     * Worker thread instance.
+     *
+     * @author Erich Schubert
+     */
+    protected class ExponionWorker extends Worker {
+      @Override
+      protected void assign(DBIDRef it) {
+        final int cur = assignment.intValue(it);
+        // Compute the current bound:
+        final double z = lower.doubleValue(it);
+        final double sa = sep[cur];
+        double u = upper.doubleValue(it);
+        if(u <= z || u <= sa) {
+          return;
+        }
+        // Update the upper bound
+        NumberVector fv = relation.get(it);
+        double curd2 = distance(fv, DoubleVector.wrap(means[cur]));
+        u = isSquared ? FastMath.sqrt(curd2) : curd2;
+        upper.putDouble(it, u);
+        if(u <= z || u <= sa) {
+          return;
+        }
+        double r = u + 0.5 * sa; // Our cdist are scaled 0.5
+        // Find closest center, and distance to two closest centers
+        double min1 = curd2, min2 = Double.POSITIVE_INFINITY;
+        int minIndex = cur;
+        for(int i = 0; i < k - 1; i++) {
+          int c = cnum[cur][i];
+          if(cdist[cur][c] > r) {
+            break;
+          }
+          double dist = distance(fv, DoubleVector.wrap(means[c]));
+          if(dist < min1) {
+            minIndex = c;
+            min2 = min1;
+            min1 = dist;
+          }
+          else if(dist < min2) {
+            min2 = dist;
+          }
+        }
+        if(minIndex != cur) {
+          assignment.putInt(it, minIndex);
+          log.add(it, cur);
+          upper.putDouble(it, min1 == curd2 ? u : isSquared ? FastMath.sqrt(min1) : min1);
+        }
+        lower.putDouble(it, min2 == curd2 ? u : isSquared ? FastMath.sqrt(min2) : min2);
+      }
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Parameterizer<V extends NumberVector> extends KMeansExponion.Parameterizer<V> {
+    @Override
+    protected ParallelExponionKMeans<V> makeInstance() {
+      return new ParallelExponionKMeans<>(distanceFunction, k, maxiter, initializer, varstat);
+    }
+  }
+}
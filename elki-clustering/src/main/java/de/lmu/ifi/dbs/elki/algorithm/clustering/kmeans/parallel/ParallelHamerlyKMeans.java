@@ -0,0 +1,314 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansHamerly;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.KMeansInitialization;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.KMeansModel;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+
+import net.jafama.FastMath;
+
+/**
+ * Parallel version of Hamerly's fast k-means.
+ * <p>
+ * The bounds are maintained and the objects are reassigned in parallel. The
+ * cluster sums are updated afterwards in a deterministic order, so the result
+ * is the same as with {@link KMeansHamerly}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - ReassignmentLog
+ *
+ * @param <V> vector datatype
+ */
+public class ParallelHamerlyKMeans<V extends NumberVector> extends KMeansHamerly<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelHamerlyKMeans.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public ParallelHamerlyKMeans(NumberVectorDistanceFunction<? super V> distanceFunction, int k, int maxiter, KMeansInitialization initializer, boolean varstat) {
+    super(distanceFunction, k, maxiter, initializer, varstat);
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Database database, Relation<V> relation) {
+    Instance instance = new Instance(relation, getDistanceFunction(), initialMeans(database, relation));
+    instance.run(maxiter);
+    return instance.buildResult(varstat, relation);
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends KMeansHamerly.Instance implements Processor {
+    /**
+     * Distance function.
+     */
+    protected NumberVectorDistanceFunction<?> df;
+
+    /**
+     * Distance moved by each center.
+     */
+    protected double[] move;
+
+    /**
+     * Maximum distance moved.
+     */
+    protected double delta;
+
+    /**
+     * Flag for the initial iteration.
+     */
+    protected boolean initial = true;
+
+    /**
+     * Reassignments of the current iteration.
+     */
+    protected ReassignmentLog log = new ReassignmentLog();
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistanceFunction<?> df, double[][] means) {
+      super(relation, df, means);
+      this.df = df;
+      this.move = new double[k];
+    }
+
+    @Override
+    protected int iterate(int iteration) {
+      if(iteration == 1) {
+        initial = true;
+        ParallelExecutor.run(relation.getDBIDs(), this);
+        initial = false;
+        return initialSums();
+      }
+      meansFromSums(newmeans, sums);
+      delta = movedDistance(means, newmeans, move);
+      copyMeans(newmeans, means);
+      recomputeSeperation();
+      ParallelExecutor.run(relation.getDBIDs(), this);
+      return log.apply(relation, assignment, clusters, sums);
+    }
+
+    /**
+     * Recompute the separation of cluster means, before reassigning.
+     */
+    protected void recomputeSeperation() {
+      recomputeSeperation(means, sep);
+    }
+
+    /**
+     * Build the initial cluster memberships and sums, in the same order as the
+     * sequential implementation.
+     *
+     * @return Number of changes (i.e. relation size)
+     */
+    protected int initialSums() {
+      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+        final int cur = assignment.intValue(it);
+        clusters.get(cur).add(it);
+        plusEquals(sums[cur], relation.get(it));
+      }
+      return relation.size();
+    }
+
+    @Override
+    public Worker instantiate(Executor executor) {
+      return new Worker();
+    }
+
+    @Override
+    public void cleanup(Processor.Instance inst) {
+      Worker worker = (Worker) inst;
+      log.addAll(worker.log);
+      synchronized(this) {
+        addDistanceComputations(worker.diststat);
+      }
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+
+    /**
+     * Worker thread instance.
+     *
+     * @author Erich Schubert
+     */
+    protected class Worker implements Processor.Instance {
+      /**
+       * Local distance computation counter.
+       */
+      protected long diststat = 0;
+
+      /**
+       * Local reassignment log.
+       */
+      protected ReassignmentLog log = new ReassignmentLog();
+
+      /**
+       * Compute a distance (and count the distance computations).
+       *
+       * @param x First object
+       * @param y Second object
+       * @return Distance
+       */
+      protected double distance(NumberVector x, NumberVector y) {
+        ++diststat;
+        return df.distance(x, y);
+      }
+
+      @Override
+      public void map(DBIDRef it) {
+        if(initial) {
+          initialAssign(it);
+          return;
+        }
+        // Update the bounds for the center movement:
+        upper.increment(it, move[assignment.intValue(it)]);
+        lower.increment(it, -delta);
+        assign(it);
+      }
+
+      /**
+       * Perform initial cluster assignment of a single object.
+       *
+       * @param it Object
+       */
+      protected void initialAssign(DBIDRef it) {
+        NumberVector fv = relation.get(it);
+        // Find closest center, and distance to two closest centers
+        double min1 = Double.POSITIVE_INFINITY, min2 = Double.POSITIVE_INFINITY;
+        int minIndex = -1;
+        for(int i = 0; i < k; i++) {
+          double dist = distance(fv, DoubleVector.wrap(means[i]));
+          if(dist < min1) {
+            minIndex = i;
+            min2 = min1;
+            min1 = dist;
+          }
+          else if(dist < min2) {
+            min2 = dist;
+          }
+        }
+        assignment.putInt(it, minIndex);
+        upper.putDouble(it, isSquared ? FastMath.sqrt(min1) : min1);
+        lower.putDouble(it, isSquared ? FastMath.sqrt(min2) : min2);
+      }
+
+      /**
+       * Reassign a single object, but avoid unnecessary computations based on
+       * its bounds.
+       *
+       * @param it Object
+       */
+      protected void assign(DBIDRef it) {
+        final int cur = assignment.intValue(it);
+        // Compute the current bound:
+        final double z = lower.doubleValue(it);
+        final double sa = sep[cur];
+        double u = upper.doubleValue(it);
+        if(u <= z || u <= sa) {
+          return;
+        }
+        // Update the upper bound
+        NumberVector fv = relation.get(it);
+        double curd2 = distance(fv, DoubleVector.wrap(means[cur]));
+        u = isSquared ? FastMath.sqrt(curd2) : curd2;
+        upper.putDouble(it, u);
+        if(u <= z || u <= sa) {
+          return;
+        }
+        // Find closest center, and distance to two closest centers
+        double min1 = curd2, min2 = Double.POSITIVE_INFINITY;
+        int minIndex = cur;
+        for(int i = 0; i < k; i++) {
+          if(i == cur) {
+            continue;
+          }
+          double dist = distance(fv, DoubleVector.wrap(means[i]));
+          if(dist < min1) {
+            minIndex = i;
+            min2 = min1;
+            min1 = dist;
+          }
+          else if(dist < min2) {
+            min2 = dist;
+          }
+        }
+        if(minIndex != cur) {
+          assignment.putInt(it, minIndex);
+          log.add(it, cur);
+          upper.putDouble(it, min1 == curd2 ? u : isSquared ? FastMath.sqrt(min1) : min1);
+        }
+        lower.putDouble(it, min2 == curd2 ? u : isSquared ? FastMath.sqrt(min2) : min2);
+      }
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Parameterizer<V extends NumberVector> extends KMeansHamerly.Parameterizer<V> {
+    @Override
+    protected ParallelHamerlyKMeans<V> makeInstance() {
+      return new ParallelHamerlyKMeans<>(distanceFunction, k, maxiter, initializer, varstat);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.AbstractKMeans;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.datastore.IntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.IntegerArray;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.IntegerArrayQuickSort;
+
+import it.unimi.dsi.fastutil.ints.IntComparator;
+
+/**
+ * Log of the cluster reassignments performed by the worker threads of the
+ * parallel k-means variants.
+ * <p>
+ * Worker threads only modify per-object state (assignment and bounds), and log
+ * the objects they reassigned. The cluster sums and memberships are then
+ * updated in DBID order, so the result does not depend on the thread
+ * scheduling (floating point addition is not associative), and is the same as
+ * with the sequential implementations.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class ReassignmentLog {
+  /**
+   * Reassigned objects.
+   */
+  private ArrayModifiableDBIDs ids = DBIDUtil.newArray();
+
+  /**
+   * Previous cluster of each reassigned object.
+   */
+  private IntegerArray from = new IntegerArray();
+
+  /**
+   * Log a reassignment.
+   *
+   * @param id Object
+   * @param prev Previous cluster
+   */
+  public void add(DBIDRef id, int prev) {
+    ids.add(id);
+    from.add(prev);
+  }
+
+  /**
+   * Merge the reassignments of another (worker) log.
+   *
+   * @param other Other log
+   */
+  public synchronized void addAll(ReassignmentLog other) {
+    ids.addDBIDs(other.ids);
+    for(int i = 0; i < other.from.size; i++) {
+      from.add(other.from.data[i]);
+    }
+  }
+
+  /**
+   * Number of logged reassignments.
+   *
+   * @return Size
+   */
+  public int size() {
+    return ids.size();
+  }
+
+  /**
+   * Clear the log.
+   */
+  public void clear() {
+    ids.clear();
+    from.clear();
+  }
+
+  /**
+   * Apply the logged reassignments to the cluster memberships and sums, in
+   * DBID order, then clear the log.
+   *
+   * @param relation Data relation
+   * @param assignment Current (new) cluster assignment
+   * @param clusters Cluster memberships to update
+   * @param sums Cluster sums to update
+   * @return Number of reassigned objects
+   */
+  public int apply(Relation<? extends NumberVector> relation, IntegerDataStore assignment, List<ModifiableDBIDs> clusters, double[][] sums) {
+    final int size = ids.size();
+    final DBIDArrayIter i1 = ids.iter(), i2 = ids.iter();
+    int[] order = new int[size];
+    for(int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    IntegerArrayQuickSort.sort(order, new IntComparator() {
+      @Override
+      public int compare(int x, int y) {
+        return DBIDUtil.compare(i1.seek(x), i2.seek(y));
+      }
+    });
+    for(int i = 0; i < size; i++) {
+      final int o = order[i];
+      i1.seek(o);
+      final int prev = from.data[o], cur = assignment.intValue(i1);
+      clusters.get(cur).add(i1);
+      clusters.get(prev).remove(i1);
+      AbstractKMeans.plusMinusEquals(sums[cur], sums[prev], relation.get(i1));
+    }
+    clear();
+    return size;
+  }
+}
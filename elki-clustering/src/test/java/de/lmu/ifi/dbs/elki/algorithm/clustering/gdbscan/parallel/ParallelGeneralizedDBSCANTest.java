@@ -20,13 +20,21 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.parallel;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
 import org.junit.Test;
 
 import de.lmu.ifi.dbs.elki.algorithm.clustering.AbstractClusterAlgorithmTest;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.DBSCAN;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.gdbscan.GeneralizedDBSCAN;
+import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
 import de.lmu.ifi.dbs.elki.data.model.Model;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
 
 /**
@@ -67,4 +75,45 @@ public class ParallelGeneralizedDBSCANTest extends AbstractClusterAlgorithmTest
     testFMeasure(db, result, 0.954382);
     testClusterSizes(result, new int[] { 11, 200, 203, 224 });
   }
+
+  /**
+   * Compare to the serial implementation on a larger random data set, where
+   * many points are labeled concurrently.
+   */
+  @Test
+  public void testAgainstSerial() {
+    Random r = new Random(0L);
+    double[][] data = new double[20000][2];
+    for(double[] row : data) {
+      row[0] = r.nextDouble();
+      row[1] = r.nextDouble();
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Clustering<Model> parallel = new ELKIBuilder<>(ParallelGeneralizedDBSCAN.class) //
+        .with(DBSCAN.Parameterizer.EPSILON_ID, 0.01) //
+        .with(DBSCAN.Parameterizer.MINPTS_ID, 5) //
+        .build().run(db);
+    Clustering<Model> serial = new ELKIBuilder<>(GeneralizedDBSCAN.class) //
+        .with(DBSCAN.Parameterizer.EPSILON_ID, 0.01) //
+        .with(DBSCAN.Parameterizer.MINPTS_ID, 5) //
+        .build().run(db);
+    // Border points may be assigned differently, but not clusters and noise.
+    assertEquals("Number of clusters does not match.", serial.getAllClusters().size(), parallel.getAllClusters().size());
+    assertEquals("Noise does not match.", countNoise(serial), countNoise(parallel));
+  }
+
+  /**
+   * Count the noise points of a clustering.
+   *
+   * @param c Clustering
+   * @return Number of noise points
+   */
+  private static int countNoise(Clustering<Model> c) {
+    int noise = 0;
+    for(Cluster<Model> clu : c.getAllClusters()) {
+      noise += clu.isNoise() ? clu.size() : 0;
+    }
+    return noise;
+  }
 }
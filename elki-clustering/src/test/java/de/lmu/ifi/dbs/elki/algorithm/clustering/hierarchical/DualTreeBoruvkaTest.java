@@ -0,0 +1,117 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.SpatialPrimitiveDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.math.geometry.PrimsMinimumSpanningTree;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleLongMinHeap;
+
+/**
+ * Test the dual-tree Borůvka minimum spanning tree against Prim's algorithm.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class DualTreeBoruvkaTest {
+  /**
+   * Test on data with many duplicates and tied distances.
+   */
+  @Test
+  public void testTies() {
+    Random r = new Random(0L);
+    double[][] data = new double[1500][3];
+    for(double[] row : data) {
+      for(int d = 0; d < row.length; d++) {
+        row[d] = r.nextInt(12);
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(EuclideanDistanceFunction.STATIC.getInputTypeRestriction());
+    for(SpatialPrimitiveDistanceFunction<? super NumberVector> df : Arrays.asList(EuclideanDistanceFunction.STATIC, SquaredEuclideanDistanceFunction.STATIC, ManhattanDistanceFunction.STATIC)) {
+      assertSameWeights(db, rel, df, 0);
+      assertSameWeights(db, rel, df, 5);
+    }
+  }
+
+  /**
+   * Compare the edge weights of the two spanning trees, which are unique.
+   *
+   * @param db Database
+   * @param rel Relation
+   * @param df Distance function
+   * @param minPts Neighborhood size for the core distances, 0 for single-link
+   */
+  private void assertSameWeights(Database db, Relation<NumberVector> rel, SpatialPrimitiveDistanceFunction<? super NumberVector> df, int minPts) {
+    ArrayDBIDs ids = DBIDUtil.ensureArray(rel.getDBIDs());
+    DistanceQuery<NumberVector> dq = db.getDistanceQuery(rel, df);
+    WritableDoubleDataStore coredists = DataStoreUtil.makeDoubleStorage(ids, 0, 0.);
+    if(minPts > 0) {
+      KNNQuery<NumberVector> knnq = db.getKNNQuery(dq, minPts);
+      for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+        coredists.put(it, knnq.getKNNForDBID(it, minPts).getKNNDistance());
+      }
+    }
+    DoubleLongMinHeap expect = new DoubleLongMinHeap(), got = new DoubleLongMinHeap();
+    PrimsMinimumSpanningTree.processDense(ids, new AbstractHDBSCAN.HDBSCANAdapter(ids, coredists, dq), new AbstractHDBSCAN.HeapMSTCollector(expect, null, null));
+    new DualTreeBoruvka<>(rel, ids, df, minPts > 0 ? coredists : null).run(new AbstractHDBSCAN.HeapMSTCollector(got, null, null));
+    assertEquals("Number of edges does not match.", ids.size() - 1, got.size());
+    assertArrayEquals("Edge weights do not match.", weights(expect), weights(got), 1e-12);
+  }
+
+  /**
+   * Get the sorted edge weights.
+   *
+   * @param heap Edge heap
+   * @return Weights
+   */
+  private static double[] weights(DoubleLongMinHeap heap) {
+    double[] w = new double[heap.size()];
+    for(int i = 0; !heap.isEmpty(); i++) {
+      w[i] = heap.peekKey();
+      heap.poll();
+    }
+    return w;
+  }
+}
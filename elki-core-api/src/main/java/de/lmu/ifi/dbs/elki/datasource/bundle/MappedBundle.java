@@ -0,0 +1,294 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.datasource.bundle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBID;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.IntegerArray;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteBufferSerializer;
+
+/**
+ * Read-only, memory-mapped access to a bundle file written by
+ * {@link BundleWriter}.
+ * <p>
+ * Instead of deserializing all objects into the heap, the file is scanned once
+ * to record the position of every value, and the objects are only decoded on
+ * access, directly from the mapped buffers. The data therefore does not count
+ * towards the Java heap, and the operating system page cache can be shared by
+ * multiple processes that analyze the same file.
+ * <p>
+ * The heap still holds one int offset per value, and the DBIDs if the bundle
+ * stores them. Each access allocates a buffer view and the decoded object,
+ * which are not retained by this class.
+ * <p>
+ * Files larger than 2 GB are mapped in multiple segments, starting at record
+ * boundaries.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - Column
+ */
+public class MappedBundle {
+  /**
+   * Size after which a new segment is started. Because segments are mapped
+   * with up to 2 GB, records may be up to 1 GB large.
+   */
+  private static final int SEGMENT_SIZE = 1 << 30;
+
+  /**
+   * Bundle metadata.
+   */
+  private BundleMeta meta;
+
+  /**
+   * Serializers for each column (excluding DBIDs).
+   */
+  private ByteBufferSerializer<?>[] sers;
+
+  /**
+   * Mapped segments.
+   */
+  private List<MappedByteBuffer> segments = new ArrayList<>();
+
+  /**
+   * First row of each segment.
+   */
+  private IntegerArray segstart = new IntegerArray();
+
+  /**
+   * Positions of each value, relative to the start of its segment.
+   */
+  private int[][] positions;
+
+  /**
+   * DBIDs, if stored in the bundle.
+   */
+  private ArrayModifiableDBIDs ids;
+
+  /**
+   * Number of rows.
+   */
+  private int size;
+
+  /**
+   * Constructor.
+   * <p>
+   * The channel may be closed afterwards; the mapped buffers remain valid.
+   *
+   * @param input Input channel
+   */
+  public MappedBundle(FileChannel input) {
+    super();
+    try {
+      scan(input);
+    }
+    catch(IOException e) {
+      throw new AbortException("Cannot map input bundle.", e);
+    }
+  }
+
+  /**
+   * Map the file, and record the value positions.
+   *
+   * @param input Input channel
+   * @throws IOException on IO errors
+   */
+  private void scan(FileChannel input) throws IOException {
+    final long filesize = input.size();
+    long start = 0;
+    MappedByteBuffer buffer = input.map(MapMode.READ_ONLY, start, Math.min(filesize - start, Integer.MAX_VALUE));
+    segments.add(buffer);
+    segstart.add(0);
+    // Parse the metadata using the regular reader:
+    BundleReader reader = new BundleReader(buffer);
+    meta = reader.getMeta();
+    final ByteBufferSerializer<?> idser = reader.hasids ? reader.sers[0] : null;
+    sers = reader.hasids ? Arrays.copyOfRange(reader.sers, 1, reader.sers.length) : reader.sers;
+    ids = reader.hasids ? DBIDUtil.newArray() : null;
+    IntegerArray[] pos = new IntegerArray[sers.length];
+    for(int i = 0; i < sers.length; i++) {
+      pos[i] = new IntegerArray();
+    }
+    while(start + buffer.position() < filesize) {
+      // Start a new segment at a record boundary:
+      if(buffer.position() >= SEGMENT_SIZE) {
+        start += buffer.position();
+        buffer = input.map(MapMode.READ_ONLY, start, Math.min(filesize - start, Integer.MAX_VALUE));
+        segments.add(buffer);
+        segstart.add(size);
+      }
+      if(idser != null) {
+        ids.add((DBID) idser.fromByteBuffer(buffer));
+      }
+      for(int i = 0; i < sers.length; i++) {
+        pos[i].add(buffer.position());
+        // Skip the value. The object is not kept.
+        sers[i].fromByteBuffer(buffer);
+      }
+      ++size;
+    }
+    positions = new int[sers.length][];
+    for(int i = 0; i < sers.length; i++) {
+      positions[i] = pos[i].toArray();
+      pos[i] = null; // Release the growable array early.
+    }
+  }
+
+  /**
+   * Get the bundle metadata.
+   *
+   * @return Metadata
+   */
+  public BundleMeta getMeta() {
+    return meta;
+  }
+
+  /**
+   * Number of rows in the bundle.
+   *
+   * @return Size
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get a column of the bundle, as a read-only list that decodes the objects
+   * on access.
+   *
+   * @param col Column number
+   * @return Column
+   */
+  public Column<?> getColumn(int col) {
+    return new Column<>(col, sers[col]);
+  }
+
+  /**
+   * Produce a multiple objects bundle, with lazily decoded columns.
+   *
+   * @return Bundle
+   */
+  public MultipleObjectsBundle asMultipleObjectsBundle() {
+    MultipleObjectsBundle bundle = new MultipleObjectsBundle();
+    for(int i = 0; i < sers.length; i++) {
+      bundle.appendColumn(meta.get(i), getColumn(i));
+    }
+    if(ids != null) {
+      bundle.setDBIDs(ids);
+    }
+    return bundle;
+  }
+
+  /**
+   * Find the segment containing a row.
+   *
+   * @param row Row number
+   * @return Segment number
+   */
+  private int segmentOf(int row) {
+    final int nseg = segstart.size;
+    if(nseg == 1) {
+      return 0;
+    }
+    int pos = Arrays.binarySearch(segstart.data, 0, nseg, row);
+    // Rows inside a segment are not found, but give the insertion position:
+    return pos >= 0 ? pos : (-pos - 2);
+  }
+
+  /**
+   * A single column of a mapped bundle. Objects are decoded on every access.
+   * <p>
+   * This class is thread safe.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  public class Column<O> extends AbstractList<O> implements RandomAccess {
+    /**
+     * Column number.
+     */
+    private final int col;
+
+    /**
+     * Serializer.
+     */
+    private final ByteBufferSerializer<O> ser;
+
+    /**
+     * Constructor.
+     *
+     * @param col Column number
+     * @param ser Serializer
+     */
+    @SuppressWarnings("unchecked")
+    protected Column(int col, ByteBufferSerializer<?> ser) {
+      super();
+      this.col = col;
+      this.ser = (ByteBufferSerializer<O>) ser;
+    }
+
+    @Override
+    public O get(int row) {
+      if(row < 0 || row >= size) {
+        throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+      }
+      // Use a private view, so that concurrent accesses do not interfere.
+      ByteBuffer buffer = segments.get(segmentOf(row)).duplicate();
+      buffer.position(positions[col][row]);
+      try {
+        return ser.fromByteBuffer(buffer);
+      }
+      catch(IOException e) {
+        throw new AbortException("IO error", e);
+      }
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Get the type of this column.
+     *
+     * @return Type information
+     */
+    public SimpleTypeInformation<?> getType() {
+      return meta.get(col);
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.ArrayAdapter;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.NumberArrayAdapter;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteBufferSerializer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+
+/**
+ * Vector type that is a view onto a slice of a larger {@code double[]} array,
+ * as used by packed relations that store all vectors in one contiguous array.
+ * <p>
+ * The underlying array and offset are exposed, so that performance critical
+ * code can access the values directly, without going through
+ * {@link #doubleValue(int)}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class PackedDoubleVector implements NumberVector {
+  /**
+   * Static factory instance.
+   */
+  public static final PackedDoubleVector.Factory FACTORY = new PackedDoubleVector.Factory();
+
+  /**
+   * Serializer using varint encoding.
+   */
+  public static final ByteBufferSerializer<PackedDoubleVector> VARIABLE_SERIALIZER = new VariableSerializer();
+
+  /**
+   * Array containing the values (of this, and other vectors).
+   */
+  private final double[] data;
+
+  /**
+   * Offset of the first value.
+   */
+  private final int offset;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Constructor.
+   *
+   * @param data Data array (not copied)
+   * @param offset Offset of the first value
+   * @param dim Dimensionality
+   */
+  public PackedDoubleVector(double[] data, int offset, int dim) {
+    this.data = data;
+    this.offset = offset;
+    this.dim = dim;
+  }
+
+  @Override
+  public int getDimensionality() {
+    return dim;
+  }
+
+  @Override
+  public double doubleValue(int dimension) {
+    return data[offset + dimension];
+  }
+
+  @Override
+  public long longValue(int dimension) {
+    return (long) data[offset + dimension];
+  }
+
+  @Override
+  public double[] toArray() {
+    return Arrays.copyOfRange(data, offset, offset + dim);
+  }
+
+  /**
+   * Get the underlying data array, for direct access.
+   * <p>
+   * Note: the array is shared with other vectors, and must not be modified.
+   *
+   * @return Data array
+   */
+  public double[] getData() {
+    return data;
+  }
+
+  /**
+   * Get the offset of the first value in the data array.
+   *
+   * @return Offset
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder featureLine = new StringBuilder(dim * 10);
+    for(int i = 0; i < dim; i++) {
+      if(i > 0) {
+        featureLine.append(ATTRIBUTE_SEPARATOR);
+      }
+      featureLine.append(data[offset + i]);
+    }
+    return featureLine.toString();
+  }
+
+  /**
+   * Factory for packed double vectors.
+   * <p>
+   * Vectors created by this factory are not shared, but use their own array.
+   *
+   * @author Erich Schubert
+   *
+   * @has - - - PackedDoubleVector
+   */
+  public static class Factory implements NumberVector.Factory<PackedDoubleVector> {
+    @Override
+    public PackedDoubleVector newNumberVector(double[] values) {
+      return new PackedDoubleVector(values.clone(), 0, values.length);
+    }
+
+    @Override
+    public <A> PackedDoubleVector newFeatureVector(A array, ArrayAdapter<? extends Number, A> adapter) {
+      final int dim = adapter.size(array);
+      double[] values = new double[dim];
+      for(int i = 0; i < dim; i++) {
+        values[i] = adapter.get(array, i).doubleValue();
+      }
+      return new PackedDoubleVector(values, 0, dim);
+    }
+
+    @Override
+    public <A> PackedDoubleVector newNumberVector(A array, NumberArrayAdapter<?, ? super A> adapter) {
+      final int dim = adapter.size(array);
+      double[] values = new double[dim];
+      for(int i = 0; i < dim; i++) {
+        values[i] = adapter.getDouble(array, i);
+      }
+      return new PackedDoubleVector(values, 0, dim);
+    }
+
+    @Override
+    public ByteBufferSerializer<PackedDoubleVector> getDefaultSerializer() {
+      return VARIABLE_SERIALIZER;
+    }
+
+    @Override
+    public Class<? super PackedDoubleVector> getRestrictionClass() {
+      return PackedDoubleVector.class;
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     */
+    public static class Parameterizer extends AbstractParameterizer {
+      @Override
+      protected PackedDoubleVector.Factory makeInstance() {
+        return FACTORY;
+      }
+    }
+  }
+
+  /**
+   * Serialization class using VarInt encodings, compatible with the serialized
+   * format of {@link DoubleVector}.
+   *
+   * @author Erich Schubert
+   */
+  public static class VariableSerializer implements ByteBufferSerializer<PackedDoubleVector> {
+    @Override
+    public PackedDoubleVector fromByteBuffer(ByteBuffer buffer) throws IOException {
+      final int dimensionality = ByteArrayUtil.readUnsignedVarint(buffer);
+      assert (buffer.remaining() >= ByteArrayUtil.SIZE_DOUBLE * dimensionality) : "Not enough data remaining in buffer to read " + dimensionality + " doubles";
+      final double[] values = new double[dimensionality];
+      for(int i = 0; i < dimensionality; i++) {
+        values[i] = buffer.getDouble();
+      }
+      return new PackedDoubleVector(values, 0, dimensionality);
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, PackedDoubleVector vec) throws IOException {
+      assert (buffer.remaining() >= ByteArrayUtil.SIZE_DOUBLE * vec.dim) : "Not enough space remaining in buffer to write " + vec.dim + " doubles";
+      ByteArrayUtil.writeUnsignedVarint(buffer, vec.dim);
+      for(int i = 0, j = vec.offset; i < vec.dim; i++, j++) {
+        buffer.putDouble(vec.data[j]);
+      }
+    }
+
+    @Override
+    public int getByteSize(PackedDoubleVector vec) {
+      return ByteArrayUtil.getUnsignedVarintSize(vec.dim) + ByteArrayUtil.SIZE_DOUBLE * vec.dim;
+    }
+  }
+}
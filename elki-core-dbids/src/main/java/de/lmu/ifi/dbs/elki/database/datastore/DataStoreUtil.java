@@ -22,6 +22,9 @@ package de.lmu.ifi.dbs.elki.database.datastore;
 
 import java.util.Comparator;
 
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
@@ -139,6 +142,31 @@ public final class DataStoreUtil {
     return DataStoreFactory.FACTORY.makeRecordStorage(ids, hints, dataclasses);
   }
 
+  /**
+   * Make a map from DBIDs to their position in an array.
+   * <p>
+   * For DBID ranges, this is the range itself; otherwise the positions are
+   * stored in an integer data store.
+   *
+   * @param ids DBIDs
+   * @return Map to array offsets
+   */
+  public static DataStoreIDMap makeIDMap(ArrayDBIDs ids) {
+    if(ids instanceof DBIDRange) {
+      return (DBIDRange) ids;
+    }
+    final WritableIntegerDataStore offsets = makeIntegerStorage(ids, DataStoreFactory.HINT_DB, -1);
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      offsets.putInt(iter, iter.getOffset());
+    }
+    return new DataStoreIDMap() {
+      @Override
+      public int mapDBIDToOffset(DBIDRef dbid) {
+        return offsets.intValue(dbid);
+      }
+    };
+  }
+
   /**
    * Sort objects by a double relation
    *
@@ -21,6 +21,7 @@
 package de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.PackedDoubleVector;
 import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
 import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
@@ -132,6 +133,10 @@ public class SquaredEuclideanDistanceFunction extends AbstractNumberVectorDistan
   @Override
   public double distance(NumberVector v1, NumberVector v2) {
     final int dim1 = v1.getDimensionality(), dim2 = v2.getDimensionality();
+    if(dim1 == dim2 && v1 instanceof PackedDoubleVector && v2 instanceof PackedDoubleVector) {
+      final PackedDoubleVector p1 = (PackedDoubleVector) v1, p2 = (PackedDoubleVector) v2;
+      return distance(p1.getData(), p1.getOffset(), p2.getData(), p2.getOffset(), dim1);
+    }
     final int mindim = dim1 < dim2 ? dim1 : dim2;
     double agg = preDistance(v1, v2, 0, mindim);
     if(dim1 > mindim) {
@@ -159,6 +164,25 @@ public class SquaredEuclideanDistanceFunction extends AbstractNumberVectorDistan
     return agg;
   }
 
+  /**
+   * Special version for vectors stored in (packed) double arrays.
+   *
+   * @param v1 First array
+   * @param off1 Offset of the first vector in the first array
+   * @param v2 Second array
+   * @param off2 Offset of the second vector in the second array
+   * @param dim Dimensionality
+   * @return Squared Euclidean distance
+   */
+  public double distance(double[] v1, int off1, double[] v2, int off2, int dim) {
+    double agg = 0.;
+    for(int d = 0; d < dim; d++) {
+      final double delta = v1[off1 + d] - v2[off2 + d];
+      agg += delta * delta;
+    }
+    return agg;
+  }
+
   @Override
   public double norm(NumberVector v) {
     return preNorm(v, 0, v.getDimensionality());
@@ -159,6 +159,15 @@ public class WeightedLPNormDistanceFunction extends LPNormDistanceFunction imple
     return FastMath.pow(agg, invp);
   }
 
+  /**
+   * Get the weight vector.
+   *
+   * @return Weights
+   */
+  public double[] getWeights() {
+    return weights;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if(this == obj) {
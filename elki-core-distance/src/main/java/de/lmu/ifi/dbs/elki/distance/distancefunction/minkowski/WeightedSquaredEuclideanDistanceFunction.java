@@ -113,6 +113,15 @@ public class WeightedSquaredEuclideanDistanceFunction extends AbstractNumberVect
     return true;
   }
 
+  /**
+   * Get the weight vector.
+   *
+   * @return Weights
+   */
+  public double[] getWeights() {
+    return weights;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if(this == obj) {
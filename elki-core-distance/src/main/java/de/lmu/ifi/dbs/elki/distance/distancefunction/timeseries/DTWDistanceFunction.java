@@ -38,6 +38,10 @@ import net.jafama.FastMath;
  * <p>
  * This implementation uses a buffer storing two rows.
  * <p>
+ * For similarity search, the LB_Kim and LB_Keogh lower bounds are supported,
+ * and the computation can be abandoned early, see
+ * {@link EarlyAbandoningDistanceFunction}.
+ * <p>
  * TODO: allow different one-dimensional distances
  * 
  * @author Thomas Bernecker
@@ -50,7 +54,17 @@ import net.jafama.FastMath;
     booktitle = "AAAI-94 Workshop on Knowledge Discovery in Databases, 1994", //
     url = "http://www.aaai.org/Papers/Workshops/1994/WS-94-03/WS94-03-031.pdf", //
     bibkey = "DBLP:conf/kdd/BerndtC94")
-public class DTWDistanceFunction extends AbstractEditDistanceFunction {
+@Reference(authors = "S.-W. Kim, S. Park, W. W. Chu", //
+    title = "An index-based approach for similarity search supporting time warping in large sequence databases", //
+    booktitle = "Proc. 17th Int. Conf. on Data Engineering (ICDE)", //
+    url = "https://doi.org/10.1109/ICDE.2001.914875", //
+    bibkey = "DBLP:conf/icde/KimPC01")
+@Reference(authors = "E. Keogh, C. A. Ratanamahatana", //
+    title = "Exact indexing of dynamic time warping", //
+    booktitle = "Knowledge and Information Systems 7(3)", //
+    url = "https://doi.org/10.1007/s10115-004-0154-9", //
+    bibkey = "DBLP:journals/kais/KeoghR05")
+public class DTWDistanceFunction extends AbstractEditDistanceFunction implements EarlyAbandoningDistanceFunction {
   /**
    * Constructor.
    */
@@ -69,6 +83,11 @@ public class DTWDistanceFunction extends AbstractEditDistanceFunction {
 
   @Override
   public double distance(NumberVector v1, NumberVector v2) {
+    return distance(v1, v2, Double.POSITIVE_INFINITY);
+  }
+
+  @Override
+  public double distance(NumberVector v1, NumberVector v2, double bound) {
     // Dimensionality, and last valid value in second vector:
     final int dim1 = v1.getDimensionality(), dim2 = v2.getDimensionality();
     final int m2 = dim2 - 1;
@@ -85,6 +104,9 @@ public class DTWDistanceFunction extends AbstractEditDistanceFunction {
 
     // Fill first row:
     firstRow(buf, band, v1, v2, dim2);
+    if(abandon(min(buf, 0, Math.min(band, m2)), bound)) {
+      return Double.POSITIVE_INFINITY;
+    }
 
     // Active buffer offsets (cur = read, nxt = write)
     int cur = 0, nxt = dim2;
@@ -92,6 +114,7 @@ public class DTWDistanceFunction extends AbstractEditDistanceFunction {
     int i = 1, l = 0, r = Math.min(m2, i + band);
     while(i < dim1) {
       final double val1 = v1.doubleValue(i);
+      double rowmin = Double.POSITIVE_INFINITY;
       for(int j = l; j <= r; j++) {
         // Value in previous row (must exist, may be infinite):
         double min = buf[cur + j];
@@ -106,7 +129,12 @@ public class DTWDistanceFunction extends AbstractEditDistanceFunction {
           }
         }
         // Write:
-        buf[nxt + j] = min + delta(val1, v2.doubleValue(j));
+        final double v = buf[nxt + j] = min + delta(val1, v2.doubleValue(j));
+        rowmin = v < rowmin ? v : rowmin;
+      }
+      // Every warping path passes through this row:
+      if(abandon(rowmin, bound)) {
+        return Double.POSITIVE_INFINITY;
       }
       // Swap buffer positions:
       cur = dim2 - cur;
@@ -125,6 +153,99 @@ public class DTWDistanceFunction extends AbstractEditDistanceFunction {
     return FastMath.sqrt(buf[cur + dim2 - 1]);
   }
 
+  /**
+   * Test whether the computation can be abandoned.
+   *
+   * @param cost Lower bound of the accumulated cost
+   * @param bound Distance bound
+   * @return {@code true} if the distance will exceed the bound
+   */
+  protected boolean abandon(double cost, double bound) {
+    return cost > bound * bound && FastMath.sqrt(cost) > bound;
+  }
+
+  /**
+   * Minimum of a buffer range.
+   *
+   * @param buf Buffer
+   * @param l First position
+   * @param r Last position (inclusive)
+   * @return Minimum
+   */
+  protected static double min(double[] buf, int l, int r) {
+    double min = buf[l];
+    for(int j = l + 1; j <= r; j++) {
+      min = buf[j] < min ? buf[j] : min;
+    }
+    return min;
+  }
+
+  @Override
+  public Envelope envelope(NumberVector v) {
+    final int dim = v.getDimensionality();
+    return new Envelope(v, Math.min(effectiveBandSize(dim, dim), dim));
+  }
+
+  @Override
+  public double lowerBound(NumberVector v1, Envelope e1, NumberVector v2, Envelope e2, double bound) {
+    return FastMath.sqrt(lowerBoundCost(v1, e1, v2, e2, bound * bound));
+  }
+
+  /**
+   * Lower bound of the accumulated cost, using LB_Kim and LB_Keogh.
+   *
+   * @param v1 First time series
+   * @param e1 Envelope of the first time series, may be {@code null}
+   * @param v2 Second time series
+   * @param e2 Envelope of the second time series, may be {@code null}
+   * @param bound Cost bound of interest
+   * @return Lower bound of the cost
+   */
+  protected double lowerBoundCost(NumberVector v1, Envelope e1, NumberVector v2, Envelope e2, double bound) {
+    final int dim1 = v1.getDimensionality(), dim2 = v2.getDimensionality();
+    if(Math.abs(dim1 - dim2) > effectiveBandSize(dim1, dim2)) {
+      return Double.POSITIVE_INFINITY;
+    }
+    // LB_Kim: the first and the last cells are on every path.
+    double lb = delta(v1.doubleValue(0), v2.doubleValue(0));
+    if(dim1 > 1 && dim2 > 1) {
+      lb += delta(v1.doubleValue(dim1 - 1), v2.doubleValue(dim2 - 1));
+    }
+    if(lb > bound || dim1 != dim2) {
+      return lb;
+    }
+    // LB_Keogh: every value is aligned with one within the window.
+    if(e1 != null) {
+      final double k = keogh(e1, v2, 0, bound);
+      lb = k > lb ? k : lb;
+    }
+    if(lb <= bound && e2 != null) {
+      final double k = keogh(e2, v1, 0, bound);
+      lb = k > lb ? k : lb;
+    }
+    return lb;
+  }
+
+  /**
+   * Compute LB_Keogh, the cost of each value to the envelope of the other
+   * series.
+   *
+   * @param e Envelope
+   * @param v Time series
+   * @param start First position to use
+   * @param bound Cost bound, to stop early
+   * @return Lower bound of the cost
+   */
+  protected double keogh(Envelope e, NumberVector v, int start, double bound) {
+    final double[] upper = e.upper, lower = e.lower;
+    double lb = 0.;
+    for(int j = start; j < upper.length && lb <= bound; j++) {
+      final double x = v.doubleValue(j);
+      lb += x > upper[j] ? delta(x, upper[j]) : x < lower[j] ? delta(x, lower[j]) : 0.;
+    }
+    return lb;
+  }
+
   /**
    * Fill the first row.
    * 
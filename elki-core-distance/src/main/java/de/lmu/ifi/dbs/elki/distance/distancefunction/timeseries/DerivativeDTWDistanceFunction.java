@@ -35,6 +35,9 @@ import net.jafama.FastMath;
  * E. J. Keogh, M. J. Pazzani<br>
  * Derivative dynamic time warping<br>
  * 1st SIAM Int. Conf. on Data Mining (SDM-2001)
+ * <p>
+ * The LB_Kim and LB_Keogh bounds of DTW do not apply to the derivatives, but
+ * early abandoning is supported.
  * 
  * @author Lara Hirschbeck, Daniel Kolb
  * @since 0.7.0
@@ -63,7 +66,7 @@ public class DerivativeDTWDistanceFunction extends DTWDistanceFunction {
   }
 
   @Override
-  public double distance(NumberVector v1, NumberVector v2) {
+  public double distance(NumberVector v1, NumberVector v2, double bound) {
     // Dimensionality, and last valid value in second vector:
     final int dim1 = v1.getDimensionality(), dim2 = v2.getDimensionality();
     final int m2 = dim2 - 1;
@@ -80,6 +83,9 @@ public class DerivativeDTWDistanceFunction extends DTWDistanceFunction {
 
     // Fill first row:
     firstRow(buf, band, v1, v2, dim2);
+    if(abandon(min(buf, 0, Math.min(band, m2)), bound)) {
+      return Double.POSITIVE_INFINITY;
+    }
 
     // Active buffer offsets (cur = read, nxt = write)
     int cur = 0, nxt = dim2;
@@ -87,6 +93,7 @@ public class DerivativeDTWDistanceFunction extends DTWDistanceFunction {
     int i = 1, l = 0, r = Math.min(m2, i + band);
     while(i < dim1) {
       final double val1 = derivative(i, v1);
+      double rowmin = Double.POSITIVE_INFINITY;
       for(int j = l; j <= r; j++) {
         // Value in previous row (must exist, may be infinite):
         double min = buf[cur + j];
@@ -101,7 +108,11 @@ public class DerivativeDTWDistanceFunction extends DTWDistanceFunction {
           }
         }
         // Write:
-        buf[nxt + j] = min + delta(val1, derivative(j, v2));
+        final double v = buf[nxt + j] = min + delta(val1, derivative(j, v2));
+        rowmin = v < rowmin ? v : rowmin;
+      }
+      if(abandon(rowmin, bound)) {
+        return Double.POSITIVE_INFINITY;
       }
       // Swap buffer positions:
       cur = dim2 - cur;
@@ -120,6 +131,17 @@ public class DerivativeDTWDistanceFunction extends DTWDistanceFunction {
     return FastMath.sqrt(buf[cur + dim2 - 1]);
   }
 
+  @Override
+  public Envelope envelope(NumberVector v) {
+    return null;
+  }
+
+  @Override
+  public double lowerBound(NumberVector v1, Envelope e1, NumberVector v2, Envelope e2, double bound) {
+    final int dim1 = v1.getDimensionality(), dim2 = v2.getDimensionality();
+    return Math.abs(dim1 - dim2) > effectiveBandSize(dim1, dim2) ? Double.POSITIVE_INFINITY : 0.;
+  }
+
   @Override
   protected void firstRow(double[] buf, int band, NumberVector v1, NumberVector v2, int dim2) {
     // First cell:
@@ -66,7 +66,7 @@ public class EDRDistanceFunction extends DTWDistanceFunction {
   }
 
   @Override
-  public double distance(NumberVector v1, NumberVector v2) {
+  public double distance(NumberVector v1, NumberVector v2, double bound) {
     // Dimensionality, and last valid value in second vector:
     final int dim1 = v1.getDimensionality(), dim2 = v2.getDimensionality();
 
@@ -84,12 +84,16 @@ public class EDRDistanceFunction extends DTWDistanceFunction {
     firstRow(buf, band, v1, v2, dim2);
 
     final int m2 = dim2 - 1;
+    if(abandon(min(buf, 0, Math.min(band, m2)), bound)) {
+      return Double.POSITIVE_INFINITY;
+    }
     // Active buffer offsets (cur = read, nxt = write)
     int cur = 0, nxt = dim2;
     // Fill remaining rows:
     int i = 1, l = 0, r = Math.min(m2, i + band);
     while(i < dim1) {
       final double val1 = v1.doubleValue(i);
+      double rowmin = Double.POSITIVE_INFINITY;
       for(int j = l; j <= r; j++) {
         // Value in previous row (must exist, may be infinite):
         double min = buf[cur + j];
@@ -104,7 +108,11 @@ public class EDRDistanceFunction extends DTWDistanceFunction {
           }
         }
         // Write:
-        buf[nxt + j] = min + delta(val1, v2.doubleValue(j));
+        final double v = buf[nxt + j] = min + delta(val1, v2.doubleValue(j));
+        rowmin = v < rowmin ? v : rowmin;
+      }
+      if(abandon(rowmin, bound)) {
+        return Double.POSITIVE_INFINITY;
       }
       // Swap buffer positions:
       cur = dim2 - cur;
@@ -122,6 +130,16 @@ public class EDRDistanceFunction extends DTWDistanceFunction {
     return buf[cur + dim2 - 1];
   }
 
+  @Override
+  protected boolean abandon(double cost, double bound) {
+    return cost > bound;
+  }
+
+  @Override
+  public double lowerBound(NumberVector v1, Envelope e1, NumberVector v2, Envelope e2, double bound) {
+    return lowerBoundCost(v1, e1, v2, e2, bound);
+  }
+
   @Override
   protected double delta(double val1, double val2) {
     return (Math.abs(val1 - val2) < delta) ? 0. : 1.;
@@ -66,7 +66,7 @@ public class ERPDistanceFunction extends DTWDistanceFunction {
   }
 
   @Override
-  public double distance(NumberVector v1, NumberVector v2) {
+  public double distance(NumberVector v1, NumberVector v2, double bound) {
     // Dimensionality, and last valid value in second vector:
     final int dim1 = v1.getDimensionality(), dim2 = v2.getDimensionality();
     final int m2 = dim2 - 1;
@@ -83,6 +83,9 @@ public class ERPDistanceFunction extends DTWDistanceFunction {
 
     // Fill first row:
     firstRow(buf, band, v1, v2, dim2);
+    if(abandon(min(buf, 0, Math.min(band, m2)), bound)) {
+      return Double.POSITIVE_INFINITY;
+    }
 
     // Active buffer offsets (cur = read, nxt = write)
     int cur = 0, nxt = dim2;
@@ -90,6 +93,7 @@ public class ERPDistanceFunction extends DTWDistanceFunction {
     int i = 1, l = 0, r = Math.min(m2, i + band);
     while(i < dim1) {
       final double val1 = v1.doubleValue(i);
+      double rowmin = Double.POSITIVE_INFINITY;
       for(int j = l; j <= r; j++) {
         // Value in previous row (must exist, may be infinite):
         double min = buf[cur + j] + delta(val1, g);
@@ -105,6 +109,10 @@ public class ERPDistanceFunction extends DTWDistanceFunction {
         }
         // Write:
         buf[nxt + j] = min;
+        rowmin = min < rowmin ? min : rowmin;
+      }
+      if(abandon(rowmin, bound)) {
+        return Double.POSITIVE_INFINITY;
       }
       // Swap buffer positions:
       cur = dim2 - cur;
@@ -123,6 +131,50 @@ public class ERPDistanceFunction extends DTWDistanceFunction {
     return FastMath.sqrt(buf[cur + dim2 - 1]);
   }
 
+  @Override
+  public double lowerBound(NumberVector v1, Envelope e1, NumberVector v2, Envelope e2, double bound) {
+    final int dim1 = v1.getDimensionality(), dim2 = v2.getDimensionality();
+    final int band = effectiveBandSize(dim1, dim2);
+    if(Math.abs(dim1 - dim2) > band) {
+      return Double.POSITIVE_INFINITY;
+    }
+    final double b = bound * bound;
+    // LB_Kim: the first row, and the last step of every path.
+    final double first = v1.doubleValue(0);
+    double lb = Math.min(delta(first, g), delta(first, v2.doubleValue(0)));
+    if(dim1 > 1) {
+      final double last1 = v1.doubleValue(dim1 - 1), last2 = v2.doubleValue(dim2 - 1);
+      lb += Math.min(Math.min(delta(last1, g), delta(last1, last2)), delta(g, last2));
+    }
+    if(lb > b || dim1 != dim2) {
+      return FastMath.sqrt(lb);
+    }
+    // LB_Keogh: every value of the first series is aligned with a value of the
+    // second within the window, or with the gap value.
+    if(e2 != null) {
+      final double k = keogh(e2, v1, 0, b);
+      lb = k > lb ? k : lb;
+    }
+    // The first row may skip values of the second series.
+    if(lb <= b && e1 != null) {
+      final double k = keogh(e1, v2, Math.min(band, dim2 - 1) + 1, b);
+      lb = k > lb ? k : lb;
+    }
+    return FastMath.sqrt(lb);
+  }
+
+  @Override
+  protected double keogh(Envelope e, NumberVector v, int start, double bound) {
+    final double[] upper = e.upper, lower = e.lower;
+    double lb = 0.;
+    for(int j = start; j < upper.length && lb <= bound; j++) {
+      final double x = v.doubleValue(j);
+      final double u = upper[j] > g ? upper[j] : g, l = lower[j] < g ? lower[j] : g;
+      lb += x > u ? delta(x, u) : x < l ? delta(x, l) : 0.;
+    }
+    return lb;
+  }
+
   @Override
   protected void firstRow(double[] buf, int band, NumberVector v1, NumberVector v2, int dim2) {
     // First cell:
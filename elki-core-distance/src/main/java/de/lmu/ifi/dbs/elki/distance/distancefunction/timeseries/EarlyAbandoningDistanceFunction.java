@@ -0,0 +1,72 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.distance.distancefunction.timeseries;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+
+/**
+ * Time series distances that support lower bounds and early abandoning, for
+ * accelerating similarity search with a cascade of increasingly expensive
+ * bounds: constant-time bounds on the first and last values (LB_Kim), linear
+ * time bounds using the envelopes of either series (LB_Keogh), and finally the
+ * distance computation itself, which may stop once the bound is exceeded.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public interface EarlyAbandoningDistanceFunction extends NumberVectorDistanceFunction<NumberVector> {
+  @Override
+  double distance(NumberVector v1, NumberVector v2);
+
+  /**
+   * Compute the envelope of a time series, as used by
+   * {@link #lowerBound}.
+   *
+   * @param v Time series
+   * @return Envelope, or {@code null} if not used by this distance
+   */
+  Envelope envelope(NumberVector v);
+
+  /**
+   * Compute a lower bound of {@code distance(v1, v2)}.
+   * <p>
+   * Computation may stop as soon as the bound exceeds {@code bound}.
+   *
+   * @param v1 First time series
+   * @param e1 Envelope of the first time series, may be {@code null}
+   * @param v2 Second time series
+   * @param e2 Envelope of the second time series, may be {@code null}
+   * @param bound Bound of interest
+   * @return Lower bound of the distance
+   */
+  double lowerBound(NumberVector v1, Envelope e1, NumberVector v2, Envelope e2, double bound);
+
+  /**
+   * Compute the distance, but stop early once it exceeds {@code bound}.
+   *
+   * @param v1 First time series
+   * @param v2 Second time series
+   * @param bound Bound of interest
+   * @return Distance, if at most {@code bound}, otherwise any larger value
+   */
+  double distance(NumberVector v1, NumberVector v2, double bound);
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.distance.distancefunction.timeseries;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+
+/**
+ * Upper and lower envelope of a time series, i.e., the maximum and minimum
+ * within a window of {@code +-w} around each position, as used by LB_Keogh.
+ * <p>
+ * The envelope is computed in linear time with the streaming minimum-maximum
+ * algorithm of Lemire.
+ * <p>
+ * Reference:
+ * <p>
+ * D. Lemire<br>
+ * Faster retrieval with a two-pass dynamic-time-warping lower bound<br>
+ * Pattern Recognition 42(9)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@Reference(authors = "D. Lemire", //
+    title = "Faster retrieval with a two-pass dynamic-time-warping lower bound", //
+    booktitle = "Pattern Recognition 42(9)", //
+    url = "https://doi.org/10.1016/j.patcog.2008.11.030", //
+    bibkey = "DBLP:journals/pr/Lemire09")
+public class Envelope {
+  /**
+   * Window maxima.
+   */
+  final double[] upper;
+
+  /**
+   * Window minima.
+   */
+  final double[] lower;
+
+  /**
+   * Global minimum and maximum.
+   */
+  final double min, max;
+
+  /**
+   * Constructor.
+   *
+   * @param v Time series
+   * @param w Window width (to each side)
+   */
+  public Envelope(NumberVector v, int w) {
+    final double[] vals = v.toArray();
+    final int n = vals.length;
+    upper = new double[n];
+    lower = new double[n];
+    final int[] maxq = new int[n], minq = new int[n];
+    int maxh = 0, maxt = 0, minh = 0, mint = 0;
+    for(int i = 0, next = 0; i < n; i++) {
+      // Add values entering the window [i-w; i+w]:
+      for(; next < n && next - w <= i; next++) {
+        final double x = vals[next];
+        while(maxt > maxh && vals[maxq[maxt - 1]] <= x) {
+          --maxt;
+        }
+        maxq[maxt++] = next;
+        while(mint > minh && vals[minq[mint - 1]] >= x) {
+          --mint;
+        }
+        minq[mint++] = next;
+      }
+      // Remove values leaving the window:
+      while(maxq[maxh] < i - w) {
+        ++maxh;
+      }
+      while(minq[minh] < i - w) {
+        ++minh;
+      }
+      upper[i] = vals[maxq[maxh]];
+      lower[i] = vals[minq[minh]];
+    }
+    double mi = Double.POSITIVE_INFINITY, ma = Double.NEGATIVE_INFINITY;
+    for(int i = 0; i < n; i++) {
+      mi = lower[i] < mi ? lower[i] : mi;
+      ma = upper[i] > ma ? upper[i] : ma;
+    }
+    this.min = mi;
+    this.max = ma;
+  }
+
+  /**
+   * Length of the envelope.
+   *
+   * @return Length
+   */
+  public int getDimensionality() {
+    return upper.length;
+  }
+}
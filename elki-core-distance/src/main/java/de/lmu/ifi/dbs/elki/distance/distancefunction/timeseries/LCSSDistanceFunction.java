@@ -43,6 +43,11 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
  * Indexing Multi-Dimensional Time-Series with Support for Multiple Distance
  * Measures<br>
  * Proc. 9th ACM SIGKDD Int. Conf. on Knowledge Discovery and Data Mining
+ * <p>
+ * For series of equal length, the number of matches is bounded by the number
+ * of values within epsilon of the envelope of the other series, which yields a
+ * lower bound of the distance. The computation is abandoned as soon as the
+ * remaining rows can no longer produce enough matches.
  *
  * @author Thomas Bernecker
  * @since 0.2
@@ -53,7 +58,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
     booktitle = "Proc. 9th ACM SIGKDD Int. Conf. on Knowledge Discovery and Data Mining", //
     url = "https://doi.org/10.1145/956750.956777", //
     bibkey = "DBLP:conf/kdd/VlachosHGK03")
-public class LCSSDistanceFunction extends AbstractNumberVectorDistanceFunction {
+public class LCSSDistanceFunction extends AbstractNumberVectorDistanceFunction implements EarlyAbandoningDistanceFunction {
   /**
    * Keeps the currently set pDelta.
    */
@@ -78,9 +83,14 @@ public class LCSSDistanceFunction extends AbstractNumberVectorDistanceFunction {
 
   @Override
   public double distance(NumberVector v1, NumberVector v2) {
+    return distance(v1, v2, Double.POSITIVE_INFINITY);
+  }
+
+  @Override
+  public double distance(NumberVector v1, NumberVector v2, double bound) {
     final int dim1 = v1.getDimensionality(), dim2 = v2.getDimensionality();
     if(dim1 > dim2) {
-      return distance(v2, v1);
+      return distance(v2, v1, bound);
     }
     final int delta = (int) Math.ceil(dim2 * pDelta);
 
@@ -88,6 +98,7 @@ public class LCSSDistanceFunction extends AbstractNumberVectorDistanceFunction {
     final double epsilon = getRange(v1, dim1, v2, dim2) * pEpsilon;
 
     double[] curr = new double[dim2 + 1], next = new double[dim2 + 1];
+    double best = 0.; // Largest number of matches so far
 
     for(int i = 0; i < dim1; i++) {
       final double ai = v1.doubleValue(i);
@@ -102,6 +113,11 @@ public class LCSSDistanceFunction extends AbstractNumberVectorDistanceFunction {
         else { // del
           next[j + 1] = next[j];
         }
+        best = next[j + 1] > best ? next[j + 1] : best;
+      }
+      // Each remaining row can add at most one match:
+      if(1. - (best + dim1 - 1 - i) / dim1 > bound) {
+        return Double.POSITIVE_INFINITY;
       }
       // Swap
       double[] tmp = curr;
@@ -118,6 +134,35 @@ public class LCSSDistanceFunction extends AbstractNumberVectorDistanceFunction {
     return 1. - sim;
   }
 
+  @Override
+  public Envelope envelope(NumberVector v) {
+    final int dim = v.getDimensionality();
+    return new Envelope(v, Math.min((int) Math.ceil(dim * pDelta), dim));
+  }
+
+  @Override
+  public double lowerBound(NumberVector v1, Envelope e1, NumberVector v2, Envelope e2, double bound) {
+    final int dim = v1.getDimensionality();
+    if(e1 == null || e2 == null || dim != v2.getDimensionality()) {
+      return 0.;
+    }
+    // Same value range as used by the distance computation:
+    final double epsilon = (Math.max(e1.max, e2.max) - Math.min(e1.min, e2.min)) * pEpsilon;
+    // Values of v2 that can match some value of v1 in the band:
+    int ub2 = 0;
+    for(int j = 0; j < dim; j++) {
+      final double bj = v2.doubleValue(j);
+      ub2 += (bj + epsilon) >= e1.lower[j] && (bj - epsilon) <= e1.upper[j] ? 1 : 0;
+    }
+    // Values of v1 that can match some value of v2 in the band:
+    int ub1 = 0;
+    for(int i = 0; i < dim; i++) {
+      final double ai = v1.doubleValue(i);
+      ub1 += (e2.upper[i] + epsilon) >= ai && (e2.lower[i] - epsilon) <= ai ? 1 : 0;
+    }
+    return 1. - Math.min(ub1, ub2) / (double) dim;
+  }
+
   public double getRange(NumberVector v1, final int dim1, NumberVector v2, final int dim2) {
     double min = v1.doubleValue(0), max = min;
     for(int i = 1; i < dim1; i++) {
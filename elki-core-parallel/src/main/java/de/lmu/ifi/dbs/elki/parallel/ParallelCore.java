@@ -21,6 +21,9 @@
 package de.lmu.ifi.dbs.elki.parallel;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -29,8 +32,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Core for parallel processing in ELKI, based on {@link ThreadPoolExecutor}.
- * 
- * TODO: make configurable how many threads are used.
+ * <p>
+ * For work-stealing execution of fine-grained tasks, a {@link ForkJoinPool}
+ * with the same parallelism is available, too. Both share the same life cycle:
+ * they are started by {@link #connect()}, and released again when the last
+ * submitter has called {@link #disconnect()}.
+ * <p>
+ * By default, all available processors are used; see
+ * {@link #setParallelism(int)}.
  * 
  * @author Erich Schubert
  * @since 0.7.0
@@ -51,6 +60,11 @@ public class ParallelCore {
    */
   ThreadPoolExecutor executor;
 
+  /**
+   * Work-stealing pool, while connected.
+   */
+  volatile ForkJoinPool pool;
+
   /**
    * Number of connected submitters.
    */
@@ -87,6 +101,26 @@ public class ParallelCore {
     return executor != null ? executor.getMaximumPoolSize() : processors;
   }
 
+  /**
+   * Set the desired level of parallelism.
+   * <p>
+   * This can only be changed while no submitter is connected.
+   * 
+   * @param processors Number of threads to run in parallel
+   */
+  public synchronized void setParallelism(int processors) {
+    if(processors < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1.");
+    }
+    if(connected.get() > 0) {
+      throw new IllegalStateException("Parallelism cannot be changed while connected.");
+    }
+    this.processors = processors;
+    if(executor != null) {
+      executor.setMaximumPoolSize(processors);
+    }
+  }
+
   /**
    * Submit a task to the executor core.
    * 
@@ -98,35 +132,87 @@ public class ParallelCore {
     return executor.submit(task);
   }
 
+  /**
+   * Submit a work-stealing task to the fork-join pool.
+   * <p>
+   * The caller must be connected. When called from within the pool, the task
+   * is forked instead, so that joining it will not block a worker thread.
+   * 
+   * @param task Submitted task
+   * 
+   * @return Task, to observe completion
+   */
+  public <T> ForkJoinTask<T> submit(ForkJoinTask<T> task) {
+    ForkJoinPool p = pool;
+    return ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == p ? task.fork() : p.submit(task);
+  }
+
+  /**
+   * Run a work-stealing task on the fork-join pool, and wait for its result.
+   * <p>
+   * This connects to the core for the duration of the task. When called from
+   * within the pool (i.e., from another task), the task is run directly, to
+   * avoid blocking a worker thread while waiting. Unchecked exceptions of the
+   * task are rethrown.
+   * 
+   * @param task Task to run
+   * @return Result of the task
+   */
+  public <T> T invoke(ForkJoinTask<T> task) {
+    connect();
+    try {
+      ForkJoinPool p = pool;
+      if(ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == p) {
+        return task.invoke();
+      }
+      return p.submit(task).get();
+    }
+    catch(ExecutionException e) {
+      if(e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if(e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new RuntimeException("Parallel execution failed.", e.getCause());
+    }
+    catch(InterruptedException e) {
+      task.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Parallel execution interrupted.", e);
+    }
+    finally {
+      disconnect();
+    }
+  }
+
   /**
    * Connect to the executor.
    */
-  public void connect() {
+  public synchronized void connect() {
     if(executor == null) {
-      synchronized(this) {
-        if(executor == null) {
-          executor = new ThreadPoolExecutor(0, processors, 10L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-          executor.allowCoreThreadTimeOut(true);
-        }
-      }
+      executor = new ThreadPoolExecutor(0, processors, 10L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+      executor.allowCoreThreadTimeOut(true);
     }
     int c = this.connected.incrementAndGet();
     if(c == 1) {
       executor.allowCoreThreadTimeOut(false);
       executor.setCorePoolSize(executor.getMaximumPoolSize());
+      pool = new ForkJoinPool(executor.getMaximumPoolSize());
     }
   }
 
   /**
    * Disconnect to the executor.
    */
-  public void disconnect() {
+  public synchronized void disconnect() {
     int c = this.connected.decrementAndGet();
     if(c == 0) {
-      synchronized(this) {
-        executor.allowCoreThreadTimeOut(true);
-        executor.setCorePoolSize(0);
-      }
+      executor.allowCoreThreadTimeOut(true);
+      executor.setCorePoolSize(0);
+      // Idle workers terminate, remaining tasks are still completed.
+      pool.shutdown();
+      pool = null;
     }
   }
 }
@@ -20,33 +20,59 @@
  */
 package de.lmu.ifi.dbs.elki.parallel;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
 import de.lmu.ifi.dbs.elki.parallel.variables.SharedVariable;
 import de.lmu.ifi.dbs.elki.parallel.variables.SharedVariable.Instance;
 
 /**
  * Class to run processors in parallel, on all available cores.
- *
- * TODO: add progress
+ * <p>
+ * The work is distributed using work-stealing: the range of objects is split
+ * adaptively ("lazy binary splitting"), i.e. only when other threads are
+ * running out of work. This way, skewed workloads (where some objects are much
+ * more expensive to process than others) do not leave cores idle, while
+ * uniform workloads are not split into more tasks than necessary.
+ * (Earlier versions split the objects into fixed, equally sized blocks up
+ * front, which performs poorly when the cost per object varies.)
+ * <p>
+ * Processor instances are created once per worker thread, and are cleaned up
+ * after all objects have been processed.
+ * <p>
+ * If a processor fails, or the calling thread is interrupted, the remaining
+ * work is cancelled. When called from within a parallel task, the work is
+ * shared with the other worker threads instead of blocking the caller.
  *
  * @author Erich Schubert
  * @since 0.7.0
  *
+ * @has - - - RangeTask
  * @has - - - BlockArrayRunner
  * @assoc - - - ParallelCore
  */
 public final class ParallelExecutor {
+  /**
+   * Number of surplus tasks in the local queue below which we continue to
+   * split.
+   */
+  private static final int SURPLUS = 2;
+
+  /**
+   * Maximum number of objects to process before checking for cancellation,
+   * reporting progress and offering work to other threads.
+   */
+  private static final int MAX_GRAIN = 1024;
+
   /**
    * Private constructor. Static methods only.
    */
@@ -61,37 +87,361 @@ public final class ParallelExecutor {
    * @param procs Processors to run
    */
   public static void run(DBIDs ids, Processor... procs) {
+    run(ids, null, null, procs);
+  }
+
+  /**
+   * Run a task on all available CPUs, with progress reporting.
+   *
+   * @param ids IDs to process
+   * @param prog Progress to update (may be {@code null})
+   * @param logger Logger to report progress to
+   * @param procs Processors to run
+   */
+  public static void run(DBIDs ids, FiniteProgress prog, Logging logger, Processor... procs) {
+    ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+    final int size = aids.size();
+    if(size == 0) {
+      return;
+    }
     ParallelCore core = ParallelCore.getCore();
-    core.connect();
+    final int parallelism = core.getParallelism();
+    // Small blocks: check for cancellation, and offer work to other threads.
+    final int grain = Math.max(1, Math.min(MAX_GRAIN, size / (parallelism << 6)));
+    Job job = new Job(aids, procs, grain, prog, logger);
     try {
-      // TODO: try different strategies anyway!
-      ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
-      final int size = aids.size();
-      int numparts = core.getParallelism();
-      // TODO: are there better heuristics for choosing this?
-      numparts = (size > numparts * numparts * 16) ? numparts * Math.max(1, numparts - 1) : numparts;
-
-      final int blocksize = (size + (numparts - 1)) / numparts;
-      List<Future<ArrayDBIDs>> parts = new ArrayList<>(numparts);
-      for(int i = 0; i < numparts; i++) {
-        final int start = i * blocksize;
-        final int end = Math.min(start + blocksize, size);
-        Callable<ArrayDBIDs> run = new BlockArrayRunner(aids, start, end, procs);
-        parts.add(core.submit(run));
+      core.invoke(new RangeTask(job, 0, size, null));
+    }
+    finally {
+      job.cancelled = true; // Stop any remaining work, on errors.
+    }
+    // Merge the thread-local instances.
+    for(BlockArrayRunner runner : job.runners.values()) {
+      runner.cleanup();
+    }
+  }
+
+  /**
+   * Process a range of integers, such as array offsets, on all available CPUs.
+   * <p>
+   * The range is split adaptively, as above, but never into blocks smaller
+   * than the given grain. Every offset is processed exactly once, but the
+   * order of the blocks is not deterministic. Unchecked exceptions are
+   * rethrown to the caller, after the remaining blocks were cancelled.
+   *
+   * @param start First offset
+   * @param end End offset (exclusive)
+   * @param grain Minimum number of offsets to process at once
+   * @param proc Processor for blocks of offsets
+   */
+  public static void run(int start, int end, int grain, RangeProcessor proc) {
+    if(end - start <= grain || ParallelCore.getCore().getParallelism() <= 1) {
+      if(start < end) {
+        proc.process(start, end);
+      }
+      return;
+    }
+    BlockJob job = new BlockJob(proc, grain);
+    try {
+      ParallelCore.getCore().invoke(new BlockTask(job, start, end, null));
+    }
+    finally {
+      job.cancelled = true; // Stop any remaining work, on errors.
+    }
+  }
+
+  /**
+   * Run independent tasks on all available CPUs, and wait for their
+   * completion. Unchecked exceptions are rethrown to the caller.
+   *
+   * @param tasks Tasks to run
+   */
+  public static void run(final List<? extends Runnable> tasks) {
+    run(0, tasks.size(), 1, new RangeProcessor() {
+      @Override
+      public void process(int start, int end) {
+        for(int i = start; i < end; i++) {
+          tasks.get(i).run();
+        }
+      }
+    });
+  }
+
+  /**
+   * Processor for blocks of integer offsets.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface RangeProcessor {
+    /**
+     * Process a range of offsets.
+     *
+     * @param start First offset
+     * @param end End offset (exclusive)
+     */
+    void process(int start, int end);
+  }
+
+  /**
+   * Shared state of a parallel job.
+   *
+   * @author Erich Schubert
+   */
+  private static class Job {
+    /**
+     * Array IDs to process
+     */
+    final ArrayDBIDs ids;
+
+    /**
+     * The processor masters that own the instances.
+     */
+    final Processor[] procs;
+
+    /**
+     * Number of objects to process at once.
+     */
+    final int grain;
+
+    /**
+     * Progress, may be {@code null}.
+     */
+    final FiniteProgress prog;
+
+    /**
+     * Logger for progress.
+     */
+    final Logging logger;
+
+    /**
+     * Runners, one per worker thread.
+     */
+    final ConcurrentHashMap<Thread, BlockArrayRunner> runners = new ConcurrentHashMap<>();
+
+    /**
+     * Cancellation flag.
+     */
+    volatile boolean cancelled = false;
+
+    /**
+     * Constructor.
+     *
+     * @param ids IDs to process
+     * @param procs Processors
+     * @param grain Objects to process at once
+     * @param prog Progress
+     * @param logger Logger for progress
+     */
+    Job(ArrayDBIDs ids, Processor[] procs, int grain, FiniteProgress prog, Logging logger) {
+      this.ids = ids;
+      this.procs = procs;
+      this.grain = grain;
+      this.prog = prog;
+      this.logger = logger;
+    }
+
+    /**
+     * Get the runner of the current thread.
+     *
+     * @return Runner
+     */
+    BlockArrayRunner getRunner() {
+      final Thread t = Thread.currentThread();
+      BlockArrayRunner r = runners.get(t);
+      if(r == null) {
+        runners.put(t, r = new BlockArrayRunner(ids, procs));
       }
+      return r;
+    }
+  }
+
+  /**
+   * Work-stealing task processing a range of objects, which splits off the
+   * upper half of its range whenever other threads may need work.
+   *
+   * @author Erich Schubert
+   */
+  private static class RangeTask extends RecursiveAction {
+    /**
+     * Serialization version
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Job
+     */
+    private final Job job;
+
+    /**
+     * Range to process
+     */
+    private final int start, end;
+
+    /**
+     * Previously forked sibling task, to join.
+     */
+    private final RangeTask next;
 
-      for(Future<ArrayDBIDs> fut : parts) {
-        fut.get();
+    /**
+     * Constructor.
+     *
+     * @param job Job
+     * @param start Start position
+     * @param end End position
+     * @param next Sibling task to join
+     */
+    RangeTask(Job job, int start, int end, RangeTask next) {
+      this.job = job;
+      this.start = start;
+      this.end = end;
+      this.next = next;
+    }
+
+    @Override
+    protected void compute() {
+      final Job job = this.job;
+      final int grain = job.grain;
+      BlockArrayRunner runner = job.getRunner();
+      RangeTask forked = null;
+      int s = start, e = end;
+      while(s < e && !job.cancelled) {
+        // Split off the upper half, while other threads are short of work:
+        while(e - s > grain && getSurplusQueuedTaskCount() <= SURPLUS) {
+          final int mid = (s + e) >>> 1;
+          (forked = new RangeTask(job, mid, e, forked)).fork();
+          e = mid;
+        }
+        final int bend = Math.min(s + grain, e);
+        try {
+          runner.process(s, bend);
+        }
+        catch(RuntimeException | Error ex) {
+          job.cancelled = true; // Abort other threads, too.
+          throw ex;
+        }
+        if(job.prog != null) {
+          job.prog.incrementProcessed(bend - s, job.logger);
+        }
+        s = bend;
+      }
+      // Join forked tasks, most recent first.
+      for(; forked != null; forked = forked.next) {
+        if(forked.tryUnfork()) {
+          forked.compute();
+        }
+        else {
+          forked.join();
+        }
       }
     }
-    catch(ExecutionException e) {
-      throw new RuntimeException("Processor execution failed.", e);
+  }
+
+  /**
+   * Shared state of a job on a range of offsets.
+   *
+   * @author Erich Schubert
+   */
+  private static class BlockJob {
+    /**
+     * Processor for blocks.
+     */
+    final RangeProcessor proc;
+
+    /**
+     * Number of offsets to process at once.
+     */
+    final int grain;
+
+    /**
+     * Cancellation flag.
+     */
+    volatile boolean cancelled = false;
+
+    /**
+     * Constructor.
+     *
+     * @param proc Processor for blocks
+     * @param grain Offsets to process at once
+     */
+    BlockJob(RangeProcessor proc, int grain) {
+      this.proc = proc;
+      this.grain = grain;
     }
-    catch(InterruptedException e) {
-      throw new RuntimeException("Parallel execution interrupted.");
+  }
+
+  /**
+   * Work-stealing task processing a range of offsets, splitting like
+   * {@link RangeTask}.
+   *
+   * @author Erich Schubert
+   */
+  private static class BlockTask extends RecursiveAction {
+    /**
+     * Serialization version
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Job
+     */
+    private final BlockJob job;
+
+    /**
+     * Range to process
+     */
+    private final int start, end;
+
+    /**
+     * Previously forked sibling task, to join.
+     */
+    private final BlockTask next;
+
+    /**
+     * Constructor.
+     *
+     * @param job Job
+     * @param start Start offset
+     * @param end End offset
+     * @param next Sibling task to join
+     */
+    BlockTask(BlockJob job, int start, int end, BlockTask next) {
+      this.job = job;
+      this.start = start;
+      this.end = end;
+      this.next = next;
     }
-    finally {
-      core.disconnect();
+
+    @Override
+    protected void compute() {
+      final BlockJob job = this.job;
+      final int grain = job.grain;
+      BlockTask forked = null;
+      int s = start, e = end;
+      while(s < e && !job.cancelled) {
+        while(e - s > grain && getSurplusQueuedTaskCount() <= SURPLUS) {
+          final int mid = (s + e) >>> 1;
+          (forked = new BlockTask(job, mid, e, forked)).fork();
+          e = mid;
+        }
+        final int bend = Math.min(s + grain, e);
+        try {
+          job.proc.process(s, bend);
+        }
+        catch(RuntimeException | Error ex) {
+          job.cancelled = true; // Abort other threads, too.
+          throw ex;
+        }
+        s = bend;
+      }
+      for(; forked != null; forked = forked.next) {
+        if(forked.tryUnfork()) {
+          forked.compute();
+        }
+        else {
+          forked.join();
+        }
+      }
     }
   }
 
@@ -102,26 +452,26 @@ public final class ParallelExecutor {
    *
    * @assoc - - - Processor
    */
-  protected static class BlockArrayRunner implements Callable<ArrayDBIDs>, Executor {
+  protected static class BlockArrayRunner implements Executor {
     /**
      * Array IDs to process
      */
     private ArrayDBIDs ids;
 
     /**
-     * Start position
+     * Array iterator.
      */
-    private int start;
+    private DBIDArrayIter iter;
 
     /**
-     * End position
+     * The processor masters that own the instances.
      */
-    private int end;
+    private Processor[] procs;
 
     /**
-     * The processor masters that own the instances.
+     * Processor instances.
      */
-    private Processor[] procs;
+    private Processor.Instance[] instances;
 
     /**
      * Variables map.
@@ -132,33 +482,44 @@ public final class ParallelExecutor {
      * Constructor.
      *
      * @param ids IDs to process
-     * @param start Starting position
-     * @param end End position
      * @param procs Processors to run
      */
-    protected BlockArrayRunner(ArrayDBIDs ids, int start, int end, Processor[] procs) {
+    protected BlockArrayRunner(ArrayDBIDs ids, Processor[] procs) {
       super();
       this.ids = ids;
-      this.start = start;
-      this.end = end;
       this.procs = procs;
     }
 
-    @Override
-    public ArrayDBIDs call() {
-      Processor.Instance[] instances = new Processor.Instance[procs.length];
-      for(int i = 0; i < procs.length; i++) {
-        instances[i] = procs[i].instantiate(this);
+    /**
+     * Process a range of objects.
+     *
+     * @param start Starting position
+     * @param end End position
+     */
+    protected void process(int start, int end) {
+      if(instances == null) {
+        instances = new Processor.Instance[procs.length];
+        for(int i = 0; i < procs.length; i++) {
+          instances[i] = procs[i].instantiate(this);
+        }
+        iter = ids.iter();
       }
-      for(DBIDArrayIter iter = ids.iter().seek(start); iter.valid() && iter.getOffset() < end; iter.advance()) {
+      for(iter.seek(start); iter.getOffset() < end; iter.advance()) {
         for(int i = 0; i < instances.length; i++) {
           instances[i].map(iter);
         }
       }
-      for(int i = 0; i < instances.length; i++) {
-        procs[i].cleanup(instances[i]);
+    }
+
+    /**
+     * Cleanup the processor instances.
+     */
+    protected void cleanup() {
+      if(instances != null) {
+        for(int i = 0; i < instances.length; i++) {
+          procs[i].cleanup(instances[i]);
+        }
       }
-      return ids;
     }
 
     @Override
@@ -0,0 +1,225 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.datastructures.triangular;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Triangular storage backed by {@link ByteBuffer}s, either allocated off-heap
+ * or memory-mapped from a file, with single or double precision.
+ * <p>
+ * Because a single buffer is limited to 2 GB, the matrix is split into
+ * multiple segments of equal size.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class BufferTriangularStorage implements TriangularStorage {
+  /**
+   * Default segment size in bytes, as power of two (1 GB).
+   */
+  static final int DEFAULT_SEGMENT_SHIFT = 30;
+
+  /**
+   * Matrix size.
+   */
+  private final int size;
+
+  /**
+   * Use single precision.
+   */
+  private final boolean single;
+
+  /**
+   * Entries per segment, as power of two.
+   */
+  private final int shift;
+
+  /**
+   * Mask to get the offset within a segment.
+   */
+  private final long mask;
+
+  /**
+   * Data segments.
+   */
+  private ByteBuffer[] segments;
+
+  /**
+   * Backing file, may be {@code null}.
+   */
+  private File file;
+
+  /**
+   * Constructor.
+   *
+   * @param size Matrix size
+   * @param single Use single precision
+   * @param shift Entries per segment, as power of two
+   * @param segments Data segments
+   * @param file Backing file to delete on close, may be {@code null}
+   */
+  protected BufferTriangularStorage(int size, boolean single, int shift, ByteBuffer[] segments, File file) {
+    super();
+    this.size = size;
+    this.single = single;
+    this.shift = shift;
+    this.mask = (1L << shift) - 1;
+    this.segments = segments;
+    this.file = file;
+  }
+
+  /**
+   * Allocate a matrix in off-heap memory.
+   *
+   * @param size Matrix size
+   * @param single Use single precision
+   * @return Storage
+   */
+  public static BufferTriangularStorage allocateDirect(int size, boolean single) {
+    return allocateDirect(size, single, DEFAULT_SEGMENT_SHIFT);
+  }
+
+  /**
+   * Allocate a matrix in off-heap memory.
+   *
+   * @param size Matrix size
+   * @param single Use single precision
+   * @param segshift Segment size in bytes, as power of two
+   * @return Storage
+   */
+  static BufferTriangularStorage allocateDirect(int size, boolean single, int segshift) {
+    final int shift = segshift - (single ? 2 : 3);
+    final long length = TriangularStorage.triangleSize(size);
+    ByteBuffer[] segments = new ByteBuffer[numSegments(length, shift)];
+    for(int i = 0; i < segments.length; i++) {
+      segments[i] = ByteBuffer.allocateDirect(segmentBytes(length, shift, i, single)).order(ByteOrder.nativeOrder());
+    }
+    return new BufferTriangularStorage(size, single, shift, segments, null);
+  }
+
+  /**
+   * Map a matrix from a new file. The file will be deleted on close.
+   *
+   * @param file File to create
+   * @param size Matrix size
+   * @param single Use single precision
+   * @return Storage
+   * @throws IOException on IO errors
+   */
+  public static BufferTriangularStorage map(File file, int size, boolean single) throws IOException {
+    return map(file, size, single, DEFAULT_SEGMENT_SHIFT);
+  }
+
+  /**
+   * Map a matrix from a new file. The file will be deleted on close.
+   *
+   * @param file File to create
+   * @param size Matrix size
+   * @param single Use single precision
+   * @param segshift Segment size in bytes, as power of two
+   * @return Storage
+   * @throws IOException on IO errors
+   */
+  static BufferTriangularStorage map(File file, int size, boolean single, int segshift) throws IOException {
+    final int shift = segshift - (single ? 2 : 3);
+    final long length = TriangularStorage.triangleSize(size);
+    ByteBuffer[] segments = new ByteBuffer[numSegments(length, shift)];
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(length << (single ? 2 : 3));
+      FileChannel channel = raf.getChannel();
+      for(int i = 0; i < segments.length; i++) {
+        // Mappings remain valid after closing the channel.
+        segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, ((long) i << segshift), segmentBytes(length, shift, i, single)).order(ByteOrder.nativeOrder());
+      }
+    }
+    catch(IOException e) {
+      file.delete();
+      throw e;
+    }
+    return new BufferTriangularStorage(size, single, shift, segments, file);
+  }
+
+  /**
+   * Number of segments needed.
+   *
+   * @param length Number of entries
+   * @param shift Entries per segment, as power of two
+   * @return Number of segments
+   */
+  private static int numSegments(long length, int shift) {
+    return (int) ((length + (1L << shift) - 1) >>> shift);
+  }
+
+  /**
+   * Size of a segment in bytes.
+   *
+   * @param length Number of entries
+   * @param shift Entries per segment, as power of two
+   * @param i Segment number
+   * @param single Single precision
+   * @return Size in bytes
+   */
+  private static int segmentBytes(long length, int shift, int i, boolean single) {
+    final long entries = Math.min(1L << shift, length - ((long) i << shift));
+    return (int) (entries << (single ? 2 : 3));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public double get(long offset) {
+    final ByteBuffer seg = segments[(int) (offset >>> shift)];
+    final int pos = (int) (offset & mask);
+    return single ? seg.getFloat(pos << 2) : seg.getDouble(pos << 3);
+  }
+
+  @Override
+  public void set(long offset, double value) {
+    final ByteBuffer seg = segments[(int) (offset >>> shift)];
+    final int pos = (int) (offset & mask);
+    if(single) {
+      seg.putFloat(pos << 2, (float) value);
+    }
+    else {
+      seg.putDouble(pos << 3, value);
+    }
+  }
+
+  @Override
+  public void close() {
+    segments = null;
+    if(file != null) {
+      // The mapping is only released by garbage collection, but the file can
+      // be unlinked already.
+      file.delete();
+      file = null;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.datastructures.triangular;
+
+/**
+ * On-heap triangular storage with double precision, split into multiple arrays
+ * to overcome the Java array size limit.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class ChunkedDoubleTriangularStorage implements TriangularStorage {
+  /**
+   * Default chunk size, as power of two (128 M entries).
+   */
+  static final int DEFAULT_SHIFT = 27;
+
+  /**
+   * Matrix size.
+   */
+  private final int size;
+
+  /**
+   * Chunk size, as power of two.
+   */
+  private final int shift;
+
+  /**
+   * Mask to get the offset within a chunk.
+   */
+  private final long mask;
+
+  /**
+   * Data chunks.
+   */
+  private double[][] chunks;
+
+  /**
+   * Constructor.
+   *
+   * @param size Matrix size
+   */
+  public ChunkedDoubleTriangularStorage(int size) {
+    this(size, DEFAULT_SHIFT);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param size Matrix size
+   * @param shift Chunk size, as power of two
+   */
+  ChunkedDoubleTriangularStorage(int size, int shift) {
+    this.size = size;
+    this.shift = shift;
+    this.mask = (1L << shift) - 1;
+    final long length = TriangularStorage.triangleSize(size);
+    final int numchunks = (int) ((length + mask) >>> shift);
+    chunks = new double[numchunks][];
+    for(int i = 0; i < numchunks - 1; i++) {
+      chunks[i] = new double[1 << shift];
+    }
+    if(numchunks > 0) {
+      chunks[numchunks - 1] = new double[(int) (length - ((long) (numchunks - 1) << shift))];
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public double get(long offset) {
+    return chunks[(int) (offset >>> shift)][(int) (offset & mask)];
+  }
+
+  @Override
+  public void set(long offset, double value) {
+    chunks[(int) (offset >>> shift)][(int) (offset & mask)] = value;
+  }
+
+  @Override
+  public void close() {
+    chunks = null;
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.datastructures.triangular;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+
+/**
+ * Allocate triangular matrixes in temporary, memory-mapped files.
+ * <p>
+ * The operating system will page the matrix to disk as necessary, so this can
+ * be used for matrixes larger than main memory (but performance will degrade
+ * rapidly once the matrix no longer fits into the page cache). The files are
+ * deleted when the matrix is closed.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - BufferTriangularStorage
+ */
+public class MappedTriangularStorageFactory implements TriangularStorage.Factory {
+  /**
+   * Directory for temporary files, {@code null} for the system default.
+   */
+  protected File directory;
+
+  /**
+   * Use single precision.
+   */
+  protected boolean single;
+
+  /**
+   * Constructor.
+   *
+   * @param directory Directory for temporary files, may be {@code null}
+   * @param single Use single precision
+   */
+  public MappedTriangularStorageFactory(File directory, boolean single) {
+    super();
+    this.directory = directory;
+    this.single = single;
+  }
+
+  @Override
+  public TriangularStorage newStorage(int size) {
+    File file = null;
+    try {
+      file = File.createTempFile("elki-matrix-", ".bin", directory);
+      file.deleteOnExit();
+      return BufferTriangularStorage.map(file, size, single);
+    }
+    catch(IOException e) {
+      throw new AbortException("Could not map matrix file " + (file != null ? file : directory), e);
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   */
+  public static class Parameterizer extends AbstractParameterizer {
+    /**
+     * Directory for temporary files.
+     */
+    public static final OptionID DIRECTORY_ID = new OptionID("matrix.directory", "Directory to store the temporary matrix files in, defaults to the system temporary directory.");
+
+    /**
+     * Directory for temporary files.
+     */
+    protected File directory;
+
+    /**
+     * Use single precision.
+     */
+    protected boolean single;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      FileParameter directoryP = new FileParameter(DIRECTORY_ID, FileParameter.FileType.OUTPUT_FILE, true);
+      if(config.grab(directoryP)) {
+        directory = directoryP.getValue();
+      }
+      Flag floatF = new Flag(ChunkedTriangularStorageFactory.Parameterizer.FLOAT_ID);
+      if(config.grab(floatF)) {
+        single = floatF.isTrue();
+      }
+    }
+
+    @Override
+    protected MappedTriangularStorageFactory makeInstance() {
+      return new MappedTriangularStorageFactory(directory, single);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.datastructures.triangular;
+
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+
+/**
+ * Allocate triangular matrixes in off-heap memory, to not burden the garbage
+ * collector with huge arrays.
+ * <p>
+ * Off-heap memory is limited by the JVM option
+ * {@code -XX:MaxDirectMemorySize}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - BufferTriangularStorage
+ */
+public class OffHeapTriangularStorageFactory implements TriangularStorage.Factory {
+  /**
+   * Use single precision.
+   */
+  protected boolean single;
+
+  /**
+   * Constructor.
+   *
+   * @param single Use single precision
+   */
+  public OffHeapTriangularStorageFactory(boolean single) {
+    super();
+    this.single = single;
+  }
+
+  @Override
+  public TriangularStorage newStorage(int size) {
+    return BufferTriangularStorage.allocateDirect(size, single);
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   */
+  public static class Parameterizer extends AbstractParameterizer {
+    /**
+     * Use single precision.
+     */
+    protected boolean single;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      Flag floatF = new Flag(ChunkedTriangularStorageFactory.Parameterizer.FLOAT_ID);
+      if(config.grab(floatF)) {
+        single = floatF.isTrue();
+      }
+    }
+
+    @Override
+    protected OffHeapTriangularStorageFactory makeInstance() {
+      return new OffHeapTriangularStorageFactory(single);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.datastructures.triangular;
+
+/**
+ * Storage for the values of a strict lower triangular matrix (without the
+ * diagonal), as used for symmetric distance matrixes.
+ * <p>
+ * The values are stored in a linear layout: the value of (x, y), with
+ * {@code y < x}, is at offset {@code triangleSize(x) + y}. Because offsets
+ * are {@code long}, implementations are not limited to 65536 objects as a
+ * single Java array would be.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - Factory
+ */
+public interface TriangularStorage extends AutoCloseable {
+  /**
+   * Number of rows (and columns) of the matrix.
+   *
+   * @return Matrix size
+   */
+  int size();
+
+  /**
+   * Get the value at the given offset.
+   *
+   * @param offset Linear offset
+   * @return Value
+   */
+  double get(long offset);
+
+  /**
+   * Set the value at the given offset.
+   *
+   * @param offset Linear offset
+   * @param value New value
+   */
+  void set(long offset, double value);
+
+  /**
+   * Release the storage. Further access is not allowed.
+   */
+  @Override
+  void close();
+
+  /**
+   * Compute the size of a complete x by x triangle (minus diagonal)
+   *
+   * @param x Offset
+   * @return Size of complete triangle
+   */
+  static long triangleSize(int x) {
+    return ((long) x * (x - 1)) >>> 1;
+  }
+
+  /**
+   * Linear offset of a pair of (distinct) indexes.
+   *
+   * @param x First index
+   * @param y Second index
+   * @return Linear offset
+   */
+  static long offset(int x, int y) {
+    return (y < x) ? triangleSize(x) + y : triangleSize(y) + x;
+  }
+
+  /**
+   * Factory to allocate triangular storage.
+   *
+   * @author Erich Schubert
+   *
+   * @stereotype factory
+   * @has - - - TriangularStorage
+   */
+  interface Factory {
+    /**
+     * Allocate a new (zero-initialized) triangular matrix.
+     *
+     * @param size Number of rows and columns
+     * @return Storage
+     */
+    TriangularStorage newStorage(int size);
+  }
+}
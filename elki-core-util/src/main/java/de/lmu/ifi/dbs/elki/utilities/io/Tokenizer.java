@@ -59,13 +59,43 @@ public class Tokenizer implements Iter {
     assert (colSep != null) : "Column separator may not be null.";
     this.matcher = colSep.matcher("");
     this.quoteChars = quoteChars != null ? quoteChars.toCharArray() : new char[0];
+    detectFastPath(colSep);
   }
 
+  /**
+   * Pattern string of the default CSV separator, which is handled without
+   * regular expressions.
+   */
+  private static final String DEFAULT_SEPARATOR = "\\s*[,;\\s]\\s*";
+
+  /**
+   * Separator modes: regular expression, default CSV separator, any single
+   * whitespace character, single fixed character.
+   */
+  private static final int SEP_REGEX = 0, SEP_DEFAULT = 1, SEP_WHITESPACE = 2,
+      SEP_CHAR = 3;
+
+  /**
+   * Separator mode.
+   */
+  private int sepmode = SEP_REGEX;
+
+  /**
+   * Separator character, for {@link #SEP_CHAR}.
+   */
+  private char sepchar;
+
   /**
    * Regular expression match helper.
    */
   private Matcher matcher;
 
+  /**
+   * Bounds of the last separator found, and the position to continue the
+   * search at.
+   */
+  private int sepstart, sepend, searchpos;
+
   /**
    * Data currently processed.
    */
@@ -96,7 +126,10 @@ public class Tokenizer implements Iter {
   public void initialize(CharSequence input, int begin, int end) {
     this.input = input;
     this.send = end;
-    this.matcher.reset(input).region(begin, end);
+    if(sepmode == SEP_REGEX) {
+      this.matcher.reset(input).region(begin, end);
+    }
+    this.searchpos = begin;
     this.index = begin;
     advance();
   }
@@ -109,14 +142,14 @@ public class Tokenizer implements Iter {
   @Override
   public Tokenizer advance() {
     char inquote = isQuote(index);
-    while(matcher.find()) {
+    while(findSeparator()) {
       // Quoted code path vs. regular code path
       if(inquote != 0) {
         // Matching closing quote found?
-        if(matcher.start() > index + 1 && input.charAt(matcher.start() - 1) == inquote) {
+        if(sepstart > index + 1 && input.charAt(sepstart - 1) == inquote) {
           this.start = index + 1;
-          this.end = matcher.start() - 1;
-          this.index = matcher.end();
+          this.end = sepstart - 1;
+          this.index = sepend;
           this.quoted = true;
           return this;
         }
@@ -124,8 +157,8 @@ public class Tokenizer implements Iter {
       }
       else {
         this.start = index;
-        this.end = matcher.start();
-        this.index = matcher.end();
+        this.end = sepstart;
+        this.index = sepend;
         this.quoted = false;
         return this;
       }
@@ -149,6 +182,110 @@ public class Tokenizer implements Iter {
     return this;
   }
 
+  /**
+   * Find the next separator, and store its bounds in {@link #sepstart} and
+   * {@link #sepend}.
+   *
+   * @return {@code false} if no further separator was found.
+   */
+  private boolean findSeparator() {
+    if(sepmode == SEP_REGEX) {
+      if(!matcher.find()) {
+        return false;
+      }
+      sepstart = matcher.start();
+      sepend = matcher.end();
+      return true;
+    }
+    int i = searchpos;
+    switch(sepmode){
+    case SEP_DEFAULT:
+      // Equivalent to \s*[,;\s]\s*: whitespace, at most one comma or
+      // semicolon, whitespace.
+      while(i < send) {
+        final char c = input.charAt(i);
+        if(c == ',' || c == ';' || isWhitespace(c)) {
+          break;
+        }
+        ++i;
+      }
+      if(i >= send) {
+        return false;
+      }
+      sepstart = i;
+      while(i < send && isWhitespace(input.charAt(i))) {
+        ++i;
+      }
+      if(i < send && (input.charAt(i) == ',' || input.charAt(i) == ';')) {
+        ++i;
+        while(i < send && isWhitespace(input.charAt(i))) {
+          ++i;
+        }
+      }
+      break;
+    case SEP_WHITESPACE:
+      while(i < send && !isWhitespace(input.charAt(i))) {
+        ++i;
+      }
+      if(i >= send) {
+        return false;
+      }
+      sepstart = i++;
+      break;
+    default: // SEP_CHAR
+      while(i < send && input.charAt(i) != sepchar) {
+        ++i;
+      }
+      if(i >= send) {
+        return false;
+      }
+      sepstart = i++;
+    }
+    sepend = searchpos = i;
+    return true;
+  }
+
+  /**
+   * Test for whitespace, as in the regular expression class {@code \s}.
+   *
+   * @param c Character
+   * @return {@code true} if whitespace
+   */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+  }
+
+  /**
+   * Detect separator patterns that can be matched without using regular
+   * expressions.
+   *
+   * @param colSep Column separator pattern
+   */
+  private void detectFastPath(Pattern colSep) {
+    if(colSep.flags() != 0) {
+      return;
+    }
+    final String p = colSep.pattern();
+    if(DEFAULT_SEPARATOR.equals(p)) {
+      sepmode = SEP_DEFAULT;
+    }
+    else if("\\s".equals(p)) {
+      sepmode = SEP_WHITESPACE;
+    }
+    else if("\\t".equals(p)) {
+      sepmode = SEP_CHAR;
+      sepchar = '\t';
+    }
+    else if(p.length() == 1 && ".$^|?*+()[]{}\\".indexOf(p.charAt(0)) < 0) {
+      sepmode = SEP_CHAR;
+      sepchar = p.charAt(0);
+    }
+    else if(p.length() == 2 && p.charAt(0) == '\\' && ".$^|?*+()[]{}\\".indexOf(p.charAt(1)) >= 0) {
+      sepmode = SEP_CHAR;
+      sepchar = p.charAt(1);
+    }
+  }
+
   /**
    * Get the current part as substring
    *
@@ -0,0 +1,113 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.datastructures.triangular;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the triangular matrix storages, using small chunks to test
+ * the chunk boundaries.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class TriangularStorageTest {
+  /**
+   * Matrix size for testing. The triangle has 4950 entries.
+   */
+  private static final int SIZE = 100;
+
+  @Test
+  public void testChunkedDouble() {
+    checkStorage(new ChunkedDoubleTriangularStorage(SIZE, 6), 0.);
+  }
+
+  @Test
+  public void testChunkedFloat() {
+    checkStorage(new ChunkedFloatTriangularStorage(SIZE, 6), 1e-7);
+  }
+
+  @Test
+  public void testChunkedInteger() {
+    ChunkedIntegerTriangularStorage storage = new ChunkedIntegerTriangularStorage(SIZE, 6);
+    assertEquals("Size does not match.", SIZE, storage.size());
+    for(long i = 0, l = TriangularStorage.triangleSize(SIZE); i < l; i++) {
+      storage.set(i, (int) (i * 7));
+    }
+    for(long i = 0, l = TriangularStorage.triangleSize(SIZE); i < l; i++) {
+      assertEquals("Value does not match.", i * 7, storage.get(i));
+    }
+    storage.close();
+  }
+
+  @Test
+  public void testDirect() {
+    checkStorage(BufferTriangularStorage.allocateDirect(SIZE, false, 10), 0.);
+    checkStorage(BufferTriangularStorage.allocateDirect(SIZE, true, 10), 1e-7);
+  }
+
+  @Test
+  public void testMapped() throws IOException {
+    File file = File.createTempFile("elki-matrix-test-", ".bin");
+    checkStorage(BufferTriangularStorage.map(file, SIZE, false, 10), 0.);
+    assertFalse("File was not deleted.", file.exists());
+    file = File.createTempFile("elki-matrix-test-", ".bin");
+    checkStorage(BufferTriangularStorage.map(file, SIZE, true, 10), 1e-7);
+    assertFalse("File was not deleted.", file.exists());
+  }
+
+  @Test
+  public void testOffsets() {
+    assertEquals("Triangle size overflows.", 2147516416L, TriangularStorage.triangleSize(0x10001));
+    long pos = 0;
+    for(int x = 0; x < SIZE; x++) {
+      for(int y = 0; y < x; y++, pos++) {
+        assertEquals("Offset does not match.", pos, TriangularStorage.offset(x, y));
+        assertEquals("Offset is not symmetric.", pos, TriangularStorage.offset(y, x));
+      }
+    }
+  }
+
+  /**
+   * Fill the storage, and verify the values.
+   *
+   * @param storage Storage
+   * @param tol Relative tolerance
+   */
+  private static void checkStorage(TriangularStorage storage, double tol) {
+    assertEquals("Size does not match.", SIZE, storage.size());
+    final long length = TriangularStorage.triangleSize(SIZE);
+    for(long i = 0; i < length; i++) {
+      assertEquals("Storage is not initialized with zeros.", 0., storage.get(i), 0.);
+      storage.set(i, Math.sqrt(i));
+    }
+    for(long i = 0; i < length; i++) {
+      assertEquals("Value does not match.", Math.sqrt(i), storage.get(i), Math.sqrt(i) * tol);
+    }
+    storage.close();
+  }
+}
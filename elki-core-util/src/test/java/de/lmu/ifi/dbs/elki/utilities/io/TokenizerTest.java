@@ -25,6 +25,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Random;
 import java.util.regex.Pattern;
 
 import org.junit.Test;
@@ -88,6 +89,40 @@ public class TokenizerTest {
     tokenizerTest(expect);
   }
 
+  @Test
+  public void testFastPaths() {
+    // The first pattern of each pair uses the non-regex code path.
+    String[][] patterns = { //
+        { "\\s*[,;\\s]\\s*", "(?:\\s*[,;\\s]\\s*)" }, //
+        { "\\s", "[\\s]" }, //
+        { ",", "[,]" }, //
+        { "\\t", "[\\t]" }, //
+        { "\\|", "[|]" } };
+    final String chars = "ab1.-, ;\t|";
+    Random r = new Random(0L);
+    StringBuilder buf = new StringBuilder();
+    for(String[] pair : patterns) {
+      Tokenizer fast = new Tokenizer(Pattern.compile(pair[0]), "\"'");
+      Tokenizer slow = new Tokenizer(Pattern.compile(pair[1]), "\"'");
+      for(int i = 0; i < 1000; i++) {
+        buf.setLength(0);
+        for(int j = r.nextInt(20); j > 0; j--) {
+          buf.append(chars.charAt(r.nextInt(chars.length())));
+        }
+        final String input = buf.toString();
+        fast.initialize(input, 0, input.length());
+        slow.initialize(input, 0, input.length());
+        for(; slow.valid(); slow.advance(), fast.advance()) {
+          assertTrue("Fast path stopped early on: " + input, fast.valid());
+          assertEquals("Token start differs on: " + input, slow.getStart(), fast.getStart());
+          assertEquals("Token end differs on: " + input, slow.getEnd(), fast.getEnd());
+          assertEquals("Quoting differs on: " + input, slow.isQuoted(), fast.isQuoted());
+        }
+        assertFalse("Fast path continued on: " + input, fast.valid());
+      }
+    }
+  }
+
   private void tokenizerTest(Object[] expect) {
     for(int i = 0; i < expect.length; i++, t.advance()) {
       assertTrue("Tokenizer stopped early.", t.valid());
@@ -20,28 +20,42 @@
  */
 package de.lmu.ifi.dbs.elki.database;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
 import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreIDMap;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayStaticDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.relation.DBIDView;
 import de.lmu.ifi.dbs.elki.database.relation.MaterializedRelation;
+import de.lmu.ifi.dbs.elki.database.relation.PackedDoubleVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.datasource.DatabaseConnection;
 import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MappedBundle;
 import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.index.Index;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor.RangeProcessor;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectListParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -80,15 +94,29 @@ public class StaticArrayDatabase extends AbstractDatabase {
    */
   protected DatabaseConnection databaseConnection;
 
+  /**
+   * Store dense number vectors in packed arrays.
+   */
+  protected boolean packed;
+
+  /**
+   * Build the indexes concurrently.
+   */
+  protected boolean parallelIndexes;
+
   /**
    * Constructor.
    *
    * @param databaseConnection Database connection to get the initial data from.
    * @param indexFactories Indexes to add
+   * @param packed Store dense number vectors in packed arrays
+   * @param parallelIndexes Build the indexes concurrently
    */
-  public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<? extends IndexFactory<?>> indexFactories) {
+  public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<? extends IndexFactory<?>> indexFactories, boolean packed, boolean parallelIndexes) {
     super();
     this.databaseConnection = databaseConnection;
+    this.packed = packed;
+    this.parallelIndexes = parallelIndexes;
     this.ids = null;
     this.idrep = null;
 
@@ -98,6 +126,27 @@ public class StaticArrayDatabase extends AbstractDatabase {
     }
   }
 
+  /**
+   * Constructor.
+   *
+   * @param databaseConnection Database connection to get the initial data from.
+   * @param indexFactories Indexes to add
+   * @param packed Store dense number vectors in packed arrays
+   */
+  public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<? extends IndexFactory<?>> indexFactories, boolean packed) {
+    this(databaseConnection, indexFactories, packed, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param databaseConnection Database connection to get the initial data from.
+   * @param indexFactories Indexes to add
+   */
+  public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<? extends IndexFactory<?>> indexFactories) {
+    this(databaseConnection, indexFactories, false, false);
+  }
+
   /**
    * Constructor with no indexes.
    *
@@ -144,16 +193,17 @@ public class StaticArrayDatabase extends AbstractDatabase {
 
     DBIDArrayIter it = this.ids.iter();
 
+    // Relations and indexes to build concurrently:
+    List<Relation<?>> pendingRelations = parallelIndexes ? new ArrayList<Relation<?>>() : null;
+    List<Index> pendingIndexes = parallelIndexes ? new ArrayList<Index>() : null;
+
     int numrel = bundle.metaLength();
     for(int i = 0; i < numrel; i++) {
-      SimpleTypeInformation<?> meta = bundle.meta(i);
+      final Relation<?> relation = bundle.getColumn(i) instanceof MappedBundle.Column ? //
+          makeMappedRelation(bundle, i) : packed && isPackable(bundle.meta(i)) ? //
+              makePackedRelation(bundle, i, it) : makeMaterializedRelation(bundle, i, it);
       @SuppressWarnings("unchecked")
-      SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) meta;
-      WritableDataStore<Object> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_DB, ometa.getRestrictionClass());
-      for(it.seek(0); it.valid(); it.advance()) {
-        store.put(it, bundle.data(it.getOffset(), i));
-      }
-      Relation<?> relation = new MaterializedRelation<>(ometa, ids, null, store);
+      final SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) relation.getDataTypeInformation();
       relations.add(relation);
       getHierarchy().add(this, relation);
 
@@ -165,20 +215,133 @@ public class StaticArrayDatabase extends AbstractDatabase {
           @SuppressWarnings("unchecked")
           final Relation<Object> orep = (Relation<Object>) relation;
           final Index index = ofact.instantiate(orep);
-          Duration duration = LOG.isStatistics() ? LOG.newDuration(index.getClass().getName() + ".construction").begin() : null;
-          index.initialize();
+          if(parallelIndexes) {
+            pendingRelations.add(relation);
+            pendingIndexes.add(index);
+            continue;
+          }
+          Duration duration = initializeIndex(index);
           if(duration != null) {
-            LOG.statistics(duration.end());
+            LOG.statistics(duration);
           }
           getHierarchy().add(relation, index);
         }
       }
     }
+    if(parallelIndexes && !pendingIndexes.isEmpty()) {
+      initializeIndexes(pendingIndexes);
+      for(int i = 0; i < pendingIndexes.size(); i++) {
+        getHierarchy().add(pendingRelations.get(i), pendingIndexes.get(i));
+      }
+    }
 
     // fire insertion event
     eventManager.fireObjectsInserted(ids);
   }
 
+  /**
+   * Initialize a single index.
+   *
+   * @param index Index
+   * @return Construction time, or {@code null} if statistics are disabled
+   */
+  private static Duration initializeIndex(Index index) {
+    Duration duration = LOG.isStatistics() ? LOG.newDuration(index.getClass().getName() + ".construction").begin() : null;
+    index.initialize();
+    return duration != null ? duration.end() : null;
+  }
+
+  /**
+   * Initialize several indexes concurrently. The indexes cannot use each other
+   * during construction, as they are not yet added to the database.
+   *
+   * @param indexes Indexes to initialize
+   */
+  private static void initializeIndexes(final List<Index> indexes) {
+    final Duration[] durations = new Duration[indexes.size()];
+    ParallelExecutor.run(0, indexes.size(), 1, new RangeProcessor() {
+      @Override
+      public void process(int start, int end) {
+        for(int i = start; i < end; i++) {
+          durations[i] = initializeIndex(indexes.get(i));
+        }
+      }
+    });
+    // Report in a deterministic order:
+    for(Duration duration : durations) {
+      if(duration != null) {
+        LOG.statistics(duration);
+      }
+    }
+  }
+
+  /**
+   * Test whether a column can be stored in a packed array.
+   *
+   * @param meta Column type
+   * @return {@code true} for dense number vector fields
+   */
+  private static boolean isPackable(SimpleTypeInformation<?> meta) {
+    return meta instanceof VectorFieldTypeInformation //
+        && NumberVector.class.isAssignableFrom(meta.getRestrictionClass()) //
+        && !SparseNumberVector.class.isAssignableFrom(meta.getRestrictionClass());
+  }
+
+  /**
+   * Materialize a column of the bundle, one object per entry.
+   *
+   * @param bundle Bundle
+   * @param i Column number
+   * @param it Iterator over the database ids
+   * @return Relation
+   */
+  private Relation<?> makeMaterializedRelation(MultipleObjectsBundle bundle, int i, DBIDArrayIter it) {
+    @SuppressWarnings("unchecked")
+    SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) bundle.meta(i);
+    WritableDataStore<Object> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_DB, ometa.getRestrictionClass());
+    for(it.seek(0); it.valid(); it.advance()) {
+      store.put(it, bundle.data(it.getOffset(), i));
+    }
+    return new MaterializedRelation<>(ometa, ids, null, store);
+  }
+
+  /**
+   * Wrap a memory-mapped column of the bundle, without loading the data.
+   *
+   * @param bundle Bundle
+   * @param i Column number
+   * @return Relation
+   */
+  private Relation<?> makeMappedRelation(MultipleObjectsBundle bundle, int i) {
+    @SuppressWarnings("unchecked")
+    SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) bundle.meta(i);
+    final List<?> column = bundle.getColumn(i);
+    final DataStoreIDMap idmap = DataStoreUtil.makeIDMap(ids);
+    DataStore<Object> store = new DataStore<Object>() {
+      @Override
+      public Object get(DBIDRef id) {
+        return column.get(idmap.mapDBIDToOffset(id));
+      }
+    };
+    return new MaterializedRelation<>(ometa, ids, null, store);
+  }
+
+  /**
+   * Copy a column of number vectors of the bundle into a packed array.
+   *
+   * @param bundle Bundle
+   * @param i Column number
+   * @param it Iterator over the database ids
+   * @return Relation
+   */
+  private Relation<?> makePackedRelation(MultipleObjectsBundle bundle, int i, DBIDArrayIter it) {
+    PackedDoubleVectorRelation relation = new PackedDoubleVectorRelation((VectorFieldTypeInformation<?>) bundle.meta(i), ids);
+    for(it.seek(0); it.valid(); it.advance()) {
+      relation.set(it, (NumberVector) bundle.data(it.getOffset(), i));
+    }
+    return relation;
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
@@ -190,6 +353,16 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @author Erich Schubert
    */
   public static class Parameterizer extends AbstractDatabase.Parameterizer {
+    /**
+     * Flag to store dense number vectors in packed arrays.
+     */
+    public static final OptionID PACKED_ID = new OptionID("db.packed", "Store dense number vectors in contiguous primitive arrays instead of individual objects. Algorithms that require a particular vector class (e.g., DoubleVector) cannot be used then.");
+
+    /**
+     * Flag to build the indexes concurrently.
+     */
+    public static final OptionID PARALLEL_INDEX_ID = new OptionID("db.index.parallel", "Build the indexes concurrently. The indexes then cannot use each other during construction.");
+
     /**
      * Holds the database connection to get the initial data from.
      */
@@ -200,6 +373,16 @@ public class StaticArrayDatabase extends AbstractDatabase {
      */
     private Collection<? extends IndexFactory<?>> indexFactories;
 
+    /**
+     * Store dense number vectors in packed arrays.
+     */
+    protected boolean packed = false;
+
+    /**
+     * Build the indexes concurrently.
+     */
+    protected boolean parallelIndexes = false;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -213,11 +396,19 @@ public class StaticArrayDatabase extends AbstractDatabase {
       if(config.grab(indexFactoryP)) {
         indexFactories = indexFactoryP.instantiateClasses(config);
       }
+      final Flag packedF = new Flag(PACKED_ID);
+      if(config.grab(packedF)) {
+        packed = packedF.isTrue();
+      }
+      final Flag parallelF = new Flag(PARALLEL_INDEX_ID);
+      if(config.grab(parallelF)) {
+        parallelIndexes = parallelF.isTrue();
+      }
     }
 
     @Override
     protected StaticArrayDatabase makeInstance() {
-      return new StaticArrayDatabase(databaseConnection, indexFactories);
+      return new StaticArrayDatabase(databaseConnection, indexFactories, packed, parallelIndexes);
     }
   }
 }
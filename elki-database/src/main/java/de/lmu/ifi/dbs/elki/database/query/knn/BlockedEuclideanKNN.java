@@ -0,0 +1,199 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.database.query.knn;
+
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+
+/**
+ * Blocked (tiled) batch kNN search for squared Euclidean distance, used by the
+ * linear scan queries for bulk kNN queries.
+ * <p>
+ * The query vectors are copied into one packed array with precomputed squared
+ * norms. The database is then read once, in blocks of candidates that are
+ * copied into a packed buffer sized to fit into the L2 cache. Each candidate
+ * block is compared to small blocks of queries that fit into the L1 cache,
+ * using the expansion \(||x-y||^2=||x||^2+||y||^2-2\langle x,y\rangle\).
+ * <p>
+ * The expansion value is used as distance whenever it decides whether the
+ * candidate enters the heap; only candidates within the rounding tolerance of
+ * the current kNN distance are computed exactly. Once the scan is complete, the
+ * distances of the neighbors found are recomputed exactly, so the results match
+ * a plain linear scan except for ties within the rounding tolerance.
+ * <p>
+ * Every query has its own heap, so disjoint ranges of queries may be processed
+ * by different threads.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @assoc - - - KNNHeap
+ * @assoc - - - SquaredEuclideanDistanceFunction
+ */
+public final class BlockedEuclideanKNN {
+  /**
+   * Size of a candidate block in bytes (half of a typical L2 cache).
+   */
+  private static final int BLOCK_BYTES = 128 << 10;
+
+  /**
+   * Size of a query block in bytes (half of a typical L1 cache).
+   */
+  private static final int QUERY_BLOCK_BYTES = 16 << 10;
+
+  /**
+   * Relative tolerance for the norm expansion, to never miss a true neighbor
+   * because of rounding errors.
+   */
+  private static final double EPS = 1e-10;
+
+  /**
+   * Private constructor. Static methods only.
+   */
+  private BlockedEuclideanKNN() {
+    // Do not use.
+  }
+
+  /**
+   * Perform a batch kNN search using squared Euclidean distance.
+   *
+   * @param queries Query objects
+   * @param relation Data relation
+   * @param heaps Output heaps, one per query
+   * @return {@code false} if the data is not suitable (not a vector field of
+   *         the query dimensionality), and no search was performed.
+   */
+  public static boolean linearScanBatchKNN(List<? extends NumberVector> queries, Relation<? extends NumberVector> relation, List<KNNHeap> heaps) {
+    final int nq = queries.size();
+    if(nq == 0) {
+      return true;
+    }
+    final int dim = queries.get(0).getDimensionality();
+    final SimpleTypeInformation<?> type = relation.getDataTypeInformation();
+    if(!(type instanceof VectorFieldTypeInformation) || ((VectorFieldTypeInformation<?>) type).getDimensionality() != dim) {
+      return false;
+    }
+    final SquaredEuclideanDistanceFunction squared = SquaredEuclideanDistanceFunction.STATIC;
+    // Pack the query objects:
+    final double[] qdata = new double[nq * dim], qnorm = new double[nq];
+    for(int q = 0, off = 0; q < nq; q++, off += dim) {
+      NumberVector vec = queries.get(q);
+      if(vec.getDimensionality() != dim) {
+        return false;
+      }
+      qnorm[q] = copy(vec, qdata, off, dim);
+    }
+    final KNNHeap[] qheap = heaps.toArray(new KNNHeap[nq]);
+    final double[] kdist = new double[nq];
+    for(int q = 0; q < nq; q++) {
+      kdist[q] = qheap[q].getKNNDistance();
+    }
+    // Buffers for the candidate blocks:
+    final int bsize = Math.max(16, BLOCK_BYTES / (Math.max(dim, 1) << 3));
+    final int qbsize = Math.max(1, QUERY_BLOCK_BYTES / (Math.max(dim, 1) << 3));
+    final double[] cdata = new double[bsize * dim], cnorm = new double[bsize];
+    final ArrayModifiableDBIDs cids = DBIDUtil.newArray(bsize);
+    final DBIDArrayIter citer = cids.iter();
+    DBIDIter iter = relation.iterDBIDs();
+    while(iter.valid()) {
+      // Fill the next candidate block:
+      cids.clear();
+      int cn = 0;
+      for(; iter.valid() && cn < bsize; iter.advance(), cn++) {
+        NumberVector vec = relation.get(iter);
+        assert (vec.getDimensionality() == dim);
+        cnorm[cn] = copy(vec, cdata, cn * dim, dim);
+        cids.add(iter);
+      }
+      // Compare with all queries, one block of queries at a time:
+      for(int qb = 0; qb < nq; qb += qbsize) {
+        final int qe = Math.min(qb + qbsize, nq);
+        for(int c = 0, coff = 0; c < cn; c++, coff += dim) {
+          final double cn2 = cnorm[c];
+          for(int q = qb, qoff = qb * dim; q < qe; q++, qoff += dim) {
+            final double norms = qnorm[q] + cn2;
+            double dot = 0.;
+            for(int d = 0; d < dim; d++) {
+              dot += qdata[qoff + d] * cdata[coff + d];
+            }
+            final double approx = norms - 2 * dot, err = norms * EPS;
+            if(approx <= kdist[q]) {
+              kdist[q] = qheap[q].insert(approx > 0 ? approx : 0., citer.seek(c));
+            }
+            else if(approx - err <= kdist[q]) {
+              // Too close to decide, use the exact distance:
+              final double dist = squared.distance(qdata, qoff, cdata, coff, dim);
+              if(dist <= kdist[q]) {
+                kdist[q] = qheap[q].insert(dist, citer.seek(c));
+              }
+            }
+          }
+        }
+      }
+    }
+    // Replace the approximate distances of the results with exact distances:
+    final ArrayModifiableDBIDs ids = DBIDUtil.newArray();
+    final double[] buf = new double[dim];
+    for(int q = 0, qoff = 0; q < nq; q++, qoff += dim) {
+      final KNNHeap heap = qheap[q];
+      ids.clear();
+      for(DoubleDBIDListIter it = heap.unorderedIterator(); it.valid(); it.advance()) {
+        ids.add(it);
+      }
+      heap.clear();
+      for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+        copy(relation.get(it), buf, 0, dim);
+        heap.insert(squared.distance(qdata, qoff, buf, 0, dim), it);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copy a vector into an array.
+   *
+   * @param vec Vector
+   * @param data Output array
+   * @param off Offset
+   * @param dim Dimensionality
+   * @return Squared norm
+   */
+  private static double copy(NumberVector vec, double[] data, int off, int dim) {
+    double norm = 0.;
+    for(int d = 0; d < dim; d++) {
+      final double v = vec.doubleValue(d);
+      data[off + d] = v;
+      norm += v * v;
+    }
+    return norm;
+  }
+}
@@ -32,6 +32,7 @@ import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.LinearScanQuery;
 import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.PackedDoubleVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
@@ -48,6 +49,7 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanD
  * @assoc - - - PrimitiveDistanceQuery
  * @assoc - - - EuclideanDistanceFunction
  * @assoc - - - SquaredEuclideanDistanceFunction
+ * @assoc - - - BlockedEuclideanKNN
  */
 public class LinearScanEuclideanDistanceKNNQuery<O extends NumberVector> extends LinearScanPrimitiveDistanceKNNQuery<O> implements LinearScanQuery {
   /**
@@ -82,6 +84,9 @@ public class LinearScanEuclideanDistanceKNNQuery<O extends NumberVector> extends
    * @return Heap
    */
   private KNNHeap linearScan(Relation<? extends O> relation, DBIDIter iter, final O obj, KNNHeap heap) {
+    if(relation instanceof PackedDoubleVectorRelation && ((PackedDoubleVectorRelation) relation).getDimensionality() == obj.getDimensionality()) {
+      return linearScanPacked((PackedDoubleVectorRelation) relation, iter, obj.toArray(), heap);
+    }
     final SquaredEuclideanDistanceFunction squared = SquaredEuclideanDistanceFunction.STATIC;
     double max = Double.POSITIVE_INFINITY;
     while(iter.valid()) {
@@ -94,6 +99,29 @@ public class LinearScanEuclideanDistanceKNNQuery<O extends NumberVector> extends
     return heap;
   }
 
+  /**
+   * Main loop of the linear scan, accessing the packed storage directly.
+   *
+   * @param relation Data relation
+   * @param iter ID iterator
+   * @param obj Query object
+   * @param heap Output heap
+   * @return Heap
+   */
+  private KNNHeap linearScanPacked(PackedDoubleVectorRelation relation, DBIDIter iter, final double[] obj, KNNHeap heap) {
+    final SquaredEuclideanDistanceFunction squared = SquaredEuclideanDistanceFunction.STATIC;
+    final int dim = obj.length;
+    double max = Double.POSITIVE_INFINITY;
+    while(iter.valid()) {
+      final double dist = squared.distance(obj, 0, relation.getData(iter), relation.getOffset(iter), dim);
+      if(dist <= max) {
+        max = heap.insert(dist, iter);
+      }
+      iter.advance();
+    }
+    return heap;
+  }
+
   @Override
   public List<KNNList> getKNNForBulkDBIDs(ArrayDBIDs ids, int k) {
     final Relation<? extends O> relation = getRelation();
@@ -121,8 +149,11 @@ public class LinearScanEuclideanDistanceKNNQuery<O extends NumberVector> extends
    */
   @Override
   protected void linearScanBatchKNN(List<O> objs, List<KNNHeap> heaps) {
-    final SquaredEuclideanDistanceFunction squared = SquaredEuclideanDistanceFunction.STATIC;
     final Relation<? extends O> relation = getRelation();
+    if(BlockedEuclideanKNN.linearScanBatchKNN(objs, relation, heaps)) {
+      return;
+    }
+    final SquaredEuclideanDistanceFunction squared = SquaredEuclideanDistanceFunction.STATIC;
     final int size = objs.size();
     // Linear scan style KNN.
     for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
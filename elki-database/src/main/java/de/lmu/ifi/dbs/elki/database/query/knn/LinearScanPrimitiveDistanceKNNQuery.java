@@ -23,6 +23,7 @@ package de.lmu.ifi.dbs.elki.database.query.knn;
 import java.util.ArrayList;
 import java.util.List;
 
+import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
@@ -33,6 +34,7 @@ import de.lmu.ifi.dbs.elki.database.query.LinearScanQuery;
 import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
 
 /**
  * Instance of this query for a particular database.
@@ -45,6 +47,7 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
  * 
  * @assoc - - - PrimitiveDistanceQuery
  * @assoc - - - PrimitiveDistanceFunction
+ * @assoc - - - BlockedEuclideanKNN
  */
 public class LinearScanPrimitiveDistanceKNNQuery<O> extends AbstractDistanceKNNQuery<O> implements LinearScanQuery {
   /**
@@ -121,9 +124,15 @@ public class LinearScanPrimitiveDistanceKNNQuery<O> extends AbstractDistanceKNNQ
    * @param objs Objects list
    * @param heaps Heaps array
    */
+  @SuppressWarnings("unchecked")
   protected void linearScanBatchKNN(List<O> objs, List<KNNHeap> heaps) {
     final PrimitiveDistanceFunction<? super O> rawdist = this.rawdist;
     final Relation<? extends O> relation = getRelation();
+    // Squared Euclidean distance can use a more efficient blocked search:
+    if(SquaredEuclideanDistanceFunction.STATIC.equals(rawdist) && //
+        BlockedEuclideanKNN.linearScanBatchKNN((List<? extends NumberVector>) objs, (Relation<? extends NumberVector>) relation, heaps)) {
+      return;
+    }
     final int size = objs.size();
     // Linear scan style KNN.
     for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
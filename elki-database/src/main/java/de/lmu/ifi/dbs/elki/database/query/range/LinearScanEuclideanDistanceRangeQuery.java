@@ -27,6 +27,7 @@ import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.PackedDoubleVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
 import net.jafama.FastMath;
@@ -99,6 +100,10 @@ public class LinearScanEuclideanDistanceRangeQuery<O extends NumberVector> exten
     // This should be more precise, but slower:
     // upper = MathUtil.floatToDoubleUpper((float)range);
     final double sqrange = upper * upper;
+    if(relation instanceof PackedDoubleVectorRelation && ((PackedDoubleVectorRelation) relation).getDimensionality() == obj.getDimensionality()) {
+      linearScanPacked((PackedDoubleVectorRelation) relation, iter, obj.toArray(), range, sqrange, result);
+      return;
+    }
     while(iter.valid()) {
       final double sqdistance = squared.distance(obj, relation.get(iter));
       if(sqdistance <= sqrange) {
@@ -110,4 +115,29 @@ public class LinearScanEuclideanDistanceRangeQuery<O extends NumberVector> exten
       iter.advance();
     }
   }
+
+  /**
+   * Main loop for linear scan, accessing the packed storage directly.
+   *
+   * @param relation Data relation
+   * @param iter Iterator
+   * @param obj Query object
+   * @param range Query radius
+   * @param sqrange Squared (and slightly increased) query radius
+   * @param result Output data structure
+   */
+  private void linearScanPacked(PackedDoubleVectorRelation relation, DBIDIter iter, double[] obj, double range, double sqrange, ModifiableDoubleDBIDList result) {
+    final SquaredEuclideanDistanceFunction squared = SquaredEuclideanDistanceFunction.STATIC;
+    final int dim = obj.length;
+    while(iter.valid()) {
+      final double sqdistance = squared.distance(obj, 0, relation.getData(iter), relation.getOffset(iter), dim);
+      if(sqdistance <= sqrange) {
+        final double dist = FastMath.sqrt(sqdistance);
+        if(dist <= range) { // double check, as we increased the radius above
+          result.add(dist, iter);
+        }
+      }
+      iter.advance();
+    }
+  }
 }
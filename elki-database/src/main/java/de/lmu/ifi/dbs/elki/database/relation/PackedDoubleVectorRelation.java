@@ -0,0 +1,239 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.database.relation;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.PackedDoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreIDMap;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.StaticDBIDs;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+/**
+ * Relation storing all vectors of a fixed dimensionality in contiguous,
+ * row-major primitive {@code double[]} arrays, instead of one object per
+ * vector.
+ * <p>
+ * This avoids the per-object memory overhead, and improves memory locality of
+ * linear scans. {@link #get} returns lightweight {@link PackedDoubleVector}
+ * views onto the shared storage; for performance critical code, the storage
+ * can be accessed directly via {@link #getData} and {@link #getOffset}.
+ * <p>
+ * If the data does not fit into a single Java array, it is split into multiple
+ * chunks; a vector never spans two chunks.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @composed - - - PackedDoubleVector
+ */
+public class PackedDoubleVectorRelation extends AbstractRelation<PackedDoubleVector> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(PackedDoubleVectorRelation.class);
+
+  /**
+   * Maximum chunk size (number of doubles).
+   */
+  private static final int MAX_CHUNK = 1 << 30;
+
+  /**
+   * Type information.
+   */
+  private final VectorFieldTypeInformation<PackedDoubleVector> type;
+
+  /**
+   * The DBIDs this is supposed to be defined for.
+   */
+  private final StaticDBIDs ids;
+
+  /**
+   * Map DBIDs to rows.
+   */
+  private final DataStoreIDMap idmap;
+
+  /**
+   * Data storage.
+   */
+  private final double[][] chunks;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Number of rows per chunk.
+   */
+  private final int rowsPerChunk;
+
+  /**
+   * The relation name (short version)
+   */
+  private String shortname = "relation";
+
+  /**
+   * Constructor.
+   *
+   * @param dim Dimensionality
+   * @param labels Column labels (may be {@code null})
+   * @param ids IDs
+   */
+  public PackedDoubleVectorRelation(int dim, String[] labels, DBIDs ids) {
+    super();
+    this.dim = dim;
+    this.type = new VectorFieldTypeInformation<>(PackedDoubleVector.FACTORY, dim, labels);
+    this.ids = DBIDUtil.makeUnmodifiable(ids);
+    this.idmap = DataStoreUtil.makeIDMap(DBIDUtil.ensureArray(this.ids));
+    final int size = ids.size();
+    this.rowsPerChunk = dim > 0 ? Math.max(1, MAX_CHUNK / dim) : Integer.MAX_VALUE;
+    final int nchunks = size > 0 ? (size - 1) / rowsPerChunk + 1 : 0;
+    this.chunks = new double[nchunks][];
+    for(int i = 0, remaining = size; i < nchunks; i++, remaining -= rowsPerChunk) {
+      chunks[i] = new double[Math.min(remaining, rowsPerChunk) * dim];
+    }
+  }
+
+  /**
+   * Constructor, taking the dimensionality and labels from an existing vector
+   * type.
+   *
+   * @param type Source vector type
+   * @param ids IDs
+   */
+  public PackedDoubleVectorRelation(VectorFieldTypeInformation<?> type, DBIDs ids) {
+    this(type.getDimensionality(), getLabels(type), ids);
+  }
+
+  /**
+   * Get the column labels of a vector type.
+   *
+   * @param type Vector type
+   * @return Labels, or {@code null}
+   */
+  private static String[] getLabels(VectorFieldTypeInformation<?> type) {
+    final int dim = type.getDimensionality();
+    String[] labels = new String[dim];
+    boolean found = false;
+    for(int i = 0; i < dim; i++) {
+      labels[i] = type.getLabel(i);
+      found |= labels[i] != null;
+    }
+    return found ? labels : null;
+  }
+
+  /**
+   * Set the values of an object.
+   *
+   * @param id Object id
+   * @param vec Vector
+   */
+  public void set(DBIDRef id, NumberVector vec) {
+    if(vec.getDimensionality() != dim) {
+      throw new AbortException("Vector dimensionality " + vec.getDimensionality() + " does not match relation dimensionality " + dim);
+    }
+    final int row = idmap.mapDBIDToOffset(id);
+    final double[] data = chunks[row / rowsPerChunk];
+    for(int d = 0, off = (row % rowsPerChunk) * dim; d < dim; d++, off++) {
+      data[off] = vec.doubleValue(d);
+    }
+  }
+
+  @Override
+  public PackedDoubleVector get(DBIDRef id) {
+    final int row = idmap.mapDBIDToOffset(id);
+    return new PackedDoubleVector(chunks[row / rowsPerChunk], (row % rowsPerChunk) * dim, dim);
+  }
+
+  /**
+   * Get the array (chunk) containing the values of an object.
+   * <p>
+   * Note: the array is shared, and must not be modified.
+   *
+   * @param id Object id
+   * @return Data array, use with {@link #getOffset}.
+   */
+  public double[] getData(DBIDRef id) {
+    return chunks[idmap.mapDBIDToOffset(id) / rowsPerChunk];
+  }
+
+  /**
+   * Get the offset of the first value of an object within its array.
+   *
+   * @param id Object id
+   * @return Offset in the array returned by {@link #getData}.
+   */
+  public int getOffset(DBIDRef id) {
+    return (idmap.mapDBIDToOffset(id) % rowsPerChunk) * dim;
+  }
+
+  /**
+   * Get the dimensionality of the stored vectors.
+   *
+   * @return Dimensionality
+   */
+  public int getDimensionality() {
+    return dim;
+  }
+
+  @Override
+  public StaticDBIDs getDBIDs() {
+    return ids;
+  }
+
+  @Override
+  public DBIDIter iterDBIDs() {
+    return ids.iter();
+  }
+
+  @Override
+  public int size() {
+    return ids.size();
+  }
+
+  @Override
+  public SimpleTypeInformation<PackedDoubleVector> getDataTypeInformation() {
+    return type;
+  }
+
+  @Override
+  public String getLongName() {
+    return type.toString();
+  }
+
+  @Override
+  public String getShortName() {
+    return shortname;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+}
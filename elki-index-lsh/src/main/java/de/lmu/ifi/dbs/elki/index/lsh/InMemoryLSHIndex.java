@@ -21,14 +21,14 @@
 package de.lmu.ifi.dbs.elki.index.lsh;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
-import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
@@ -42,28 +42,53 @@ import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.LocalitySensitiveHashFunctionFamily;
 import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.LocalitySensitiveHashFunction;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.PerturbationSequence;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor.RangeProcessor;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.IntegerArray;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 
 /**
  * Locality Sensitive Hashing.
+ * <p>
+ * Each hash table is stored compactly as the object offsets, sorted by bucket
+ * (and by offset within each bucket), plus the start position of each bucket.
+ * The hash tables are built in parallel.
+ * <p>
+ * With multi-probe LSH, queries also probe the neighboring buckets that are
+ * most likely to contain near neighbors, which yields a better recall with
+ * fewer hash tables, i.e., less memory.
+ * <p>
+ * Reference:
+ * <p>
+ * Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li<br>
+ * Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity
+ * Search<br>
+ * Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB'07)
  *
  * @author Erich Schubert
  * @since 0.6.0
  *
  * @has - - - LocalitySensitiveHashFunctionFamily
+ * @assoc - - - PerturbationSequence
  * @has - - - Instance
  *
  * @param <V> Object type to index
  */
+@Reference(authors = "Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li", //
+    title = "Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity Search", //
+    booktitle = "Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB'07)", //
+    url = "http://www.vldb.org/conf/2007/papers/research/p950-lv.pdf", //
+    bibkey = "DBLP:conf/vldb/LvJWCL07")
 public class InMemoryLSHIndex<V> implements IndexFactory<V> {
   /**
    * Class logger
@@ -85,6 +110,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
    */
   int numberOfBuckets;
 
+  /**
+   * Number of buckets to probe in each hash table.
+   */
+  int probes;
+
   /**
    * Constructor.
    *
@@ -93,15 +123,28 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
    * @param numberOfBuckets Number of buckets to use.
    */
   public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets) {
+    this(family, l, numberOfBuckets, 1);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param family Projection family
+   * @param l Number of hash tables to use
+   * @param numberOfBuckets Number of buckets to use.
+   * @param probes Number of buckets to probe in each hash table.
+   */
+  public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets, int probes) {
     super();
     this.family = family;
     this.l = l;
     this.numberOfBuckets = numberOfBuckets;
+    this.probes = probes;
   }
 
   @Override
   public Instance instantiate(Relation<V> relation) {
-    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets);
+    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets, probes);
   }
 
   @Override
@@ -123,25 +166,54 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
     ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions;
 
     /**
-     * The actual table
+     * Indexed objects; the tables store offsets into this array.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Start of each bucket in the member array, for each table.
      */
-    ArrayList<Int2ObjectOpenHashMap<DBIDs>> hashtables;
+    int[][] bucketstart;
+
+    /**
+     * Object offsets, sorted by bucket and offset, for each table.
+     */
+    int[][] members;
 
     /**
      * Number of buckets to use.
      */
     private int numberOfBuckets;
 
+    /**
+     * Number of buckets to probe in each hash table.
+     */
+    private int probes;
+
     /**
      * Constructor.
      *
      * @param relation Relation to index.
      * @param hashfunctions Hash functions.
+     * @param numberOfBuckets Number of buckets to use.
      */
     public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets) {
+      this(relation, hashfunctions, numberOfBuckets, 1);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation to index.
+     * @param hashfunctions Hash functions.
+     * @param numberOfBuckets Number of buckets to use.
+     * @param probes Number of buckets to probe in each hash table.
+     */
+    public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets, int probes) {
       super(relation);
       this.hashfunctions = hashfunctions;
       this.numberOfBuckets = numberOfBuckets;
+      this.probes = probes;
     }
 
     @Override
@@ -156,58 +228,82 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
 
     @Override
     public void initialize() {
+      ids = DBIDUtil.ensureArray(relation.getDBIDs());
       final int numhash = hashfunctions.size();
-      hashtables = new ArrayList<>(numhash);
-      for(int i = 0; i < numhash; i++) {
-        hashtables.add(new Int2ObjectOpenHashMap<DBIDs>(numberOfBuckets));
-      }
-
-      // TODO: We assume all hash functions have the same dimensionality.
-      double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
-      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH index", relation.size(), LOG) : null;
-      int expect = Math.max(2, (int) Math.ceil(relation.size() / (double) numberOfBuckets));
-      for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-        V obj = relation.get(iter);
-        for(int i = 0; i < numhash; i++) {
-          final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-          final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-          // Get the initial (unbounded) hash code:
-          int hash = hashfunc.hashObject(obj, buf);
-          // Reduce to hash table size
-          int bucket = hash % numberOfBuckets;
-          DBIDs cur = table.get(bucket);
-          if(cur == null) {
-            table.put(bucket, DBIDUtil.deref(iter));
-          }
-          else if(cur.size() > 1) {
-            ((ModifiableDBIDs) cur).add(iter);
-          }
-          else {
-            ModifiableDBIDs newbuck = DBIDUtil.newArray(expect);
-            newbuck.addDBIDs(cur);
-            newbuck.add(iter);
-            table.put(bucket, newbuck);
+      bucketstart = new int[numhash][];
+      members = new int[numhash][];
+      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH hash tables", numhash, LOG) : null;
+      // The hash tables are independent, and can be built in parallel.
+      ParallelExecutor.run(0, numhash, 1, new RangeProcessor() {
+        @Override
+        public void process(int start, int end) {
+          for(int i = start; i < end; i++) {
+            buildTable(i);
+            LOG.incrementProcessed(progress);
           }
         }
-        LOG.incrementProcessed(progress);
-      }
+      });
       LOG.ensureCompleted(progress);
       if(LOG.isStatistics()) {
         int min = Integer.MAX_VALUE, max = 0;
         for(int i = 0; i < numhash; i++) {
-          final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-          for(DBIDs set : table.values()) {
-            final int size = set.size();
-            min = size < min ? size : min;
-            max = size > max ? size : max;
+          final int[] start = bucketstart[i];
+          for(int b = 0; b < numberOfBuckets; b++) {
+            final int size = start[b + 1] - start[b];
+            if(size > 0) {
+              min = size < min ? size : min;
+              max = size > max ? size : max;
+            }
           }
         }
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.min", min));
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.max", max));
-        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", hashtables.size()));
+        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", numhash));
+        LOG.statistics(new LongStatistic(this.getClass().getName() + ".memory.bytes", numhash * (numberOfBuckets + 1L + ids.size()) * 4L));
       }
     }
 
+    /**
+     * Reduce a hash value to a bucket number.
+     *
+     * @param hash Hash value
+     * @return Bucket number, in [0;numberOfBuckets[
+     */
+    private int bucket(int hash) {
+      final int bucket = hash % numberOfBuckets;
+      return bucket < 0 ? bucket + numberOfBuckets : bucket;
+    }
+
+    /**
+     * Build a single hash table.
+     *
+     * @param table Table number
+     */
+    private void buildTable(int table) {
+      final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(table);
+      final int size = ids.size();
+      double[] buf = new double[hashfunc.getNumberOfProjections()];
+      // Hash all objects, and count the bucket sizes:
+      int[] buckets = new int[size];
+      int[] start = new int[numberOfBuckets + 1];
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        final int bucket = bucket(hashfunc.hashObject(relation.get(iter), buf));
+        buckets[iter.getOffset()] = bucket;
+        ++start[bucket + 1];
+      }
+      for(int b = 0; b < numberOfBuckets; b++) {
+        start[b + 1] += start[b];
+      }
+      // Counting sort, which keeps the offsets sorted within each bucket:
+      int[] pos = Arrays.copyOf(start, numberOfBuckets);
+      int[] mem = new int[size];
+      for(int off = 0; off < size; off++) {
+        mem[pos[buckets[off]]++] = off;
+      }
+      bucketstart[table] = start;
+      members[table] = mem;
+    }
+
     @Override
     public Logging getLogger() {
       return LOG;
@@ -242,31 +338,41 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
     }
 
     /**
-     * Get the candidates: points which have at least one hash bucket in common.
-     * 
+     * Get the candidates: points which have at least one probed hash bucket in
+     * common.
+     *
      * @param obj Query object
-     * @return Candidates
+     * @param candidates Output: offsets of the candidates, sorted and without
+     *        duplicates
      */
-    protected DBIDs getCandidates(V obj) {
-      ModifiableDBIDs candidates = null;
-      final int numhash = hashtables.size();
+    protected void getCandidates(V obj, IntegerArray candidates) {
+      candidates.clear();
+      final int numhash = hashfunctions.size();
+      // TODO: We assume all hash functions have the same dimensionality.
       double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
+      int[] hashes = new int[probes];
       for(int i = 0; i < numhash; i++) {
-        final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-        final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-        // Get the initial (unbounded) hash code:
-        int hash = hashfunc.hashObject(obj, buf);
-        // Reduce to hash table size
-        int bucket = hash % numberOfBuckets;
-        DBIDs cur = table.get(bucket);
-        if(cur != null) {
-          if(candidates == null) {
-            candidates = DBIDUtil.newHashSet(cur.size() * numhash);
+        final int[] start = bucketstart[i], mem = members[i];
+        final int num = hashfunctions.get(i).hashProbes(obj, buf, hashes);
+        for(int p = 0; p < num; p++) {
+          final int bucket = bucket(hashes[p]);
+          for(int j = start[bucket], end = start[bucket + 1]; j < end; j++) {
+            candidates.add(mem[j]);
           }
-          candidates.addDBIDs(cur);
         }
       }
-      return (candidates == null) ? DBIDUtil.EMPTYDBIDS : candidates;
+      if(candidates.size > 1) {
+        // Remove duplicates:
+        candidates.sort();
+        final int[] data = candidates.data;
+        int n = 1;
+        for(int j = 1; j < candidates.size; j++) {
+          if(data[j] != data[n - 1]) {
+            data[n++] = data[j];
+          }
+        }
+        candidates.size = n;
+      }
     }
 
     /**
@@ -286,10 +392,13 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
 
       @Override
       public KNNList getKNNForObject(V obj, int k) {
-        DBIDs candidates = getCandidates(obj);
+        IntegerArray candidates = new IntegerArray();
+        getCandidates(obj, candidates);
         // Refine.
         KNNHeap heap = DBIDUtil.newHeap(k);
-        for(DBIDIter iter = candidates.iter(); iter.valid(); iter.advance()) {
+        DBIDArrayIter iter = ids.iter();
+        for(int j = 0; j < candidates.size; j++) {
+          iter.seek(candidates.data[j]);
           final double dist = distanceQuery.distance(obj, iter);
           super.incRefinements(1);
           heap.insert(dist, iter);
@@ -315,9 +424,12 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
 
       @Override
       public void getRangeForObject(V obj, double range, ModifiableDoubleDBIDList result) {
-        DBIDs candidates = getCandidates(obj);
+        IntegerArray candidates = new IntegerArray();
+        getCandidates(obj, candidates);
         // Refine.
-        for(DBIDIter iter = candidates.iter(); iter.valid(); iter.advance()) {
+        DBIDArrayIter iter = ids.iter();
+        for(int j = 0; j < candidates.size; j++) {
+          iter.seek(candidates.data[j]);
           final double dist = distanceQuery.distance(obj, iter);
           super.incRefinements(1);
           if(dist <= range) {
@@ -349,6 +461,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      */
     public static final OptionID BUCKETS_ID = new OptionID("lsh.buckets", "Number of hash buckets to use.");
 
+    /**
+     * Number of buckets to probe in each hash table (multi-probe LSH).
+     */
+    public static final OptionID PROBES_ID = new OptionID("lsh.probes", "Number of hash buckets to probe in each table (multi-probe LSH).");
+
     /**
      * LSH hash function family to use.
      */
@@ -364,6 +481,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      */
     int numberOfBuckets;
 
+    /**
+     * Number of buckets to probe in each hash table.
+     */
+    int probes;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -384,11 +506,18 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
       if(config.grab(bucketsP)) {
         numberOfBuckets = bucketsP.intValue();
       }
+
+      IntParameter probesP = new IntParameter(PROBES_ID) //
+          .setDefaultValue(1) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(probesP)) {
+        probes = probesP.intValue();
+      }
     }
 
     @Override
     protected InMemoryLSHIndex<V> makeInstance() {
-      return new InMemoryLSHIndex<>(family, l, numberOfBuckets);
+      return new InMemoryLSHIndex<>(family, l, numberOfBuckets, probes);
     }
   }
 }
@@ -23,6 +23,7 @@ package de.lmu.ifi.dbs.elki.index.lsh.hashfunctions;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.projection.random.RandomProjectionFamily;
 import de.lmu.ifi.dbs.elki.data.projection.random.RandomProjectionFamily.Projection;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
 /**
@@ -81,6 +82,41 @@ public class CosineLocalitySensitiveHashFunction implements LocalitySensitiveHas
     return hashValue;
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The single perturbations flip one bit of the hash value, scored by the
+   * squared projected value.
+   */
+  @Override
+  public int hashProbes(NumberVector obj, double[] buf, int[] probes) {
+    projection.project(obj, buf);
+    int hashValue = 0;
+    double[] scores = new double[buf.length];
+    int[] bits = new int[buf.length];
+    for(int i = 0, j = 1; i < buf.length; i++, j <<= 1) {
+      if(buf[i] > 0) {
+        hashValue = hashValue | j;
+      }
+      scores[i] = buf[i] * buf[i];
+      bits[i] = j;
+    }
+    probes[0] = hashValue;
+    if(probes.length == 1) {
+      return 1;
+    }
+    DoubleIntegerArrayQuickSort.sort(scores, bits, scores.length);
+    int c = 1;
+    for(int[] set : PerturbationSequence.generate(scores, null, probes.length - 1)) {
+      int h = hashValue;
+      for(int j : set) {
+        h ^= bits[j];
+      }
+      probes[c++] = h;
+    }
+    return c;
+  }
+
   @Override
   public int getNumberOfProjections() {
     return projection.getOutputDimensionality();
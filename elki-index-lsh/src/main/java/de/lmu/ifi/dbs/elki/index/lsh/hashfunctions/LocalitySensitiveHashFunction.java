@@ -46,6 +46,23 @@ public interface LocalitySensitiveHashFunction<V> {
    */
   int hashObject(V obj, double[] buf);
 
+  /**
+   * Compute the hash values of the buckets to probe for a query (multi-probe
+   * LSH), in the order of their estimated probability to contain near
+   * neighbors. The first value is the hash value of the object itself.
+   * <p>
+   * The default implementation only probes the bucket of the object.
+   *
+   * @param obj Query object
+   * @param buf Buffer, sized according to the number of projections.
+   * @param probes Output hash values; the length is the number of probes
+   * @return Number of hash values produced
+   */
+  default int hashProbes(V obj, double[] buf, int[] probes) {
+    probes[0] = hashObject(obj, buf);
+    return 1;
+  }
+
   /**
    * Get the number of projections performed.
    *
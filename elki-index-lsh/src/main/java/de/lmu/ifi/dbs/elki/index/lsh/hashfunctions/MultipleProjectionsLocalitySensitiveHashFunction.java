@@ -24,6 +24,7 @@ import java.util.Random;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.projection.random.RandomProjectionFamily;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
 /**
@@ -118,6 +119,52 @@ public class MultipleProjectionsLocalitySensitiveHashFunction implements Localit
     return fastModPrime(t1sum);
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The single perturbations move one projection into the lower or upper
+   * neighboring bin, scored by the squared distance to the bin boundary.
+   */
+  @Override
+  public int hashProbes(NumberVector vec, double[] buf, int[] probes) {
+    // Project the vector:
+    projection.project(vec, buf);
+    final int num = shift.length;
+    // Scores for moving to the lower (2i) or upper (2i+1) bin:
+    double[] scores = new double[num << 1];
+    int[] perts = new int[num << 1];
+    long t1sum = 0L;
+    for(int i = 0, j = 0; i < num; i++, j += 2) {
+      final double v = (buf[i] + shift[i]) * iwidth, f = Math.floor(v);
+      t1sum += (randoms1[i] & MASK32) * (int) f; // unsigned math!
+      final double lo = v - f, hi = 1. - lo;
+      scores[j] = lo * lo;
+      perts[j] = j;
+      scores[j + 1] = hi * hi;
+      perts[j + 1] = j + 1;
+    }
+    probes[0] = fastModPrime(t1sum);
+    if(probes.length == 1) {
+      return 1;
+    }
+    DoubleIntegerArrayQuickSort.sort(scores, perts, scores.length);
+    // Group by projection, as we cannot move in both directions at once:
+    int[] groups = new int[perts.length];
+    for(int j = 0; j < perts.length; j++) {
+      groups[j] = perts[j] >>> 1;
+    }
+    int c = 1;
+    for(int[] set : PerturbationSequence.generate(scores, groups, probes.length - 1)) {
+      long t = t1sum;
+      for(int j : set) {
+        final int p = perts[j], i = p >>> 1;
+        t += (p & 1) == 0 ? -(randoms1[i] & MASK32) : (randoms1[i] & MASK32);
+      }
+      probes[c++] = fastModPrime(t);
+    }
+    return c;
+  }
+
   /**
    * Fast modulo operation for the largest unsigned integer prime.
    *
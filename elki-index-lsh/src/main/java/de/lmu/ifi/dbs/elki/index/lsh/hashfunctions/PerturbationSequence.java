@@ -0,0 +1,120 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.lsh.hashfunctions;
+
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+
+/**
+ * Generate the perturbation sets for multi-probe LSH, in ascending order of
+ * their score.
+ * <p>
+ * A perturbation set is a set of single perturbations of the hash value (for
+ * example, moving one projection into the neighboring bin), and its score is
+ * the sum of the scores of its members. Given the single perturbations sorted
+ * by their score, the sets are enumerated using a heap and the "shift" and
+ * "expand" operations, which produces the sets in order of increasing score
+ * without generating all of them.
+ * <p>
+ * Reference:
+ * <p>
+ * Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li<br>
+ * Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity
+ * Search<br>
+ * Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB'07)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@Reference(authors = "Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li", //
+    title = "Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity Search", //
+    booktitle = "Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB'07)", //
+    url = "http://www.vldb.org/conf/2007/papers/research/p950-lv.pdf", //
+    bibkey = "DBLP:conf/vldb/LvJWCL07")
+public final class PerturbationSequence {
+  /**
+   * Private constructor. Static methods only.
+   */
+  private PerturbationSequence() {
+    // Do not use.
+  }
+
+  /**
+   * Generate the perturbation sets with the smallest scores.
+   *
+   * @param scores Scores of the single perturbations, sorted ascending
+   * @param groups Group of each single perturbation; sets that contain two
+   *        perturbations of the same group are skipped. May be {@code null}.
+   * @param num Maximum number of sets to generate
+   * @return Perturbation sets, each as sorted positions in the scores array
+   */
+  public static int[][] generate(double[] scores, int[] groups, int num) {
+    final int len = scores.length;
+    if(len == 0 || num <= 0) {
+      return new int[0][];
+    }
+    int[][] sets = new int[num][];
+    int c = 0;
+    DoubleObjectMinHeap<int[]> heap = new DoubleObjectMinHeap<>();
+    heap.add(scores[0], new int[] { 0 });
+    while(c < num && !heap.isEmpty()) {
+      final double score = heap.peekKey();
+      final int[] set = heap.peekValue();
+      heap.poll();
+      final int size = set.length, last = set[size - 1];
+      if(last + 1 < len) {
+        // Shift: replace the last perturbation with the next one.
+        int[] shifted = set.clone();
+        shifted[size - 1] = last + 1;
+        heap.add(score - scores[last] + scores[last + 1], shifted);
+        // Expand: add the next perturbation.
+        int[] expanded = Arrays.copyOf(set, size + 1);
+        expanded[size] = last + 1;
+        heap.add(score + scores[last + 1], expanded);
+      }
+      if(groups == null || isValid(set, groups)) {
+        sets[c++] = set;
+      }
+    }
+    return c < num ? Arrays.copyOf(sets, c) : sets;
+  }
+
+  /**
+   * Check that a set contains at most one perturbation of each group.
+   *
+   * @param set Perturbation set
+   * @param groups Groups of the single perturbations
+   * @return {@code true} when valid
+   */
+  private static boolean isValid(int[] set, int[] groups) {
+    for(int i = 1; i < set.length; i++) {
+      final int g = groups[set[i]];
+      for(int j = 0; j < i; j++) {
+        if(groups[set[j]] == g) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
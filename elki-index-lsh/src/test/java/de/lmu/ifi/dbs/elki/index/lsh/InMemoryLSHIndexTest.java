@@ -0,0 +1,174 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.lsh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.EuclideanHashFunctionFamily;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.PerturbationSequence;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for the in-memory LSH index.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class InMemoryLSHIndexTest {
+  /**
+   * Multi-probe LSH must improve the recall with the same hash tables.
+   */
+  @Test
+  public void testMultiProbeRecall() {
+    Random r = new Random(0L);
+    double[][] data = new double[3000][8];
+    for(double[] row : data) {
+      for(int d = 0; d < row.length; d++) {
+        row[d] = r.nextDouble();
+      }
+    }
+    StaticArrayDatabase db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    DistanceQuery<NumberVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    double single = recall(build(rel, 1), dq, 10);
+    double multi = recall(build(rel, 20), dq, 10);
+    assertTrue("Recall of multi-probe LSH too low: " + multi, multi >= .9);
+    assertTrue("Multi-probe LSH did not improve recall: " + single + " " + multi, multi > single + .2);
+  }
+
+  /**
+   * The perturbation sets must be produced in order of their score, and must be
+   * the best valid sets.
+   */
+  @Test
+  public void testPerturbationSequence() {
+    Random r = new Random(0L);
+    final int len = 10, num = 100;
+    double[] scores = new double[len];
+    int[] groups = new int[len];
+    for(int i = 0; i < len; i++) {
+      scores[i] = r.nextDouble();
+      groups[i] = r.nextInt(len >> 1);
+    }
+    Arrays.sort(scores);
+    int[][] sets = PerturbationSequence.generate(scores, groups, num);
+    assertEquals("Wrong number of sets.", num, sets.length);
+    // Enumerate all valid sets, to find the score threshold:
+    double[] all = new double[1 << len];
+    int valid = 0;
+    for(int mask = 1; mask < all.length; mask++) {
+      int used = 0;
+      double score = 0;
+      boolean ok = true;
+      for(int i = 0; i < len; i++) {
+        if((mask & (1 << i)) != 0) {
+          ok &= (used & (1 << groups[i])) == 0;
+          used |= 1 << groups[i];
+          score += scores[i];
+        }
+      }
+      if(ok) {
+        all[valid++] = score;
+      }
+    }
+    Arrays.sort(all, 0, valid);
+    double prev = 0;
+    for(int i = 0; i < num; i++) {
+      double score = 0;
+      int used = 0;
+      for(int j : sets[i]) {
+        assertEquals("Two perturbations of the same group.", 0, used & (1 << groups[j]));
+        used |= 1 << groups[j];
+        score += scores[j];
+      }
+      assertTrue("Perturbation sets not sorted.", score >= prev - 1e-15);
+      assertEquals("Not the best perturbation set.", all[i], score, 1e-15);
+      prev = score;
+    }
+  }
+
+  /**
+   * Build the LSH index.
+   *
+   * @param rel Relation to index
+   * @param probes Number of probes
+   * @return Index
+   */
+  private InMemoryLSHIndex<NumberVector>.Instance build(Relation<NumberVector> rel, int probes) {
+    InMemoryLSHIndex<NumberVector> factory = new ELKIBuilder<InMemoryLSHIndex<NumberVector>>(InMemoryLSHIndex.class) //
+        .with(InMemoryLSHIndex.Parameterizer.FAMILY_ID, EuclideanHashFunctionFamily.class) //
+        .with(EuclideanHashFunctionFamily.Parameterizer.RANDOM_ID, 0L) //
+        .with(EuclideanHashFunctionFamily.Parameterizer.WIDTH_ID, .8) //
+        .with(EuclideanHashFunctionFamily.Parameterizer.NUMPROJ_ID, 6) //
+        .with(InMemoryLSHIndex.Parameterizer.L_ID, 4) //
+        .with(InMemoryLSHIndex.Parameterizer.PROBES_ID, probes).build();
+    InMemoryLSHIndex<NumberVector>.Instance index = factory.instantiate(rel);
+    index.initialize();
+    return index;
+  }
+
+  /**
+   * Compute the recall of kNN queries for a sample of the objects, compared to
+   * a linear scan.
+   *
+   * @param index Index
+   * @param dq Distance query
+   * @param k Number of neighbors
+   * @return Recall
+   */
+  private double recall(InMemoryLSHIndex<NumberVector>.Instance index, DistanceQuery<NumberVector> dq, int k) {
+    KNNQuery<NumberVector> knnq = index.getKNNQuery(dq);
+    long found = 0, total = 0;
+    int i = 0;
+    for(DBIDIter q = dq.getRelation().iterDBIDs(); q.valid(); q.advance()) {
+      if(i++ % 10 != 0) {
+        continue;
+      }
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(DBIDIter o = dq.getRelation().iterDBIDs(); o.valid(); o.advance()) {
+        heap.insert(dq.distance(q, o), o);
+      }
+      KNNList truth = heap.toKNNList(), approx = knnq.getKNNForDBID(q, k);
+      found += DBIDUtil.intersectionSize(truth, approx);
+      total += truth.size();
+    }
+    return found / (double) total;
+  }
+}
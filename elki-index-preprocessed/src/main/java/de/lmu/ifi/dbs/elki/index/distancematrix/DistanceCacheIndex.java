@@ -0,0 +1,440 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.distancematrix;
+
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.DistanceIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Bounded cache for expensive distance functions, shared by all distance
+ * queries on the relation. In contrast to {@link PrecomputedDistanceMatrix},
+ * distances are only computed when needed, and the memory use is bounded.
+ * <p>
+ * Distances are stored in primitive arrays, keyed by the pair of DBIDs, in a
+ * set-associative layout with four entries per set. When a set is full, an
+ * entry that was not used recently is evicted (clock algorithm). Access is
+ * synchronized on a fixed number of lock stripes, so the cache can be used by
+ * multiple threads concurrently.
+ * <p>
+ * Queries that pass the {@link DatabaseQuery#HINT_NO_CACHE} hint will not use
+ * the cache. Only distances between DBIDs are cached, so the relation must not
+ * be modified while the cache is in use.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - CachedDistanceQuery
+ *
+ * @param <O> Object type
+ */
+public class DistanceCacheIndex<O> implements DistanceIndex<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(DistanceCacheIndex.class);
+
+  /**
+   * Number of entries per set.
+   */
+  private static final int WAYS = 4;
+
+  /**
+   * Number of lock stripes, must be a power of two.
+   */
+  private static final int STRIPES = 64;
+
+  /**
+   * Memory use of a single entry in bytes: key, value and state.
+   */
+  private static final int ENTRY_SIZE = 8 + 8 + 1;
+
+  /**
+   * Slot state: empty.
+   */
+  private static final byte EMPTY = 0;
+
+  /**
+   * Slot state: in use.
+   */
+  private static final byte USED = 1;
+
+  /**
+   * Slot state: in use, and recently accessed.
+   */
+  private static final byte REFERENCED = 2;
+
+  /**
+   * Data relation.
+   */
+  protected final Relation<O> relation;
+
+  /**
+   * Nested distance function.
+   */
+  protected final DistanceFunction<? super O> distanceFunction;
+
+  /**
+   * Nested distance query.
+   */
+  protected DistanceQuery<O> distanceQuery;
+
+  /**
+   * Memory budget in bytes.
+   */
+  protected final long memory;
+
+  /**
+   * Cache keys.
+   */
+  private long[] keys;
+
+  /**
+   * Cached distances.
+   */
+  private double[] values;
+
+  /**
+   * Slot states.
+   */
+  private byte[] states;
+
+  /**
+   * Clock hand of each set.
+   */
+  private byte[] hands;
+
+  /**
+   * Bit mask to select the set.
+   */
+  private int mask;
+
+  /**
+   * Lock stripes.
+   */
+  private final Object[] locks = new Object[STRIPES];
+
+  /**
+   * Statistics of each stripe, updated while holding the lock.
+   */
+  private final long[] hits = new long[STRIPES], misses = new long[STRIPES],
+      evictions = new long[STRIPES];
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distanceFunction Distance function
+   * @param memory Memory budget in bytes
+   */
+  public DistanceCacheIndex(Relation<O> relation, DistanceFunction<? super O> distanceFunction, long memory) {
+    super();
+    this.relation = relation;
+    this.distanceFunction = distanceFunction;
+    this.memory = memory;
+  }
+
+  @Override
+  public void initialize() {
+    distanceQuery = distanceFunction.instantiate(relation);
+    // Largest power of two number of sets within the memory budget:
+    long sets = Math.max(1L, memory / (ENTRY_SIZE * WAYS + 1));
+    sets = Math.min(Long.highestOneBit(sets), 1L << 28);
+    final int size = (int) sets * WAYS;
+    mask = (int) sets - 1;
+    keys = new long[size];
+    values = new double[size];
+    states = new byte[size];
+    hands = new byte[(int) sets];
+    for(int i = 0; i < STRIPES; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Build the cache key of a pair.
+   *
+   * @param id1 First object
+   * @param id2 Second object
+   * @return Key
+   */
+  private long key(DBIDRef id1, DBIDRef id2) {
+    int a = DBIDUtil.asInteger(id1), b = DBIDUtil.asInteger(id2);
+    if(a > b && distanceFunction.isSymmetric()) {
+      final int t = a;
+      a = b;
+      b = t;
+    }
+    return (((long) a) << 32) | (b & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Find the set of a key.
+   *
+   * @param key Key
+   * @return Set number
+   */
+  private int set(long key) {
+    // 64 bit finalizer of MurmurHash3, as keys are highly structured
+    long h = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+    h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return (int) (h ^ (h >>> 33)) & mask;
+  }
+
+  /**
+   * Get the distance of two objects, using the cache.
+   *
+   * @param id1 First object
+   * @param id2 Second object
+   * @return Distance
+   */
+  protected double distance(DBIDRef id1, DBIDRef id2) {
+    final long key = key(id1, id2);
+    final int set = set(key), base = set * WAYS, stripe = set & (STRIPES - 1);
+    synchronized(locks[stripe]) {
+      for(int i = base; i < base + WAYS; i++) {
+        if(states[i] != EMPTY && keys[i] == key) {
+          states[i] = REFERENCED;
+          ++hits[stripe];
+          return values[i];
+        }
+      }
+      ++misses[stripe];
+    }
+    // Compute outside of the lock.
+    final double dist = distanceQuery.distance(id1, id2);
+    synchronized(locks[stripe]) {
+      int slot = -1;
+      for(int i = base; i < base + WAYS; i++) {
+        if(states[i] == EMPTY) {
+          slot = slot < 0 ? i : slot;
+        }
+        else if(keys[i] == key) { // Computed concurrently.
+          return dist;
+        }
+      }
+      if(slot < 0) {
+        // Clock: evict the first entry not referenced since the last pass.
+        int hand = hands[set];
+        while(states[base + hand] == REFERENCED) {
+          states[base + hand] = USED;
+          hand = (hand + 1) % WAYS;
+        }
+        slot = base + hand;
+        hands[set] = (byte) ((hand + 1) % WAYS);
+        ++evictions[stripe];
+      }
+      keys[slot] = key;
+      values[slot] = dist;
+      states[slot] = USED;
+    }
+    return dist;
+  }
+
+  @Override
+  public void logStatistics() {
+    if(keys == null) {
+      return;
+    }
+    long h = 0, m = 0, e = 0;
+    for(int i = 0; i < STRIPES; i++) {
+      synchronized(locks[i]) {
+        h += hits[i];
+        m += misses[i];
+        e += evictions[i];
+      }
+    }
+    final String prefix = this.getClass().getName();
+    LOG.statistics(new LongStatistic(prefix + ".capacity", keys.length));
+    LOG.statistics(new LongStatistic(prefix + ".hits", h));
+    LOG.statistics(new LongStatistic(prefix + ".misses", m));
+    LOG.statistics(new LongStatistic(prefix + ".evictions", e));
+    LOG.statistics(new DoubleStatistic(prefix + ".hit-rate", h + m > 0 ? h / (double) (h + m) : 0.));
+  }
+
+  @Override
+  public String getLongName() {
+    return "Distance Cache";
+  }
+
+  @Override
+  public String getShortName() {
+    return "distance-cache";
+  }
+
+  @Override
+  public DistanceQuery<O> getDistanceQuery(DistanceFunction<? super O> distanceFunction, Object... hints) {
+    if(!this.distanceFunction.equals(distanceFunction)) {
+      return null;
+    }
+    for(Object o : hints) {
+      if(o == DatabaseQuery.HINT_NO_CACHE) {
+        return null;
+      }
+    }
+    return new CachedDistanceQuery();
+  }
+
+  /**
+   * Distance query using the cache.
+   *
+   * @author Erich Schubert
+   */
+  private class CachedDistanceQuery implements DistanceQuery<O> {
+    @Override
+    public double distance(DBIDRef id1, DBIDRef id2) {
+      return DistanceCacheIndex.this.distance(id1, id2);
+    }
+
+    @Override
+    public double distance(O o1, DBIDRef id2) {
+      return distanceQuery.distance(o1, id2);
+    }
+
+    @Override
+    public double distance(DBIDRef id1, O o2) {
+      return distanceQuery.distance(id1, o2);
+    }
+
+    @Override
+    public double distance(O o1, O o2) {
+      return distanceQuery.distance(o1, o2);
+    }
+
+    @Override
+    public DistanceFunction<? super O> getDistanceFunction() {
+      return distanceQuery.getDistanceFunction();
+    }
+
+    @Override
+    public Relation<? extends O> getRelation() {
+      return relation;
+    }
+  }
+
+  /**
+   * Factory for the index.
+   *
+   * @author Erich Schubert
+   *
+   * @has - - - DistanceCacheIndex
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> implements IndexFactory<O> {
+    /**
+     * Nested distance function.
+     */
+    final protected DistanceFunction<? super O> distanceFunction;
+
+    /**
+     * Memory budget in bytes.
+     */
+    final protected long memory;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceFunction Distance function
+     * @param memory Memory budget in bytes
+     */
+    public Factory(DistanceFunction<? super O> distanceFunction, long memory) {
+      super();
+      this.distanceFunction = distanceFunction;
+      this.memory = memory;
+    }
+
+    @Override
+    public DistanceCacheIndex<O> instantiate(Relation<O> relation) {
+      return new DistanceCacheIndex<>(relation, distanceFunction, memory);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distanceFunction.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterizer.
+     *
+     * @author Erich Schubert
+     *
+     * @hidden
+     *
+     * @param <O> Object type
+     */
+    public static class Parameterizer<O> extends AbstractParameterizer {
+      /**
+       * Option parameter for the cached distance.
+       */
+      public static final OptionID DISTANCE_ID = new OptionID("distancecache.distance", "Distance function to cache.");
+
+      /**
+       * Option parameter for the memory budget.
+       */
+      public static final OptionID MEMORY_ID = new OptionID("distancecache.memory", "Memory budget of the distance cache, in megabytes.");
+
+      /**
+       * Nested distance function.
+       */
+      protected DistanceFunction<? super O> distanceFunction;
+
+      /**
+       * Memory budget in bytes.
+       */
+      protected long memory;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        ObjectParameter<DistanceFunction<? super O>> distanceP = new ObjectParameter<>(DISTANCE_ID, DistanceFunction.class);
+        if(config.grab(distanceP)) {
+          distanceFunction = distanceP.instantiateClass(config);
+        }
+        IntParameter memoryP = new IntParameter(MEMORY_ID, 256) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(memoryP)) {
+          memory = memoryP.getValue() * 1024L * 1024L;
+        }
+      }
+
+      @Override
+      protected Factory<O> makeInstance() {
+        return new Factory<>(distanceFunction, memory);
+      }
+    }
+  }
+}
@@ -37,6 +37,8 @@ import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.ChunkedTriangularStorageFactory;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.triangular.TriangularStorage;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
@@ -48,10 +50,11 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * <p>
  * This class uses a linear memory layout (not a ragged array), and assumes
  * symmetry as well as strictness. This way, it only stores the upper triangle
- * matrix with double precision. It has to store (n-1) * (n-2) distance values
- * in memory, requiring 8 * (n-1) * (n-2) bytes. Since Java has a size limit of
- * arrays of 31 bits (signed integer), we can store at most \(2^16\) objects
- * (precisely, 65536 objects) in a single array, which needs about 16 GB of RAM.
+ * matrix. It has to store n * (n-1) / 2 distance values, requiring
+ * 4 * n * (n-1) bytes with double precision. The values are kept in a
+ * {@link TriangularStorage}, which is split into chunks and hence not limited
+ * by the Java array size, and which may also be kept off-heap or in a
+ * memory-mapped file, with single or double precision.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -83,10 +86,15 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    */
   protected DistanceQuery<O> distanceQuery;
 
+  /**
+   * Storage factory for the distance matrix.
+   */
+  protected final TriangularStorage.Factory storage;
+
   /**
    * Distance matrix.
    */
-  private double[] matrix = null;
+  private TriangularStorage matrix = null;
 
   /**
    * DBID range.
@@ -106,10 +114,23 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    * @param distanceFunction Distance function
    */
   public PrecomputedDistanceMatrix(Relation<O> relation, DBIDRange range, DistanceFunction<? super O> distanceFunction) {
+    this(relation, range, distanceFunction, ChunkedTriangularStorageFactory.STATIC);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param range DBID range
+   * @param distanceFunction Distance function
+   * @param storage Storage factory for the distance matrix
+   */
+  public PrecomputedDistanceMatrix(Relation<O> relation, DBIDRange range, DistanceFunction<? super O> distanceFunction, TriangularStorage.Factory storage) {
     super();
     this.relation = relation;
     this.ids = range;
     this.distanceFunction = distanceFunction;
+    this.storage = storage;
 
     if(!distanceFunction.isSymmetric()) {
       throw new AbortException("Distance matrixes currently only support symmetric distance functions (Patches welcome).");
@@ -119,27 +140,20 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
   @Override
   public void initialize() {
     size = ids.size();
-    if(size > 65536) {
-      throw new AbortException("Distance matrixes currently have a limit of 65536 objects (~16 GB). After this, the array size exceeds the Java integer range, and a different data structure needs to be used.");
-    }
-
     distanceQuery = distanceFunction.instantiate(relation);
 
-    final int msize = triangleSize(size);
-    matrix = new double[msize];
+    matrix = storage.newStorage(size);
     DBIDArrayIter ix = ids.iter(), iy = ids.iter();
 
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distance matrix", msize, LOG) : null;
-    int pos = 0;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distance matrix", size, LOG) : null;
+    long pos = 0;
     for(ix.seek(0); ix.valid(); ix.advance()) {
       // y < x -- must match {@link #getOffset}!
       for(iy.seek(0); iy.getOffset() < ix.getOffset(); iy.advance()) {
-        matrix[pos] = distanceQuery.distance(ix, iy);
+        matrix.set(pos, distanceQuery.distance(ix, iy));
         pos++;
       }
-      if(prog != null) {
-        prog.setProcessed(prog.getProcessed() + ix.getOffset(), LOG);
-      }
+      LOG.incrementProcessed(prog);
     }
     LOG.ensureCompleted(prog);
   }
@@ -150,8 +164,8 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    * @param x Offset
    * @return Size of complete triangle
    */
-  protected static int triangleSize(int x) {
-    return (x * (x - 1)) >>> 1;
+  protected static long triangleSize(int x) {
+    return TriangularStorage.triangleSize(x);
   }
 
   /**
@@ -161,14 +175,14 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    * @param y Y parameter
    * @return Array offset
    */
-  private int getOffset(int x, int y) {
+  private long getOffset(int x, int y) {
     return (y < x) ? (triangleSize(x) + y) : (triangleSize(y) + x);
   }
 
   @Override
   public void logStatistics() {
     if(matrix != null) {
-      LOG.statistics(new LongStatistic(this.getClass().getName() + ".matrix-size", matrix.length));
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".matrix-size", triangleSize(size)));
     }
   }
 
@@ -215,7 +229,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
     @Override
     public double distance(DBIDRef id1, DBIDRef id2) {
       final int x = ids.getOffset(id1), y = ids.getOffset(id2);
-      return (x != y) ? matrix[getOffset(x, y)] : 0.;
+      return (x != y) ? matrix.get(getOffset(x, y)) : 0.;
     }
 
     @Override
@@ -265,9 +279,9 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
 
       final int x = ids.getOffset(id);
       // Case y < x: triangleSize(x) + y
-      int pos = triangleSize(x);
+      long pos = triangleSize(x);
       for(int y = 0; y < x; y++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         if(dist <= range) {
           result.add(dist, it.seek(y));
         }
@@ -277,7 +291,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       // Case y > x: triangleSize(y) + x
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1; y < size; y++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         if(dist <= range) {
           result.add(dist, it.seek(y));
         }
@@ -310,9 +324,9 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       double max = Double.POSITIVE_INFINITY;
       final int x = ids.getOffset(id);
       // Case y < x: triangleSize(x) + y
-      int pos = triangleSize(x);
+      long pos = triangleSize(x);
       for(int y = 0; y < x; y++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         if(dist <= max) {
           max = heap.insert(dist, it.seek(y));
         }
@@ -322,7 +336,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       // Case y > x: triangleSize(y) + x
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1; y < size; y++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         if(dist <= max) {
           max = heap.insert(dist, it.seek(y));
         }
@@ -362,14 +376,30 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
      */
     final protected DistanceFunction<? super O> distanceFunction;
 
+    /**
+     * Storage factory for the distance matrix.
+     */
+    final protected TriangularStorage.Factory storage;
+
     /**
      * Constructor.
      *
      * @param distanceFunction Distance function
      */
     public Factory(DistanceFunction<? super O> distanceFunction) {
+      this(distanceFunction, ChunkedTriangularStorageFactory.STATIC);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distanceFunction Distance function
+     * @param storage Storage factory for the distance matrix
+     */
+    public Factory(DistanceFunction<? super O> distanceFunction, TriangularStorage.Factory storage) {
       super();
       this.distanceFunction = distanceFunction;
+      this.storage = storage;
     }
 
     @Override
@@ -378,7 +408,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       if(!(rids instanceof DBIDRange)) {
         throw new AbortException("Distance matrixes are currently only supported for DBID ranges (as used by static databases; not on modifiable databases) for performance reasons (Patches welcome).");
       }
-      return new PrecomputedDistanceMatrix<>(relation, (DBIDRange) rids, distanceFunction);
+      return new PrecomputedDistanceMatrix<>(relation, (DBIDRange) rids, distanceFunction, storage);
     }
 
     @Override
@@ -401,11 +431,21 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
        */
       public static final OptionID DISTANCE_ID = new OptionID("matrix.distance", "Distance function for the precomputed distance matrix.");
 
+      /**
+       * Option parameter for the matrix storage.
+       */
+      public static final OptionID STORAGE_ID = new OptionID("matrix.storage", "Storage for the distance matrix (on-heap, off-heap, or memory-mapped).");
+
       /**
        * Nested distance function.
        */
       protected DistanceFunction<? super O> distanceFunction;
 
+      /**
+       * Storage factory for the distance matrix.
+       */
+      protected TriangularStorage.Factory storage;
+
       @Override
       protected void makeOptions(Parameterization config) {
         super.makeOptions(config);
@@ -413,11 +453,15 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
         if(config.grab(distanceP)) {
           distanceFunction = distanceP.instantiateClass(config);
         }
+        ObjectParameter<TriangularStorage.Factory> storageP = new ObjectParameter<>(STORAGE_ID, TriangularStorage.Factory.class, ChunkedTriangularStorageFactory.class);
+        if(config.grab(storageP)) {
+          storage = storageP.instantiateClass(config);
+        }
       }
 
       @Override
       protected Factory<O> makeInstance() {
-        return new Factory<>(distanceFunction);
+        return new Factory<>(distanceFunction, storage);
       }
     }
   }
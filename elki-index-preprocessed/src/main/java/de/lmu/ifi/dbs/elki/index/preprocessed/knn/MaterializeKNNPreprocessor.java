@@ -26,7 +26,9 @@ import javax.swing.event.EventListenerList;
 
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
@@ -35,15 +37,21 @@ import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.ids.SetDBIDs;
 import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.BatchedKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanEuclideanDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanPrimitiveDistanceKNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.DynamicIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.progress.StepProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor.RangeProcessor;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
@@ -53,6 +61,9 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
  * distances) to each database object.
  * <p>
  * Used for example by {@link de.lmu.ifi.dbs.elki.algorithm.outlier.lof.LOF}.
+ * <p>
+ * The neighborhoods are computed in parallel, on all available cores, if the
+ * objects are stored in arrays (as in static databases).
  *
  * @author Erich Schubert
  * @since 0.2
@@ -73,11 +84,14 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
   private static final Logging LOG = Logging.getLogger(MaterializeKNNPreprocessor.class);
 
   /**
-   * Flag to use bulk operations.
-   *
-   * TODO: right now, bulk is not that good - so don't use
+   * Minimum number of queries per parallel bulk query.
    */
-  private static final boolean usebulk = false;
+  private static final int BULK_SLICE = 1024;
+
+  /**
+   * Minimum number of single queries per parallel block.
+   */
+  private static final int QUERY_BLOCK = 16;
 
   /**
    * KNNQuery instance to use.
@@ -116,34 +130,12 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     }
     Duration duration = log.isStatistics() ? log.newDuration(this.getClass().getName() + ".precomputation-time").begin() : null;
     FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Materializing k nearest neighbors (k=" + k + ")", ids.size(), getLogger()) : null;
-    // Try bulk
-    List<? extends KNNList> kNNList = null;
-    if(usebulk) {
-      kNNList = knnQuery.getKNNForBulkDBIDs(ids, k);
-      if(kNNList != null) {
-        int i = 0;
-        for(DBIDIter id = ids.iter(); id.valid(); id.advance(), i++) {
-          storage.put(id, kNNList.get(i));
-          log.incrementProcessed(progress);
-        }
-      }
+    if(useBulk()) {
+      // Blocked bulk queries, on slices of the data in parallel:
+      preprocessBulk(ids, progress);
     }
     else {
-      final boolean ismetric = getDistanceQuery().getDistanceFunction().isMetric();
-      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-        if(ismetric && storage.get(iter) != null) {
-          log.incrementProcessed(progress);
-          continue; // Previously computed (duplicate point?)
-        }
-        KNNList knn = knnQuery.getKNNForDBID(iter, k);
-        storage.put(iter, knn);
-        if(ismetric) {
-          for(DoubleDBIDListIter it = knn.iter(); it.valid() && it.doubleValue() == 0.; it.advance()) {
-            storage.put(it, knn); // Reuse
-          }
-        }
-        log.incrementProcessed(progress);
-      }
+      preprocessSingle(ids, progress);
     }
     log.ensureCompleted(progress);
     if(duration != null) {
@@ -151,6 +143,97 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     }
   }
 
+  /**
+   * Run single kNN queries, in parallel.
+   * <p>
+   * For metric distances, the result is reused for duplicate points. When two
+   * duplicates are processed concurrently, both may be queried; this only
+   * costs some redundant work.
+   *
+   * @param ids Objects to process
+   * @param progress Progress
+   */
+  private void preprocessSingle(final ArrayDBIDs ids, final FiniteProgress progress) {
+    final Logging log = getLogger();
+    final boolean ismetric = getDistanceQuery().getDistanceFunction().isMetric();
+    run(ids.size(), QUERY_BLOCK, new RangeProcessor() {
+      @Override
+      public void process(int start, int end) {
+        for(DBIDArrayIter iter = ids.iter().seek(start); iter.getOffset() < end; iter.advance()) {
+          if(ismetric && storage.get(iter) != null) {
+            continue; // Previously computed (duplicate point?)
+          }
+          KNNList knn = knnQuery.getKNNForDBID(iter, k);
+          storage.put(iter, knn);
+          if(ismetric) {
+            for(DoubleDBIDListIter it = knn.iter(); it.valid() && it.doubleValue() == 0.; it.advance()) {
+              storage.put(it, knn); // Reuse
+            }
+          }
+        }
+        if(progress != null) {
+          progress.incrementProcessed(end - start, log);
+        }
+      }
+    });
+  }
+
+  /**
+   * Run bulk kNN queries, on slices of the data in parallel.
+   *
+   * @param ids Objects to process
+   * @param progress Progress
+   */
+  private void preprocessBulk(final ArrayDBIDs ids, final FiniteProgress progress) {
+    final Logging log = getLogger();
+    run(ids.size(), BULK_SLICE, new RangeProcessor() {
+      @Override
+      public void process(int start, int end) {
+        final ArrayDBIDs part = ids.slice(start, end);
+        List<? extends KNNList> kNNList = knnQuery.getKNNForBulkDBIDs(part, k);
+        int i = 0;
+        for(DBIDIter id = part.iter(); id.valid(); id.advance(), i++) {
+          storage.put(id, kNNList.get(i));
+        }
+        if(progress != null) {
+          progress.incrementProcessed(part.size(), log);
+        }
+      }
+    });
+  }
+
+  /**
+   * Process the objects in blocks, in parallel if the storage allows
+   * concurrent writes (i.e., is array-based).
+   *
+   * @param size Number of objects
+   * @param grain Minimum block size
+   * @param proc Block processor
+   */
+  private void run(int size, int grain, RangeProcessor proc) {
+    if(relation.getDBIDs() instanceof DBIDRange) {
+      ParallelExecutor.run(0, size, grain, proc);
+    }
+    else if(size > 0) {
+      proc.process(0, size);
+    }
+  }
+
+  /**
+   * Decide whether to use bulk operations. Bulk queries are only beneficial
+   * for the blocked linear scans for (squared) Euclidean distance, and for
+   * queries that batch their traversals.
+   *
+   * @return {@code true} if bulk queries should be used
+   */
+  protected boolean useBulk() {
+    if(knnQuery instanceof LinearScanEuclideanDistanceKNNQuery || knnQuery instanceof BatchedKNNQuery) {
+      return true;
+    }
+    return knnQuery instanceof LinearScanPrimitiveDistanceKNNQuery //
+        && SquaredEuclideanDistanceFunction.STATIC.equals(getDistanceQuery().getDistanceFunction());
+  }
+
   @Override
   public final void insert(DBIDRef id) {
     objectsInserted(DBIDUtil.deref(id));
@@ -0,0 +1,655 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.lmu.ifi.dbs.elki.database.ids.*;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor.RangeProcessor;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Compact and multi-threaded variant of {@link NNDescent}.
+ * <p>
+ * Instead of hash sets and heap objects per point, the neighbors of all points
+ * are kept in flat arrays, as binary max-heaps of (k-1) offsets and distances
+ * per point, with a bit flagging new neighbors. The sampled candidates of each
+ * iteration are kept in two more flat arrays, with priorities computed from a
+ * hash function instead of being stored. This needs about 12 bytes per
+ * neighbor and 8 bytes per sampled candidate.
+ * <p>
+ * The local joins run in parallel, and updates to the heaps are guarded by
+ * striped locks. Because the order of updates depends on the thread schedule,
+ * the result is not deterministic when using multiple threads.
+ * <p>
+ * Reference:
+ * <p>
+ * W. Dong and C. Moses and K. Li<br>
+ * Efficient k-nearest neighbor graph construction for generic similarity
+ * measures<br>
+ * Proc. 20th Int. Conf. on World Wide Web (WWW'11)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "W. Dong, C. Moses, K. Li", //
+    title = "Efficient k-nearest neighbor graph construction for generic similarity measures", //
+    booktitle = "Proc. 20th Int. Conf. on World Wide Web (WWW'11)", //
+    url = "https://doi.org/10.1145/1963405.1963487", //
+    bibkey = "DBLP:conf/www/DongCL11")
+public class ParallelNNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
+  /**
+   * Logger
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelNNDescent.class);
+
+  /**
+   * Empty heap or candidate slot.
+   */
+  private static final int EMPTY = -1;
+
+  /**
+   * Flag bit for new neighbors. Offsets are stored shifted by one bit.
+   */
+  private static final int NEW = 1;
+
+  /**
+   * Number of lock stripes, must be a power of two.
+   */
+  private static final int LOCKS = 1 << 10;
+
+  /**
+   * Minimum number of points per block of work.
+   */
+  private static final int MIN_BLOCK = 256;
+
+  /**
+   * Log prefix.
+   */
+  private String prefix = getClass().getCanonicalName();
+
+  /**
+   * Random generator
+   */
+  private final RandomFactory rnd;
+
+  /**
+   * Early termination parameter
+   */
+  private double delta;
+
+  /**
+   * Sample rate
+   */
+  private double rho;
+
+  /**
+   * Maximum number of iterations
+   */
+  private int iterations;
+
+  /**
+   * Heap size, k-1 (the query point is added in the end).
+   */
+  private int kk;
+
+  /**
+   * Number of sampled candidates per point.
+   */
+  private int items;
+
+  /**
+   * Neighbor heaps: offsets, shifted by one bit for the {@link #NEW} flag.
+   */
+  private int[] nbrs;
+
+  /**
+   * Neighbor heaps: distances.
+   */
+  private double[] dists;
+
+  /**
+   * Sampled new candidates, as heaps by priority.
+   */
+  private int[] newCand;
+
+  /**
+   * Sampled old candidates, as heaps by priority.
+   */
+  private int[] oldCand;
+
+  /**
+   * Lock stripes.
+   */
+  private Object[] locks;
+
+  /**
+   * Seed of the current iteration, for candidate priorities.
+   */
+  private long seed;
+
+  /**
+   * Number of iterations performed.
+   */
+  private int iter;
+
+  /**
+   * Number of distance computations.
+   */
+  private final LongAdder distComputations = new LongAdder();
+
+  /**
+   * Number of heap updates.
+   */
+  private final LongAdder updates = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to index
+   * @param distanceFunction distance function
+   * @param k k
+   * @param rnd Random generator
+   * @param delta Delta threshold
+   * @param rho Rho threshold
+   * @param iterations Maximum number of iterations
+   */
+  public ParallelNNDescent(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k, RandomFactory rnd, double delta, double rho, int iterations) {
+    super(relation, distanceFunction, k);
+    this.rnd = rnd;
+    this.delta = delta;
+    this.rho = rho;
+    this.iterations = iterations;
+  }
+
+  @Override
+  protected void preprocess() {
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    final long starttime = System.currentTimeMillis();
+    kk = k - 1;
+    items = Math.max(1, (int) Math.ceil(rho * kk));
+    if((long) size * Math.max(kk, items) >= Integer.MAX_VALUE || size >= (Integer.MAX_VALUE >> 1)) {
+      throw new AbortException("Data set too large for " + getClass().getSimpleName());
+    }
+    nbrs = new int[size * kk];
+    dists = new double[size * kk];
+    Arrays.fill(nbrs, EMPTY);
+    Arrays.fill(dists, Double.POSITIVE_INFINITY);
+    locks = new Object[LOCKS];
+    for(int i = 0; i < LOCKS; i++) {
+      locks[i] = new Object();
+    }
+    seed = rnd.getSingleThreadedRandom().nextLong();
+    distComputations.reset();
+    updates.reset();
+
+    if(kk > 0 && size > 1) {
+      // Random initial neighbors:
+      ParallelExecutor.run(0, size, MIN_BLOCK, new RangeProcessor() {
+        @Override
+        public void process(int start, int end) {
+          DBIDArrayIter a = ids.iter(), b = ids.iter();
+          for(int i = start; i < end; i++) {
+            a.seek(i);
+            for(int t = 0; t < kk; t++) {
+              int j = (int) ((mix(seed, i, t) >>> 1) % (size - 1));
+              j = j < i ? j : j + 1; // Skip i itself
+              final double d = distanceQuery.distance(a, b.seek(j));
+              insert(i, j, d);
+              insert(j, i, d);
+            }
+          }
+          distComputations.add((end - start) * (long) kk);
+        }
+      });
+      iterate(ids, size);
+    }
+
+    // Convert to kNN lists, adding the query point itself:
+    createStorage();
+    ParallelExecutor.run(0, size, MIN_BLOCK, new RangeProcessor() {
+      @Override
+      public void process(int start, int end) {
+        DBIDArrayIter a = ids.iter(), b = ids.iter();
+        for(int i = start; i < end; i++) {
+          KNNHeap heap = DBIDUtil.newHeap(k);
+          heap.insert(0., a.seek(i));
+          for(int p = i * kk, e = p + kk; p < e; p++) {
+            if(nbrs[p] != EMPTY) {
+              heap.insert(dists[p], b.seek(nbrs[p] >>> 1));
+            }
+          }
+          storage.put(a, heap.toKNNList());
+        }
+      }
+    });
+    // Release the working memory.
+    nbrs = newCand = oldCand = null;
+    dists = null;
+    locks = null;
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(prefix + ".construction-time.ms", System.currentTimeMillis() - starttime));
+      logStatistics();
+    }
+  }
+
+  /**
+   * Main NN-descent iterations.
+   *
+   * @param ids Object ids
+   * @param size Number of objects
+   */
+  private void iterate(final ArrayDBIDs ids, final int size) {
+    IndefiniteProgress progress = LOG.isVerbose() ? new IndefiniteProgress("NNDescent iteration", LOG) : null;
+    newCand = new int[size * items];
+    oldCand = new int[size * items];
+    for(iter = 1; iter <= iterations; iter++) {
+      seed = mix(seed, iter, 0);
+      Arrays.fill(newCand, EMPTY);
+      Arrays.fill(oldCand, EMPTY);
+      // Sample forward and reverse candidates:
+      ParallelExecutor.run(0, size, MIN_BLOCK, new RangeProcessor() {
+        @Override
+        public void process(int start, int end) {
+          for(int i = start; i < end; i++) {
+            for(int p = i * kk, e = p + kk; p < e; p++) {
+              final int v = nbrs[p];
+              if(v != EMPTY) {
+                final int j = v >>> 1;
+                final int[] cand = (v & NEW) != 0 ? newCand : oldCand;
+                pushCandidate(cand, i, j);
+                pushCandidate(cand, j, i);
+              }
+            }
+          }
+        }
+      });
+      // Sampled new neighbors become old:
+      ParallelExecutor.run(0, size, MIN_BLOCK, new RangeProcessor() {
+        @Override
+        public void process(int start, int end) {
+          for(int i = start; i < end; i++) {
+            for(int p = i * kk, e = p + kk; p < e; p++) {
+              final int v = nbrs[p];
+              if(v != EMPTY && (v & NEW) != 0 && contains(newCand, i * items, v >>> 1)) {
+                nbrs[p] = v & ~NEW;
+              }
+            }
+          }
+        }
+      });
+      // Local joins:
+      final long before = updates.sum(), beforeDist = distComputations.sum();
+      ParallelExecutor.run(0, size, MIN_BLOCK, new RangeProcessor() {
+        @Override
+        public void process(int start, int end) {
+          DBIDArrayIter a = ids.iter(), b = ids.iter();
+          long dc = 0, up = 0;
+          for(int i = start; i < end; i++) {
+            for(int p = i * items, e = p + items; p < e; p++) {
+              final int u = newCand[p];
+              if(u == EMPTY) {
+                continue;
+              }
+              a.seek(u);
+              // new x new, each pair once
+              for(int q = p + 1; q < e; q++) {
+                final int v = newCand[q];
+                if(v != EMPTY && v != u) {
+                  final double d = distanceQuery.distance(a, b.seek(v));
+                  up += (insert(u, v, d) ? 1 : 0) + (insert(v, u, d) ? 1 : 0);
+                  ++dc;
+                }
+              }
+              // new x old
+              for(int q = i * items; q < e; q++) {
+                final int v = oldCand[q];
+                if(v != EMPTY && v != u) {
+                  final double d = distanceQuery.distance(a, b.seek(v));
+                  up += (insert(u, v, d) ? 1 : 0) + (insert(v, u, d) ? 1 : 0);
+                  ++dc;
+                }
+              }
+            }
+          }
+          distComputations.add(dc);
+          updates.add(up);
+        }
+      });
+      final long changed = updates.sum() - before;
+      if(LOG.isStatistics()) {
+        LOG.statistics(new LongStatistic(prefix + "." + iter + ".updates", changed));
+        LOG.statistics(new LongStatistic(prefix + "." + iter + ".distance-computations", distComputations.sum() - beforeDist));
+      }
+      LOG.incrementProcessed(progress);
+      if(changed < delta * kk * size) {
+        LOG.verbose("NNDescent terminated because the update rate got smaller than delta.");
+        break;
+      }
+    }
+    if(iter > iterations) {
+      iter = iterations;
+      LOG.verbose("NNDescent terminated because the maximum number of iterations was reached.");
+    }
+    LOG.setCompleted(progress);
+  }
+
+  /**
+   * Insert a new neighbor into the heap of a point.
+   *
+   * @param i Point offset
+   * @param j Neighbor offset
+   * @param d Distance
+   * @return {@code true} if the heap was modified
+   */
+  private boolean insert(int i, int j, double d) {
+    final int base = i * kk;
+    // Unsynchronized check first, as most candidates are rejected:
+    if(d >= dists[base]) {
+      return false;
+    }
+    synchronized(locks[i & (LOCKS - 1)]) {
+      if(d >= dists[base]) {
+        return false;
+      }
+      for(int p = base, e = base + kk; p < e; p++) {
+        if((nbrs[p] >>> 1) == j) {
+          return false; // Duplicate
+        }
+      }
+      // Replace the farthest neighbor, and sift down:
+      int pos = 0;
+      while(true) {
+        int c = (pos << 1) + 1;
+        if(c >= kk) {
+          break;
+        }
+        if(c + 1 < kk && dists[base + c + 1] > dists[base + c]) {
+          ++c;
+        }
+        if(dists[base + c] <= d) {
+          break;
+        }
+        dists[base + pos] = dists[base + c];
+        nbrs[base + pos] = nbrs[base + c];
+        pos = c;
+      }
+      dists[base + pos] = d;
+      nbrs[base + pos] = (j << 1) | NEW;
+      return true;
+    }
+  }
+
+  /**
+   * Add a candidate to the sample of a point, keeping the candidates with the
+   * smallest (pseudo-random) priority.
+   *
+   * @param cand Candidate array
+   * @param i Point offset
+   * @param j Candidate offset
+   */
+  private void pushCandidate(int[] cand, int i, int j) {
+    final int base = i * items;
+    final long prio = priority(i, j);
+    if(prio >= priority(i, cand[base])) {
+      return;
+    }
+    synchronized(locks[i & (LOCKS - 1)]) {
+      if(prio >= priority(i, cand[base]) || contains(cand, base, j)) {
+        return;
+      }
+      int pos = 0;
+      while(true) {
+        int c = (pos << 1) + 1;
+        if(c >= items) {
+          break;
+        }
+        long cp = priority(i, cand[base + c]);
+        if(c + 1 < items) {
+          final long cp2 = priority(i, cand[base + c + 1]);
+          if(cp2 > cp) {
+            ++c;
+            cp = cp2;
+          }
+        }
+        if(cp <= prio) {
+          break;
+        }
+        cand[base + pos] = cand[base + c];
+        pos = c;
+      }
+      cand[base + pos] = j;
+    }
+  }
+
+  /**
+   * Test if a candidate list contains a point.
+   *
+   * @param cand Candidate array
+   * @param base Start of the candidate list
+   * @param j Point offset
+   * @return {@code true} if contained
+   */
+  private boolean contains(int[] cand, int base, int j) {
+    for(int p = base, e = base + items; p < e; p++) {
+      if(cand[p] == j) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Pseudo-random priority of a candidate in the current iteration.
+   *
+   * @param i Point offset
+   * @param j Candidate offset, or {@link #EMPTY}
+   * @return Priority, empty slots have the largest.
+   */
+  private long priority(int i, int j) {
+    return j == EMPTY ? Long.MAX_VALUE : mix(seed, i, j) >>> 2;
+  }
+
+  /**
+   * Hash mixing function, to obtain pseudo-random numbers without shared
+   * state.
+   *
+   * @param seed Seed
+   * @param a First value
+   * @param b Second value
+   * @return Hash value
+   */
+  private static long mix(long seed, long a, long b) {
+    long h = seed + a * 0x9E3779B97F4A7C15L + b * 0xC2B2AE3D27D4EB4FL;
+    h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+    h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+    return h ^ (h >>> 31);
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public void logStatistics() {
+    final long size = relation.size();
+    LOG.statistics(new LongStatistic(prefix + ".iterations", iter));
+    LOG.statistics(new LongStatistic(prefix + ".updates", updates.sum()));
+    LOG.statistics(new LongStatistic(prefix + ".distance-computations", distComputations.sum()));
+    if(size > 1) {
+      LOG.statistics(new DoubleStatistic(prefix + ".scan-rate", distComputations.sum() / (size * (size - 1) * .5)));
+    }
+  }
+
+  @Override
+  public String getLongName() {
+    return "Parallel NNDescent kNN";
+  }
+
+  @Override
+  public String getShortName() {
+    return "parallel-nn-descent-knn";
+  }
+
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    for(Object hint : hints) {
+      if(DatabaseQuery.HINT_EXACT.equals(hint)) {
+        return null;
+      }
+    }
+    return super.getKNNQuery(distanceQuery, hints);
+  }
+
+  /**
+   * Index factory.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> extends AbstractMaterializeKNNPreprocessor.Factory<O> {
+    /**
+     * Random generator
+     */
+    private final RandomFactory rnd;
+
+    /**
+     * Early termination parameter
+     */
+    private final double delta;
+
+    /**
+     * Sample rate
+     */
+    private final double rho;
+
+    /**
+     * Maximum number of iterations
+     */
+    private final int iterations;
+
+    /**
+     * Constructor.
+     *
+     * @param k K
+     * @param distanceFunction distance function
+     * @param rnd Random generator
+     * @param delta Delta threshold
+     * @param rho Rho threshold
+     * @param iterations Maximum number of iterations
+     */
+    public Factory(int k, DistanceFunction<? super O> distanceFunction, RandomFactory rnd, double delta, double rho, int iterations) {
+      super(k, distanceFunction);
+      this.rnd = rnd;
+      this.delta = delta;
+      this.rho = rho;
+      this.iterations = iterations;
+    }
+
+    @Override
+    public ParallelNNDescent<O> instantiate(Relation<O> relation) {
+      return new ParallelNNDescent<>(relation, distanceFunction, k, rnd, delta, rho, iterations);
+    }
+
+    /**
+     * Parameterization class
+     *
+     * @author Erich Schubert
+     *
+     * @hidden
+     *
+     * @param <O> Object type
+     */
+    public static class Parameterizer<O> extends AbstractMaterializeKNNPreprocessor.Factory.Parameterizer<O> {
+      /**
+       * Random generator
+       */
+      private RandomFactory rnd;
+
+      /**
+       * Early termination parameter
+       */
+      private double delta;
+
+      /**
+       * Sample rate
+       */
+      private double rho;
+
+      /**
+       * Maximum number of iterations
+       */
+      private int iterations;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        RandomParameter rndP = new RandomParameter(NNDescent.Factory.Parameterizer.SEED_ID);
+        if(config.grab(rndP)) {
+          rnd = rndP.getValue();
+        }
+        DoubleParameter deltaP = new DoubleParameter(NNDescent.Factory.Parameterizer.DELTA_ID, 0.001) //
+            .addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE);
+        if(config.grab(deltaP)) {
+          delta = deltaP.getValue();
+        }
+        DoubleParameter rhoP = new DoubleParameter(NNDescent.Factory.Parameterizer.RHO_ID, 1) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_DOUBLE);
+        if(config.grab(rhoP)) {
+          rho = rhoP.getValue();
+        }
+        IntParameter iterP = new IntParameter(NNDescent.Factory.Parameterizer.ITER_ID, 100) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(iterP)) {
+          iterations = iterP.getValue();
+        }
+      }
+
+      @Override
+      protected ParallelNNDescent.Factory<O> makeInstance() {
+        return new ParallelNNDescent.Factory<>(k, distanceFunction, rnd, delta, rho, iterations);
+      }
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.distancematrix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.AbstractNumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+
+/**
+ * Unit test for the distance cache.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class DistanceCacheIndexTest {
+  /**
+   * Test that the cache returns the correct distances, and avoids recomputing
+   * them when large enough.
+   */
+  @Test
+  public void testCache() {
+    CountingDistanceFunction df = new CountingDistanceFunction();
+    Relation<NumberVector> rel = makeRelation(100, new DistanceCacheIndex.Factory<NumberVector>(df, 1L << 23));
+    DistanceQuery<NumberVector> dq = rel.getDistanceQuery(df);
+    assertTrue("Cache not used.", dq.getClass().getEnclosingClass() == DistanceCacheIndex.class);
+    assertAllPairs(rel, dq);
+    assertEquals("Too many distance computations.", 100 * 101 / 2, df.count.get());
+    assertAllPairs(rel, dq);
+    assertAllPairs(rel, rel.getDistanceQuery(df));
+    assertEquals("Distances recomputed.", 100 * 101 / 2, df.count.get());
+
+    DistanceQuery<NumberVector> nocache = rel.getDistanceQuery(df, DatabaseQuery.HINT_NO_CACHE);
+    assertTrue("Cache used despite hint.", nocache.getClass().getEnclosingClass() != DistanceCacheIndex.class);
+  }
+
+  /**
+   * Test a cache much smaller than the number of pairs, used concurrently.
+   */
+  @Test
+  public void testEvictionConcurrent() throws InterruptedException {
+    CountingDistanceFunction df = new CountingDistanceFunction();
+    Relation<NumberVector> rel = makeRelation(200, new DistanceCacheIndex.Factory<NumberVector>(df, 1L << 12));
+    final DistanceQuery<NumberVector> dq = rel.getDistanceQuery(df);
+    final AssertionError[] failed = new AssertionError[1];
+    Thread[] threads = new Thread[4];
+    for(int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            assertAllPairs(rel, dq);
+            assertAllPairs(rel, dq);
+          }
+          catch(AssertionError e) {
+            failed[0] = e;
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for(Thread t : threads) {
+      t.join();
+    }
+    if(failed[0] != null) {
+      throw failed[0];
+    }
+    assertTrue("Too few distance computations.", df.count.get() > 200 * 201);
+  }
+
+  /**
+   * Build a relation of random vectors, with the given index.
+   *
+   * @param size Relation size
+   * @param factory Index factory
+   * @return Relation
+   */
+  private static Relation<NumberVector> makeRelation(int size, DistanceCacheIndex.Factory<NumberVector> factory) {
+    Random r = new Random(0L);
+    double[][] data = new double[size][3];
+    for(double[] row : data) {
+      for(int d = 0; d < row.length; d++) {
+        row[d] = r.nextDouble();
+      }
+    }
+    StaticArrayDatabase db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), Arrays.asList(factory));
+    db.initialize();
+    return db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  /**
+   * Compare the distances of all pairs to the Euclidean distance.
+   *
+   * @param rel Relation
+   * @param dq Distance query
+   */
+  private static void assertAllPairs(Relation<NumberVector> rel, DistanceQuery<NumberVector> dq) {
+    DBIDRange ids = (DBIDRange) rel.getDBIDs();
+    for(DBIDArrayIter a = ids.iter(); a.valid(); a.advance()) {
+      for(DBIDArrayIter b = ids.iter().seek(a.getOffset()); b.valid(); b.advance()) {
+        final double d = EuclideanDistanceFunction.STATIC.distance(rel.get(a), rel.get(b));
+        assertEquals("Wrong distance.", d, dq.distance(a, b), 0.);
+        assertEquals("Wrong distance.", d, dq.distance(b, a), 0.);
+      }
+    }
+  }
+
+  /**
+   * Euclidean distance, counting the number of computations.
+   *
+   * @author Erich Schubert
+   */
+  private static class CountingDistanceFunction extends AbstractNumberVectorDistanceFunction {
+    /**
+     * Number of distance computations.
+     */
+    AtomicLong count = new AtomicLong();
+
+    @Override
+    public double distance(NumberVector o1, NumberVector o2) {
+      count.incrementAndGet();
+      return EuclideanDistanceFunction.STATIC.distance(o1, o2);
+    }
+
+    @Override
+    public boolean isSymmetric() {
+      return true;
+    }
+  }
+}
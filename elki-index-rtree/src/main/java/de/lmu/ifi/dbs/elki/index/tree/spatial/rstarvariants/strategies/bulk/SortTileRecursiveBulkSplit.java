@@ -22,9 +22,11 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RecursiveTask;
 
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialSingleMeanComparator;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.QuickSelect;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
@@ -40,6 +42,8 @@ import net.jafama.FastMath;
  * S. T. Leutenegger, M. A. Lopez, J. Edgington<br>
  * STR: A simple and efficient algorithm for R-tree packing<br>
  * Proc. 13th International Conference on Data Engineering (ICDE 1997)
+ * <p>
+ * For large data sets, the tiles are partitioned further in parallel.
  *
  * @author Erich Schubert
  * @since 0.5.0
@@ -56,9 +60,17 @@ public class SortTileRecursiveBulkSplit extends AbstractBulkSplit {
    */
   public static final SortTileRecursiveBulkSplit STATIC = new SortTileRecursiveBulkSplit();
 
+  /**
+   * Minimum number of objects to partition in a separate task.
+   */
+  private static final int PARALLEL_THRESHOLD = 10000;
+
   @Override
   public <T extends SpatialComparable> List<List<T>> partition(List<T> spatialObjects, int minEntries, int maxEntries) {
     final int dims = spatialObjects.get(0).getDimensionality();
+    if(spatialObjects.size() >= PARALLEL_THRESHOLD && dims > 1) {
+      return ParallelCore.getCore().invoke(new STRTask<>(spatialObjects, 0, spatialObjects.size(), 0, dims, maxEntries));
+    }
     final int p = (int) FastMath.ceil(spatialObjects.size() / (double) maxEntries);
     List<List<T>> ret = new ArrayList<>(p);
     strPartition(spatialObjects, 0, spatialObjects.size(), 0, dims, maxEntries, new SpatialSingleMeanComparator(0), ret);
@@ -102,6 +114,82 @@ public class SortTileRecursiveBulkSplit extends AbstractBulkSplit {
     }
   }
 
+  /**
+   * Task to partition a range of objects. The slices along the current
+   * dimension are partitioned further by separate tasks, if large enough.
+   *
+   * @author Erich Schubert
+   *
+   * @param <T> data type
+   */
+  private class STRTask<T extends SpatialComparable> extends RecursiveTask<List<List<T>>> {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Object list.
+     */
+    private final List<T> objs;
+
+    /**
+     * Subinterval, iteration depth, total number of dimensions, and maximum
+     * page size.
+     */
+    private final int start, end, depth, dims, maxEntries;
+
+    /**
+     * Constructor.
+     *
+     * @param objs Object list
+     * @param start Subinterval start
+     * @param end Subinterval end
+     * @param depth Iteration depth (must be less than dimensionality!)
+     * @param dims Total number of dimensions
+     * @param maxEntries Maximum page size
+     */
+    STRTask(List<T> objs, int start, int end, int depth, int dims, int maxEntries) {
+      this.objs = objs;
+      this.start = start;
+      this.end = end;
+      this.depth = depth;
+      this.dims = dims;
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected List<List<T>> compute() {
+      final int p = (int) FastMath.ceil((end - start) / (double) maxEntries);
+      List<List<T>> ret = new ArrayList<>(p);
+      SpatialSingleMeanComparator c = new SpatialSingleMeanComparator(depth);
+      if(end - start < PARALLEL_THRESHOLD || depth + 1 == dims) {
+        strPartition(objs, start, end, depth, dims, maxEntries, c, ret);
+        return ret;
+      }
+      final int s = (int) FastMath.ceil(FastMath.pow(p, 1.0 / (dims - depth)));
+      final double len = end - start; // double intentional!
+      List<STRTask<T>> tasks = new ArrayList<>(s);
+      for(int i = 0; i < s; i++) {
+        int s2 = start + (int) ((i * len) / s);
+        int e2 = start + (int) (((i + 1) * len) / s);
+        if(e2 < end) {
+          QuickSelect.quickSelect(objs, c, s2, end, e2);
+        }
+        STRTask<T> task = new STRTask<>(objs, s2, e2, depth + 1, dims, maxEntries);
+        if(e2 - s2 >= PARALLEL_THRESHOLD) {
+          task.fork();
+        }
+        tasks.add(task);
+      }
+      // Collect the results in order.
+      for(STRTask<T> task : tasks) {
+        ret.addAll(task.end - task.start >= PARALLEL_THRESHOLD ? task.join() : task.compute());
+      }
+      return ret;
+    }
+  }
+
   /**
    * Parameterization class.
    * 
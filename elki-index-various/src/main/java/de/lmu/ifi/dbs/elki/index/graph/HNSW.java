@@ -0,0 +1,965 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.graph;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.*;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.DynamicIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor.RangeProcessor;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.BitsUtil;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMaxHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import net.jafama.FastMath;
+
+/**
+ * Hierarchical navigable small world graph (HNSW) for approximate nearest
+ * neighbor search, with arbitrary distance functions.
+ * <p>
+ * Every object is assigned a random level, with exponentially decaying
+ * probability, and is linked to approximate nearest neighbors on every layer
+ * up to this level, with at most m links per object (2m on the bottom layer).
+ * Queries descend greedily from the top layer, then perform a beam search of
+ * width ef on the bottom layer; larger beams give better recall at a higher
+ * cost. Range queries use the same beam search, but also expand all candidates
+ * within the query radius.
+ * <p>
+ * Links are stored as arrays that are never modified once published, but
+ * replaced while holding a lock on the node. Hence objects can be inserted by
+ * multiple threads, and searches do not need any locks. Deleted objects are
+ * removed from the graph, and the links of the nodes that pointed to them are
+ * repaired using the neighbors of the deleted objects.
+ * <p>
+ * Reference:
+ * <p>
+ * Y. A. Malkov, D. A. Yashunin<br>
+ * Efficient and robust approximate nearest neighbor search using Hierarchical
+ * Navigable Small World graphs<br>
+ * arXiv preprint arXiv:1603.09320
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - HNSWKNNQuery
+ * @has - - - HNSWRangeQuery
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "Y. A. Malkov, D. A. Yashunin", //
+    title = "Efficient and robust approximate nearest neighbor search using Hierarchical Navigable Small World graphs", //
+    booktitle = "arXiv preprint arXiv:1603.09320", //
+    url = "http://arxiv.org/abs/1603.09320", //
+    bibkey = "DBLP:journals/corr/MalkovY16")
+public class HNSW<O> extends AbstractRefiningIndex<O> implements KNNIndex<O>, RangeIndex<O>, DynamicIndex {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(HNSW.class);
+
+  /**
+   * Links of a node that has no neighbors (yet).
+   */
+  private static final int[] NO_LINKS = new int[0];
+
+  /**
+   * Minimum number of objects per block of work. The first block is always
+   * inserted by a single thread.
+   */
+  private static final int MIN_BLOCK = 64;
+
+  /**
+   * Distance function.
+   */
+  protected DistanceFunction<? super O> distanceFunction;
+
+  /**
+   * Distance query.
+   */
+  private DistanceQuery<O> distanceQuery;
+
+  /**
+   * Maximum number of links per node and layer.
+   */
+  protected int m;
+
+  /**
+   * Beam width for insertions.
+   */
+  protected int efConstruction;
+
+  /**
+   * Beam width for queries.
+   */
+  protected int ef;
+
+  /**
+   * Random generator for the level assignment.
+   */
+  protected RandomFactory rnd;
+
+  /**
+   * Random generator instance.
+   */
+  private Random random;
+
+  /**
+   * Objects, by node number.
+   */
+  private ArrayModifiableDBIDs ids;
+
+  /**
+   * Node numbers, by object.
+   */
+  private WritableIntegerDataStore nodes;
+
+  /**
+   * Links of each node, one array per layer. Removed nodes are {@code null}.
+   */
+  private AtomicReferenceArray<int[]>[] graph;
+
+  /**
+   * Number of nodes allocated, including removed nodes.
+   */
+  private int size = 0;
+
+  /**
+   * Number of removed nodes.
+   */
+  private int removed = 0;
+
+  /**
+   * Entry point for searches, -1 when empty.
+   */
+  private volatile int entry = -1;
+
+  /**
+   * Level of the entry point.
+   */
+  private volatile int top = -1;
+
+  /**
+   * Distance computations during construction.
+   */
+  private final LongAdder distComputations = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distanceFunction Distance function
+   * @param m Maximum number of links per node and layer
+   * @param efConstruction Beam width for insertions
+   * @param ef Beam width for queries
+   * @param rnd Random generator
+   */
+  public HNSW(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int m, int efConstruction, int ef, RandomFactory rnd) {
+    super(relation);
+    this.distanceFunction = distanceFunction;
+    this.m = m;
+    this.efConstruction = efConstruction;
+    this.ef = ef;
+    this.rnd = rnd;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void initialize() {
+    if(graph != null) {
+      LOG.warning("Index was already initialized!");
+    }
+    distanceQuery = distanceFunction.instantiate(relation);
+    random = rnd.getSingleThreadedRandom();
+    ids = DBIDUtil.newArray(relation.size());
+    nodes = DataStoreUtil.makeIntegerStorage(relation.getDBIDs(), DataStoreFactory.HINT_DB | DataStoreFactory.HINT_HOT, -1);
+    graph = (AtomicReferenceArray<int[]>[]) new AtomicReferenceArray<?>[Math.max(relation.size(), MIN_BLOCK)];
+    size = removed = 0;
+    entry = top = -1;
+    insertAll(relation.getDBIDs());
+  }
+
+  /**
+   * Allocate a node for a new object, and choose its level.
+   *
+   * @param id Object
+   * @return Node number, -1 if the object was already indexed.
+   */
+  private int allocate(DBIDRef id) {
+    if(nodes.intValue(id) >= 0) {
+      return -1;
+    }
+    final int node = size++;
+    if(node == graph.length) {
+      graph = Arrays.copyOf(graph, graph.length + (graph.length >>> 1));
+    }
+    ids.add(id);
+    nodes.putInt(id, node);
+    // Levels decay exponentially, with base m:
+    final int level = (int) (-FastMath.log(1. - random.nextDouble()) / FastMath.log(m));
+    graph[node] = new AtomicReferenceArray<>(level + 1);
+    return node;
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    final int node = allocate(id);
+    if(node >= 0) {
+      Search s = new Search();
+      insert(node, s);
+      distComputations.add(s.distcalc);
+    }
+  }
+
+  @Override
+  public void insertAll(DBIDs dbids) {
+    final int start = size;
+    for(DBIDIter iter = dbids.iter(); iter.valid(); iter.advance()) {
+      allocate(iter);
+    }
+    if(size == start) {
+      return;
+    }
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building HNSW graph", size - start, LOG) : null;
+    // Insert a first block serially, to obtain an initial graph.
+    final int first = Math.min(size, start + MIN_BLOCK);
+    Search s = new Search();
+    for(int i = start; i < first; i++) {
+      insert(i, s);
+    }
+    distComputations.add(s.distcalc);
+    if(prog != null) {
+      prog.incrementProcessed(first - start, LOG);
+    }
+    ParallelExecutor.run(first, size, MIN_BLOCK, new RangeProcessor() {
+      @Override
+      public void process(int start, int end) {
+        Search s = new Search();
+        for(int i = start; i < end; i++) {
+          insert(i, s);
+        }
+        distComputations.add(s.distcalc);
+        if(prog != null) {
+          prog.incrementProcessed(end - start, LOG);
+        }
+      }
+    });
+    LOG.ensureCompleted(prog);
+  }
+
+  /**
+   * Insert a node into the graph.
+   *
+   * @param q Node to insert
+   * @param s Search state
+   */
+  private void insert(int q, Search s) {
+    final AtomicReferenceArray<int[]> links = graph[q];
+    final int level = links.length() - 1;
+    final int ep, maxl;
+    synchronized(this) {
+      ep = entry;
+      maxl = top;
+      if(ep < 0) {
+        entry = q;
+        top = level;
+        return;
+      }
+    }
+    s.query = relation.get(s.iter.seek(q));
+    s.res.clear();
+    s.res.add(s.distance(ep), ep);
+    for(int l = maxl; l > level; l--) {
+      s.searchLayer(l, 1, Double.NEGATIVE_INFINITY, null);
+    }
+    for(int l = Math.min(level, maxl); l >= 0; l--) {
+      s.searchLayer(l, efConstruction, Double.NEGATIVE_INFINITY, null);
+      // Keep the beam as entry points for the next layer.
+      s.sel.clear();
+      for(DoubleIntegerHeap.UnsortedIter it = s.res.unsortedIter(); it.valid(); it.advance()) {
+        s.sel.add(it.getKey(), it.getValue());
+      }
+      final int[] nbrs = s.select(s.sel, m, q);
+      final int mmax = l == 0 ? m << 1 : m;
+      synchronized(links) {
+        // Concurrent inserts may already have linked back to q; keep these.
+        final int[] back = links.get(l);
+        links.set(l, back == null || back.length == 0 ? nbrs : merge(q, nbrs, back, mmax, s));
+      }
+      for(int e : nbrs) {
+        connect(e, q, l, mmax, s);
+      }
+    }
+    if(level > maxl) {
+      synchronized(this) {
+        if(level > top) {
+          entry = q;
+          top = level;
+        }
+      }
+    }
+  }
+
+  /**
+   * Merge the selected neighbors of a new node with the links that were added
+   * by concurrent inserts, and prune them if there are too many.
+   *
+   * @param q New node
+   * @param nbrs Selected neighbors
+   * @param back Links added concurrently
+   * @param mmax Maximum number of links
+   * @param s Search state
+   * @return Merged links
+   */
+  private int[] merge(int q, int[] nbrs, int[] back, int mmax, Search s) {
+    int[] all = Arrays.copyOf(nbrs, nbrs.length + back.length);
+    int n = nbrs.length;
+    for(int b : back) {
+      boolean dup = false;
+      for(int i = 0; i < nbrs.length && !dup; i++) {
+        dup = nbrs[i] == b;
+      }
+      if(!dup) {
+        all[n++] = b;
+      }
+    }
+    if(n <= mmax) {
+      return n < all.length ? Arrays.copyOf(all, n) : all;
+    }
+    DoubleIntegerMinHeap cands = s.sel;
+    cands.clear();
+    for(int i = 0; i < n; i++) {
+      cands.add(s.distance(q, all[i]), all[i]);
+    }
+    return s.select(cands, mmax, q);
+  }
+
+  /**
+   * Add a reverse link, and prune the links if there are too many.
+   *
+   * @param e Node to add the link to
+   * @param q New neighbor
+   * @param l Layer
+   * @param mmax Maximum number of links
+   * @param s Search state
+   */
+  private void connect(int e, int q, int l, int mmax, Search s) {
+    final AtomicReferenceArray<int[]> links = graph[e];
+    synchronized(links) {
+      final int[] old = links.get(l);
+      if(old == null || old.length < mmax) {
+        final int len = old == null ? 0 : old.length;
+        int[] nbrs = old == null ? new int[1] : Arrays.copyOf(old, len + 1);
+        nbrs[len] = q;
+        links.set(l, nbrs);
+        return;
+      }
+      DoubleIntegerMinHeap cands = s.sel;
+      cands.clear();
+      for(int o : old) {
+        cands.add(s.distance(e, o), o);
+      }
+      cands.add(s.distance(e, q), q);
+      links.set(l, s.select(cands, mmax, e));
+    }
+  }
+
+  @Override
+  public boolean delete(DBIDRef id) {
+    final int node = nodes.intValue(id);
+    if(node < 0) {
+      return false;
+    }
+    long[] rem = BitsUtil.zero(size);
+    BitsUtil.setI(rem, node);
+    nodes.putInt(id, -1);
+    remove(rem);
+    return true;
+  }
+
+  @Override
+  public void deleteAll(DBIDs dbids) {
+    long[] rem = BitsUtil.zero(size);
+    boolean any = false;
+    for(DBIDIter iter = dbids.iter(); iter.valid(); iter.advance()) {
+      final int node = nodes.intValue(iter);
+      if(node >= 0) {
+        BitsUtil.setI(rem, node);
+        nodes.putInt(iter, -1);
+        any = true;
+      }
+    }
+    if(any) {
+      remove(rem);
+    }
+  }
+
+  /**
+   * Remove nodes from the graph, and repair the links pointing to them.
+   *
+   * @param rem Nodes to remove
+   */
+  private void remove(long[] rem) {
+    Search s = new Search();
+    for(int n = 0; n < size; n++) {
+      final AtomicReferenceArray<int[]> links = graph[n];
+      if(links == null || BitsUtil.get(rem, n)) {
+        continue;
+      }
+      for(int l = 0; l < links.length(); l++) {
+        final int[] nbrs = links.get(l);
+        if(nbrs == null || !linksTo(nbrs, rem)) {
+          continue;
+        }
+        // Candidates: remaining neighbors, and neighbors of removed neighbors.
+        DoubleIntegerMinHeap cands = s.sel;
+        cands.clear();
+        IntOpenHashSet seen = s.visited;
+        seen.clear();
+        seen.add(n);
+        for(int e : nbrs) {
+          if(!BitsUtil.get(rem, e)) {
+            if(seen.add(e)) {
+              cands.add(s.distance(n, e), e);
+            }
+            continue;
+          }
+          final int[] second = graph[e].get(l);
+          for(int f : second != null ? second : NO_LINKS) {
+            if(!BitsUtil.get(rem, f) && seen.add(f)) {
+              cands.add(s.distance(n, f), f);
+            }
+          }
+        }
+        links.set(l, s.select(cands, l == 0 ? m << 1 : m, n));
+      }
+    }
+    distComputations.add(s.distcalc);
+    boolean lostentry = false;
+    for(int n = BitsUtil.nextSetBit(rem, 0); n >= 0; n = BitsUtil.nextSetBit(rem, n + 1)) {
+      lostentry |= n == entry;
+      graph[n] = null;
+      ++removed;
+    }
+    if(lostentry) {
+      int best = -1, bestl = -1;
+      for(int n = 0; n < size; n++) {
+        if(graph[n] != null && graph[n].length() - 1 > bestl) {
+          best = n;
+          bestl = graph[n].length() - 1;
+        }
+      }
+      entry = best;
+      top = bestl;
+    }
+  }
+
+  /**
+   * Test if a node links to any of the given nodes.
+   *
+   * @param nbrs Links of the node
+   * @param rem Nodes to test for
+   * @return {@code true} if any link is to one of the nodes
+   */
+  private static boolean linksTo(int[] nbrs, long[] rem) {
+    for(int e : nbrs) {
+      if(BitsUtil.get(rem, e)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Search state of a single thread, to reuse the memory of the heaps.
+   *
+   * @author Erich Schubert
+   */
+  private class Search {
+    /**
+     * Current query object.
+     */
+    O query;
+
+    /**
+     * Iterators for accessing the objects.
+     */
+    DBIDArrayIter iter = ids.iter(), iter2 = ids.iter();
+
+    /**
+     * Visited nodes.
+     */
+    IntOpenHashSet visited = new IntOpenHashSet();
+
+    /**
+     * Candidates to expand, nearest first.
+     */
+    DoubleIntegerMinHeap cand = new DoubleIntegerMinHeap();
+
+    /**
+     * Search result (beam), farthest first.
+     */
+    DoubleIntegerMaxHeap res = new DoubleIntegerMaxHeap();
+
+    /**
+     * Candidates for link selection.
+     */
+    DoubleIntegerMinHeap sel = new DoubleIntegerMinHeap();
+
+    /**
+     * Buffer for link selection.
+     */
+    int[] buf = new int[m << 1];
+
+    /**
+     * Number of distance computations.
+     */
+    int distcalc = 0;
+
+    /**
+     * Distance of a node to the query object.
+     *
+     * @param node Node
+     * @return Distance
+     */
+    double distance(int node) {
+      ++distcalc;
+      return distanceQuery.distance(query, iter.seek(node));
+    }
+
+    /**
+     * Distance of two nodes.
+     *
+     * @param a First node
+     * @param b Second node
+     * @return Distance
+     */
+    double distance(int a, int b) {
+      ++distcalc;
+      return distanceQuery.distance(iter.seek(a), iter2.seek(b));
+    }
+
+    /**
+     * Search the graph for the query object, leaving the result in
+     * {@link #res}.
+     *
+     * @param width Beam width
+     * @param range Range to collect, or negative infinity for kNN search
+     * @param out Output for range queries, may be {@code null}
+     */
+    void search(int width, double range, ModifiableDoubleDBIDList out) {
+      final int ep = entry, maxl = top;
+      res.clear();
+      final double d = distance(ep);
+      res.add(d, ep);
+      for(int l = maxl; l > 0; l--) {
+        searchLayer(l, 1, Double.NEGATIVE_INFINITY, null);
+      }
+      searchLayer(0, width, range, out);
+    }
+
+    /**
+     * Beam search on a single layer, starting from the nodes in {@link #res}.
+     *
+     * @param layer Layer
+     * @param width Beam width
+     * @param range Range to collect, or negative infinity for kNN search
+     * @param out Output for range queries, may be {@code null}
+     */
+    void searchLayer(int layer, int width, double range, ModifiableDoubleDBIDList out) {
+      visited.clear();
+      cand.clear();
+      for(DoubleIntegerHeap.UnsortedIter it = res.unsortedIter(); it.valid(); it.advance()) {
+        visited.add(it.getValue());
+        cand.add(it.getKey(), it.getValue());
+        if(out != null && it.getKey() <= range) {
+          out.add(it.getKey(), iter.seek(it.getValue()));
+        }
+      }
+      while(!cand.isEmpty()) {
+        final double cd = cand.peekKey();
+        if(cd > range && res.size() >= width && cd > res.peekKey()) {
+          break;
+        }
+        final int[] nbrs = graph[cand.peekValue()].get(layer);
+        cand.poll();
+        if(nbrs == null) {
+          continue;
+        }
+        for(int e : nbrs) {
+          if(!visited.add(e)) {
+            continue;
+          }
+          final double d = distance(e);
+          if(d <= range || res.size() < width || d < res.peekKey()) {
+            cand.add(d, e);
+            res.add(d, e, width);
+            if(d <= range) {
+              out.add(d, iter); // Still positioned at e.
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Select links with the heuristic of HNSW: a candidate is skipped if it is
+     * closer to an already selected link than to the node itself.
+     *
+     * @param cands Candidates, will be emptied
+     * @param max Maximum number of links
+     * @param self Node itself, to be skipped
+     * @return Selected links
+     */
+    int[] select(DoubleIntegerMinHeap cands, int max, int self) {
+      int n = 0;
+      while(!cands.isEmpty() && n < max) {
+        final double d = cands.peekKey();
+        final int c = cands.peekValue();
+        cands.poll();
+        if(c == self) {
+          continue;
+        }
+        boolean keep = true;
+        for(int i = 0; i < n; i++) {
+          if(distance(c, buf[i]) < d) {
+            keep = false;
+            break;
+          }
+        }
+        if(keep) {
+          buf[n++] = c;
+        }
+      }
+      return n > 0 ? Arrays.copyOf(buf, n) : NO_LINKS;
+    }
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    final String prefix = this.getClass().getName();
+    long links = 0;
+    for(int n = 0; n < size; n++) {
+      if(graph[n] != null) {
+        for(int l = 0; l < graph[n].length(); l++) {
+          final int[] nbrs = graph[n].get(l);
+          links += nbrs != null ? nbrs.length : 0;
+        }
+      }
+    }
+    LOG.statistics(new LongStatistic(prefix + ".nodes", size - removed));
+    LOG.statistics(new LongStatistic(prefix + ".layers", top + 1));
+    LOG.statistics(new LongStatistic(prefix + ".links", links));
+    LOG.statistics(new LongStatistic(prefix + ".construction.distance-computations", distComputations.sum()));
+  }
+
+  @Override
+  public String getLongName() {
+    return "Hierarchical navigable small world graph";
+  }
+
+  @Override
+  public String getShortName() {
+    return "hnsw";
+  }
+
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    for(Object hint : hints) {
+      if(DatabaseQuery.HINT_EXACT.equals(hint)) {
+        return null;
+      }
+    }
+    if(distanceQuery.getRelation() != relation || !this.distanceFunction.equals(distanceQuery.getDistanceFunction())) {
+      return null;
+    }
+    return new HNSWKNNQuery(distanceQuery);
+  }
+
+  @Override
+  public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    for(Object hint : hints) {
+      if(DatabaseQuery.HINT_EXACT.equals(hint)) {
+        return null;
+      }
+    }
+    if(distanceQuery.getRelation() != relation || !this.distanceFunction.equals(distanceQuery.getDistanceFunction())) {
+      return null;
+    }
+    return new HNSWRangeQuery(distanceQuery);
+  }
+
+  /**
+   * Approximate kNN query, using a beam of width max(ef, k).
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWKNNQuery extends AbstractKNNQuery {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public HNSWKNNQuery(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public KNNList getKNNForObject(O obj, int k) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      if(entry < 0) {
+        return heap.toKNNList();
+      }
+      Search s = new Search();
+      s.query = obj;
+      s.search(Math.max(ef, k), Double.NEGATIVE_INFINITY, null);
+      incRefinements(s.distcalc);
+      for(DoubleIntegerHeap.UnsortedIter it = s.res.unsortedIter(); it.valid(); it.advance()) {
+        heap.insert(it.getKey(), s.iter.seek(it.getValue()));
+      }
+      return heap.toKNNList();
+    }
+  }
+
+  /**
+   * Approximate range query, expanding all candidates within the radius in
+   * addition to a beam of width ef.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWRangeQuery extends AbstractRangeQuery {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public HNSWRangeQuery(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList result) {
+      if(entry < 0) {
+        return;
+      }
+      Search s = new Search();
+      s.query = obj;
+      s.search(ef, range, result);
+      incRefinements(s.distcalc);
+    }
+  }
+
+  /**
+   * Index factory.
+   *
+   * @author Erich Schubert
+   *
+   * @has - - - HNSW
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> implements IndexFactory<O> {
+    /**
+     * Distance function.
+     */
+    protected DistanceFunction<? super O> distanceFunction;
+
+    /**
+     * Maximum number of links per node and layer.
+     */
+    protected int m;
+
+    /**
+     * Beam width for insertions.
+     */
+    protected int efConstruction;
+
+    /**
+     * Beam width for queries.
+     */
+    protected int ef;
+
+    /**
+     * Random generator for the level assignment.
+     */
+    protected RandomFactory rnd;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceFunction Distance function
+     * @param m Maximum number of links per node and layer
+     * @param efConstruction Beam width for insertions
+     * @param ef Beam width for queries
+     * @param rnd Random generator
+     */
+    public Factory(DistanceFunction<? super O> distanceFunction, int m, int efConstruction, int ef, RandomFactory rnd) {
+      super();
+      this.distanceFunction = distanceFunction;
+      this.m = m;
+      this.efConstruction = efConstruction;
+      this.ef = ef;
+      this.rnd = rnd;
+    }
+
+    @Override
+    public HNSW<O> instantiate(Relation<O> relation) {
+      return new HNSW<>(relation, distanceFunction, m, efConstruction, ef, rnd);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distanceFunction.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @hidden
+     *
+     * @param <O> Object type
+     */
+    public static class Parameterizer<O> extends AbstractParameterizer {
+      /**
+       * Distance function to build the graph with.
+       */
+      public static final OptionID DISTANCE_FUNCTION_ID = new OptionID("hnsw.distancefunction", "Distance function to build the graph with.");
+
+      /**
+       * Maximum number of links per node and layer.
+       */
+      public static final OptionID M_ID = new OptionID("hnsw.m", "Maximum number of links per node and layer, twice as many on the bottom layer.");
+
+      /**
+       * Beam width for insertions.
+       */
+      public static final OptionID EF_CONSTRUCTION_ID = new OptionID("hnsw.efconstruction", "Beam width used when inserting objects.");
+
+      /**
+       * Beam width for queries.
+       */
+      public static final OptionID EF_ID = new OptionID("hnsw.ef", "Beam width used for queries. Larger values improve recall, but are slower.");
+
+      /**
+       * Random generator for the level assignment.
+       */
+      public static final OptionID SEED_ID = new OptionID("hnsw.seed", "Random generator seed for the level assignment.");
+
+      /**
+       * Distance function.
+       */
+      protected DistanceFunction<? super O> distanceFunction;
+
+      /**
+       * Maximum number of links per node and layer.
+       */
+      protected int m;
+
+      /**
+       * Beam width for insertions.
+       */
+      protected int efConstruction;
+
+      /**
+       * Beam width for queries.
+       */
+      protected int ef;
+
+      /**
+       * Random generator for the level assignment.
+       */
+      protected RandomFactory rnd;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        ObjectParameter<DistanceFunction<O>> distanceFunctionP = new ObjectParameter<>(DISTANCE_FUNCTION_ID, DistanceFunction.class, EuclideanDistanceFunction.class);
+        if(config.grab(distanceFunctionP)) {
+          distanceFunction = distanceFunctionP.instantiateClass(config);
+        }
+        IntParameter mP = new IntParameter(M_ID, 16) //
+            .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT);
+        if(config.grab(mP)) {
+          m = mP.intValue();
+        }
+        IntParameter efConstructionP = new IntParameter(EF_CONSTRUCTION_ID, 100) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(efConstructionP)) {
+          efConstruction = efConstructionP.intValue();
+        }
+        IntParameter efP = new IntParameter(EF_ID, 50) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(efP)) {
+          ef = efP.intValue();
+        }
+        RandomParameter rndP = new RandomParameter(SEED_ID);
+        if(config.grab(rndP)) {
+          rnd = rndP.getValue();
+        }
+      }
+
+      @Override
+      protected Factory<O> makeInstance() {
+        return new Factory<>(distanceFunction, m, efConstruction, ef, rnd);
+      }
+    }
+  }
+}
@@ -21,38 +21,54 @@
 package de.lmu.ifi.dbs.elki.index.invertedlist;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
-import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
-import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
-import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.*;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.AbstractDistanceKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.AbstractDistanceRangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.AbstractSimilarityRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.similarity.SimilarityQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.ArcCosineDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.CosineDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.set.JaccardSimilarityDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.similarityfunction.SimilarityFunction;
+import de.lmu.ifi.dbs.elki.distance.similarityfunction.kernel.LinearKernelFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.SimilarityRangeIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 
 import net.jafama.FastMath;
 
 /**
- * Simple index using inverted lists, for cosine distance only.
+ * Simple index using inverted lists, for cosine, arc cosine and Jaccard
+ * distance, and dot product (linear kernel) similarity range queries.
  * <p>
- * TODO: support additional distances.
+ * Posting lists are stored as primitive arrays ordered by object, and are
+ * partitioned into blocks of fixed size that store the maximum and minimum
+ * contribution of their postings. Queries are processed document-at-a-time
+ * using MaxScore: lists whose summed score bounds cannot reach the current
+ * threshold (the k-th best score of a kNN query, or the query radius) are
+ * only probed for candidates found in the other lists, and the block
+ * maxima are used to skip such candidates without accessing the postings.
+ * <p>
+ * Objects that do not share a non-zero dimension with the query object are
+ * not reported.
  * 
  * @author Erich Schubert
  * @since 0.7.0
@@ -61,24 +77,73 @@ import net.jafama.FastMath;
  * @has - - - ArcCosineRangeQuery
  * @has - - - CosineKNNQuery
  * @has - - - CosineRangeQuery
+ * @has - - - JaccardKNNQuery
+ * @has - - - JaccardRangeQuery
+ * @has - - - DotProductSimilarityRangeQuery
  *
  * @param <V> Vector type
  */
-public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex<V> implements KNNIndex<V>, RangeIndex<V> {
+@Reference(authors = "H. Turtle, J. Flood", //
+    title = "Query Evaluation: Strategies and Optimizations", //
+    booktitle = "Information Processing & Management 31(6)", //
+    url = "https://doi.org/10.1016/0306-4573(95)00020-H", //
+    bibkey = "DBLP:journals/ipm/TurtleF95")
+@Reference(authors = "S. Ding, T. Suel", //
+    title = "Faster top-k document retrieval using block-max indexes", //
+    booktitle = "Proc. 34th Int. ACM SIGIR Conf. on Research and Development in Information Retrieval", //
+    url = "https://doi.org/10.1145/2009916.2009934", //
+    bibkey = "DBLP:conf/sigir/DingS11")
+public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex<V> implements KNNIndex<V>, RangeIndex<V>, SimilarityRangeIndex<V> {
   /**
    * Class logger.
    */
   private static final Logging LOG = Logging.getLogger(InMemoryInvertedIndex.class);
 
   /**
-   * Inverted index.
+   * Number of postings per block.
+   */
+  private static final int BLOCKSIZE = 64;
+
+  /**
+   * Relative slack of the pruning thresholds, to guard against rounding
+   * differences between score bounds and the actual scores.
+   */
+  private static final double SLACK = 1e-12;
+
+  /**
+   * Scoring by dot product.
+   */
+  private static final int DOT = 0;
+
+  /**
+   * Scoring by cosine similarity.
+   */
+  private static final int COSINE = 1;
+
+  /**
+   * Scoring by Jaccard similarity.
+   */
+  private static final int JACCARD = 2;
+
+  /**
+   * Object ids, postings refer to offsets into this array.
+   */
+  ArrayDBIDs ids;
+
+  /**
+   * Inverted index, one posting list per dimension (may be {@code null}).
    */
-  ArrayList<ModifiableDoubleDBIDList> index;
+  PostingList[] index;
 
   /**
-   * Length storage.
+   * Vector lengths.
    */
-  WritableDoubleDataStore length;
+  double[] length;
+
+  /**
+   * Number of non-zero values of each object.
+   */
+  int[] nonzero;
 
   /**
    * Constructor.
@@ -94,24 +159,29 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     if(index != null) {
       LOG.warning("Index was already initialized!");
     }
-    index = new ArrayList<>();
-    length = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_DB);
-    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    index = new PostingList[0];
+    length = new double[ids.size()];
+    nonzero = new int[ids.size()];
+    int i = 0;
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance(), i++) {
       V obj = relation.get(iter);
       if(obj instanceof SparseNumberVector) {
-        indexSparse(iter, (SparseNumberVector) obj);
+        indexSparse(i, (SparseNumberVector) obj);
       }
       else {
-        indexDense(iter, obj);
+        indexDense(i, obj);
       }
     }
-    // Sort indexes
+    // Trim and compute block bounds
     long count = 0L;
-    for(ModifiableDoubleDBIDList column : index) {
-      column.sort();
-      count += column.size();
+    for(PostingList column : index) {
+      if(column != null) {
+        column.finish(length);
+        count += column.size;
+      }
     }
-    double sparsity = count / (index.size() * (double) relation.size());
+    double sparsity = count / (index.length * (double) relation.size());
     if(sparsity > .2) {
       LOG.warning("Inverted list indexes only perform well for very sparse data. Your data set has a sparsity of " + sparsity);
     }
@@ -120,11 +190,12 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
   /**
    * Index a single (sparse) instance.
    * 
-   * @param ref Object reference
+   * @param off Object offset
    * @param obj Object to index.
    */
-  private void indexSparse(DBIDRef ref, SparseNumberVector obj) {
+  private void indexSparse(int off, SparseNumberVector obj) {
     double len = 0.;
+    int nnz = 0;
     for(int iter = obj.iter(); obj.iterValid(iter); iter = obj.iterAdvance(iter)) {
       final int dim = obj.iterDim(iter);
       final double val = obj.iterDoubleValue(iter);
@@ -132,28 +203,33 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
         continue;
       }
       len += val * val;
-      getOrCreateColumn(dim).add(val, ref);
+      ++nnz;
+      getOrCreateColumn(dim).add(off, val);
     }
-    length.put(ref, len);
+    length[off] = FastMath.sqrt(len);
+    nonzero[off] = nnz;
   }
 
   /**
    * Index a single (dense) instance.
    * 
-   * @param ref Object reference
+   * @param off Object offset
    * @param obj Object to index.
    */
-  private void indexDense(DBIDRef ref, V obj) {
+  private void indexDense(int off, V obj) {
     double len = 0.;
+    int nnz = 0;
     for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
       final double val = obj.doubleValue(dim);
       if(val == 0. || val != val) {
         continue;
       }
       len += val * val;
-      getOrCreateColumn(dim).add(val, ref);
+      ++nnz;
+      getOrCreateColumn(dim).add(off, val);
     }
-    length.put(ref, FastMath.sqrt(len));
+    length[off] = FastMath.sqrt(len);
+    nonzero[off] = nnz;
   }
 
   /**
@@ -162,97 +238,69 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
    * @param dim Dimension
    * @return Column
    */
-  private ModifiableDoubleDBIDList getOrCreateColumn(int dim) {
-    while(dim >= index.size()) {
-      index.add(DBIDUtil.newDistanceDBIDList());
+  private PostingList getOrCreateColumn(int dim) {
+    if(dim >= index.length) {
+      index = Arrays.copyOf(index, Math.max(dim + 1, index.length << 1));
     }
-    return index.get(dim);
+    PostingList column = index[dim];
+    return column != null ? column : (index[dim] = new PostingList());
   }
 
   /**
-   * Query the most similar objects, sparse version.
+   * Prepare a query, sparse version.
    * 
    * @param obj Query object
-   * @param scores Score storage
-   * @param cands Non-zero objects set
-   * @return Result
+   * @param mode Scoring mode
+   * @return Query
    */
-  private double naiveQuerySparse(SparseNumberVector obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
-    double len = 0.; // Length of query object, for final normalization
+  private Query prepareSparse(SparseNumberVector obj, int mode) {
+    Query q = new Query(mode);
     for(int iter = obj.iter(); obj.iterValid(iter); iter = obj.iterAdvance(iter)) {
-      final int dim = obj.iterDim(iter);
-      final double val = obj.iterDoubleValue(iter);
-      if(val == 0. || val != val) {
-        continue;
-      }
-      len += val * val;
-      // No matching documents in index:
-      if(dim >= index.size()) {
-        continue;
-      }
-      ModifiableDoubleDBIDList column = index.get(dim);
-      for(DoubleDBIDListIter n = column.iter(); n.valid(); n.advance()) {
-        scores.increment(n, n.doubleValue() * val);
-        cands.add(n);
-      }
+      q.add(obj.iterDim(iter), obj.iterDoubleValue(iter));
     }
-    return FastMath.sqrt(len);
+    return q.finish();
   }
 
   /**
-   * Query the most similar objects, dense version.
+   * Prepare a query, dense version.
    * 
    * @param obj Query object
-   * @param scores Score storage
-   * @param cands Non-zero objects set
-   * @return Result
+   * @param mode Scoring mode
+   * @return Query
    */
-  private double naiveQueryDense(NumberVector obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
-    double len = 0.; // Length of query object, for final normalization
+  private Query prepareDense(NumberVector obj, int mode) {
+    Query q = new Query(mode);
     for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
-      final double val = obj.doubleValue(dim);
-      if(val == 0. || val != val) {
-        continue;
-      }
-      len += val * val;
-      // No matching documents in index:
-      if(dim >= index.size()) {
-        continue;
-      }
-      ModifiableDoubleDBIDList column = index.get(dim);
-      for(DoubleDBIDListIter n = column.iter(); n.valid(); n.advance()) {
-        scores.increment(n, n.doubleValue() * val);
-        cands.add(n);
-      }
+      q.add(dim, obj.doubleValue(dim));
     }
-    return FastMath.sqrt(len);
+    return q.finish();
   }
 
   /**
-   * Query the most similar objects, abstract version.
+   * Prepare a query, abstract version.
    * 
    * @param obj Query object
-   * @param scores Score storage (must be initialized with zeros!)
-   * @param cands Non-zero objects set (must be empty)
-   * @return Result
+   * @param mode Scoring mode
+   * @return Query
    */
-  private double naiveQuery(V obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
+  private Query prepare(V obj, int mode) {
     if(obj instanceof SparseNumberVector) {
-      return naiveQuerySparse((SparseNumberVector) obj, scores, cands);
+      return prepareSparse((SparseNumberVector) obj, mode);
     }
     else {
-      return naiveQueryDense(obj, scores, cands);
+      return prepareDense(obj, mode);
     }
   }
 
   @Override
   public void logStatistics() {
     long count = 0L;
-    for(ModifiableDoubleDBIDList column : index) {
-      count += column.size();
+    for(PostingList column : index) {
+      count += column != null ? column.size : 0;
     }
-    double sparsity = count / (index.size() * (double) relation.size());
+    double sparsity = count / (index.length * (double) relation.size());
     LOG.statistics(new DoubleStatistic(this.getClass().getName() + ".sparsity", sparsity));
+    LOG.statistics(new LongStatistic(this.getClass().getName() + ".postings", count));
   }
 
   @Override
@@ -264,6 +312,9 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     if(df instanceof ArcCosineDistanceFunction) {
       return new ArcCosineKNNQuery(distanceQuery);
     }
+    if(df instanceof JaccardSimilarityDistanceFunction) {
+      return new JaccardKNNQuery(distanceQuery);
+    }
     return null;
   }
 
@@ -276,6 +327,18 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     if(df instanceof ArcCosineDistanceFunction) {
       return new ArcCosineRangeQuery(distanceQuery);
     }
+    if(df instanceof JaccardSimilarityDistanceFunction) {
+      return new JaccardRangeQuery(distanceQuery);
+    }
+    return null;
+  }
+
+  @Override
+  public RangeQuery<V> getSimilarityRangeQuery(SimilarityQuery<V> simQuery, Object... hints) {
+    SimilarityFunction<? super V> sf = simQuery.getSimilarityFunction();
+    if(sf instanceof LinearKernelFunction) {
+      return new DotProductSimilarityRangeQuery(simQuery);
+    }
     return null;
   }
 
@@ -289,6 +352,429 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     return "inverted-lists";
   }
 
+  /**
+   * Posting list of a single dimension.
+   * 
+   * @author Erich Schubert
+   */
+  private static class PostingList {
+    /**
+     * Number of postings.
+     */
+    int size;
+
+    /**
+     * Object offsets, ascending.
+     */
+    int[] docs = new int[4];
+
+    /**
+     * Values.
+     */
+    double[] vals = new double[4];
+
+    /**
+     * Last object offset of each block.
+     */
+    int[] last;
+
+    /**
+     * Bounds of each block: maximum and minimum value, maximum and minimum
+     * value divided by the object length.
+     */
+    double[] bounds;
+
+    /**
+     * Bounds of the entire list, same layout.
+     */
+    double[] total = { Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY };
+
+    /**
+     * Add a posting.
+     * 
+     * @param doc Object offset
+     * @param val Value
+     */
+    void add(int doc, double val) {
+      if(size == docs.length) {
+        docs = Arrays.copyOf(docs, size << 1);
+        vals = Arrays.copyOf(vals, size << 1);
+      }
+      docs[size] = doc;
+      vals[size++] = val;
+    }
+
+    /**
+     * Trim the arrays, and compute the block bounds.
+     * 
+     * @param length Object lengths
+     */
+    void finish(double[] length) {
+      docs = Arrays.copyOf(docs, size);
+      vals = Arrays.copyOf(vals, size);
+      final int nblocks = (size + BLOCKSIZE - 1) / BLOCKSIZE;
+      last = new int[nblocks];
+      bounds = new double[nblocks << 2];
+      for(int b = 0, i = 0; b < nblocks; b++) {
+        double max = Double.NEGATIVE_INFINITY, min = Double.POSITIVE_INFINITY;
+        double nmax = Double.NEGATIVE_INFINITY, nmin = Double.POSITIVE_INFINITY;
+        for(final int end = Math.min(i + BLOCKSIZE, size); i < end; i++) {
+          final double v = vals[i], n = v / length[docs[i]];
+          max = v > max ? v : max;
+          min = v < min ? v : min;
+          nmax = n > nmax ? n : nmax;
+          nmin = n < nmin ? n : nmin;
+        }
+        last[b] = docs[i - 1];
+        final int o = b << 2;
+        total[0] = Math.max(total[0], bounds[o] = max);
+        total[1] = Math.min(total[1], bounds[o + 1] = min);
+        total[2] = Math.max(total[2], bounds[o + 2] = nmax);
+        total[3] = Math.min(total[3], bounds[o + 3] = nmin);
+      }
+    }
+  }
+
+  /**
+   * Cursor on a posting list, for a single query dimension.
+   * 
+   * @author Erich Schubert
+   */
+  private static class Cursor implements Comparable<Cursor> {
+    /**
+     * Posting list.
+     */
+    final PostingList list;
+
+    /**
+     * Query value.
+     */
+    final double weight;
+
+    /**
+     * Offset into the bounds (0 for dot product, 2 for cosine, -1 for
+     * Jaccard).
+     */
+    final int boff;
+
+    /**
+     * Bound of the contribution of this list.
+     */
+    final double ub;
+
+    /**
+     * Current position in the postings.
+     */
+    int pos;
+
+    /**
+     * Current block, for bound lookups.
+     */
+    int block;
+
+    /**
+     * Constructor.
+     * 
+     * @param list Posting list
+     * @param weight Query value
+     * @param mode Scoring mode
+     */
+    Cursor(PostingList list, double weight, int mode) {
+      this.list = list;
+      this.weight = weight;
+      this.boff = mode == DOT ? 0 : mode == COSINE ? 2 : -1;
+      this.ub = bound(list.total, 0);
+    }
+
+    /**
+     * Bound of the contribution.
+     * 
+     * @param bounds Bounds array
+     * @param b Block
+     * @return Upper bound
+     */
+    private double bound(double[] bounds, int b) {
+      if(boff < 0) {
+        return 1.;
+      }
+      final double s = weight * bounds[(b << 2) + (weight > 0 ? boff : boff + 1)];
+      return s > 0 ? s : 0.;
+    }
+
+    /**
+     * Current object offset.
+     * 
+     * @return Offset, {@code Integer.MAX_VALUE} when exhausted.
+     */
+    int doc() {
+      return pos < list.size ? list.docs[pos] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Bound of the contribution to an object, using the block bounds.
+     * 
+     * @param doc Object offset, must not decrease.
+     * @return Upper bound
+     */
+    double blockBound(int doc) {
+      final int[] last = list.last;
+      int b = Math.max(block, pos / BLOCKSIZE);
+      while(b < last.length && last[b] < doc) {
+        ++b;
+      }
+      return (block = b) < last.length ? bound(list.bounds, b) : 0.;
+    }
+
+    /**
+     * Advance to the first posting with an offset of at least doc.
+     * 
+     * @param doc Object offset, must not decrease.
+     */
+    void seek(int doc) {
+      if(doc() >= doc) {
+        return;
+      }
+      blockBound(doc);
+      if(block == list.last.length) {
+        pos = list.size;
+        return;
+      }
+      final int[] docs = list.docs;
+      int lo = Math.max(pos, block * BLOCKSIZE);
+      int hi = Math.min(list.size, (block + 1) * BLOCKSIZE) - 1;
+      while(lo < hi) {
+        final int mid = (lo + hi) >>> 1;
+        if(docs[mid] < doc) {
+          lo = mid + 1;
+        }
+        else {
+          hi = mid;
+        }
+      }
+      pos = lo;
+    }
+
+    @Override
+    public int compareTo(Cursor o) {
+      return Double.compare(ub, o.ub);
+    }
+  }
+
+  /**
+   * Result collector of a query.
+   * 
+   * @author Erich Schubert
+   */
+  private interface Collector {
+    /**
+     * Current similarity threshold.
+     * 
+     * @return Minimum similarity of further results
+     */
+    double similarity();
+
+    /**
+     * Collect a candidate.
+     * 
+     * @param doc Object offset
+     * @param score Dot product, or number of equal values for Jaccard
+     * @param overlap Number of shared non-zero dimensions
+     */
+    void collect(int doc, double score, int overlap);
+  }
+
+  /**
+   * Prepared query.
+   * 
+   * @author Erich Schubert
+   */
+  private class Query {
+    /**
+     * Scoring mode.
+     */
+    final int mode;
+
+    /**
+     * Cursors, ascending by bound.
+     */
+    Cursor[] cursors;
+
+    /**
+     * Cumulative bounds of the cursors.
+     */
+    double[] cumub;
+
+    /**
+     * Length of the query vector.
+     */
+    double len;
+
+    /**
+     * Number of non-zero values of the query.
+     */
+    int nnz;
+
+    /**
+     * Temporary cursor list.
+     */
+    private ArrayList<Cursor> tmp = new ArrayList<>();
+
+    /**
+     * Constructor.
+     * 
+     * @param mode Scoring mode
+     */
+    Query(int mode) {
+      this.mode = mode;
+    }
+
+    /**
+     * Add a query dimension.
+     * 
+     * @param dim Dimension
+     * @param val Value
+     */
+    void add(int dim, double val) {
+      if(val == 0. || val != val) {
+        return;
+      }
+      len += val * val;
+      ++nnz;
+      // No matching documents in index:
+      if(dim >= index.length || index[dim] == null) {
+        return;
+      }
+      tmp.add(new Cursor(index[dim], val, mode));
+    }
+
+    /**
+     * Finish the query preparation.
+     * 
+     * @return {@code this}
+     */
+    Query finish() {
+      len = FastMath.sqrt(len);
+      cursors = tmp.toArray(new Cursor[tmp.size()]);
+      tmp = null;
+      Arrays.sort(cursors);
+      cumub = new double[cursors.length];
+      double sum = 0.;
+      for(int i = 0; i < cursors.length; i++) {
+        cumub[i] = sum += cursors[i].ub;
+      }
+      return this;
+    }
+
+    /**
+     * Contribution of the current posting of a cursor.
+     * 
+     * @param c Cursor
+     * @return Contribution
+     */
+    private double score(Cursor c) {
+      final double v = c.list.vals[c.pos];
+      return mode == JACCARD ? (v == c.weight ? 1. : 0.) : c.weight * v;
+    }
+
+    /**
+     * Convert a similarity threshold to a threshold on the score bounds.
+     * 
+     * @param sim Similarity threshold
+     * @return Threshold on the score bounds
+     */
+    private double threshold(double sim) {
+      final double t = mode == COSINE ? sim * len : mode == JACCARD ? sim * nnz : sim;
+      return t - Math.abs(t) * SLACK;
+    }
+
+    /**
+     * Process the query, document at a time.
+     * 
+     * @param col Result collector
+     */
+    void process(Collector col) {
+      final Cursor[] cs = cursors;
+      final int n = cs.length;
+      double thr = threshold(col.similarity());
+      int ess = 0; // Cursors [0;ess) are non-essential
+      while(ess < n && cumub[ess] < thr) {
+        ++ess;
+      }
+      while(ess < n) {
+        // Next candidate from the essential lists:
+        int doc = Integer.MAX_VALUE;
+        for(int i = ess; i < n; i++) {
+          final int d = cs[i].doc();
+          doc = d < doc ? d : doc;
+        }
+        if(doc == Integer.MAX_VALUE) {
+          break;
+        }
+        double score = 0.;
+        int overlap = 0;
+        for(int i = ess; i < n; i++) {
+          final Cursor c = cs[i];
+          if(c.doc() == doc) {
+            score += score(c);
+            ++overlap;
+            ++c.pos;
+          }
+        }
+        if(ess > 0) {
+          probe(doc, score, overlap, ess, thr, col);
+        }
+        else {
+          col.collect(doc, score, overlap);
+        }
+        thr = threshold(col.similarity());
+        while(ess < n && cumub[ess] < thr) {
+          ++ess;
+        }
+      }
+    }
+
+    /**
+     * Probe the non-essential lists for a candidate, unless the bounds show
+     * that it cannot reach the threshold.
+     * 
+     * @param doc Candidate
+     * @param score Score from the essential lists
+     * @param overlap Overlap from the essential lists
+     * @param ess Number of non-essential lists
+     * @param thr Threshold on the score bounds
+     * @param col Collector
+     */
+    private void probe(int doc, double score, int overlap, int ess, double thr, Collector col) {
+      final Cursor[] cs = cursors;
+      final double scale = mode == COSINE ? 1. / length[doc] : 1.;
+      if(mode == JACCARD && nonzero[doc] > nnz) {
+        thr *= nonzero[doc] / (double) nnz; // Union is at least nonzero[doc]
+      }
+      double bound = score * scale;
+      if(bound + cumub[ess - 1] < thr) {
+        return;
+      }
+      double rem = 0.;
+      for(int i = 0; i < ess; i++) {
+        rem += cs[i].blockBound(doc);
+      }
+      for(int i = ess - 1; i >= 0; i--) {
+        if(bound + rem < thr) {
+          return;
+        }
+        final Cursor c = cs[i];
+        rem -= c.blockBound(doc);
+        c.seek(doc);
+        if(c.doc() == doc) {
+          score += score(c);
+          ++overlap;
+          bound = score * scale;
+        }
+      }
+      col.collect(doc, score, overlap);
+    }
+  }
+
   /**
    * kNN query object, for cosine distance.
    * 
@@ -305,20 +791,24 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     }
 
     @Override
-    public KNNList getKNNForObject(V obj, int k) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
-      // TODO: delay the division by len!
-      KNNHeap heap = DBIDUtil.newHeap(k);
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double dist = 1. - scores.doubleValue(n) / (length.doubleValue(n) * len);
-        if(heap.getKNNDistance() >= dist) {
-          heap.insert(dist, n);
+    public KNNList getKNNForObject(V obj, final int k) {
+      final Query q = prepare(obj, COSINE);
+      final KNNHeap heap = DBIDUtil.newHeap(k);
+      final DBIDArrayIter it = ids.iter();
+      q.process(new Collector() {
+        @Override
+        public double similarity() {
+          return heap.size() < k ? Double.NEGATIVE_INFINITY : 1. - heap.getKNNDistance();
         }
-      }
 
+        @Override
+        public void collect(int doc, double score, int overlap) {
+          double dist = 1. - score / (length[doc] * q.len);
+          if(heap.getKNNDistance() >= dist) {
+            heap.insert(dist, it.seek(doc));
+          }
+        }
+      });
       return heap.toKNNList();
     }
   }
@@ -339,26 +829,69 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     }
 
     @Override
-    public KNNList getKNNForObject(V obj, int k) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
-      // TODO: delay the division by len and acos!
-      KNNHeap heap = DBIDUtil.newHeap(k);
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double dist = Math.acos(scores.doubleValue(n) / (length.doubleValue(n) * len));
-        if(heap.getKNNDistance() >= dist) {
-          heap.insert(dist, n);
+    public KNNList getKNNForObject(V obj, final int k) {
+      final Query q = prepare(obj, COSINE);
+      final KNNHeap heap = DBIDUtil.newHeap(k);
+      final DBIDArrayIter it = ids.iter();
+      q.process(new Collector() {
+        @Override
+        public double similarity() {
+          return heap.size() < k ? Double.NEGATIVE_INFINITY : FastMath.cos(heap.getKNNDistance());
         }
-      }
 
+        @Override
+        public void collect(int doc, double score, int overlap) {
+          final double cos = score / (length[doc] * q.len);
+          double dist = cos < 1. ? Math.acos(cos) : 0.; // Avoid NaN
+          if(heap.getKNNDistance() >= dist) {
+            heap.insert(dist, it.seek(doc));
+          }
+        }
+      });
       return heap.toKNNList();
     }
   }
 
   /**
-   * kNN query object, for cosine distance.
+   * kNN query object, for Jaccard distance.
+   * 
+   * @author Erich Schubert
+   */
+  protected class JaccardKNNQuery extends AbstractDistanceKNNQuery<V> {
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query
+     */
+    public JaccardKNNQuery(DistanceQuery<V> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public KNNList getKNNForObject(V obj, final int k) {
+      final Query q = prepare(obj, JACCARD);
+      final KNNHeap heap = DBIDUtil.newHeap(k);
+      final DBIDArrayIter it = ids.iter();
+      q.process(new Collector() {
+        @Override
+        public double similarity() {
+          return heap.size() < k ? Double.NEGATIVE_INFINITY : 1. - heap.getKNNDistance();
+        }
+
+        @Override
+        public void collect(int doc, double score, int overlap) {
+          double dist = 1. - score / (q.nnz + nonzero[doc] - overlap);
+          if(heap.getKNNDistance() >= dist) {
+            heap.insert(dist, it.seek(doc));
+          }
+        }
+      });
+      return heap.toKNNList();
+    }
+  }
+
+  /**
+   * Range query object, for cosine distance.
    * 
    * @author Erich Schubert
    */
@@ -373,24 +906,30 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     }
 
     @Override
-    public void getRangeForObject(V obj, double range, ModifiableDoubleDBIDList result) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
+    public void getRangeForObject(V obj, final double range, final ModifiableDoubleDBIDList result) {
+      final Query q = prepare(obj, COSINE);
+      final DBIDArrayIter it = ids.iter();
       // dist = 1 - sim/len <-> sim = len * (1-dist)
-      double simrange = (1. - range) * len;
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double sim = scores.doubleValue(n) / length.doubleValue(n);
-        if(sim >= simrange) {
-          result.add(1. - sim / len, n);
+      final double simrange = (1. - range) * q.len;
+      q.process(new Collector() {
+        @Override
+        public double similarity() {
+          return 1. - range;
         }
-      }
+
+        @Override
+        public void collect(int doc, double score, int overlap) {
+          double sim = score / length[doc];
+          if(sim >= simrange) {
+            result.add(1. - sim / q.len, it.seek(doc));
+          }
+        }
+      });
     }
   }
 
   /**
-   * kNN query object, for cosine distance.
+   * Range query object, for arc cosine distance.
    * 
    * @author Erich Schubert
    */
@@ -405,19 +944,97 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     }
 
     @Override
-    public void getRangeForObject(V obj, double range, ModifiableDoubleDBIDList result) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
+    public void getRangeForObject(V obj, double range, final ModifiableDoubleDBIDList result) {
+      final Query q = prepare(obj, COSINE);
+      final DBIDArrayIter it = ids.iter();
       // dist = acos(sim/len) <-> sim = cos(dist)*len
-      double simrange = FastMath.cos(range) * len;
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double sim = scores.doubleValue(n) / length.doubleValue(n);
-        if(sim >= simrange) {
-          result.add(Math.acos(sim / len), n);
+      final double cos = FastMath.cos(range), simrange = cos * q.len;
+      q.process(new Collector() {
+        @Override
+        public double similarity() {
+          return cos;
         }
-      }
+
+        @Override
+        public void collect(int doc, double score, int overlap) {
+          double sim = score / length[doc];
+          if(sim >= simrange) {
+            final double c = sim / q.len;
+            result.add(c < 1. ? Math.acos(c) : 0., it.seek(doc));
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Range query object, for Jaccard distance.
+   * 
+   * @author Erich Schubert
+   */
+  protected class JaccardRangeQuery extends AbstractDistanceRangeQuery<V> {
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query
+     */
+    public JaccardRangeQuery(DistanceQuery<V> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public void getRangeForObject(V obj, final double range, final ModifiableDoubleDBIDList result) {
+      final Query q = prepare(obj, JACCARD);
+      final DBIDArrayIter it = ids.iter();
+      q.process(new Collector() {
+        @Override
+        public double similarity() {
+          return 1. - range;
+        }
+
+        @Override
+        public void collect(int doc, double score, int overlap) {
+          double dist = 1. - score / (q.nnz + nonzero[doc] - overlap);
+          if(dist <= range) {
+            result.add(dist, it.seek(doc));
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Similarity range query object, for the dot product.
+   * 
+   * @author Erich Schubert
+   */
+  protected class DotProductSimilarityRangeQuery extends AbstractSimilarityRangeQuery<V> {
+    /**
+     * Constructor.
+     * 
+     * @param simQuery Similarity query
+     */
+    public DotProductSimilarityRangeQuery(SimilarityQuery<V> simQuery) {
+      super(simQuery);
+    }
+
+    @Override
+    public void getRangeForObject(V obj, final double range, final ModifiableDoubleDBIDList result) {
+      final Query q = prepare(obj, DOT);
+      final DBIDArrayIter it = ids.iter();
+      q.process(new Collector() {
+        @Override
+        public double similarity() {
+          return range;
+        }
+
+        @Override
+        public void collect(int doc, double score, int overlap) {
+          if(score >= range) {
+            result.add(score, it.seek(doc));
+          }
+        }
+      });
     }
   }
 
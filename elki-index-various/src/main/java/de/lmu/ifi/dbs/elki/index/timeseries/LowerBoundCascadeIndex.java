@@ -0,0 +1,301 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.timeseries;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.timeseries.EarlyAbandoningDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.timeseries.Envelope;
+import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+
+/**
+ * Linear scan for time series distances, using a cascade of lower bounds and
+ * early abandoning of the distance computations.
+ * <p>
+ * Each candidate is first checked with cheap lower bounds (LB_Kim, LB_Keogh
+ * using the precomputed envelopes of the data and the envelope of the query),
+ * and only if these cannot prune the candidate, the distance is computed, but
+ * abandoned as soon as the current query radius or k-distance is exceeded.
+ * The envelopes of the indexed series are computed once for each distance
+ * function used, and kept as long as the index exists, as queries for
+ * different distance functions may be in use at the same time.
+ * <p>
+ * Reference:
+ * <p>
+ * T. Rakthanmanon, B. Campana, A. Mueen, G. Batista, B. Westover, Q. Zhu, J.
+ * Zakaria, E. Keogh<br>
+ * Searching and mining trillions of time series subsequences under dynamic
+ * time warping<br>
+ * Proc. 18th ACM SIGKDD Int. Conf. Knowledge Discovery and Data Mining
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - LowerBoundCascadeKNNQuery
+ * @has - - - LowerBoundCascadeRangeQuery
+ *
+ * @param <V> Vector type
+ */
+@Reference(authors = "T. Rakthanmanon, B. Campana, A. Mueen, G. Batista, B. Westover, Q. Zhu, J. Zakaria, E. Keogh", //
+    title = "Searching and mining trillions of time series subsequences under dynamic time warping", //
+    booktitle = "Proc. 18th ACM SIGKDD Int. Conf. Knowledge Discovery and Data Mining", //
+    url = "https://doi.org/10.1145/2339530.2339576", //
+    bibkey = "DBLP:conf/kdd/RakthanmanonCMBWZZK12")
+public class LowerBoundCascadeIndex<V extends NumberVector> extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(LowerBoundCascadeIndex.class);
+
+  /**
+   * Envelopes of the indexed series, for each distance function.
+   */
+  private Map<EarlyAbandoningDistanceFunction, WritableDataStore<Envelope>> envelopes = new HashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation indexed
+   */
+  public LowerBoundCascadeIndex(Relation<V> relation) {
+    super(relation);
+  }
+
+  @Override
+  public void initialize() {
+    // Envelopes depend on the distance function, and are computed on demand.
+  }
+
+  /**
+   * Get the envelopes of the indexed series for a distance function.
+   *
+   * @param df Distance function
+   * @return Envelopes
+   */
+  protected synchronized WritableDataStore<Envelope> getEnvelopes(EarlyAbandoningDistanceFunction df) {
+    WritableDataStore<Envelope> store = envelopes.get(df);
+    if(store != null) {
+      return store;
+    }
+    store = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, Envelope.class);
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      store.put(iter, df.envelope(relation.get(iter)));
+    }
+    envelopes.put(df, store);
+    return store;
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public String getLongName() {
+    return "Lower bound cascade";
+  }
+
+  @Override
+  public String getShortName() {
+    return "lb-cascade";
+  }
+
+  @Override
+  public KNNQuery<V> getKNNQuery(DistanceQuery<V> distanceQuery, Object... hints) {
+    DistanceFunction<? super V> df = distanceQuery.getDistanceFunction();
+    if(df instanceof EarlyAbandoningDistanceFunction) {
+      EarlyAbandoningDistanceFunction edf = (EarlyAbandoningDistanceFunction) df;
+      return new LowerBoundCascadeKNNQuery(distanceQuery, edf, getEnvelopes(edf));
+    }
+    // Not supported.
+    return null;
+  }
+
+  @Override
+  public RangeQuery<V> getRangeQuery(DistanceQuery<V> distanceQuery, Object... hints) {
+    DistanceFunction<? super V> df = distanceQuery.getDistanceFunction();
+    if(df instanceof EarlyAbandoningDistanceFunction) {
+      EarlyAbandoningDistanceFunction edf = (EarlyAbandoningDistanceFunction) df;
+      return new LowerBoundCascadeRangeQuery(distanceQuery, edf, getEnvelopes(edf));
+    }
+    // Not supported.
+    return null;
+  }
+
+  /**
+   * kNN query using the lower bound cascade.
+   *
+   * @author Erich Schubert
+   */
+  public class LowerBoundCascadeKNNQuery extends AbstractRefiningIndex<V>.AbstractKNNQuery {
+    /**
+     * Distance function.
+     */
+    private EarlyAbandoningDistanceFunction df;
+
+    /**
+     * Envelopes of the indexed series.
+     */
+    private WritableDataStore<Envelope> envelopes;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query object
+     * @param df Distance function
+     * @param envelopes Envelopes of the indexed series
+     */
+    public LowerBoundCascadeKNNQuery(DistanceQuery<V> distanceQuery, EarlyAbandoningDistanceFunction df, WritableDataStore<Envelope> envelopes) {
+      super(distanceQuery);
+      this.df = df;
+      this.envelopes = envelopes;
+    }
+
+    @Override
+    public KNNList getKNNForObject(V query, int k) {
+      final Envelope qenv = df.envelope(query);
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      double kdist = Double.POSITIVE_INFINITY;
+      for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+        final V obj = relation.get(iter);
+        if(df.lowerBound(query, qenv, obj, envelopes.get(iter), kdist) > kdist) {
+          continue;
+        }
+        incRefinements(1);
+        final double dist = df.distance(query, obj, kdist);
+        if(dist <= kdist) {
+          kdist = heap.insert(dist, iter);
+        }
+      }
+      return heap.toKNNList();
+    }
+  }
+
+  /**
+   * Range query using the lower bound cascade.
+   *
+   * @author Erich Schubert
+   */
+  public class LowerBoundCascadeRangeQuery extends AbstractRefiningIndex<V>.AbstractRangeQuery {
+    /**
+     * Distance function.
+     */
+    private EarlyAbandoningDistanceFunction df;
+
+    /**
+     * Envelopes of the indexed series.
+     */
+    private WritableDataStore<Envelope> envelopes;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query object
+     * @param df Distance function
+     * @param envelopes Envelopes of the indexed series
+     */
+    public LowerBoundCascadeRangeQuery(DistanceQuery<V> distanceQuery, EarlyAbandoningDistanceFunction df, WritableDataStore<Envelope> envelopes) {
+      super(distanceQuery);
+      this.df = df;
+      this.envelopes = envelopes;
+    }
+
+    @Override
+    public void getRangeForObject(V query, double range, ModifiableDoubleDBIDList result) {
+      final Envelope qenv = df.envelope(query);
+      for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+        final V obj = relation.get(iter);
+        if(df.lowerBound(query, qenv, obj, envelopes.get(iter), range) > range) {
+          continue;
+        }
+        incRefinements(1);
+        final double dist = df.distance(query, obj, range);
+        if(dist <= range) {
+          result.add(dist, iter);
+        }
+      }
+    }
+  }
+
+  /**
+   * Index factory.
+   *
+   * @author Erich Schubert
+   *
+   * @stereotype factory
+   * @has - - - LowerBoundCascadeIndex
+   *
+   * @param <V> Vector type
+   */
+  public static class Factory<V extends NumberVector> implements IndexFactory<V> {
+    /**
+     * Constructor.
+     */
+    public Factory() {
+      super();
+    }
+
+    @Override
+    public LowerBoundCascadeIndex<V> instantiate(Relation<V> relation) {
+      return new LowerBoundCascadeIndex<>(relation);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return TypeUtil.NUMBER_VECTOR_VARIABLE_LENGTH;
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     */
+    public static class Parameterizer extends AbstractParameterizer {
+      @Override
+      protected Factory<?> makeInstance() {
+        return new Factory<>();
+      }
+    }
+  }
+}
@@ -20,6 +20,8 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
 
+import java.util.concurrent.atomic.LongAdder;
+
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.database.ids.*;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
@@ -79,7 +81,7 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
   /**
    * Distance computations performed.
    */
-  protected long distComputations = 0L;
+  protected final LongAdder distComputations = new LongAdder();
 
   /**
    * Stop refining the tree at this size, but build a leaf.
@@ -147,7 +149,7 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
    * @return Distance
    */
   protected double distance(DBIDRef a, DBIDRef b) {
-    ++distComputations;
+    distComputations.increment();
     return distanceQuery.distance(a, b);
   }
 
@@ -159,7 +161,7 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
    * @return Distance
    */
   protected double distance(O a, DBIDRef b) {
-    ++distComputations;
+    distComputations.increment();
     return distanceQuery.distance(a, b);
   }
 
@@ -208,7 +210,7 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
 
   @Override
   public void logStatistics() {
-    getLogger().statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations));
+    getLogger().statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations.sum()));
   }
 
   /**
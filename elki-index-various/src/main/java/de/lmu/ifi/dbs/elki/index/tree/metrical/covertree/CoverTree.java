@@ -21,11 +21,14 @@
 package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
@@ -39,11 +42,13 @@ import de.lmu.ifi.dbs.elki.database.query.range.AbstractDistanceRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.DynamicIndex;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
@@ -63,7 +68,8 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * parent nodes. It thus needs more than twice the memory of
  * {@link SimplifiedCoverTree}, but computes fewer distances.
  * <p>
- * TODO: allow insertions and removals, as in the original publication.
+ * Large subtrees are bulk-loaded in parallel. Objects can also be inserted and
+ * removed later; overfull leaves are then rebuilt with the bulk-load.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -76,12 +82,17 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
     booktitle = "In Proc. 23rd Int. Conf. Machine Learning (ICML 2006)", //
     url = "https://doi.org/10.1145/1143844.1143857", //
     bibkey = "DBLP:conf/icml/BeygelzimerKL06")
-public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>, KNNIndex<O> {
+public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>, KNNIndex<O>, DynamicIndex {
   /**
    * Class logger.
    */
   static final Logging LOG = Logging.getLogger(CoverTree.class);
 
+  /**
+   * Minimum number of elements to build a subtree in a separate task.
+   */
+  private static final int PARALLEL_THRESHOLD = 1000;
+
   /**
    * Tree root.
    */
@@ -126,9 +137,9 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
     ArrayList<Node> children;
 
     /**
-     * Expansion scale.
+     * Expansion scale, used to decide on the cover of inserted objects.
      */
-    // int scale = SCALE_LEAF;
+    int scale;
 
     /**
      * Constructor.
@@ -136,13 +147,15 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
      * @param r Object.
      * @param maxDist Maximum distance to any descendant.
      * @param parentDist Distance from parent.
+     * @param scale Expansion scale.
      */
-    public Node(DBIDRef r, double maxDist, double parentDist) {
+    public Node(DBIDRef r, double maxDist, double parentDist, int scale) {
       this.singletons = DBIDUtil.newDistanceDBIDList();
       this.singletons.add(0., r);
       this.children = new ArrayList<>();
       this.maxDist = maxDist;
       this.parentDist = parentDist;
+      this.scale = scale;
     }
 
     /**
@@ -151,9 +164,10 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
      * @param r Object.
      * @param maxDist Maximum distance to any descendant.
      * @param parentDist Distance from parent.
+     * @param scale Expansion scale.
      * @param singletons Singletons.
      */
-    public Node(DBIDRef r, double maxDist, double parentDist, DoubleDBIDList singletons) {
+    public Node(DBIDRef r, double maxDist, double parentDist, int scale, DoubleDBIDList singletons) {
       assert (!singletons.contains(r));
       this.singletons = DBIDUtil.newDistanceDBIDList(singletons.size() + 1);
       this.singletons.add(0., r);
@@ -163,6 +177,7 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
       this.children = null;
       this.maxDist = maxDist;
       this.parentDist = parentDist;
+      this.scale = scale;
     }
 
     /**
@@ -206,7 +221,9 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
     for(it.advance(); it.valid(); it.advance()) {
       candidates.add(distance(first, it), it);
     }
-    root = bulkConstruct(first, Integer.MAX_VALUE, 0., candidates);
+    root = candidates.size() >= PARALLEL_THRESHOLD ? //
+        ParallelCore.getCore().invoke(new BulkConstructTask(first, Integer.MAX_VALUE, 0., candidates)) : //
+        bulkConstruct(first, Integer.MAX_VALUE, 0., candidates);
   }
 
   /**
@@ -228,7 +245,7 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
     // Leaf node, because points coincide, we are too deep, or have too few
     // elements remaining:
     if(max <= 0 || scale <= scaleBottom || elems.size() < truncate) {
-      return new Node(cur, max, parentDist, elems);
+      return new Node(cur, max, parentDist, scale, elems);
     }
     // Find neighbors in the cover of the current object:
     ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList();
@@ -239,12 +256,24 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
       return bulkConstruct(cur, nextScale, parentDist, elems);
     }
     // We will have at least one other child, so build the parent:
-    Node node = new Node(cur, max, parentDist);
+    Node node = new Node(cur, max, parentDist, scale);
+    // Large subtrees are built by separate tasks, when running in parallel:
+    final boolean parallel = ForkJoinTask.inForkJoinPool();
+    ArrayList<BulkConstructTask> tasks = null;
     // Routing element now is a singleton:
     final boolean curSingleton = elems.size() == 0;
     if(!curSingleton) {
       // Add node for the routing object:
-      node.children.add(bulkConstruct(cur, nextScale, 0, elems));
+      if(parallel && elems.size() >= PARALLEL_THRESHOLD) {
+        tasks = new ArrayList<>();
+        tasks.add(new BulkConstructTask(DBIDUtil.deref(cur), nextScale, 0, elems, node.children.size()));
+        tasks.get(0).fork();
+        node.children.add(null); // Placeholder
+        elems = DBIDUtil.newDistanceDBIDList(); // Do not recycle.
+      }
+      else {
+        node.children.add(bulkConstruct(cur, nextScale, 0, elems));
+      }
     }
     final double fmax = scaleToDist(nextScale);
     // Build additional cover nodes:
@@ -257,6 +286,13 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
       if(elems.size() == 0) { // Singleton
         node.singletons.add(it.doubleValue(), it);
       }
+      else if(parallel && elems.size() >= PARALLEL_THRESHOLD) {
+        BulkConstructTask task = new BulkConstructTask(t, nextScale, it.doubleValue(), elems, node.children.size());
+        task.fork();
+        (tasks = tasks != null ? tasks : new ArrayList<BulkConstructTask>()).add(task);
+        node.children.add(null); // Placeholder
+        elems = DBIDUtil.newDistanceDBIDList(); // Do not recycle.
+      }
       else {
         // Build a full child node:
         node.children.add(bulkConstruct(it, nextScale, it.doubleValue(), elems));
@@ -264,6 +300,11 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
       candidates.removeSwap(0);
     }
     assert (candidates.size() == 0);
+    if(tasks != null) {
+      for(BulkConstructTask task : tasks) {
+        node.children.set(task.pos, task.join());
+      }
+    }
     // Routing object is not yet handled:
     if(curSingleton) {
       if(node.isLeaf()) {
@@ -277,6 +318,325 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
     return node;
   }
 
+  /**
+   * Task to bulk-load a subtree.
+   *
+   * @author Erich Schubert
+   */
+  private class BulkConstructTask extends RecursiveTask<Node> {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Routing object.
+     */
+    private final DBID cur;
+
+    /**
+     * Maximum scale.
+     */
+    private final int maxScale;
+
+    /**
+     * Distance to the parent.
+     */
+    private final double parentDist;
+
+    /**
+     * Candidates.
+     */
+    private final ModifiableDoubleDBIDList elems;
+
+    /**
+     * Position in the children of the parent.
+     */
+    final int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param cur Current routing object
+     * @param maxScale Maximum scale
+     * @param parentDist Distance to the parent
+     * @param elems Candidates
+     * @param pos Position in the children of the parent
+     */
+    BulkConstructTask(DBID cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems, int pos) {
+      this.cur = cur;
+      this.maxScale = maxScale;
+      this.parentDist = parentDist;
+      this.elems = elems;
+      this.pos = pos;
+    }
+
+    /**
+     * Constructor for the root.
+     *
+     * @param cur Current routing object
+     * @param maxScale Maximum scale
+     * @param parentDist Distance to the parent
+     * @param elems Candidates
+     */
+    BulkConstructTask(DBID cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems) {
+      this(cur, maxScale, parentDist, elems, 0);
+    }
+
+    @Override
+    protected Node compute() {
+      return bulkConstruct(cur, maxScale, parentDist, elems);
+    }
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    if(root == null) {
+      root = new Node(id, 0., 0., scaleBottom, DBIDUtil.newDistanceDBIDList(0));
+      return;
+    }
+    final O obj = relation.get(id);
+    Node cur = root;
+    double d = distance(obj, cur.singletons.iter());
+    while(true) {
+      cur.maxDist = d > cur.maxDist ? d : cur.maxDist;
+      if(cur.isLeaf()) {
+        cur.singletons.add(d, id);
+        if(cur.singletons.size() > truncate << 1) {
+          rebuildLeaf(cur);
+        }
+        return;
+      }
+      // Descend into the nearest child that covers the new object:
+      final DoubleDBIDListIter it = cur.singletons.iter();
+      Node best = null;
+      double bestd = Double.POSITIVE_INFINITY;
+      for(Node c : cur.children) {
+        final double cover = Math.max(c.maxDist, scaleToDist(c.scale + 1));
+        final double lb = Math.abs(d - c.parentDist);
+        if(lb > cover || lb >= bestd) {
+          continue; // Triangle inequality
+        }
+        final DoubleDBIDListIter f = c.singletons.iter();
+        final double cd = DBIDUtil.equal(f, it) ? d : distance(obj, f);
+        if(cd <= cover && cd < bestd) {
+          best = c;
+          bestd = cd;
+        }
+      }
+      if(best == null) { // Not covered by any child, add a new leaf.
+        cur.children.add(new Node(id, 0., d, cur.scale - 1, DBIDUtil.newDistanceDBIDList(0)));
+        return;
+      }
+      cur = best;
+      d = bestd;
+    }
+  }
+
+  /**
+   * Rebuild an overfull leaf in place, by bulk-loading its contents.
+   *
+   * @param leaf Leaf node
+   */
+  private void rebuildLeaf(Node leaf) {
+    // Would become a leaf again:
+    if(leaf.maxDist <= 0 || distToScale(leaf.maxDist) - 1 <= scaleBottom) {
+      return;
+    }
+    final DoubleDBIDListIter it = leaf.singletons.iter();
+    final DBID r = DBIDUtil.deref(it);
+    ModifiableDoubleDBIDList elems = DBIDUtil.newDistanceDBIDList(leaf.singletons.size() - 1);
+    for(it.advance(); it.valid(); it.advance()) {
+      elems.add(it.doubleValue(), it);
+    }
+    Node sub = bulkConstruct(r, Integer.MAX_VALUE, leaf.parentDist, elems);
+    leaf.singletons = sub.singletons;
+    leaf.children = sub.children;
+    leaf.maxDist = sub.maxDist;
+    leaf.scale = sub.scale;
+  }
+
+  @Override
+  public void insertAll(DBIDs ids) {
+    if(root == null) {
+      bulkLoad(ids);
+      return;
+    }
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      insert(it);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The object is located using its distances, so it must be removed from the
+   * index before it is removed from the relation.
+   */
+  @Override
+  public boolean delete(DBIDRef id) {
+    if(root == null) {
+      return false;
+    }
+    if(DBIDUtil.equal(root.singletons.iter(), id)) {
+      root = reroute(root, id);
+      if(root != null) {
+        root.parentDist = 0.;
+      }
+      return true;
+    }
+    final O obj = relation.get(id);
+    return delete(root, obj, id, distance(obj, root.singletons.iter()));
+  }
+
+  /**
+   * Remove an object from a subtree.
+   *
+   * @param cur Subtree root, not routed by the object
+   * @param obj Object to remove
+   * @param id Object to remove
+   * @param d Distance of the object to the routing object
+   * @return {@code true} if the object was found
+   */
+  private boolean delete(Node cur, O obj, DBIDRef id, double d) {
+    final DoubleDBIDListIter it = cur.singletons.iter();
+    for(it.advance(); it.valid(); it.advance()) {
+      if(DBIDUtil.equal(it, id)) {
+        cur.singletons.removeSwap(it.getOffset());
+        return true;
+      }
+    }
+    if(cur.children == null) {
+      return false;
+    }
+    it.seek(0);
+    for(int i = 0; i < cur.children.size(); i++) {
+      final Node c = cur.children.get(i);
+      final DoubleDBIDListIter f = c.singletons.iter();
+      if(DBIDUtil.equal(f, id)) {
+        final Node n = reroute(c, id);
+        if(n != null) {
+          n.parentDist = distance(n.singletons.iter(), it);
+        }
+        else {
+          cur.children.remove(i);
+          collapse(cur);
+        }
+        return true;
+      }
+      if(Math.abs(d - c.parentDist) > c.maxDist) {
+        continue; // Triangle inequality
+      }
+      final double cd = DBIDUtil.equal(f, it) ? d : distance(obj, f);
+      if(cd <= c.maxDist && delete(c, obj, id, cd)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Choose a new routing object for a node, after its routing object was
+   * removed.
+   *
+   * @param node Node routed by the removed object
+   * @param id Removed object
+   * @return Updated node, or {@code null} if the node became empty
+   */
+  private Node reroute(Node node, DBIDRef id) {
+    // Remove the copy of the routing object, if it is also a singleton:
+    for(DoubleDBIDListIter it = node.singletons.iter().advance(); it.valid();) {
+      if(DBIDUtil.equal(it, id)) {
+        node.singletons.removeSwap(it.getOffset());
+      }
+      else {
+        it.advance();
+      }
+    }
+    // Prefer the routing object of a child, which keeps the node valid:
+    DBIDVar r = DBIDUtil.newVar();
+    if(node.children != null) {
+      for(int i = 0; i < node.children.size(); i++) {
+        final Node c = node.children.get(i);
+        if(DBIDUtil.equal(c.singletons.iter(), id)) {
+          if(reroute(c, id) == null) {
+            node.children.remove(i);
+            break;
+          }
+          r.set(c.singletons.iter());
+          break;
+        }
+      }
+      if(!r.isSet() && !node.children.isEmpty()) {
+        r.set(node.children.get(0).singletons.iter());
+      }
+    }
+    if(!r.isSet()) {
+      if(node.singletons.size() <= 1) {
+        return null;
+      }
+      // Use the singleton closest to the previous routing object:
+      DoubleDBIDListIter it = node.singletons.iter().advance(), best = node.singletons.iter().advance();
+      for(; it.valid(); it.advance()) {
+        if(it.doubleValue() < best.doubleValue()) {
+          best.seek(it.getOffset());
+        }
+      }
+      r.set(best);
+    }
+    // Recompute the distances to the new routing object:
+    ModifiableDoubleDBIDList singletons = DBIDUtil.newDistanceDBIDList(node.singletons.size());
+    singletons.add(0., r);
+    double max = 0.;
+    for(DoubleDBIDListIter it = node.singletons.iter().advance(); it.valid(); it.advance()) {
+      if(!DBIDUtil.equal(it, r)) {
+        final double d = distance(r, it);
+        singletons.add(d, it);
+        max = d > max ? d : max;
+      }
+    }
+    node.singletons = singletons;
+    if(node.children != null && node.children.isEmpty()) {
+      node.children = null;
+    }
+    if(node.children != null) {
+      for(Node c : node.children) {
+        final DoubleDBIDListIter f = c.singletons.iter();
+        c.parentDist = DBIDUtil.equal(f, r) ? 0. : distance(r, f);
+        max = Math.max(max, c.parentDist + c.maxDist);
+      }
+    }
+    node.maxDist = max;
+    return node;
+  }
+
+  /**
+   * Turn a node without children into a leaf. The routing object may also be
+   * stored as singleton of an inner node, which is then no longer necessary.
+   *
+   * @param node Node
+   */
+  private void collapse(Node node) {
+    if(node.children == null || !node.children.isEmpty()) {
+      return;
+    }
+    node.children = null;
+    final DoubleDBIDListIter it = node.singletons.iter();
+    for(DoubleDBIDListIter it2 = node.singletons.iter().advance(); it2.valid(); it2.advance()) {
+      if(DBIDUtil.equal(it, it2)) {
+        node.singletons.removeSwap(it2.getOffset());
+        break;
+      }
+    }
+  }
+
+  @Override
+  public void deleteAll(DBIDs ids) {
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      delete(it);
+    }
+  }
+
   /**
    * Collect some statistics on the tree.
    *
@@ -351,6 +711,9 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
 
     @Override
     public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList ret) {
+      if(root == null) {
+        return;
+      }
       ArrayList<Node> open = new ArrayList<Node>(); // LIFO stack
       open.add(root);
       while(!open.isEmpty()) {
@@ -413,6 +776,9 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
       }
 
       KNNHeap knnList = DBIDUtil.newHeap(k);
+      if(root == null) {
+        return knnList.toKNNList();
+      }
       double d_k = Double.POSITIVE_INFINITY;
 
       final DoubleObjectMinHeap<Node> pq = new DoubleObjectMinHeap<>();
@@ -21,15 +21,17 @@
 package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
-import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
@@ -41,11 +43,13 @@ import de.lmu.ifi.dbs.elki.database.query.range.AbstractDistanceRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.DynamicIndex;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
 
@@ -65,7 +69,8 @@ import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
  * Cover trees for nearest neighbor<br>
  * In Proc. 23rd International Conference on Machine Learning (ICML).
  * <p>
- * TODO: allow insertions and removals, as in the original publication.
+ * Large subtrees are bulk-loaded in parallel. Objects can also be inserted and
+ * removed later; overfull leaves are then rebuilt with the bulk-load.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -74,12 +79,17 @@ import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
  * @has - - - CoverTreeKNNQuery
  */
 @Priority(Priority.RECOMMENDED)
-public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>, KNNIndex<O> {
+public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>, KNNIndex<O>, DynamicIndex {
   /**
    * Class logger.
    */
   private static final Logging LOG = Logging.getLogger(SimplifiedCoverTree.class);
 
+  /**
+   * Minimum number of elements to build a subtree in a separate task.
+   */
+  private static final int PARALLEL_THRESHOLD = 1000;
+
   /**
    * Tree root.
    */
@@ -118,17 +128,24 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Rang
      */
     ArrayList<Node> children;
 
+    /**
+     * Expansion scale, used to decide on the cover of inserted objects.
+     */
+    int scale;
+
     /**
      * Constructor.
      *
      * @param r Object.
      * @param maxDist Maximum distance to any descendant.
+     * @param scale Expansion scale.
      */
-    public Node(DBIDRef r, double maxDist) {
+    public Node(DBIDRef r, double maxDist, int scale) {
       this.singletons = DBIDUtil.newArray();
       this.singletons.add(r);
       this.children = new ArrayList<>();
       this.maxDist = maxDist;
+      this.scale = scale;
     }
 
     /**
@@ -136,15 +153,17 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Rang
      *
      * @param r Object.
      * @param maxDist Maximum distance to any descendant.
+     * @param scale Expansion scale.
      * @param singletons Singletons.
      */
-    public Node(DBIDRef r, double maxDist, DoubleDBIDList singletons) {
+    public Node(DBIDRef r, double maxDist, int scale, DBIDs singletons) {
       assert (!singletons.contains(r));
       this.singletons = DBIDUtil.newArray(singletons.size() + 1);
       this.singletons.add(r);
       this.singletons.addDBIDs(singletons);
       this.children = null;
       this.maxDist = maxDist;
+      this.scale = scale;
     }
 
     /**
@@ -188,7 +207,9 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Rang
     for(it.advance(); it.valid(); it.advance()) {
       candidates.add(distance(first, it), it);
     }
-    root = bulkConstruct(first, Integer.MAX_VALUE, candidates);
+    root = candidates.size() >= PARALLEL_THRESHOLD ? //
+        ParallelCore.getCore().invoke(new BulkConstructTask(first, Integer.MAX_VALUE, candidates, 0)) : //
+        bulkConstruct(first, Integer.MAX_VALUE, candidates);
   }
 
   /**
@@ -210,7 +231,7 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Rang
     // Leaf node, because points coincide, we are too deep, or have too few
     // elements remaining:
     if(max <= 0 || scale <= scaleBottom || elems.size() < truncate) {
-      return new Node(cur, max, elems);
+      return new Node(cur, max, scale, elems);
     }
     // Find neighbors in the cover of the current object:
     ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList();
@@ -221,12 +242,24 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Rang
       return bulkConstruct(cur, nextScale, elems);
     }
     // We will have at least one other child, so build the parent:
-    Node node = new Node(cur, max);
+    Node node = new Node(cur, max, scale);
+    // Large subtrees are built by separate tasks, when running in parallel:
+    final boolean parallel = ForkJoinTask.inForkJoinPool();
+    ArrayList<BulkConstructTask> tasks = null;
     // Routing element now is a singleton:
     final boolean curSingleton = elems.size() == 0;
     if(!curSingleton) {
       // Add node for the routing object:
-      node.children.add(bulkConstruct(cur, nextScale, elems));
+      if(parallel && elems.size() >= PARALLEL_THRESHOLD) {
+        tasks = new ArrayList<>();
+        tasks.add(new BulkConstructTask(DBIDUtil.deref(cur), nextScale, elems, node.children.size()));
+        tasks.get(0).fork();
+        node.children.add(null); // Placeholder
+        elems = DBIDUtil.newDistanceDBIDList(); // Do not recycle.
+      }
+      else {
+        node.children.add(bulkConstruct(cur, nextScale, elems));
+      }
     }
     final double fmax = scaleToDist(nextScale);
     // Build additional cover nodes:
@@ -239,6 +272,13 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Rang
       if(elems.size() == 0) { // Singleton
         node.singletons.add(it);
       }
+      else if(parallel && elems.size() >= PARALLEL_THRESHOLD) {
+        BulkConstructTask task = new BulkConstructTask(t, nextScale, elems, node.children.size());
+        task.fork();
+        (tasks = tasks != null ? tasks : new ArrayList<BulkConstructTask>()).add(task);
+        node.children.add(null); // Placeholder
+        elems = DBIDUtil.newDistanceDBIDList(); // Do not recycle.
+      }
       else {
         // Build a full child node:
         node.children.add(bulkConstruct(it, nextScale, elems));
@@ -246,6 +286,11 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Rang
       candidates.removeSwap(0);
     }
     assert (candidates.size() == 0);
+    if(tasks != null) {
+      for(BulkConstructTask task : tasks) {
+        node.children.set(task.pos, task.join());
+      }
+    }
     // Routing object is not yet handled:
     if(curSingleton) {
       if(node.isLeaf()) {
@@ -259,6 +304,282 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Rang
     return node;
   }
 
+  /**
+   * Task to bulk-load a subtree.
+   *
+   * @author Erich Schubert
+   */
+  private class BulkConstructTask extends RecursiveTask<Node> {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Routing object.
+     */
+    private final DBID cur;
+
+    /**
+     * Maximum scale.
+     */
+    private final int maxScale;
+
+    /**
+     * Candidates.
+     */
+    private final ModifiableDoubleDBIDList elems;
+
+    /**
+     * Position in the children of the parent.
+     */
+    final int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param cur Current routing object
+     * @param maxScale Maximum scale
+     * @param elems Candidates
+     * @param pos Position in the children of the parent
+     */
+    BulkConstructTask(DBID cur, int maxScale, ModifiableDoubleDBIDList elems, int pos) {
+      this.cur = cur;
+      this.maxScale = maxScale;
+      this.elems = elems;
+      this.pos = pos;
+    }
+
+    @Override
+    protected Node compute() {
+      return bulkConstruct(cur, maxScale, elems);
+    }
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    if(root == null) {
+      root = new Node(id, 0., scaleBottom, DBIDUtil.EMPTYDBIDS);
+      return;
+    }
+    final O obj = relation.get(id);
+    Node cur = root;
+    double d = distance(obj, cur.singletons.iter());
+    while(true) {
+      cur.maxDist = d > cur.maxDist ? d : cur.maxDist;
+      if(cur.isLeaf()) {
+        cur.singletons.add(id);
+        if(cur.singletons.size() > truncate << 1) {
+          rebuildLeaf(cur);
+        }
+        return;
+      }
+      // Descend into the nearest child that covers the new object:
+      final DBIDIter it = cur.singletons.iter();
+      Node best = null;
+      double bestd = Double.POSITIVE_INFINITY;
+      for(Node c : cur.children) {
+        final DBIDIter f = c.singletons.iter();
+        final double cd = DBIDUtil.equal(f, it) ? d : distance(obj, f);
+        if(cd < bestd && (cd <= c.maxDist || cd <= scaleToDist(c.scale + 1))) {
+          best = c;
+          bestd = cd;
+        }
+      }
+      if(best == null) { // Not covered by any child, add a new leaf.
+        cur.children.add(new Node(id, 0., cur.scale - 1, DBIDUtil.EMPTYDBIDS));
+        return;
+      }
+      cur = best;
+      d = bestd;
+    }
+  }
+
+  /**
+   * Rebuild an overfull leaf in place, by bulk-loading its contents.
+   *
+   * @param leaf Leaf node
+   */
+  private void rebuildLeaf(Node leaf) {
+    // Would become a leaf again:
+    if(leaf.maxDist <= 0 || distToScale(leaf.maxDist) - 1 <= scaleBottom) {
+      return;
+    }
+    final DBIDIter it = leaf.singletons.iter();
+    final DBID r = DBIDUtil.deref(it);
+    ModifiableDoubleDBIDList elems = DBIDUtil.newDistanceDBIDList(leaf.singletons.size() - 1);
+    for(it.advance(); it.valid(); it.advance()) {
+      elems.add(distance(r, it), it);
+    }
+    Node sub = bulkConstruct(r, Integer.MAX_VALUE, elems);
+    leaf.singletons = sub.singletons;
+    leaf.children = sub.children;
+    leaf.maxDist = sub.maxDist;
+    leaf.scale = sub.scale;
+  }
+
+  @Override
+  public void insertAll(DBIDs ids) {
+    if(root == null) {
+      bulkLoad(ids);
+      return;
+    }
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      insert(it);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The object is located using its distances, so it must be removed from the
+   * index before it is removed from the relation.
+   */
+  @Override
+  public boolean delete(DBIDRef id) {
+    if(root == null) {
+      return false;
+    }
+    if(DBIDUtil.equal(root.singletons.iter(), id)) {
+      root = reroute(root, id);
+      return true;
+    }
+    final O obj = relation.get(id);
+    return delete(root, obj, id, distance(obj, root.singletons.iter()));
+  }
+
+  /**
+   * Remove an object from a subtree.
+   *
+   * @param cur Subtree root, not routed by the object
+   * @param obj Object to remove
+   * @param id Object to remove
+   * @param d Distance of the object to the routing object
+   * @return {@code true} if the object was found
+   */
+  private boolean delete(Node cur, O obj, DBIDRef id, double d) {
+    for(DBIDArrayIter it = cur.singletons.iter().advance(); it.valid(); it.advance()) {
+      if(DBIDUtil.equal(it, id)) {
+        cur.singletons.remove(it.getOffset());
+        return true;
+      }
+    }
+    if(cur.children == null) {
+      return false;
+    }
+    final DBIDIter it = cur.singletons.iter();
+    for(int i = 0; i < cur.children.size(); i++) {
+      final Node c = cur.children.get(i);
+      final DBIDIter f = c.singletons.iter();
+      if(DBIDUtil.equal(f, id)) {
+        if(reroute(c, id) == null) {
+          cur.children.remove(i);
+          collapse(cur);
+        }
+        return true;
+      }
+      final double cd = DBIDUtil.equal(f, it) ? d : distance(obj, f);
+      if(cd <= c.maxDist && delete(c, obj, id, cd)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Choose a new routing object for a node, after its routing object was
+   * removed.
+   *
+   * @param node Node routed by the removed object
+   * @param id Removed object
+   * @return Updated node, or {@code null} if the node became empty
+   */
+  private Node reroute(Node node, DBIDRef id) {
+    // Remove the copy of the routing object, if it is also a singleton:
+    for(DBIDArrayIter it = node.singletons.iter().advance(); it.valid();) {
+      if(DBIDUtil.equal(it, id)) {
+        node.singletons.remove(it.getOffset());
+      }
+      else {
+        it.advance();
+      }
+    }
+    // Prefer the routing object of a child, which keeps the node valid:
+    DBIDVar r = DBIDUtil.newVar();
+    if(node.children != null) {
+      for(int i = 0; i < node.children.size(); i++) {
+        final Node c = node.children.get(i);
+        if(DBIDUtil.equal(c.singletons.iter(), id)) {
+          if(reroute(c, id) == null) {
+            node.children.remove(i);
+            break;
+          }
+          r.set(c.singletons.iter());
+          break;
+        }
+      }
+      if(!r.isSet() && !node.children.isEmpty()) {
+        r.set(node.children.get(0).singletons.iter());
+      }
+    }
+    if(!r.isSet()) {
+      if(node.singletons.size() <= 1) {
+        return null;
+      }
+      node.singletons.assignVar(1, r);
+    }
+    // Recompute the cover radius of the new routing object:
+    ArrayModifiableDBIDs singletons = DBIDUtil.newArray(node.singletons.size());
+    singletons.add(r);
+    double max = 0.;
+    for(DBIDIter it = node.singletons.iter().advance(); it.valid(); it.advance()) {
+      if(!DBIDUtil.equal(it, r)) {
+        final double d = distance(r, it);
+        singletons.add(it);
+        max = d > max ? d : max;
+      }
+    }
+    node.singletons = singletons;
+    if(node.children != null && node.children.isEmpty()) {
+      node.children = null;
+    }
+    if(node.children != null) {
+      for(Node c : node.children) {
+        final DBIDIter f = c.singletons.iter();
+        max = Math.max(max, (DBIDUtil.equal(f, r) ? 0. : distance(r, f)) + c.maxDist);
+      }
+    }
+    node.maxDist = max;
+    return node;
+  }
+
+  /**
+   * Turn a node without children into a leaf. The routing object may also be
+   * stored as singleton of an inner node, which is then no longer necessary.
+   *
+   * @param node Node
+   */
+  private void collapse(Node node) {
+    if(node.children == null || !node.children.isEmpty()) {
+      return;
+    }
+    node.children = null;
+    final DBIDIter it = node.singletons.iter();
+    for(DBIDArrayIter it2 = node.singletons.iter().advance(); it2.valid(); it2.advance()) {
+      if(DBIDUtil.equal(it, it2)) {
+        node.singletons.remove(it2.getOffset());
+        break;
+      }
+    }
+  }
+
+  @Override
+  public void deleteAll(DBIDs ids) {
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      delete(it);
+    }
+  }
+
   /**
    * Collect some statistics on the tree.
    *
@@ -332,6 +653,9 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Rang
 
     @Override
     public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList ret) {
+      if(root == null) {
+        return;
+      }
       ArrayList<Node> open = new ArrayList<Node>(); // LIFO stack
       open.add(root);
       DBIDVar r = DBIDUtil.newVar();
@@ -388,6 +712,9 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Rang
       }
 
       KNNHeap knnList = DBIDUtil.newHeap(k);
+      if(root == null) {
+        return knnList.toKNNList();
+      }
       double d_k = Double.POSITIVE_INFINITY;
 
       final DoubleObjectMinHeap<Node> pq = new DoubleObjectMinHeap<>();
@@ -0,0 +1,107 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
+
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SparseLPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.WeightedLPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.WeightedMaximumDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.WeightedSquaredEuclideanDistanceFunction;
+
+import net.jafama.FastMath;
+
+/**
+ * Lower bound of the distance to all objects on the other side of a splitting
+ * plane, for the (weighted) Minkowski norms supported by the k-d-trees.
+ * <p>
+ * For these norms, the distance is at least the (weighted) contribution of
+ * the splitting axis alone.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+final class AxisBound {
+  /**
+   * Weight of each axis, {@code null} for unweighted norms.
+   */
+  private final double[] weights;
+
+  /**
+   * Flag for squared distances.
+   */
+  private final boolean squared;
+
+  /**
+   * Constructor.
+   *
+   * @param weights Axis weights, may be {@code null}
+   * @param squared Flag for squared distances
+   */
+  private AxisBound(double[] weights, boolean squared) {
+    this.weights = weights;
+    this.squared = squared;
+  }
+
+  /**
+   * Get the bound for a distance function.
+   *
+   * @param df Distance function
+   * @return Bound, or {@code null} if not supported.
+   */
+  static AxisBound get(DistanceFunction<?> df) {
+    if(df instanceof WeightedMaximumDistanceFunction) {
+      return new AxisBound(((WeightedMaximumDistanceFunction) df).getWeights(), false);
+    }
+    if(df instanceof WeightedLPNormDistanceFunction) {
+      final WeightedLPNormDistanceFunction wdf = (WeightedLPNormDistanceFunction) df;
+      final double[] w = wdf.getWeights().clone();
+      final double invp = 1. / wdf.getP();
+      for(int d = 0; d < w.length; d++) {
+        w[d] = FastMath.pow(w[d], invp);
+      }
+      return new AxisBound(w, false);
+    }
+    if(df instanceof LPNormDistanceFunction || df instanceof SparseLPNormDistanceFunction) {
+      return new AxisBound(null, false);
+    }
+    if(df instanceof WeightedSquaredEuclideanDistanceFunction) {
+      return new AxisBound(((WeightedSquaredEuclideanDistanceFunction) df).getWeights(), true);
+    }
+    if(df instanceof SquaredEuclideanDistanceFunction) {
+      return new AxisBound(null, true);
+    }
+    return null;
+  }
+
+  /**
+   * Lower bound of the distance, given the difference in one axis.
+   *
+   * @param axis Axis
+   * @param delta Difference
+   * @return Lower bound of the distance
+   */
+  double bound(int axis, double delta) {
+    final double a = squared ? delta * delta : Math.abs(delta);
+    return weights != null ? a * weights[axis] : a;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
+
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+
+/**
+ * Helper for batched bulk kNN queries on the k-d-trees.
+ * <p>
+ * The queries are ordered as the objects in the tree, so that consecutive
+ * queries are spatially close. Each batch of such queries then traverses the
+ * tree together, and only splits up where the queries lie on different sides
+ * of a splitting plane. Batches are independent, and are processed in
+ * parallel.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+final class BulkKNN {
+  /**
+   * Number of queries per batch, and grain of the parallel processing.
+   */
+  static final int BATCHSIZE = 64;
+
+  /**
+   * Private constructor. Static methods only.
+   */
+  private BulkKNN() {
+    // Do not use.
+  }
+
+  /**
+   * Order the query offsets by their position in the tree.
+   *
+   * @param all All indexed objects
+   * @param tree Iterator over the tree order
+   * @param ids Query objects
+   * @return Query offsets, in tree order
+   */
+  static int[] treeOrder(DBIDs all, DBIDArrayIter tree, ArrayDBIDs ids) {
+    WritableIntegerDataStore pos = DataStoreUtil.makeIntegerStorage(all, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, -1);
+    for(tree.seek(0); tree.valid(); tree.advance()) {
+      pos.putInt(tree, tree.getOffset());
+    }
+    final int size = ids.size();
+    long[] keys = new long[size];
+    int i = 0;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance(), i++) {
+      keys[i] = (((long) pos.intValue(it)) << 32) | i;
+    }
+    pos.destroy();
+    Arrays.sort(keys);
+    int[] order = new int[size];
+    for(i = 0; i < size; i++) {
+      order[i] = (int) keys[i];
+    }
+    return order;
+  }
+
+  /**
+   * Swap two entries of an array.
+   *
+   * @param a Array
+   * @param i First position
+   * @param j Second position
+   */
+  static void swap(int[] a, int i, int j) {
+    final int tmp = a[i];
+    a[i] = a[j];
+    a[j] = tmp;
+  }
+}
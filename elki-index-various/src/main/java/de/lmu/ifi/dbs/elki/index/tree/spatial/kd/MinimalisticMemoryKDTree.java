@@ -20,6 +20,9 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
 
+import java.util.Arrays;
+import java.util.List;
+
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.VectorUtil;
 import de.lmu.ifi.dbs.elki.data.VectorUtil.SortDBIDsBySingleDimension;
@@ -28,6 +31,7 @@ import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.ids.*;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.AbstractDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.BatchedKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.AbstractDistanceRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
@@ -35,15 +39,15 @@ import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.Norm;
-import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
-import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SparseLPNormDistanceFunction;
-import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.AtomicLongCounter;
 import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor.RangeProcessor;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
@@ -69,7 +73,9 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
  * thus reducing the number of accesses to the relation substantially. In
  * particular, this reduces construction time.
  * <p>
- * TODO: add support for weighted Minkowski distances.
+ * Supported are the (weighted) Minkowski norms and (weighted) squared
+ * Euclidean distance. Bulk kNN queries are processed in batches of nearby
+ * queries that traverse the tree together, and in parallel.
  *
  * @author Erich Schubert
  * @since 0.6.0
@@ -127,8 +133,8 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
     assert (leafsize >= 1);
     if(LOG.isStatistics()) {
       String prefix = this.getClass().getName();
-      this.objaccess = LOG.newCounter(prefix + ".objaccess");
-      this.distcalc = LOG.newCounter(prefix + ".distancecalcs");
+      this.objaccess = new AtomicLongCounter(prefix + ".objaccess");
+      this.distcalc = new AtomicLongCounter(prefix + ".distancecalcs");
     }
     else {
       this.objaccess = null;
@@ -245,33 +251,15 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
   @Override
   public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
     DistanceFunction<? super O> df = distanceQuery.getDistanceFunction();
-    // TODO: if we know this works for other distance functions, add them, too!
-    if(df instanceof LPNormDistanceFunction) {
-      return new KDTreeKNNQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    if(df instanceof SquaredEuclideanDistanceFunction) {
-      return new KDTreeKNNQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    if(df instanceof SparseLPNormDistanceFunction) {
-      return new KDTreeKNNQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    return null;
+    // All supported distances are norms, see AxisBound.
+    return AxisBound.get(df) != null ? new KDTreeKNNQuery(distanceQuery, (Norm<? super O>) df) : null;
   }
 
   @Override
   public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
     DistanceFunction<? super O> df = distanceQuery.getDistanceFunction();
-    // TODO: if we know this works for other distance functions, add them, too!
-    if(df instanceof LPNormDistanceFunction) {
-      return new KDTreeRangeQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    if(df instanceof SquaredEuclideanDistanceFunction) {
-      return new KDTreeRangeQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    if(df instanceof SparseLPNormDistanceFunction) {
-      return new KDTreeRangeQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    return null;
+    // All supported distances are norms, see AxisBound.
+    return AxisBound.get(df) != null ? new KDTreeRangeQuery(distanceQuery, (Norm<? super O>) df) : null;
   }
 
   /**
@@ -279,12 +267,17 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
    *
    * @author Erich Schubert
    */
-  public class KDTreeKNNQuery extends AbstractDistanceKNNQuery<O> {
+  public class KDTreeKNNQuery extends AbstractDistanceKNNQuery<O> implements BatchedKNNQuery<O> {
     /**
      * Norm to use.
      */
     private Norm<? super O> norm;
 
+    /**
+     * Lower bound for pruning.
+     */
+    private AxisBound bound;
+
     /**
      * Constructor.
      *
@@ -294,6 +287,7 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
     public KDTreeKNNQuery(DistanceQuery<O> distanceQuery, Norm<? super O> norm) {
       super(distanceQuery);
       this.norm = norm;
+      this.bound = AxisBound.get(norm);
     }
 
     @Override
@@ -303,6 +297,156 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
       return knns.toKNNList();
     }
 
+    @Override
+    public List<KNNList> getKNNForBulkDBIDs(final ArrayDBIDs ids, final int k) {
+      final int[] order = BulkKNN.treeOrder(relation.getDBIDs(), sorted.iter(), ids);
+      final KNNList[] res = new KNNList[order.length];
+      ParallelExecutor.run(0, order.length, BulkKNN.BATCHSIZE, new RangeProcessor() {
+        @Override
+        public void process(int start, int end) {
+          final DBIDArrayIter it = ids.iter();
+          // Ranges may be larger than one batch when run serially.
+          for(int begin = start; begin < end; begin += BulkKNN.BATCHSIZE) {
+            final int n = Math.min(BulkKNN.BATCHSIZE, end - begin);
+            @SuppressWarnings("unchecked")
+            final O[] qs = (O[]) new NumberVector[n];
+            final KNNHeap[] heaps = new KNNHeap[n];
+            final int[] act = new int[n];
+            for(int i = 0; i < n; i++) {
+              qs[i] = relation.get(it.seek(order[begin + i]));
+              heaps[i] = DBIDUtil.newHeap(k);
+              act[i] = i;
+            }
+            kdBatchSearch(0, sorted.size(), 0, qs, heaps, act, 0, n, sorted.iter());
+            for(int i = 0; i < n; i++) {
+              res[order[begin + i]] = heaps[i].toKNNList();
+            }
+          }
+        }
+      });
+      return Arrays.asList(res);
+    }
+
+    /**
+     * Perform a kNN search for a batch of queries on the kd-tree.
+     *
+     * @param left Subtree begin
+     * @param right Subtree end (exclusive)
+     * @param axis Current splitting axis
+     * @param qs Query objects
+     * @param heaps kNN heaps
+     * @param act Active queries, in positions begin to end (reordered)
+     * @param begin First active query
+     * @param end End of active queries (exclusive)
+     * @param iter Iterator variable
+     */
+    private void kdBatchSearch(int left, int right, int axis, O[] qs, KNNHeap[] heaps, int[] act, int begin, int end, DBIDArrayIter iter) {
+      if(right - left <= leafsize) {
+        for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
+          final O obj = relation.get(iter);
+          countObjectAccess();
+          for(int j = begin; j < end; j++) {
+            final KNNHeap knns = heaps[act[j]];
+            final double dist = norm.distance(qs[act[j]], obj);
+            countDistanceComputation();
+            if(dist <= knns.getKNNDistance()) {
+              knns.insert(dist, iter);
+            }
+          }
+        }
+        return;
+      }
+      // Look at current node:
+      final int middle = (left + right) >>> 1;
+      final O split = relation.get(iter.seek(middle));
+      countObjectAccess();
+      final double splitval = split.doubleValue(axis);
+      // Next axis:
+      final int next = (axis + 1) % dims;
+
+      // Partition queries: left of the split first.
+      int m = begin;
+      for(int j = begin; j < end; j++) {
+        if(splitval >= qs[act[j]].doubleValue(axis)) {
+          BulkKNN.swap(act, j, m++);
+        }
+      }
+      if(begin < m) {
+        if(left < middle) {
+          kdBatchSearch(left, middle, next, qs, heaps, act, begin, m, iter);
+        }
+        final int f = processSplit(middle, axis, split, splitval, qs, heaps, act, begin, m, iter);
+        if(middle + 1 < right && begin < f) {
+          kdBatchSearch(middle + 1, right, next, qs, heaps, act, begin, f, iter);
+        }
+      }
+      if(m < end) {
+        if(middle + 1 < right) {
+          kdBatchSearch(middle + 1, right, next, qs, heaps, act, m, end, iter);
+        }
+        final int f = processSplit(middle, axis, split, splitval, qs, heaps, act, m, end, iter);
+        if(left < middle && m < f) {
+          kdBatchSearch(left, middle, next, qs, heaps, act, m, f, iter);
+        }
+      }
+    }
+
+    /**
+     * Process the splitting element for a batch of queries.
+     *
+     * @param middle Splitting element position
+     * @param axis Splitting axis
+     * @param split Splitting element
+     * @param splitval Splitting value
+     * @param qs Query objects
+     * @param heaps kNN heaps
+     * @param act Active queries (reordered)
+     * @param begin First query
+     * @param end End of queries (exclusive)
+     * @param iter Iterator variable
+     * @return End of queries that still need to visit the other side
+     */
+    private int processSplit(int middle, int axis, O split, double splitval, O[] qs, KNNHeap[] heaps, int[] act, int begin, int end, DBIDArrayIter iter) {
+      int f = filter(axis, splitval, qs, heaps, act, begin, end);
+      if(begin < f) {
+        iter.seek(middle);
+        for(int j = begin; j < f; j++) {
+          final KNNHeap knns = heaps[act[j]];
+          final double dist = norm.distance(qs[act[j]], split);
+          countDistanceComputation();
+          if(dist <= knns.getKNNDistance()) {
+            knns.insert(dist, iter);
+          }
+        }
+        f = filter(axis, splitval, qs, heaps, act, begin, f);
+      }
+      return f;
+    }
+
+    /**
+     * Move the queries that may have neighbors across the splitting plane to
+     * the front.
+     *
+     * @param axis Splitting axis
+     * @param splitval Splitting value
+     * @param qs Query objects
+     * @param heaps kNN heaps
+     * @param act Active queries (reordered)
+     * @param begin First query
+     * @param end End of queries (exclusive)
+     * @return End of the remaining queries
+     */
+    private int filter(int axis, double splitval, O[] qs, KNNHeap[] heaps, int[] act, int begin, int end) {
+      int f = begin;
+      for(int j = begin; j < end; j++) {
+        final int i = act[j];
+        if(bound.bound(axis, splitval - qs[i].doubleValue(axis)) <= heaps[i].getKNNDistance()) {
+          BulkKNN.swap(act, j, f++);
+        }
+      }
+      return f;
+    }
+
     /**
      * Perform a kNN search on the kd-tree.
      *
@@ -337,6 +481,7 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
       final double delta = split.doubleValue(axis) - query.doubleValue(axis);
       final boolean onleft = (delta >= 0);
       final boolean onright = (delta <= 0);
+      final double axisdist = bound.bound(axis, delta);
 
       // Next axis:
       final int next = (axis + 1) % dims;
@@ -364,7 +509,7 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
             maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
-          if(Math.abs(delta) <= maxdist) {
+          if(axisdist <= maxdist) {
             double dist = norm.distance(query, split);
             countDistanceComputation();
             if(dist <= maxdist) {
@@ -372,7 +517,7 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
               maxdist = knns.getKNNDistance();
             }
           }
-          if((middle + 1 < right) && (Math.abs(delta) <= maxdist)) {
+          if((middle + 1 < right) && (axisdist <= maxdist)) {
             maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, maxdist);
           }
         }
@@ -381,7 +526,7 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
             maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
-          if(Math.abs(delta) <= maxdist) {
+          if(axisdist <= maxdist) {
             double dist = norm.distance(query, split);
             countDistanceComputation();
             if(dist <= maxdist) {
@@ -389,7 +534,7 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
               maxdist = knns.getKNNDistance();
             }
           }
-          if((left < middle) && (Math.abs(delta) <= maxdist)) {
+          if((left < middle) && (axisdist <= maxdist)) {
             maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
           }
         }
@@ -409,6 +554,11 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
      */
     private Norm<? super O> norm;
 
+    /**
+     * Lower bound for pruning.
+     */
+    private AxisBound bound;
+
     /**
      * Constructor.
      *
@@ -418,6 +568,7 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
     public KDTreeRangeQuery(DistanceQuery<O> distanceQuery, Norm<? super O> norm) {
       super(distanceQuery);
       this.norm = norm;
+      this.bound = AxisBound.get(norm);
     }
 
     @Override
@@ -457,7 +608,7 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
       final double delta = split.doubleValue(axis) - query.doubleValue(axis);
       final boolean onleft = (delta >= 0);
       final boolean onright = (delta <= 0);
-      final boolean close = (Math.abs(delta) <= radius);
+      final boolean close = (bound.bound(axis, delta) <= radius);
 
       // Next axis:
       final int next = (axis + 1) % dims;
@@ -20,12 +20,16 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
 
+import java.util.Arrays;
+import java.util.List;
+
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.ids.*;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.AbstractDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.BatchedKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.AbstractDistanceRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
@@ -33,15 +37,15 @@ import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.Norm;
-import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
-import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SparseLPNormDistanceFunction;
-import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.AtomicLongCounter;
 import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor.RangeProcessor;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
@@ -65,7 +69,9 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
  * Multidimensional binary search trees used for associative searching<br>
  * Communications of the ACM 18(9)
  * <p>
- * TODO: add support for weighted Minkowski distances.
+ * Supported are the (weighted) Minkowski norms and (weighted) squared
+ * Euclidean distance. Bulk kNN queries are processed in batches of nearby
+ * queries that traverse the tree together, and in parallel.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -123,8 +129,8 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
     assert (leafsize >= 1);
     if(LOG.isStatistics()) {
       String prefix = this.getClass().getName();
-      this.objaccess = LOG.newCounter(prefix + ".objaccess");
-      this.distcalc = LOG.newCounter(prefix + ".distancecalcs");
+      this.objaccess = new AtomicLongCounter(prefix + ".objaccess");
+      this.distcalc = new AtomicLongCounter(prefix + ".distancecalcs");
     }
     else {
       this.objaccess = null;
@@ -215,33 +221,15 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
   @Override
   public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
     DistanceFunction<? super O> df = distanceQuery.getDistanceFunction();
-    // TODO: if we know this works for other distance functions, add them, too!
-    if(df instanceof LPNormDistanceFunction) {
-      return new KDTreeKNNQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    if(df instanceof SquaredEuclideanDistanceFunction) {
-      return new KDTreeKNNQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    if(df instanceof SparseLPNormDistanceFunction) {
-      return new KDTreeKNNQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    return null;
+    // All supported distances are norms, see AxisBound.
+    return AxisBound.get(df) != null ? new KDTreeKNNQuery(distanceQuery, (Norm<? super O>) df) : null;
   }
 
   @Override
   public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
     DistanceFunction<? super O> df = distanceQuery.getDistanceFunction();
-    // TODO: if we know this works for other distance functions, add them, too!
-    if(df instanceof LPNormDistanceFunction) {
-      return new KDTreeRangeQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    if(df instanceof SquaredEuclideanDistanceFunction) {
-      return new KDTreeRangeQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    if(df instanceof SparseLPNormDistanceFunction) {
-      return new KDTreeRangeQuery(distanceQuery, (Norm<? super O>) df);
-    }
-    return null;
+    // All supported distances are norms, see AxisBound.
+    return AxisBound.get(df) != null ? new KDTreeRangeQuery(distanceQuery, (Norm<? super O>) df) : null;
   }
 
   /**
@@ -249,12 +237,17 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
    *
    * @author Erich Schubert
    */
-  public class KDTreeKNNQuery extends AbstractDistanceKNNQuery<O> {
+  public class KDTreeKNNQuery extends AbstractDistanceKNNQuery<O> implements BatchedKNNQuery<O> {
     /**
      * Norm to use.
      */
     private Norm<? super O> norm;
 
+    /**
+     * Lower bound for pruning.
+     */
+    private AxisBound bound;
+
     /**
      * Constructor.
      *
@@ -264,6 +257,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
     public KDTreeKNNQuery(DistanceQuery<O> distanceQuery, Norm<? super O> norm) {
       super(distanceQuery);
       this.norm = norm;
+      this.bound = AxisBound.get(norm);
     }
 
     @Override
@@ -273,6 +267,154 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
       return knns.toKNNList();
     }
 
+    @Override
+    public List<KNNList> getKNNForBulkDBIDs(final ArrayDBIDs ids, final int k) {
+      final int[] order = BulkKNN.treeOrder(relation.getDBIDs(), sorted.iter(), ids);
+      final KNNList[] res = new KNNList[order.length];
+      ParallelExecutor.run(0, order.length, BulkKNN.BATCHSIZE, new RangeProcessor() {
+        @Override
+        public void process(int start, int end) {
+          final DBIDArrayIter it = ids.iter();
+          // Ranges may be larger than one batch when run serially.
+          for(int begin = start; begin < end; begin += BulkKNN.BATCHSIZE) {
+            final int n = Math.min(BulkKNN.BATCHSIZE, end - begin);
+            @SuppressWarnings("unchecked")
+            final O[] qs = (O[]) new NumberVector[n];
+            final KNNHeap[] heaps = new KNNHeap[n];
+            final int[] act = new int[n];
+            for(int i = 0; i < n; i++) {
+              qs[i] = relation.get(it.seek(order[begin + i]));
+              heaps[i] = DBIDUtil.newHeap(k);
+              act[i] = i;
+            }
+            kdBatchSearch(0, sorted.size(), 0, qs, heaps, act, 0, n, sorted.iter());
+            for(int i = 0; i < n; i++) {
+              res[order[begin + i]] = heaps[i].toKNNList();
+            }
+          }
+        }
+      });
+      return Arrays.asList(res);
+    }
+
+    /**
+     * Perform a kNN search for a batch of queries on the kd-tree.
+     *
+     * @param left Subtree begin
+     * @param right Subtree end (exclusive)
+     * @param axis Current splitting axis
+     * @param qs Query objects
+     * @param heaps kNN heaps
+     * @param act Active queries, in positions begin to end (reordered)
+     * @param begin First active query
+     * @param end End of active queries (exclusive)
+     * @param iter Iterator variable
+     */
+    private void kdBatchSearch(int left, int right, int axis, O[] qs, KNNHeap[] heaps, int[] act, int begin, int end, DoubleDBIDListIter iter) {
+      if(right - left <= leafsize) {
+        for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
+          final O obj = relation.get(iter);
+          countObjectAccess();
+          for(int j = begin; j < end; j++) {
+            final KNNHeap knns = heaps[act[j]];
+            final double dist = norm.distance(qs[act[j]], obj);
+            countDistanceComputation();
+            if(dist <= knns.getKNNDistance()) {
+              knns.insert(dist, iter);
+            }
+          }
+        }
+        return;
+      }
+      // Look at current node:
+      final int middle = (left + right) >>> 1;
+      final double split = iter.seek(middle).doubleValue();
+      // Next axis:
+      final int next = (axis + 1) % dims;
+
+      // Partition queries: left of the split first.
+      int m = begin;
+      for(int j = begin; j < end; j++) {
+        if(split >= qs[act[j]].doubleValue(axis)) {
+          BulkKNN.swap(act, j, m++);
+        }
+      }
+      if(begin < m) {
+        if(left < middle) {
+          kdBatchSearch(left, middle, next, qs, heaps, act, begin, m, iter);
+        }
+        final int f = processSplit(middle, axis, split, qs, heaps, act, begin, m, iter);
+        if(middle + 1 < right && begin < f) {
+          kdBatchSearch(middle + 1, right, next, qs, heaps, act, begin, f, iter);
+        }
+      }
+      if(m < end) {
+        if(middle + 1 < right) {
+          kdBatchSearch(middle + 1, right, next, qs, heaps, act, m, end, iter);
+        }
+        final int f = processSplit(middle, axis, split, qs, heaps, act, m, end, iter);
+        if(left < middle && m < f) {
+          kdBatchSearch(left, middle, next, qs, heaps, act, m, f, iter);
+        }
+      }
+    }
+
+    /**
+     * Process the splitting element for a batch of queries.
+     *
+     * @param middle Splitting element
+     * @param axis Splitting axis
+     * @param split Splitting value
+     * @param qs Query objects
+     * @param heaps kNN heaps
+     * @param act Active queries (reordered)
+     * @param begin First query
+     * @param end End of queries (exclusive)
+     * @param iter Iterator variable
+     * @return End of queries that still need to visit the other side
+     */
+    private int processSplit(int middle, int axis, double split, O[] qs, KNNHeap[] heaps, int[] act, int begin, int end, DoubleDBIDListIter iter) {
+      int f = filter(axis, split, qs, heaps, act, begin, end);
+      if(begin < f) {
+        final O obj = relation.get(iter.seek(middle));
+        countObjectAccess();
+        for(int j = begin; j < f; j++) {
+          final KNNHeap knns = heaps[act[j]];
+          final double dist = norm.distance(qs[act[j]], obj);
+          countDistanceComputation();
+          if(dist <= knns.getKNNDistance()) {
+            knns.insert(dist, iter);
+          }
+        }
+        f = filter(axis, split, qs, heaps, act, begin, f);
+      }
+      return f;
+    }
+
+    /**
+     * Move the queries that may have neighbors across the splitting plane to
+     * the front.
+     *
+     * @param axis Splitting axis
+     * @param split Splitting value
+     * @param qs Query objects
+     * @param heaps kNN heaps
+     * @param act Active queries (reordered)
+     * @param begin First query
+     * @param end End of queries (exclusive)
+     * @return End of the remaining queries
+     */
+    private int filter(int axis, double split, O[] qs, KNNHeap[] heaps, int[] act, int begin, int end) {
+      int f = begin;
+      for(int j = begin; j < end; j++) {
+        final int i = act[j];
+        if(bound.bound(axis, split - qs[i].doubleValue(axis)) <= heaps[i].getKNNDistance()) {
+          BulkKNN.swap(act, j, f++);
+        }
+      }
+      return f;
+    }
+
     /**
      * Perform a kNN search on the kd-tree.
      *
@@ -306,6 +448,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
       assert (iter.doubleValue() == relation.get(iter).doubleValue(axis)) : "Tree inconsistent " + left + " < " + middle + " < " + right + ": " + iter.doubleValue() + " != " + relation.get(iter).doubleValue(axis) + " " + relation.get(iter);
       final boolean onleft = (delta >= 0);
       final boolean onright = (delta <= 0);
+      final double axisdist = bound.bound(axis, delta);
 
       // Next axis:
       final int next = (axis + 1) % dims;
@@ -335,7 +478,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
             maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
-          if(Math.abs(delta) <= maxdist) {
+          if(axisdist <= maxdist) {
             O split = relation.get(iter.seek(middle));
             countObjectAccess();
             double dist = norm.distance(query, split);
@@ -346,7 +489,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
               maxdist = knns.getKNNDistance();
             }
           }
-          if((middle + 1 < right) && (Math.abs(delta) <= maxdist)) {
+          if((middle + 1 < right) && (axisdist <= maxdist)) {
             maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, maxdist);
           }
         }
@@ -355,7 +498,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
             maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
-          if(Math.abs(delta) <= maxdist) {
+          if(axisdist <= maxdist) {
             O split = relation.get(iter.seek(middle));
             countObjectAccess();
             double dist = norm.distance(query, split);
@@ -366,7 +509,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
               maxdist = knns.getKNNDistance();
             }
           }
-          if((left < middle) && (Math.abs(delta) <= maxdist)) {
+          if((left < middle) && (axisdist <= maxdist)) {
             maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
           }
         }
@@ -386,6 +529,11 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
      */
     private Norm<? super O> norm;
 
+    /**
+     * Lower bound for pruning.
+     */
+    private AxisBound bound;
+
     /**
      * Constructor.
      *
@@ -395,6 +543,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
     public KDTreeRangeQuery(DistanceQuery<O> distanceQuery, Norm<? super O> norm) {
       super(distanceQuery);
       this.norm = norm;
+      this.bound = AxisBound.get(norm);
     }
 
     @Override
@@ -432,7 +581,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
       final double delta = iter.seek(middle).doubleValue() - query.doubleValue(axis);
       final boolean onleft = (delta >= 0);
       final boolean onright = (delta <= 0);
-      final boolean close = (Math.abs(delta) <= radius);
+      final boolean close = (bound.bound(axis, delta) <= radius);
 
       // Next axis:
       final int next = (axis + 1) % dims;
@@ -0,0 +1,134 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.*;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.iterator.It;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Unit test for the HNSW index.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class HNSWTest extends AbstractIndexStructureTest {
+  /**
+   * Test {@link HNSW} using a file based database connection. On this small
+   * data set, the approximate results are expected to be exact.
+   */
+  @Test
+  public void testHNSW() {
+    HNSW.Factory<?> factory = new ELKIBuilder<>(HNSW.Factory.class) //
+        .with(HNSW.Factory.Parameterizer.SEED_ID, 0L).build();
+    testExactEuclidean(factory, HNSW.HNSWKNNQuery.class, HNSW.HNSWRangeQuery.class);
+    testSinglePoint(factory, HNSW.HNSWKNNQuery.class, HNSW.HNSWRangeQuery.class);
+  }
+
+  /**
+   * Test the recall on a larger data set, and after deleting and reinserting
+   * half of the objects.
+   */
+  @Test
+  public void testRecallDynamic() {
+    Random r = new Random(0L);
+    double[][] data = new double[5000][4];
+    for(double[] row : data) {
+      for(int d = 0; d < row.length; d++) {
+        row[d] = r.nextDouble();
+      }
+    }
+    StaticArrayDatabase db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), //
+        Arrays.asList(new HNSW.Factory<NumberVector>(EuclideanDistanceFunction.STATIC, 8, 50, 30, new RandomFactory(0L))));
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    DistanceQuery<NumberVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    It<HNSW<NumberVector>> it = db.getHierarchy().iterChildren(rel).filter(HNSW.class);
+    assertTrue("HNSW not built.", it.valid());
+    HNSW<NumberVector> hnsw = it.get();
+    assertTrue("Recall too low.", recall(hnsw, dq, rel.getDBIDs(), 10) >= .95);
+
+    // Remove every other object:
+    ArrayModifiableDBIDs del = DBIDUtil.newArray(), keep = DBIDUtil.newArray();
+    int i = 0;
+    for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance(), i++) {
+      ((i & 1) == 0 ? del : keep).add(iter);
+    }
+    hnsw.deleteAll(del);
+    assertFalse("Deleted object found again.", hnsw.delete(del.iter()));
+    assertTrue("Recall too low after deletion.", recall(hnsw, dq, keep, 10) >= .95);
+
+    hnsw.insertAll(del);
+    assertTrue("Recall too low after reinsertion.", recall(hnsw, dq, rel.getDBIDs(), 10) >= .95);
+  }
+
+  /**
+   * Compute the recall of kNN queries for a sample of the objects, compared to
+   * a linear scan of the indexed objects.
+   *
+   * @param hnsw Index
+   * @param dq Distance query
+   * @param indexed Indexed objects
+   * @param k Number of neighbors
+   * @return Recall
+   */
+  private double recall(HNSW<NumberVector> hnsw, DistanceQuery<NumberVector> dq, DBIDs indexed, int k) {
+    KNNQuery<NumberVector> knnq = hnsw.getKNNQuery(dq);
+    long found = 0, total = 0;
+    int i = 0;
+    for(DBIDIter q = indexed.iter(); q.valid(); q.advance()) {
+      if(i++ % 10 != 0) {
+        continue;
+      }
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(DBIDIter o = indexed.iter(); o.valid(); o.advance()) {
+        heap.insert(dq.distance(q, o), o);
+      }
+      KNNList truth = heap.toKNNList(), approx = knnq.getKNNForDBID(q, k);
+      assertEquals("Wrong number of results.", k, approx.size());
+      for(DBIDIter o = approx.iter(); o.valid(); o.advance()) {
+        assertTrue("Result not indexed.", indexed.contains(o));
+      }
+      found += DBIDUtil.intersectionSize(truth, approx);
+      total += truth.size();
+    }
+    return found / (double) total;
+  }
+}
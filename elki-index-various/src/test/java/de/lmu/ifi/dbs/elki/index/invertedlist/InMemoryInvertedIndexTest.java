@@ -20,13 +20,36 @@
  */
 package de.lmu.ifi.dbs.elki.index.invertedlist;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.SparseDoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.*;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.similarity.SimilarityQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.MultipleObjectsBundleDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.ArcCosineDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.CosineDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.set.JaccardSimilarityDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.similarityfunction.kernel.LinearKernelFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
 
 /**
- * Unit test for the iDistance index.
+ * Unit test for the inverted list index.
  * 
  * @author Erich Schubert
  * @since 0.7.0
@@ -42,4 +65,84 @@ public class InMemoryInvertedIndexTest extends AbstractIndexStructureTest {
     InMemoryInvertedIndex.Factory<?> factory = new ELKIBuilder<>(InMemoryInvertedIndex.Factory.class).build();
     testExactCosine(factory, InMemoryInvertedIndex.CosineKNNQuery.class, InMemoryInvertedIndex.CosineRangeQuery.class);
   }
+
+  /**
+   * Compare the pruned queries on sparse data to a linear scan.
+   */
+  @Test
+  public void testSparse() {
+    Random r = new Random(0L);
+    final int dim = 500;
+    List<SparseDoubleVector> data = new ArrayList<>();
+    for(int i = 0; i < 2000; i++) {
+      double[] vec = new double[dim];
+      for(int j = 0; j < 12; j++) {
+        // Skewed term distribution, to have long posting lists.
+        double x = r.nextDouble();
+        vec[(int) (x * x * dim)] = 1 + r.nextInt(3);
+      }
+      data.add(new SparseDoubleVector(vec));
+    }
+    VectorFieldTypeInformation<SparseDoubleVector> type = new VectorFieldTypeInformation<>(SparseDoubleVector.FACTORY, dim);
+    StaticArrayDatabase db = new StaticArrayDatabase(new MultipleObjectsBundleDatabaseConnection(MultipleObjectsBundle.makeSimple(type, data)), null);
+    db.initialize();
+    Relation<SparseDoubleVector> rel = db.getRelation(type);
+    InMemoryInvertedIndex<SparseDoubleVector> index = new InMemoryInvertedIndex.Factory<SparseDoubleVector>().instantiate(rel);
+    index.initialize();
+
+    assertQueries(rel, index, CosineDistanceFunction.STATIC, .3, 1e-12);
+    assertQueries(rel, index, ArcCosineDistanceFunction.STATIC, .8, 1e-7);
+    assertQueries(rel, index, new JaccardSimilarityDistanceFunction(), .7, 0.);
+
+    SimilarityQuery<SparseDoubleVector> sq = rel.getSimilarityQuery(LinearKernelFunction.STATIC);
+    RangeQuery<SparseDoubleVector> srq = index.getSimilarityRangeQuery(sq);
+    assertTrue("Dot product not supported.", srq instanceof InMemoryInvertedIndex.DotProductSimilarityRangeQuery);
+    int i = 0;
+    for(DBIDIter q = rel.iterDBIDs(); q.valid(); q.advance()) {
+      if(i++ % 20 != 0) {
+        continue;
+      }
+      int count = 0;
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+        count += sq.similarity(q, it) >= 12 ? 1 : 0;
+      }
+      assertEquals("Similarity range query size does not match.", count, srq.getRangeForDBID(q, 12).size());
+    }
+  }
+
+  /**
+   * Compare kNN and range queries to a linear scan.
+   *
+   * @param rel Data relation
+   * @param index Index
+   * @param df Distance function
+   * @param radius Query radius
+   * @param tol Tolerance for the distances
+   */
+  private void assertQueries(Relation<SparseDoubleVector> rel, InMemoryInvertedIndex<SparseDoubleVector> index, DistanceFunction<? super SparseDoubleVector> df, double radius, double tol) {
+    DistanceQuery<SparseDoubleVector> dq = rel.getDistanceQuery(df);
+    KNNQuery<SparseDoubleVector> knnq = index.getKNNQuery(dq);
+    RangeQuery<SparseDoubleVector> rangeq = index.getRangeQuery(dq);
+    final int k = 10;
+    int i = 0;
+    for(DBIDIter q = rel.iterDBIDs(); q.valid(); q.advance()) {
+      if(i++ % 20 != 0) {
+        continue;
+      }
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      int count = 0;
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+        final double d = dq.distance(q, it);
+        heap.insert(d, it);
+        count += d <= radius ? 1 : 0;
+      }
+      KNNList truth = heap.toKNNList(), knn = knnq.getKNNForDBID(q, k);
+      assertTrue("kNN size does not match.", knn.size() >= k);
+      DoubleDBIDListIter a = truth.iter(), b = knn.iter();
+      for(int j = 0; j < k; j++, a.advance(), b.advance()) {
+        assertEquals("kNN distance does not match.", a.doubleValue(), b.doubleValue(), tol);
+      }
+      assertEquals("Range query size does not match.", count, rangeq.getRangeForDBID(q, radius).size());
+    }
+  }
 }
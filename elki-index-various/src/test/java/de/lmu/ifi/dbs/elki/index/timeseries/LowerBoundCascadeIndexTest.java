@@ -0,0 +1,215 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.timeseries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.*;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.timeseries.*;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.iterator.It;
+
+/**
+ * Unit test for the lower bound cascade, comparing to a linear scan.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class LowerBoundCascadeIndexTest {
+  /**
+   * Number of series.
+   */
+  private static final int SIZE = 200;
+
+  /**
+   * Length of the series.
+   */
+  private static final int LENGTH = 64;
+
+  /**
+   * Number of neighbors.
+   */
+  private static final int K = 10;
+
+  @Test
+  public void testDTW() {
+    assertExact(new DTWDistanceFunction(0.1));
+    assertExact(new DTWDistanceFunction());
+  }
+
+  @Test
+  public void testDerivativeDTW() {
+    assertExact(new DerivativeDTWDistanceFunction(0.1));
+  }
+
+  @Test
+  public void testERP() {
+    assertExact(new ERPDistanceFunction(0.1, 0.));
+    assertExact(new ERPDistanceFunction(1., 1.));
+  }
+
+  @Test
+  public void testEDR() {
+    assertExact(new EDRDistanceFunction(0.1, 0.5));
+  }
+
+  @Test
+  public void testLCSS() {
+    assertExact(new LCSSDistanceFunction(0.1, 0.05));
+  }
+
+  @Test
+  public void testTwoFunctions() {
+    StaticArrayDatabase db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(randomWalks(SIZE, LENGTH, 0L)), //
+        Arrays.asList(new LowerBoundCascadeIndex.Factory<NumberVector>()));
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    It<LowerBoundCascadeIndex<NumberVector>> it = db.getHierarchy().iterChildren(rel).filter(LowerBoundCascadeIndex.class);
+    assertTrue("Index not built.", it.valid());
+    LowerBoundCascadeIndex<NumberVector> index = it.get();
+    // Take the queries for both functions first, then use them:
+    DTWDistanceFunction dtw = new DTWDistanceFunction(0.1);
+    LCSSDistanceFunction lcss = new LCSSDistanceFunction(0.1, 0.05);
+    KNNQuery<NumberVector> dtwq = index.getKNNQuery(db.getDistanceQuery(rel, dtw));
+    RangeQuery<NumberVector> dtwrq = index.getRangeQuery(db.getDistanceQuery(rel, dtw));
+    KNNQuery<NumberVector> lcssq = index.getKNNQuery(db.getDistanceQuery(rel, lcss));
+    for(double[] q : randomWalks(5, LENGTH, 1L)) {
+      DoubleVector qv = DoubleVector.wrap(q);
+      assertKNN(rel, dtw, dtwq, qv);
+      assertKNN(rel, lcss, lcssq, qv);
+      final double range = dtwq.getKNNForObject(qv, K).getKNNDistance();
+      assertEquals("Wrong number of range results.", K, dtwrq.getRangeForObject(qv, range).size());
+    }
+  }
+
+  /**
+   * Compare a kNN query to a linear scan.
+   *
+   * @param rel Data relation
+   * @param df Distance function
+   * @param knnq kNN query
+   * @param qv Query vector
+   */
+  private static void assertKNN(Relation<NumberVector> rel, EarlyAbandoningDistanceFunction df, KNNQuery<NumberVector> knnq, NumberVector qv) {
+    KNNHeap heap = DBIDUtil.newHeap(K);
+    for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance()) {
+      heap.insert(df.distance(qv, rel.get(iter)), iter);
+    }
+    KNNList truth = heap.toKNNList(), knn = knnq.getKNNForObject(qv, K);
+    assertEquals("Wrong number of neighbors.", truth.size(), knn.size());
+    for(DoubleDBIDListIter a = truth.iter(), b = knn.iter(); a.valid(); a.advance(), b.advance()) {
+      assertEquals("Wrong neighbor distance.", a.doubleValue(), b.doubleValue(), 0.);
+    }
+  }
+
+  /**
+   * Generate random walk time series.
+   *
+   * @param size Number of series
+   * @param length Length of each series
+   * @param seed Random seed
+   * @return Time series
+   */
+  private static double[][] randomWalks(int size, int length, long seed) {
+    Random r = new Random(seed);
+    double[][] data = new double[size][length];
+    for(double[] row : data) {
+      double v = r.nextGaussian();
+      for(int i = 0; i < length; i++) {
+        row[i] = v += r.nextGaussian();
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Verify the bounds, and that kNN and range queries match a linear scan.
+   *
+   * @param df Distance function
+   */
+  private void assertExact(EarlyAbandoningDistanceFunction df) {
+    double[][] data = randomWalks(SIZE, LENGTH, 0L);
+    StaticArrayDatabase db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), //
+        Arrays.asList(new LowerBoundCascadeIndex.Factory<NumberVector>()));
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    It<LowerBoundCascadeIndex<NumberVector>> it = db.getHierarchy().iterChildren(rel).filter(LowerBoundCascadeIndex.class);
+    assertTrue("Index not built.", it.valid());
+    LowerBoundCascadeIndex<NumberVector> index = it.get();
+    DistanceQuery<NumberVector> dq = db.getDistanceQuery(rel, df);
+    KNNQuery<NumberVector> knnq = index.getKNNQuery(dq);
+    RangeQuery<NumberVector> rq = index.getRangeQuery(dq);
+    assertNotNull("No kNN query.", knnq);
+    assertNotNull("No range query.", rq);
+
+    double[][] queries = randomWalks(20, LENGTH, 1L);
+    for(double[] q : queries) {
+      DoubleVector qv = DoubleVector.wrap(q);
+      Envelope qenv = df.envelope(qv);
+      KNNHeap heap = DBIDUtil.newHeap(K);
+      double[] dists = new double[rel.size()];
+      int i = 0;
+      for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance()) {
+        NumberVector o = rel.get(iter);
+        final double d = df.distance(qv, o);
+        heap.insert(dists[i++] = d, iter);
+        assertTrue("Lower bound too large.", df.lowerBound(qv, qenv, o, df.envelope(o), Double.POSITIVE_INFINITY) <= d);
+        assertEquals("Bounded distance differs.", d, df.distance(qv, o, d), 0.);
+        assertTrue("Abandoned distance too small.", df.distance(qv, o, d * .5) >= d || d == 0.);
+        // Series of different length:
+        NumberVector s = DoubleVector.wrap(Arrays.copyOf(q, LENGTH - 5));
+        assertTrue("Lower bound too large.", df.lowerBound(s, df.envelope(s), o, df.envelope(o), Double.POSITIVE_INFINITY) <= df.distance(s, o));
+      }
+      KNNList truth = heap.toKNNList(), knn = knnq.getKNNForObject(qv, K);
+      assertEquals("Wrong number of neighbors.", truth.size(), knn.size());
+      DoubleDBIDListIter a = truth.iter(), b = knn.iter();
+      for(; a.valid(); a.advance(), b.advance()) {
+        assertEquals("Wrong neighbor distance.", a.doubleValue(), b.doubleValue(), 0.);
+      }
+      final double range = truth.getKNNDistance();
+      int inrange = 0;
+      for(double d : dists) {
+        inrange += d <= range ? 1 : 0;
+      }
+      DoubleDBIDList res = rq.getRangeForObject(qv, range);
+      assertEquals("Wrong number of range results.", inrange, res.size());
+      for(DoubleDBIDListIter iter = res.iter(); iter.valid(); iter.advance()) {
+        assertEquals("Wrong range distance.", df.distance(qv, rel.get(iter)), iter.doubleValue(), 0.);
+        assertTrue("Range result too far.", iter.doubleValue() <= range);
+      }
+    }
+  }
+}
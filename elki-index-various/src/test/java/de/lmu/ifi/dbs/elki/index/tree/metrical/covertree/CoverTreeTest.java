@@ -20,11 +20,30 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.PreprocessorKNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.index.preprocessed.knn.MaterializeKNNPreprocessor;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.iterator.It;
 
 /**
  * Unit test for the Cover-tree.
@@ -43,4 +62,47 @@ public class CoverTreeTest extends AbstractIndexStructureTest {
     testExactEuclidean(factory, CoverTree.CoverTreeKNNQuery.class, CoverTree.CoverTreeRangeQuery.class);
     testSinglePoint(factory, CoverTree.CoverTreeKNNQuery.class, CoverTree.CoverTreeRangeQuery.class);
   }
+
+  /**
+   * Test a larger {@link CoverTree}, bulk-loaded in parallel, and built
+   * concurrently with a kNN preprocessor.
+   */
+  @Test
+  public void testParallelConstruction() {
+    Random r = new Random(0L);
+    double[][] data = new double[5000][3];
+    for(double[] row : data) {
+      for(int d = 0; d < row.length; d++) {
+        row[d] = r.nextDouble();
+      }
+    }
+    final int k = 5;
+    StaticArrayDatabase db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), //
+        Arrays.asList(new CoverTree.Factory<NumberVector>(EuclideanDistanceFunction.STATIC, 1.3, 10), //
+            new MaterializeKNNPreprocessor.Factory<NumberVector>(k, EuclideanDistanceFunction.STATIC)), //
+        false, true);
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    DistanceQuery<NumberVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    KNNQuery<NumberVector> pre = db.getKNNQuery(dq, k);
+    assertTrue("Preprocessor not used.", pre instanceof PreprocessorKNNQuery);
+    It<CoverTree<NumberVector>> ct = db.getHierarchy().iterChildren(rel).filter(CoverTree.class);
+    assertTrue("Cover tree not built.", ct.valid());
+    KNNQuery<NumberVector> tree = ct.get().getKNNQuery(dq);
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList a = pre.getKNNForDBID(it, k), b = tree.getKNNForDBID(it, k);
+      assertEquals("kNN size", a.size(), b.size());
+      for(DoubleDBIDListIter ia = a.iter(), ib = b.iter(); ia.valid(); ia.advance(), ib.advance()) {
+        assertEquals("kNN distance", ia.doubleValue(), ib.doubleValue(), 1e-15);
+      }
+    }
+  }
+
+  /**
+   * Test dynamic insertions and deletions of {@link CoverTree}.
+   */
+  @Test
+  public void testDynamicCovertree() {
+    testDynamic(new CoverTree.Factory<NumberVector>(EuclideanDistanceFunction.STATIC, 1.3, 10));
+  }
 }
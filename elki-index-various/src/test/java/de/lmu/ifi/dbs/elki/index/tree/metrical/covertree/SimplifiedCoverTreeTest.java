@@ -22,6 +22,7 @@ package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
 
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
@@ -43,4 +44,12 @@ public class SimplifiedCoverTreeTest extends AbstractIndexStructureTest {
     testExactEuclidean(factory, SimplifiedCoverTree.CoverTreeKNNQuery.class, SimplifiedCoverTree.CoverTreeRangeQuery.class);
     testSinglePoint(factory, SimplifiedCoverTree.CoverTreeKNNQuery.class, SimplifiedCoverTree.CoverTreeRangeQuery.class);
   }
+
+  /**
+   * Test dynamic insertions and deletions of {@link SimplifiedCoverTree}.
+   */
+  @Test
+  public void testDynamicCovertree() {
+    testDynamic(new SimplifiedCoverTree.Factory<NumberVector>(EuclideanDistanceFunction.STATIC, 1.3, 10));
+  }
 }
@@ -22,6 +22,7 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
 
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
 
@@ -42,4 +43,12 @@ public class MinimalisticMemoryKDTreeTest extends AbstractIndexStructureTest {
     testExactEuclidean(factory, MinimalisticMemoryKDTree.KDTreeKNNQuery.class, MinimalisticMemoryKDTree.KDTreeRangeQuery.class);
     testSinglePoint(factory, MinimalisticMemoryKDTree.KDTreeKNNQuery.class, MinimalisticMemoryKDTree.KDTreeRangeQuery.class);
   }
+
+  /**
+   * Test bulk queries and weighted distances.
+   */
+  @Test
+  public void testBulkWeighted() {
+    SmallMemoryKDTreeTest.assertBulkQueries(new MinimalisticMemoryKDTree.Factory<DoubleVector>());
+  }
 }
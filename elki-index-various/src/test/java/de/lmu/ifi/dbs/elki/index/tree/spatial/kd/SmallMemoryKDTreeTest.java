@@ -20,9 +20,33 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.*;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.BatchedKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.MultipleObjectsBundleDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.*;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
 
 /**
@@ -41,4 +65,76 @@ public class SmallMemoryKDTreeTest extends AbstractIndexStructureTest {
     testExactEuclidean(factory, SmallMemoryKDTree.KDTreeKNNQuery.class, SmallMemoryKDTree.KDTreeRangeQuery.class);
     testSinglePoint(factory, SmallMemoryKDTree.KDTreeKNNQuery.class, SmallMemoryKDTree.KDTreeRangeQuery.class);
   }
+
+  /**
+   * Test bulk queries and weighted distances.
+   */
+  @Test
+  public void testBulkWeighted() {
+    assertBulkQueries(new SmallMemoryKDTree.Factory<DoubleVector>());
+  }
+
+  /**
+   * Compare bulk kNN queries, single kNN and range queries to a linear scan,
+   * for various (weighted) Minkowski norms.
+   *
+   * @param factory Index factory
+   */
+  static void assertBulkQueries(IndexFactory<DoubleVector> factory) {
+    Random r = new Random(0L);
+    final int dim = 4, k = 10;
+    List<DoubleVector> data = new ArrayList<>();
+    for(int i = 0; i < 3000; i++) {
+      double[] vec = new double[dim];
+      for(int j = 0; j < dim; j++) {
+        // Small values, where squared distances are smaller than the deltas.
+        vec[j] = r.nextDouble() * .1;
+      }
+      data.add(DoubleVector.wrap(vec));
+    }
+    VectorFieldTypeInformation<DoubleVector> type = new VectorFieldTypeInformation<>(DoubleVector.FACTORY, dim);
+    StaticArrayDatabase db = new StaticArrayDatabase(new MultipleObjectsBundleDatabaseConnection(MultipleObjectsBundle.makeSimple(type, data)), null);
+    db.initialize();
+    Relation<DoubleVector> rel = db.getRelation(type);
+    @SuppressWarnings("unchecked")
+    KNNIndex<DoubleVector> index = (KNNIndex<DoubleVector>) factory.instantiate(rel);
+    index.initialize();
+
+    final double[] weights = { 1., .5, 2., .1 };
+    List<DistanceFunction<? super DoubleVector>> dfs = Arrays.<DistanceFunction<? super DoubleVector>> asList( //
+        EuclideanDistanceFunction.STATIC, SquaredEuclideanDistanceFunction.STATIC, //
+        ManhattanDistanceFunction.STATIC, MaximumDistanceFunction.STATIC, //
+        new WeightedEuclideanDistanceFunction(weights), //
+        new WeightedSquaredEuclideanDistanceFunction(weights), //
+        new WeightedManhattanDistanceFunction(weights), //
+        new WeightedMaximumDistanceFunction(weights), //
+        new WeightedLPNormDistanceFunction(3., weights));
+    ArrayDBIDs ids = DBIDUtil.ensureArray(rel.getDBIDs());
+    for(DistanceFunction<? super DoubleVector> df : dfs) {
+      DistanceQuery<DoubleVector> dq = rel.getDistanceQuery(df);
+      KNNQuery<DoubleVector> knnq = index.getKNNQuery(dq);
+      RangeQuery<DoubleVector> rangeq = ((RangeIndex<DoubleVector>) index).getRangeQuery(dq);
+      assertTrue("Distance not supported: " + df, knnq instanceof BatchedKNNQuery && rangeq != null);
+      List<? extends KNNList> bulk = knnq.getKNNForBulkDBIDs(ids, k);
+      assertEquals("Bulk query size does not match.", ids.size(), bulk.size());
+      final double radius = .01;
+      DBIDArrayIter q = ids.iter();
+      for(int i = 0; i < ids.size(); i += 7, q.seek(i)) {
+        KNNHeap heap = DBIDUtil.newHeap(k);
+        int count = 0;
+        for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+          final double d = dq.distance(q, it);
+          heap.insert(d, it);
+          count += d <= radius ? 1 : 0;
+        }
+        KNNList truth = heap.toKNNList(), single = knnq.getKNNForDBID(q, k);
+        DoubleDBIDListIter a = truth.iter(), b = bulk.get(i).iter(), c = single.iter();
+        for(int j = 0; j < k; j++, a.advance(), b.advance(), c.advance()) {
+          assertEquals("Bulk kNN distance does not match for " + df, a.doubleValue(), b.doubleValue(), 1e-15);
+          assertEquals("kNN distance does not match for " + df, a.doubleValue(), c.doubleValue(), 1e-15);
+        }
+        assertEquals("Range query size does not match for " + df, count, rangeq.getRangeForDBID(q, radius).size());
+      }
+    }
+  }
 }
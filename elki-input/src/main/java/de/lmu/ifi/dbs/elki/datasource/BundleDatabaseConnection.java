@@ -27,6 +27,7 @@ import java.nio.channels.FileChannel;
 import java.util.List;
 
 import de.lmu.ifi.dbs.elki.datasource.bundle.BundleReader;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MappedBundle;
 import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.datasource.filter.ObjectFilter;
 import de.lmu.ifi.dbs.elki.logging.Logging;
@@ -34,6 +35,7 @@ import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * Class to load a database from a bundle file.
@@ -46,6 +48,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
  * @since 0.5.5
  *
  * @composed - - - BundleReader
+ * @composed - - - MappedBundle
  */
 public class BundleDatabaseConnection extends AbstractDatabaseConnection {
   /**
@@ -58,23 +61,49 @@ public class BundleDatabaseConnection extends AbstractDatabaseConnection {
    */
   private File infile;
 
+  /**
+   * Map the file into memory, instead of loading it.
+   */
+  private boolean mapped;
+
   /**
    * Constructor.
    *
    * @param filters Filters
    * @param infile Input file
+   * @param mapped Map the file into memory, and decode objects on demand
    */
-  public BundleDatabaseConnection(List<ObjectFilter> filters, File infile) {
+  public BundleDatabaseConnection(List<ObjectFilter> filters, File infile, boolean mapped) {
     super(filters);
     this.infile = infile;
+    this.mapped = mapped;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param filters Filters
+   * @param infile Input file
+   */
+  public BundleDatabaseConnection(List<ObjectFilter> filters, File infile) {
+    this(filters, infile, false);
   }
 
   @Override
   public MultipleObjectsBundle loadData() {
+    if(mapped && filters != null && !filters.isEmpty()) {
+      throw new AbortException("Filters cannot be used with memory-mapped bundles.");
+    }
     try {
       FileInputStream fis = new FileInputStream(infile);
       FileChannel channel = fis.getChannel();
-      MultipleObjectsBundle bundle = invokeStreamFilters(new BundleReader(channel)).asMultipleObjectsBundle();
+      final MultipleObjectsBundle bundle;
+      if(mapped) {
+        bundle = new MappedBundle(channel).asMultipleObjectsBundle();
+      }
+      else {
+        bundle = invokeStreamFilters(new BundleReader(channel)).asMultipleObjectsBundle();
+      }
       channel.close();
       fis.close();
       return bundle;
@@ -100,11 +129,21 @@ public class BundleDatabaseConnection extends AbstractDatabaseConnection {
      */
     private static final OptionID BUNDLE_ID = new OptionID("bundle.input", "Bundle file to load the data from.");
 
+    /**
+     * Flag to memory-map the bundle instead of loading it.
+     */
+    private static final OptionID MAPPED_ID = new OptionID("bundle.mapped", "Memory-map the bundle file read-only, and decode objects only on access, instead of loading all data into the Java heap. Filters cannot be used then.");
+
     /**
      * File to load.
      */
     private File infile;
 
+    /**
+     * Map the file into memory, instead of loading it.
+     */
+    private boolean mapped;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -113,11 +152,15 @@ public class BundleDatabaseConnection extends AbstractDatabaseConnection {
       if(config.grab(infileP)) {
         infile = infileP.getValue();
       }
+      Flag mappedF = new Flag(MAPPED_ID);
+      if(config.grab(mappedF)) {
+        mapped = mappedF.isTrue();
+      }
     }
 
     @Override
     protected BundleDatabaseConnection makeInstance() {
-      return new BundleDatabaseConnection(filters, infile);
+      return new BundleDatabaseConnection(filters, infile, mapped);
     }
   }
 }
@@ -41,6 +41,7 @@ import de.lmu.ifi.dbs.elki.utilities.datastructures.BitsUtil;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 import de.lmu.ifi.dbs.elki.utilities.io.ParseUtil;
+import de.lmu.ifi.dbs.elki.utilities.io.Tokenizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntListParameter;
@@ -210,20 +211,7 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
     try {
       while(reader.nextLineExceptComments()) {
         if(parseLineInternal()) {
-          final int curdim = curvec.getDimensionality();
-          if(curdim > maxdim || mindim > curdim) {
-            mindim = (curdim < mindim) ? curdim : mindim;
-            maxdim = (curdim > maxdim) ? curdim : maxdim;
-            buildMeta();
-            nextevent = Event.NEXT_OBJECT;
-            return Event.META_CHANGED;
-          }
-          else if(curlbl != null && meta != null && haslabels && meta.size() == 1) {
-            buildMeta();
-            nextevent = Event.NEXT_OBJECT;
-            return Event.META_CHANGED;
-          }
-          return Event.NEXT_OBJECT;
+          return nextVector();
         }
       }
       if(maxdim == 0) {
@@ -236,6 +224,28 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
     }
   }
 
+  /**
+   * Report the current vector, and update the metadata if necessary.
+   *
+   * @return Event to report
+   */
+  protected Event nextVector() {
+    final int curdim = curvec.getDimensionality();
+    if(curdim > maxdim || mindim > curdim) {
+      mindim = (curdim < mindim) ? curdim : mindim;
+      maxdim = (curdim > maxdim) ? curdim : maxdim;
+      buildMeta();
+      nextevent = Event.NEXT_OBJECT;
+      return Event.META_CHANGED;
+    }
+    else if(curlbl != null && meta != null && haslabels && meta.size() == 1) {
+      buildMeta();
+      nextevent = Event.NEXT_OBJECT;
+      return Event.META_CHANGED;
+    }
+    return Event.NEXT_OBJECT;
+  }
+
   @Override
   public void cleanup() {
     super.cleanup();
@@ -274,18 +284,43 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
    *         row.
    */
   protected boolean parseLineInternal() {
-    // Split into numerical attributes and labels
-    int i = 0;
-    for(/* initialized by nextLineExceptComents()! */; tokenizer.valid(); tokenizer.advance(), i++) {
+    // The tokenizer was initialized by nextLineExceptComments().
+    splitLine(tokenizer, attributes, labels, unique);
+    final LabelList lbl = LabelList.make(labels);
+    labels.clear();
+    // Maybe a label row?
+    if(isHeaderRow(attributes.size, lbl)) {
+      return false;
+    }
+    // Pass outside via class variables
+    curvec = createVector();
+    curlbl = lbl;
+    attributes.clear();
+    return true;
+  }
+
+  /**
+   * Split the current line into numerical attributes and labels.
+   * <p>
+   * This does not modify the parser state, except for the precision warning,
+   * and thus can also be used to parse blocks of lines concurrently, if every
+   * thread uses its own tokenizer and buffers.
+   *
+   * @param tokenizer Tokenizer, positioned at the beginning of the line
+   * @param attributes Output buffer for numerical attributes
+   * @param labels Output buffer for labels
+   * @param unique For string unification
+   */
+  protected void splitLine(Tokenizer tokenizer, DoubleArray attributes, List<String> labels, ObjectOpenHashSet<String> unique) {
+    for(int i = 0; tokenizer.valid(); tokenizer.advance(), i++) {
       if(!isLabelColumn(i) && !tokenizer.isQuoted()) {
         try {
           attributes.add(tokenizer.getDouble());
           continue;
         }
         catch(NumberFormatException e) {
-          if(!warnedPrecision && (e == ParseUtil.PRECISION_OVERFLOW || e == ParseUtil.EXPONENT_OVERFLOW)) {
-            getLogger().warning("Too many digits in what looked like a double number - treating as string: " + tokenizer.getSubstring());
-            warnedPrecision = true;
+          if(e == ParseUtil.PRECISION_OVERFLOW || e == ParseUtil.EXPONENT_OVERFLOW) {
+            warnPrecision(tokenizer);
           }
           // Ignore attempt, add to labels below.
         }
@@ -293,26 +328,44 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
       // Else: labels.
       String lbl = tokenizer.getStrippedSubstring();
       if(lbl.length() > 0) {
-        haslabels = true;
-        lbl = unique.addOrGet(lbl);
-        labels.add(lbl);
+        labels.add(unique.addOrGet(lbl));
       }
     }
-    // Maybe a label row?
-    if(curvec == null && attributes.size == 0) {
-      columnnames = new ArrayList<>(labels);
+  }
+
+  /**
+   * Emit the double-precision limit warning, once.
+   *
+   * @param tokenizer Tokenizer, at the offending value
+   */
+  protected void warnPrecision(Tokenizer tokenizer) {
+    if(!warnedPrecision) {
+      getLogger().warning("Too many digits in what looked like a double number - treating as string: " + tokenizer.getSubstring());
+      warnedPrecision = true;
+    }
+  }
+
+  /**
+   * Test for a header row, i.e., a line without numerical attributes before
+   * the first vector, and use its labels as column names. For other lines,
+   * record whether the data set has labels.
+   *
+   * @param numattr Number of numerical attributes in the line
+   * @param lbl Labels of the line
+   * @return {@code true} for a header row
+   */
+  protected boolean isHeaderRow(int numattr, LabelList lbl) {
+    if(curvec == null && numattr == 0) {
+      columnnames = new ArrayList<>(lbl.size());
+      for(int i = 0; i < lbl.size(); i++) {
+        columnnames.add(lbl.get(i));
+      }
       haslabels = false;
-      curvec = null;
       curlbl = null;
-      labels.clear();
-      return false;
+      return true;
     }
-    // Pass outside via class variables
-    curvec = createVector();
-    curlbl = LabelList.make(labels);
-    attributes.clear();
-    labels.clear();
-    return true;
+    haslabels |= lbl.size() > 0;
+    return false;
   }
 
   /**
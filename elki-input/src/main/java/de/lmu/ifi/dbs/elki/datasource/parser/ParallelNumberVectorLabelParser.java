@@ -0,0 +1,422 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.datasource.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import de.lmu.ifi.dbs.elki.data.LabelList;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.io.TokenizedReader;
+import de.lmu.ifi.dbs.elki.utilities.io.Tokenizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+/**
+ * Multi-threaded variant of {@link NumberVectorLabelParser}.
+ * <p>
+ * The input is read in large blocks, which are cut at line boundaries and
+ * parsed concurrently on the threads of the {@link ParallelCore}. Lines are
+ * split by the same code as in the single-threaded parser, and the results are
+ * reported in the original order, so this parser produces the same stream as
+ * the single-threaded parser. Stream filters are applied to each block as it
+ * is reassembled.
+ * <p>
+ * The reader stays a bounded number of blocks ahead of the consumer; how many
+ * of the queued blocks are parsed at the same time is up to the
+ * {@link ParallelCore}.
+ * <p>
+ * Because the blocks are parsed independently, the column separator must not
+ * match line breaks, and quoted values must not span multiple lines.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <V> the type of NumberVector used
+ */
+public class ParallelNumberVectorLabelParser<V extends NumberVector> extends NumberVectorLabelParser<V> {
+  /**
+   * Logging class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelNumberVectorLabelParser.class);
+
+  /**
+   * Input format.
+   */
+  protected CSVReaderFormat format;
+
+  /**
+   * Number of blocks to read ahead and queue for parsing, 0 for twice the
+   * parallelism of the {@link ParallelCore}.
+   */
+  protected int readahead;
+
+  /**
+   * Block size in bytes.
+   */
+  protected int blocksize;
+
+  /**
+   * Input stream.
+   */
+  private InputStream in;
+
+  /**
+   * Parallel core, while connected.
+   */
+  private ParallelCore core;
+
+  /**
+   * Blocks being parsed, in input order.
+   */
+  private ArrayDeque<ForkJoinTask<Chunk<V>>> pending = new ArrayDeque<>();
+
+  /**
+   * Incomplete last line of the previous block.
+   */
+  private byte[] carry = new byte[0];
+
+  /**
+   * Length of the incomplete last line.
+   */
+  private int carrylen;
+
+  /**
+   * End of input reached.
+   */
+  private boolean eof;
+
+  /**
+   * Current parsed block.
+   */
+  private Chunk<V> chunk;
+
+  /**
+   * Position in the current block.
+   */
+  private int pos;
+
+  /**
+   * Constructor.
+   *
+   * @param format Input format
+   * @param labelIndices Column indexes that are not numeric.
+   * @param factory Vector factory
+   * @param readahead Number of blocks to read ahead and queue for parsing, 0
+   *        for twice the parallelism of the {@link ParallelCore}
+   * @param blocksize Block size in bytes
+   */
+  public ParallelNumberVectorLabelParser(CSVReaderFormat format, long[] labelIndices, NumberVector.Factory<V> factory, int readahead, int blocksize) {
+    super(format, labelIndices, factory);
+    this.format = format;
+    this.readahead = readahead;
+    this.blocksize = blocksize;
+  }
+
+  /**
+   * Constructor with defaults.
+   *
+   * @param factory Vector factory
+   */
+  public ParallelNumberVectorLabelParser(NumberVector.Factory<V> factory) {
+    this(CSVReaderFormat.DEFAULT_FORMAT, null, factory, 0, Parameterizer.DEFAULT_BLOCKSIZE);
+  }
+
+  @Override
+  public void initStream(InputStream in) {
+    super.initStream(in);
+    this.in = in;
+    this.eof = false;
+    this.carrylen = 0;
+    this.chunk = null;
+    this.pos = 0;
+    if(core == null) {
+      core = ParallelCore.getCore();
+      core.connect();
+    }
+  }
+
+  @Override
+  public Event nextEvent() {
+    if(nextevent != null) {
+      Event ret = nextevent;
+      nextevent = null;
+      return ret;
+    }
+    while(true) {
+      while(chunk == null || pos >= chunk.vecs.size()) {
+        if((chunk = nextChunk()) == null) {
+          break;
+        }
+        pos = 0;
+      }
+      if(chunk == null) {
+        break;
+      }
+      V vec = chunk.vecs.get(pos);
+      LabelList lbl = chunk.lbls.get(pos);
+      chunk.vecs.set(pos, null);
+      chunk.lbls.set(pos, null);
+      ++pos;
+      // Label row before the first vector?
+      if(isHeaderRow(vec.getDimensionality(), lbl)) {
+        continue;
+      }
+      curvec = vec;
+      curlbl = lbl;
+      return nextVector();
+    }
+    if(maxdim == 0) {
+      throw new AbortException("No numeric data was read. Verify the column separator; for textual data use other parsers.");
+    }
+    return Event.END_OF_STREAM;
+  }
+
+  /**
+   * Get the next parsed block, and queue further blocks for parsing.
+   *
+   * @return Parsed block, or {@code null} at the end of the input.
+   */
+  private Chunk<V> nextChunk() {
+    final int ahead = readahead > 0 ? readahead : core.getParallelism() << 1;
+    try {
+      while(!eof && pending.size() < ahead) {
+        queueBlock();
+      }
+    }
+    catch(IOException e) {
+      throw new AbortException("Error while reading input.", e);
+    }
+    ForkJoinTask<Chunk<V>> next = pending.poll();
+    return next != null ? next.join() : null;
+  }
+
+  /**
+   * Read the next block, cut at the last line break, and queue it for parsing.
+   *
+   * @throws IOException on read errors
+   */
+  private void queueBlock() throws IOException {
+    byte[] buf = new byte[blocksize + carrylen];
+    System.arraycopy(carry, 0, buf, 0, carrylen);
+    int len = carrylen, cut = 0;
+    while(true) {
+      while(len < buf.length) {
+        int r = in.read(buf, len, buf.length - len);
+        if(r < 0) {
+          eof = true;
+          break;
+        }
+        len += r;
+      }
+      if(eof) {
+        cut = len;
+        break;
+      }
+      for(cut = len; cut > 0 && buf[cut - 1] != '\n'; cut--) {
+        // Search backwards for the last line break.
+      }
+      if(cut > 0) {
+        break;
+      }
+      // A single line longer than the buffer.
+      buf = Arrays.copyOf(buf, buf.length << 1);
+    }
+    carrylen = len - cut;
+    if(carrylen > carry.length) {
+      carry = new byte[carrylen];
+    }
+    System.arraycopy(buf, cut, carry, 0, carrylen);
+    if(cut > 0) {
+      pending.add(core.submit(new ChunkParser(buf, cut)));
+    }
+  }
+
+  @Override
+  public void cleanup() {
+    super.cleanup();
+    for(ForkJoinTask<Chunk<V>> task : pending) {
+      task.cancel(false);
+    }
+    pending.clear();
+    if(core != null) {
+      core.disconnect();
+      core = null;
+    }
+    carry = new byte[0];
+    chunk = null;
+    in = null;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parsed vectors and labels of one block.
+   *
+   * @author Erich Schubert
+   *
+   * @param <V> Vector type
+   */
+  private static class Chunk<V> {
+    /**
+     * Vectors.
+     */
+    ArrayList<V> vecs = new ArrayList<>();
+
+    /**
+     * Labels.
+     */
+    ArrayList<LabelList> lbls = new ArrayList<>();
+  }
+
+  @Override
+  protected synchronized void warnPrecision(Tokenizer tokenizer) {
+    // Synchronized, as this is called by concurrent block parsers.
+    super.warnPrecision(tokenizer);
+  }
+
+  /**
+   * Task to parse a single block, splitting lines with
+   * {@link NumberVectorLabelParser#splitLine}.
+   *
+   * @author Erich Schubert
+   */
+  private class ChunkParser extends RecursiveTask<Chunk<V>> {
+    /**
+     * Serialization version
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Data buffer.
+     */
+    private byte[] data;
+
+    /**
+     * Length of valid data.
+     */
+    private int len;
+
+    /**
+     * Constructor.
+     *
+     * @param data Data buffer
+     * @param len Length of valid data
+     */
+    ChunkParser(byte[] data, int len) {
+      this.data = data;
+      this.len = len;
+    }
+
+    @Override
+    protected Chunk<V> compute() {
+      Chunk<V> result = new Chunk<>();
+      DoubleArray attributes = new DoubleArray(11);
+      ArrayList<String> labels = new ArrayList<>();
+      ObjectOpenHashSet<String> unique = new ObjectOpenHashSet<>();
+      try (TokenizedReader reader = format.makeReader()) {
+        final Tokenizer tokenizer = reader.getTokenizer();
+        reader.reset(new ByteArrayInputStream(data, 0, len));
+        while(reader.nextLineExceptComments()) {
+          splitLine(tokenizer, attributes, labels, unique);
+          result.vecs.add(factory.newNumberVector(attributes, attributes));
+          result.lbls.add(LabelList.make(labels));
+          attributes.clear();
+          labels.clear();
+        }
+      }
+      catch(IOException e) {
+        throw new AbortException("Error while parsing input.", e);
+      }
+      data = null;
+      return result;
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Parameterizer<V extends NumberVector> extends NumberVectorLabelParser.Parameterizer<V> {
+    /**
+     * Default block size, 4 MiB.
+     */
+    public static final int DEFAULT_BLOCKSIZE = 1 << 22;
+
+    /**
+     * Number of blocks read ahead and queued for parsing.
+     */
+    public static final OptionID READAHEAD_ID = new OptionID("parser.readahead", "Number of input blocks read ahead and queued for parsing, 0 for twice the number of threads of the parallel core.");
+
+    /**
+     * Size of the blocks parsed by each thread.
+     */
+    public static final OptionID BLOCKSIZE_ID = new OptionID("parser.blocksize", "Size of the input blocks, in bytes, processed by each thread.");
+
+    /**
+     * Number of blocks read ahead.
+     */
+    protected int readahead;
+
+    /**
+     * Block size.
+     */
+    protected int blocksize;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      IntParameter readaheadP = new IntParameter(READAHEAD_ID, 0) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT);
+      if(config.grab(readaheadP)) {
+        readahead = readaheadP.getValue();
+      }
+      IntParameter blocksizeP = new IntParameter(BLOCKSIZE_ID, DEFAULT_BLOCKSIZE) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(blocksizeP)) {
+        blocksize = blocksizeP.getValue();
+      }
+    }
+
+    @Override
+    protected ParallelNumberVectorLabelParser<V> makeInstance() {
+      return new ParallelNumberVectorLabelParser<>(format, labelIndices, factory, readahead, blocksize);
+    }
+  }
+}
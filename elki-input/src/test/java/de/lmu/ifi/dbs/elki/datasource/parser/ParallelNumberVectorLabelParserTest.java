@@ -0,0 +1,119 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.datasource.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.datasource.AbstractDataSourceTest;
+import de.lmu.ifi.dbs.elki.datasource.InputStreamDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Test the parallel parser against the single-threaded parser.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class ParallelNumberVectorLabelParserTest extends AbstractDataSourceTest {
+  @Test
+  public void testFiles() throws IOException {
+    for(String name : new String[] { "dimensionality-test-1.csv", "label-selection-test-1.csv", "external-id-test-1.csv", "nan-test-1.csv", "rank-tie-test-1.csv" }) {
+      MultipleObjectsBundle expect = load(open(UNITTEST + name), new NumberVectorLabelParser<>(DoubleVector.FACTORY));
+      MultipleObjectsBundle actual = load(open(UNITTEST + name), makeParser(3, 64));
+      assertSameBundle(name, expect, actual);
+    }
+  }
+
+  @Test
+  public void testHeaderAndComments() throws IOException {
+    final String data = "# comment\nx y z name\n1 2 3 a\n# more\n4,5;6 b\n\n7 8 9\n10 11\n12 13 14 15 c\n";
+    MultipleObjectsBundle expect = load(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), new NumberVectorLabelParser<>(DoubleVector.FACTORY));
+    for(int blocksize = 1; blocksize < 20; blocksize++) {
+      MultipleObjectsBundle actual = load(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), makeParser(2, blocksize));
+      assertSameBundle("blocksize " + blocksize, expect, actual);
+    }
+  }
+
+  @Test
+  public void testQuoted() throws IOException {
+    final String data = "1 2 \"a b\" 3\n4,'c,d' 5 6\n\"7 8\" 9 10 'x;y z'\n11 12 \"\" 13\n'#no comment' 14 15 16\n";
+    MultipleObjectsBundle expect = load(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), new NumberVectorLabelParser<>(DoubleVector.FACTORY));
+    for(int blocksize = 1; blocksize < 30; blocksize++) {
+      MultipleObjectsBundle actual = load(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), makeParser(2, blocksize));
+      assertSameBundle("blocksize " + blocksize, expect, actual);
+    }
+  }
+
+  /**
+   * Make a parallel parser.
+   *
+   * @param readahead Number of blocks read ahead
+   * @param blocksize Block size
+   * @return Parser
+   */
+  private static Parser makeParser(int readahead, int blocksize) {
+    return new ELKIBuilder<>(ParallelNumberVectorLabelParser.class) //
+        .with(ParallelNumberVectorLabelParser.Parameterizer.READAHEAD_ID, readahead) //
+        .with(ParallelNumberVectorLabelParser.Parameterizer.BLOCKSIZE_ID, blocksize) //
+        .build();
+  }
+
+  /**
+   * Load a bundle.
+   *
+   * @param is Input stream
+   * @param parser Parser
+   * @return Bundle
+   * @throws IOException on errors
+   */
+  private static MultipleObjectsBundle load(InputStream is, Parser parser) throws IOException {
+    try (InputStreamDatabaseConnection dbc = new InputStreamDatabaseConnection(is, null, parser)) {
+      return dbc.loadData();
+    }
+  }
+
+  /**
+   * Compare two bundles.
+   *
+   * @param name Test name
+   * @param expect Expected bundle
+   * @param actual Actual bundle
+   */
+  private static void assertSameBundle(String name, MultipleObjectsBundle expect, MultipleObjectsBundle actual) {
+    assertEquals(name + ": columns", expect.metaLength(), actual.metaLength());
+    assertEquals(name + ": length", expect.dataLength(), actual.dataLength());
+    for(int c = 0; c < expect.metaLength(); c++) {
+      assertEquals(name + ": type", expect.meta(c).toString(), actual.meta(c).toString());
+      for(int r = 0; r < expect.dataLength(); r++) {
+        assertEquals(name + ": data", String.valueOf(expect.data(r, c)), String.valueOf(actual.data(r, c)));
+      }
+    }
+  }
+}
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.data.BitVector;
 import de.lmu.ifi.dbs.elki.data.SparseFeatureVector;
@@ -31,14 +32,16 @@ import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
 import de.lmu.ifi.dbs.elki.database.Database;
-import de.lmu.ifi.dbs.elki.database.ids.*;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.result.FrequentItemsetsResult;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.BitsUtil;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
 /**
@@ -49,22 +52,26 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * prefix lattice, stopping traversal when the minimum support is no longer
  * satisfied.
  * <p>
- * This implementation is the basic algorithm only, and does not use diffsets.
- * Columns are represented using a sparse representation, which theoretically is
- * beneficial when the density is less than 1/31. This corresponds roughly to a
- * minimum support of 3% for 1-itemsets. When searching for itemsets with a
- * larger minimum support, it may be desirable to use a dense bitset
- * representation instead and/or implement an automatic switching technique!
+ * This implementation uses diffsets (dEclat): within an equivalence class,
+ * the transactions are stored either as the transactions containing the
+ * itemset, or as the transactions of the prefix missing the itemset, whichever
+ * is smaller. Each transaction list is stored either as a sorted array, or as
+ * a bitset when the density is above 1/32. Supports are computed before
+ * materializing any transaction list, and transaction lists are only
+ * materialized when they are extended further.
  * <p>
- * Performance of this implementation is probably surpassed with a low-level C
- * implementation based on SIMD bitset operations as long as support of an
- * itemset is high, which are not easily accessible in Java.
+ * The equivalence classes of the first two levels are processed in parallel.
+ * The result does not depend on the number of threads.
  * <p>
  * Reference:
  * <p>
  * New Algorithms for Fast Discovery of Association Rules<br>
  * M. J. Zaki, S. Parthasarathy, M. Ogihara, W. Li<br>
  * Proc. 3rd ACM SIGKDD '97 Int. Conf. on Knowledge Discovery and Data Mining
+ * <p>
+ * Fast vertical mining using diffsets<br>
+ * M. J. Zaki, K. Gouda<br>
+ * Proc. 9th ACM SIGKDD Int. Conf. on Knowledge Discovery and Data Mining
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -77,6 +84,11 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
     booktitle = "Proc. 3rd ACM SIGKDD '97 Int. Conf. on Knowledge Discovery and Data Mining", //
     url = "http://www.aaai.org/Library/KDD/1997/kdd97-060.php", //
     bibkey = "DBLP:conf/kdd/ZakiPOL97")
+@Reference(authors = "M. J. Zaki, K. Gouda", //
+    title = "Fast vertical mining using diffsets", //
+    booktitle = "Proc. 9th ACM SIGKDD Int. Conf. on Knowledge Discovery and Data Mining", //
+    url = "https://doi.org/10.1145/956750.956788", //
+    bibkey = "DBLP:conf/kdd/ZakiG03")
 public class Eclat extends AbstractFrequentItemsetAlgorithm {
   /**
    * Class logger.
@@ -88,6 +100,11 @@ public class Eclat extends AbstractFrequentItemsetAlgorithm {
    */
   private static final String STAT = Eclat.class.getName() + ".";
 
+  /**
+   * Itemset length up to which equivalence classes are processed in parallel.
+   */
+  private static final int PARALLEL_DEPTH = 2;
+
   /**
    * Constructor.
    *
@@ -115,15 +132,24 @@ public class Eclat extends AbstractFrequentItemsetAlgorithm {
 
     LOG.verbose("Build 1-dimensional transaction lists.");
     Duration ctime = LOG.newDuration(STAT + "eclat.transposition.time").begin();
-    DBIDs[] idx = buildIndex(relation, dim, minsupp);
+    EquivalenceClass root = buildIndex(relation, dim, minsupp);
     LOG.statistics(ctime.end());
 
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building frequent itemsets", idx.length, LOG) : null;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building frequent itemsets", root.size, LOG) : null;
     Duration etime = LOG.newDuration(STAT + "eclat.extraction.time").begin();
     final List<Itemset> solution = new ArrayList<>();
-    for(int i = 0; i < idx.length; i++) {
-      LOG.incrementProcessed(prog);
-      extractItemsets(idx, i, minsupp, solution);
+    if(minlength <= 1) {
+      for(int i = 0; i < root.size; i++) {
+        solution.add(new OneItemset(root.items[i], root.supports[i]));
+      }
+    }
+    if(maxlength > 1) {
+      ExtendTask task = new ExtendTask(root, -1, minsupp, prog);
+      ParallelCore.getCore().invoke(task);
+      solution.addAll(task.solution);
+    }
+    else if(prog != null) {
+      prog.setProcessed(root.size, LOG);
     }
     LOG.ensureCompleted(prog);
     Collections.sort(solution);
@@ -133,89 +159,531 @@ public class Eclat extends AbstractFrequentItemsetAlgorithm {
     return new FrequentItemsetsResult("Eclat", "eclat", solution, meta, relation.size());
   }
 
-  // TODO: implement diffsets.
-  private void extractItemsets(DBIDs[] idx, int start, int minsupp, List<Itemset> solution) {
-    int[] buf = new int[idx.length];
-    DBIDs iset = idx[start];
-    if(iset == null || iset.size() < minsupp) {
-      return;
+  /**
+   * Build the equivalence class of the frequent 1-itemsets.
+   *
+   * @param relation Data relation
+   * @param dim Dimensionality
+   * @param minsupp Minimum support
+   * @return Equivalence class
+   */
+  private EquivalenceClass buildIndex(Relation<BitVector> relation, int dim, int minsupp) {
+    final int n = relation.size();
+    int[][] tids = new int[dim][];
+    int[] sizes = new int[dim];
+    int t = 0;
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance(), t++) {
+      SparseFeatureVector<?> bv = relation.get(iter);
+      // TODO: only count those which satisfy minlength?
+      for(int it = bv.iter(); bv.iterValid(it); it = bv.iterAdvance(it)) {
+        final int d = bv.iterDim(it);
+        int[] l = tids[d];
+        if(l == null) {
+          l = tids[d] = new int[16];
+        }
+        else if(sizes[d] == l.length) {
+          l = tids[d] = Arrays.copyOf(l, l.length << 1);
+        }
+        l[sizes[d]++] = t;
+      }
     }
-    if(minlength <= 1) {
-      solution.add(new OneItemset(start, iset.size()));
+    // Forget non-frequent 1-itemsets.
+    int size = 0;
+    for(int i = 0; i < dim; i++) {
+      size += sizes[i] >= minsupp ? 1 : 0;
     }
-    if(maxlength > 1) {
-      buf[0] = start;
-      extractItemsets(iset, idx, buf, 1, start + 1, minsupp, solution);
+    EquivalenceClass root = new EquivalenceClass(new int[0], size, false, n);
+    for(int i = 0; i < dim; i++) {
+      if(sizes[i] >= minsupp) {
+        root.add(i, sizes[i], TidList.pack(tids[i], sizes[i], n));
+        tids[i] = null;
+      }
     }
+    return root;
   }
 
-  private void extractItemsets(DBIDs iset, DBIDs[] idx, int[] buf, int depth, int start, int minsupp, List<Itemset> solution) {
-    // TODO: reuse arrays.
-    final int depth1 = depth + 1;
-    for(int i = start; i < idx.length; i++) {
-      if(idx[i] == null) {
-        continue;
+  /**
+   * Compute the equivalence class of extensions of one member, and report the
+   * frequent itemsets found.
+   *
+   * @param c Equivalence class
+   * @param i Member to extend
+   * @param minsupp Minimum support
+   * @param solution Output of frequent itemsets
+   * @return Equivalence class of the extensions, or {@code null} if it does
+   *         not need to be extended further
+   */
+  private EquivalenceClass extend(EquivalenceClass c, int i, int minsupp, List<Itemset> solution) {
+    final int len = c.prefix.length + 2; // Length of the new itemsets
+    // Transaction lists are only needed if we extend further.
+    final boolean keep = len < maxlength;
+    final TidList li = c.lists[i];
+    final int si = c.supports[i];
+    // Scratch buffers, large enough for any result.
+    int[] ibuf = new int[c.maxSparse];
+    long[] lbuf = c.hasDense ? BitsUtil.zero(c.n) : null;
+    int[] supports = new int[c.size - i - 1];
+    TidList[] lists = keep ? new TidList[c.size - i - 1] : null;
+    int size = 0;
+    long sumtid = 0, sumdiff = 0;
+    for(int j = i + 1; j < c.size; j++) {
+      final int supp;
+      if(c.diff) {
+        // Diffset of the extension: the transactions of i missing j
+        final int dsize = TidList.difference(c.lists[j], li, si - minsupp, ibuf, lbuf);
+        supp = dsize < 0 ? -1 : si - dsize;
+        if(keep && supp >= minsupp) {
+          lists[j - i - 1] = TidList.pack(c.lists[j].dense != null ? lbuf : null, ibuf, dsize, c.n);
+        }
       }
-      DBIDs ids = mergeJoin(iset, idx[i]);
-      if(ids.size() < minsupp) {
-        continue;
+      else {
+        supp = TidList.intersection(li, c.lists[j], minsupp, ibuf, lbuf);
+        sumtid += supp >= minsupp ? supp : 0;
+        sumdiff += supp >= minsupp ? si - supp : 0;
+      }
+      supports[j - i - 1] = supp;
+      if(supp >= minsupp) {
+        ++size;
+        if(len >= minlength) {
+          int[] items = Arrays.copyOf(c.prefix, len);
+          items[len - 2] = c.items[i];
+          items[len - 1] = c.items[j];
+          solution.add(new SparseItemset(items, supp));
+        }
       }
-      buf[depth] = i;
-      int[] items = Arrays.copyOf(buf, depth1);
-      if(depth1 >= minlength) {
-        solution.add(new SparseItemset(items, ids.size()));
+    }
+    if(!keep || size < 2) {
+      return null;
+    }
+    // Switch to diffsets when they are smaller:
+    final boolean diff = c.diff || sumdiff < sumtid;
+    int[] prefix = Arrays.copyOf(c.prefix, len - 1);
+    prefix[len - 2] = c.items[i];
+    EquivalenceClass child = new EquivalenceClass(prefix, size, diff, c.n);
+    for(int j = i + 1; j < c.size; j++) {
+      final int supp = supports[j - i - 1];
+      if(supp < minsupp) {
+        continue;
       }
-      if(depth1 <= maxlength) {
-        extractItemsets(ids, idx, buf, depth1, i + 1, minsupp, solution);
+      TidList l = lists[j - i - 1];
+      if(l == null) { // Materialize from the tidsets.
+        final TidList lj = c.lists[j];
+        l = diff ? //
+            TidList.pack(li.dense != null ? lbuf : null, ibuf, TidList.difference(li, lj, si, ibuf, lbuf), c.n) : //
+            TidList.pack(li.dense != null && lj.dense != null ? lbuf : null, ibuf, TidList.intersection(li, lj, 0, ibuf, lbuf), c.n);
       }
+      child.add(c.items[j], supp, l);
     }
+    return child;
   }
 
-  private DBIDs mergeJoin(DBIDs first, DBIDs second) {
-    assert (!(first instanceof HashSetDBIDs));
-    assert (!(second instanceof HashSetDBIDs));
-    ArrayModifiableDBIDs ids = DBIDUtil.newArray();
+  /**
+   * Equivalence class: itemsets sharing a common prefix.
+   *
+   * @author Erich Schubert
+   */
+  private static class EquivalenceClass {
+    /**
+     * Common prefix.
+     */
+    final int[] prefix;
 
-    DBIDIter i1 = first.iter(), i2 = second.iter();
-    while(i1.valid() && i2.valid()) {
-      int c = DBIDUtil.compare(i1, i2);
-      if(c < 0) {
-        i1.advance();
-      }
-      else if(c > 0) {
-        i2.advance();
+    /**
+     * Last item of each member.
+     */
+    final int[] items;
+
+    /**
+     * Support of each member.
+     */
+    final int[] supports;
+
+    /**
+     * Transaction lists of each member.
+     */
+    final TidList[] lists;
+
+    /**
+     * Number of members.
+     */
+    int size;
+
+    /**
+     * Transaction lists are diffsets with respect to the prefix.
+     */
+    final boolean diff;
+
+    /**
+     * Number of transactions.
+     */
+    final int n;
+
+    /**
+     * Largest sparse transaction list.
+     */
+    int maxSparse;
+
+    /**
+     * Class contains dense transaction lists.
+     */
+    boolean hasDense;
+
+    /**
+     * Constructor.
+     *
+     * @param prefix Common prefix
+     * @param capacity Number of members
+     * @param diff Use diffsets
+     * @param n Number of transactions
+     */
+    EquivalenceClass(int[] prefix, int capacity, boolean diff, int n) {
+      this.prefix = prefix;
+      this.items = new int[capacity];
+      this.supports = new int[capacity];
+      this.lists = new TidList[capacity];
+      this.diff = diff;
+      this.n = n;
+    }
+
+    /**
+     * Add a member.
+     *
+     * @param item Last item
+     * @param support Support
+     * @param list Transaction list
+     */
+    void add(int item, int support, TidList list) {
+      items[size] = item;
+      supports[size] = support;
+      lists[size++] = list;
+      if(list.dense != null) {
+        hasDense = true;
       }
       else {
-        ids.add(i1);
-        i1.advance();
-        i2.advance();
+        maxSparse = Math.max(maxSparse, list.size);
       }
     }
-    return ids;
   }
 
-  private DBIDs[] buildIndex(Relation<BitVector> relation, int dim, int minsupp) {
-    ArrayModifiableDBIDs[] idx = new ArrayModifiableDBIDs[dim];
-    for(int i = 0; i < dim; i++) {
-      idx[i] = DBIDUtil.newArray();
+  /**
+   * Set of transaction ids, stored as sorted array or as bitset.
+   *
+   * @author Erich Schubert
+   */
+  private static final class TidList {
+    /**
+     * Sorted transaction ids, or {@code null}.
+     */
+    final int[] sparse;
+
+    /**
+     * Transaction ids as bitset, or {@code null}.
+     */
+    final long[] dense;
+
+    /**
+     * Number of transactions.
+     */
+    final int size;
+
+    /**
+     * Constructor.
+     *
+     * @param sparse Sorted transaction ids
+     * @param dense Transaction ids as bitset
+     * @param size Number of transactions
+     */
+    private TidList(int[] sparse, long[] dense, int size) {
+      this.sparse = sparse;
+      this.dense = dense;
+      this.size = size;
     }
-    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
-      SparseFeatureVector<?> bv = relation.get(iter);
-      // TODO: only count those which satisfy minlength?
-      for(int it = bv.iter(); bv.iterValid(it); it = bv.iterAdvance(it)) {
-        idx[bv.iterDim(it)].add(iter);
+
+    /**
+     * Choose the smaller representation.
+     *
+     * @param size Number of transactions in the list
+     * @param n Total number of transactions
+     * @return {@code true} if a bitset is smaller
+     */
+    static boolean isDense(int size, int n) {
+      return ((long) size << 5) > n;
+    }
+
+    /**
+     * Store a sorted array of transaction ids.
+     *
+     * @param buf Buffer
+     * @param size Number of transactions
+     * @param n Total number of transactions
+     * @return Transaction list
+     */
+    static TidList pack(int[] buf, int size, int n) {
+      if(!isDense(size, n)) {
+        return new TidList(Arrays.copyOf(buf, size), null, size);
       }
+      long[] bits = BitsUtil.zero(n);
+      for(int k = 0; k < size; k++) {
+        bits[buf[k] >>> 6] |= 1L << buf[k];
+      }
+      return new TidList(null, bits, size);
     }
-    // Forget non-frequent 1-itemsets.
-    for(int i = 0; i < dim; i++) {
-      if(idx[i].size() < minsupp) {
-        idx[i] = null;
+
+    /**
+     * Store the result of an operation.
+     *
+     * @param bits Bitset result, or {@code null} if the result is in ibuf
+     * @param ibuf Sorted array result
+     * @param size Number of transactions
+     * @param n Total number of transactions
+     * @return Transaction list
+     */
+    static TidList pack(long[] bits, int[] ibuf, int size, int n) {
+      if(bits == null) {
+        return pack(ibuf, size, n);
       }
-      else {
-        idx[i].sort();
+      if(isDense(size, n)) {
+        return new TidList(null, bits.clone(), size);
+      }
+      int[] ids = new int[size];
+      for(int w = 0, k = 0; k < size; w++) {
+        for(long v = bits[w]; v != 0; v &= v - 1) {
+          ids[k++] = (w << 6) + Long.numberOfTrailingZeros(v);
+        }
+      }
+      return new TidList(ids, null, size);
+    }
+
+    /**
+     * Intersect two transaction lists. The result is stored in lbuf if both
+     * are dense, in ibuf otherwise.
+     *
+     * @param a First list
+     * @param b Second list
+     * @param minsize Stop when the result cannot reach this size
+     * @param ibuf Buffer for sparse results
+     * @param lbuf Buffer for dense results
+     * @return Size of the intersection, or -1 if less than minsize
+     */
+    static int intersection(TidList a, TidList b, int minsize, int[] ibuf, long[] lbuf) {
+      if(a.dense != null && b.dense != null) {
+        final long[] x = a.dense, y = b.dense;
+        int c = 0;
+        for(int w = 0; w < x.length; w++) {
+          c += Long.bitCount(lbuf[w] = x[w] & y[w]);
+        }
+        return c >= minsize ? c : -1;
+      }
+      if(a.dense != null) {
+        TidList t = a;
+        a = b;
+        b = t;
+      }
+      final int[] x = a.sparse;
+      int c = 0;
+      if(b.dense != null) {
+        final long[] y = b.dense;
+        for(int k = 0, rem = x.length; k < x.length; k++, rem--) {
+          if(c + rem < minsize) {
+            return -1;
+          }
+          final int v = x[k];
+          ibuf[c] = v; // Branchless: keep only if the bit is set
+          c += (int) ((y[v >>> 6] >>> v) & 1L);
+        }
+        return c >= minsize ? c : -1;
+      }
+      final int[] y = b.sparse;
+      for(int k = 0, l = 0; k < x.length && l < y.length;) {
+        if(c + Math.min(x.length - k, y.length - l) < minsize) {
+          return -1;
+        }
+        final int u = x[k], v = y[l];
+        if(u < v) {
+          ++k;
+        }
+        else if(u > v) {
+          ++l;
+        }
+        else {
+          ibuf[c++] = u;
+          ++k;
+          ++l;
+        }
+      }
+      return c >= minsize ? c : -1;
+    }
+
+    /**
+     * Compute the difference of two transaction lists. The result is stored in
+     * lbuf if the first list is dense, in ibuf otherwise.
+     *
+     * @param a First list
+     * @param b List to remove
+     * @param maxsize Stop when the result exceeds this size
+     * @param ibuf Buffer for sparse results
+     * @param lbuf Buffer for dense results
+     * @return Size of the difference, or -1 if more than maxsize
+     */
+    static int difference(TidList a, TidList b, int maxsize, int[] ibuf, long[] lbuf) {
+      if(a.dense != null) {
+        final long[] x = a.dense;
+        int c = 0;
+        if(b.dense != null) {
+          final long[] y = b.dense;
+          for(int w = 0; w < x.length; w++) {
+            c += Long.bitCount(lbuf[w] = x[w] & ~y[w]);
+          }
+        }
+        else {
+          System.arraycopy(x, 0, lbuf, 0, x.length);
+          c = a.size;
+          for(int v : b.sparse) {
+            final long bit = 1L << v;
+            if((lbuf[v >>> 6] & bit) != 0) {
+              lbuf[v >>> 6] &= ~bit;
+              --c;
+            }
+          }
+        }
+        return c <= maxsize ? c : -1;
+      }
+      final int[] x = a.sparse;
+      int c = 0;
+      if(b.dense != null) {
+        final long[] y = b.dense;
+        for(int v : x) {
+          if((y[v >>> 6] & (1L << v)) == 0) {
+            if(c == maxsize) {
+              return -1;
+            }
+            ibuf[c++] = v;
+          }
+        }
+        return c;
+      }
+      final int[] y = b.sparse;
+      int k = 0;
+      for(int l = 0; k < x.length && l < y.length;) {
+        final int u = x[k], v = y[l];
+        if(u < v) {
+          if(c == maxsize) {
+            return -1;
+          }
+          ibuf[c++] = u;
+          ++k;
+        }
+        else if(u > v) {
+          ++l;
+        }
+        else {
+          ++k;
+          ++l;
+        }
+      }
+      if(c + x.length - k > maxsize) {
+        return -1;
+      }
+      System.arraycopy(x, k, ibuf, c, x.length - k);
+      return c + x.length - k;
+    }
+  }
+
+  /**
+   * Task to extend the members of an equivalence class.
+   *
+   * @author Erich Schubert
+   */
+  private class ExtendTask extends RecursiveAction {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Equivalence class.
+     */
+    private EquivalenceClass c;
+
+    /**
+     * Member to extend, or -1 for all.
+     */
+    private int i;
+
+    /**
+     * Minimum support.
+     */
+    private int minsupp;
+
+    /**
+     * Progress, for the first level.
+     */
+    private FiniteProgress prog;
+
+    /**
+     * Frequent itemsets found.
+     */
+    private List<Itemset> solution = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param c Equivalence class
+     * @param i Member to extend, or -1 for all
+     * @param minsupp Minimum support
+     * @param prog Progress, for the first level
+     */
+    ExtendTask(EquivalenceClass c, int i, int minsupp, FiniteProgress prog) {
+      this.c = c;
+      this.i = i;
+      this.minsupp = minsupp;
+      this.prog = prog;
+    }
+
+    @Override
+    protected void compute() {
+      if(i >= 0) {
+        EquivalenceClass child = extend(c, i, minsupp, solution);
+        c = null; // Allow garbage collection
+        if(prog != null) {
+          prog.incrementProcessed(LOG);
+        }
+        if(child == null) {
+          return;
+        }
+        if(child.prefix.length >= PARALLEL_DEPTH) {
+          extractItemsets(child, minsupp, solution);
+          return;
+        }
+        c = child;
+      }
+      // Process all members in parallel.
+      List<ExtendTask> tasks = new ArrayList<>(c.size);
+      for(int j = 0; j < c.size; j++) {
+        tasks.add(new ExtendTask(c, j, minsupp, i < 0 ? prog : null));
+      }
+      invokeAll(tasks);
+      for(ExtendTask task : tasks) {
+        solution.addAll(task.solution);
+        task.solution = null;
+      }
+    }
+  }
+
+  /**
+   * Extract the itemsets of an equivalence class, sequentially.
+   *
+   * @param c Equivalence class
+   * @param minsupp Minimum support
+   * @param solution Output of frequent itemsets
+   */
+  private void extractItemsets(EquivalenceClass c, int minsupp, List<Itemset> solution) {
+    for(int i = 0; i < c.size - 1; i++) {
+      EquivalenceClass child = extend(c, i, minsupp, solution);
+      if(child != null) {
+        extractItemsets(child, minsupp, solution);
       }
     }
-    return idx;
   }
 
   @Override
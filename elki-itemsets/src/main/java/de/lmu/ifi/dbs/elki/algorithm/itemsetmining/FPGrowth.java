@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.data.BitVector;
 import de.lmu.ifi.dbs.elki.data.SparseFeatureVector;
@@ -36,10 +37,10 @@ import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
-import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.result.FrequentItemsetsResult;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.IntegerArrayQuickSort;
@@ -56,8 +57,13 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * using a not too high support threshold, as it only prunes single items, not
  * item combinations.
  * <p>
- * This implementation is in-memory only, and has not yet been carefully
- * optimized.
+ * This implementation is in-memory only. The tree is stored in parallel
+ * integer arrays rather than node objects, and is not modified while mining.
+ * The conditional trees of different items are mined in parallel on the first
+ * levels. Minimum and maximum length are enforced while mining: conditional
+ * trees are not built if they cannot yield itemsets of the minimum length, or
+ * if only their supports are needed because of the maximum length. Conditional
+ * trees that consist of a single path are enumerated directly.
  * <p>
  * The worst case memory use probably is \(O(\min(n\cdot l,i^l))\) where i is the
  * number of items, l the average itemset length, and n the number of items. The
@@ -74,6 +80,7 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * @since 0.7.0
  *
  * @composed - - - FPTree
+ * @has - - - MineTask
  * @has - - - Itemset
  * @has - produces - FrequentItemsetsResult
  */
@@ -94,6 +101,11 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
    */
   private static final String STAT = FPGrowth.class.getName() + ".";
 
+  /**
+   * Itemset length up to which conditional trees are mined in parallel.
+   */
+  private static final int PARALLEL_DEPTH = 2;
+
   /**
    * Constructor.
    *
@@ -139,7 +151,7 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
     }
     if(LOG.isDebuggingFinest()) {
       StringBuilder buf = new StringBuilder(10000).append("FP-tree:\n");
-      tree.appendTo(buf, new FPNode.Translator() {
+      tree.appendTo(buf, new FPTree.Translator() {
         @Override
         public StringBuilder appendTo(StringBuilder buf, int i) {
           String l = meta.getLabel(idx[i]);
@@ -154,29 +166,14 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
 
     LOG.verbose("Extracting frequent patterns.");
     Duration etime = LOG.newDuration(STAT + "fp-growth.extraction.time").begin();
-    final IndefiniteProgress itemp = LOG.isVerbose() ? new IndefiniteProgress("Frequent itemsets", LOG) : null;
+    // Items of lower rank cannot have enough predecessors for minlength:
+    final int stop = (minlength > 1) ? minlength - 1 : 0;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Extracting itemsets", Math.max(items - stop, 0), LOG) : null;
     final List<Itemset> solution = new ArrayList<>();
-    // Start extraction with the least frequent items
-    tree.extract(minsupp, minlength, maxlength, true, new FPTree.Collector() {
-      @Override
-      public void collect(int support, int[] data, int start, int plen) {
-        // Always translate the indexes back to the original values via 'idx'!
-        if(plen - start == 1) {
-          solution.add(new OneItemset(idx[data[start]], support));
-          LOG.incrementProcessed(itemp);
-          return;
-        }
-        // Copy from buffer to a permanent storage
-        int[] indices = new int[plen - start];
-        for(int i = start, j = 0; i < plen; i++) {
-          indices[j++] = idx[data[i]]; // Translate to original items
-        }
-        Arrays.sort(indices);
-        solution.add(new SparseItemset(indices, support));
-        LOG.incrementProcessed(itemp);
-      }
-    });
-    LOG.setCompleted(itemp);
+    MineTask task = new MineTask(tree, -1, new int[0], minsupp, idx, prog);
+    ParallelCore.getCore().invoke(task);
+    solution.addAll(task.solution);
+    LOG.ensureCompleted(prog);
     Collections.sort(solution);
     LOG.statistics(etime.end());
     LOG.statistics(new LongStatistic(STAT + "frequent-itemsets", solution.size()));
@@ -215,7 +212,7 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
    * @return FP-tree
    */
   private FPTree buildFPTree(final Relation<BitVector> relation, int[] iidx, final int items) {
-    FPTree tree = new FPTree(items);
+    FPTree tree = new FPTree(items, Math.min(relation.size(), 1 << 16) + 1);
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building FP-tree", relation.size(), LOG) : null;
     int[] buf = new int[items];
     for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
@@ -272,333 +269,441 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
   }
 
   /**
-   * FP-Tree data structure
+   * Task to mine the conditional trees of one or all items of a tree.
    *
    * @author Erich Schubert
-   *
-   * @composed - - - FPNode
-   * @assoc - - - Collector
    */
-  public static class FPTree extends FPNode {
+  private class MineTask extends RecursiveAction {
     /**
-     * Header table
+     * Serial version.
      */
-    FPNode[] header;
+    private static final long serialVersionUID = 1L;
 
     /**
-     * Number of nodes in the tree (statistics only).
+     * Tree to mine.
      */
-    int nodes = 1;
+    private FPTree tree;
 
     /**
-     * Constructor.
-     *
-     * @param items Number of items in header table
+     * Item to mine, or -1 for all.
      */
-    public FPTree(int items) {
-      super(null, -1);
-      header = new FPNode[items];
-    }
+    private int item;
 
     /**
-     * Insert an itemset into the tree.
+     * Items of the tree's conditional pattern base.
+     */
+    private int[] prefix;
+
+    /**
+     * Minimum support.
+     */
+    private int minsupp;
+
+    /**
+     * Map from item rank to item.
+     */
+    private int[] idx;
+
+    /**
+     * Progress, for the first level.
+     */
+    private FiniteProgress prog;
+
+    /**
+     * Frequent itemsets found.
+     */
+    private List<Itemset> solution = new ArrayList<>();
+
+    /**
+     * Scratch buffers.
+     */
+    private int[] postfix, buf2, buf3;
+
+    /**
+     * Constructor.
      *
-     * @param buf Buffer
-     * @param i Start position in buffer
-     * @param l End position in buffer
-     * @param weight Weight
+     * @param tree Tree to mine
+     * @param item Item to mine, or -1 for all
+     * @param prefix Items of the tree's conditional pattern base
+     * @param minsupp Minimum support
+     * @param idx Map from item rank to item
+     * @param prog Progress, for the first level
      */
-    public void insert(int[] buf, int i, int l, int weight) {
-      insert(this, buf, i, l, weight);
+    MineTask(FPTree tree, int item, int[] prefix, int minsupp, int[] idx, FiniteProgress prog) {
+      this.tree = tree;
+      this.item = item;
+      this.prefix = prefix;
+      this.minsupp = minsupp;
+      this.idx = idx;
+      this.prog = prog;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        computeInternal();
+      }
+      finally {
+        // Finished tasks stay referenced until the parent's invokeAll returns.
+        tree = null;
+        postfix = buf2 = buf3 = null;
+      }
     }
 
     /**
-     * Create a new node of the FP-tree, linking it into the header table.
-     *
-     * @param parent Parent node
-     * @param label Node label
-     * @return New node
+     * Mine the item, or the whole tree.
      */
-    public FPNode newNode(FPNode parent, int label) {
-      FPNode node = new FPNode(parent, label);
-      // Prepend to linked list - there is no benefit in keeping a particular
-      // order, as far as I can tell.
-      node.sibling = header[label];
-      header[label] = node;
-      ++nodes; // Statistics tracking only
-      return node;
+    private void computeInternal() {
+      final int items = tree.head.length;
+      int plen = prefix.length;
+      if(item >= 0) {
+        if(tree.support[item] < minsupp) {
+          if(prog != null) {
+            prog.incrementProcessed(LOG);
+          }
+          return; // Do not allocate buffers for infrequent items.
+        }
+        postfix = Arrays.copyOf(prefix, plen + 1 + items);
+        buf2 = new int[items];
+        buf3 = new int[items];
+        FPTree proj = project(tree, item, plen);
+        tree = null; // Allow garbage collection
+        if(prog != null) {
+          prog.incrementProcessed(LOG);
+        }
+        if(proj == null) {
+          return;
+        }
+        if(++plen >= PARALLEL_DEPTH) {
+          mine(proj, plen);
+          return;
+        }
+        buf2 = buf3 = null;
+        tree = proj;
+      }
+      else {
+        postfix = prefix;
+      }
+      // Process all items in parallel, starting with the least frequent.
+      final int stop = Math.max(minlength - plen - 1, 0);
+      final int[] pre = Arrays.copyOf(postfix, plen);
+      postfix = null;
+      List<MineTask> tasks = new ArrayList<>(tree.head.length);
+      for(int j = tree.head.length - 1; j >= stop; --j) {
+        tasks.add(new MineTask(tree, j, pre, minsupp, idx, item < 0 ? prog : null));
+      }
+      tree = null;
+      invokeAll(tasks);
+      for(MineTask task : tasks) {
+        solution.addAll(task.solution);
+        task.solution = null;
+      }
     }
 
     /**
-     * Extract itemsets ending in the given item.
+     * Mine all items of a conditional tree, sequentially.
      *
-     * @param minsupp Minimum support
-     * @param minlength Minimum length
-     * @param maxlength Maximum length
-     * @param destruct Remove nodes
-     * @param col Itemset collector
-     */
-    public void extract(int minsupp, int minlength, int maxlength, boolean destruct, Collector col) {
-      int[] buf = new int[header.length], buf2 = new int[header.length],
-          buf3 = new int[header.length];
-      int stop = (minlength > 1) ? minlength - 1 : 0;
-      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Extracting itemsets", header.length - stop, LOG) : null;
-      for(int j = header.length - 1; j >= stop; --j) {
-        extract(minsupp, minlength, maxlength, j, buf, 0, buf2, buf3, destruct, col);
-        LOG.incrementProcessed(prog);
-      }
-      LOG.ensureCompleted(prog);
+     * @param t Tree
+     * @param plen Postfix length
+     */
+    private void mine(FPTree t, int plen) {
+      for(int j = t.head.length - 1, stop = minlength - plen - 1; j >= stop && j >= 0; --j) {
+        FPTree proj = project(t, j, plen);
+        if(proj != null) {
+          mine(proj, plen + 1);
+        }
+      }
     }
 
     /**
-     * Extract itemsets ending in the given item.
+     * Emit the itemsets ending in an item, and build its conditional tree.
      *
-     * @param minsupp Minimum support
-     * @param minlength Minimum length
-     * @param maxlength Maximum length
-     * @param item Current item
-     * @param postfix Items to append
+     * @param t Tree
+     * @param item Item
      * @param plen Postfix length
-     * @param buf2 Scratch buffer
-     * @param buf3 Scratch buffer
-     * @param destruct Remove nodes
-     * @param col Itemset collector
-     */
-    private void extract(int minsupp, int minlength, int maxlength, int item, int[] postfix, int plen, int[] buf2, int[] buf3, boolean destruct, Collector col) {
-      // Skip items that have disappeared from the tree
-      if(header[item] == null) {
-        return;
+     * @return Conditional tree, or {@code null} if it need not be mined.
+     */
+    private FPTree project(FPTree t, int item, int plen) {
+      final int support = t.support[item];
+      if(support < minsupp) {
+        return null;
       }
-      // No siblings, no children: single path only.
-      if(header[item].sibling == null && header[item].numchildren == 0) {
-        if(header[item].count >= minsupp) {
-          extractLinear(header[item].count, minlength, maxlength, item, postfix, plen, buf2, col);
-        }
-        if(destruct) {
-          header[item].parent.numchildren--;
-          header[item] = null;
+      // Count the support of the items in the conditional pattern base.
+      Arrays.fill(buf3, 0, item, 0);
+      int chain = 0;
+      for(int cur = t.head[item]; cur >= 0; cur = t.next[cur]) {
+        final int c = t.count[cur];
+        for(int p = t.parent[cur]; p > 0; p = t.parent[p]) {
+          buf3[t.key[p]] += c;
         }
-        return;
+        ++chain;
       }
-      // Count total support.
-      int support = 0;
-      for(FPNode cur = header[item]; cur != null; cur = cur.sibling) {
-        support += cur.count;
+      int fparents = 0;
+      for(int i = 0; i < item; i++) {
+        fparents += buf3[i] >= minsupp ? 1 : 0;
       }
-      if(support < minsupp) {
-        return;
+      final int len = plen + 1;
+      if(len + fparents < minlength) {
+        return null; // Not enough parents that are still frequent.
       }
-      // Check which parent items to keep in the projection.
-      Arrays.fill(buf3, 0);
-      for(FPNode cur = header[item]; cur != null; cur = cur.sibling) {
-        for(FPNode parent = cur.parent; parent.key >= 0; parent = parent.parent) {
-          buf3[parent.key] += cur.count;
-        }
+      postfix[plen] = item;
+      if(len >= minlength) {
+        collect(support, len);
+      }
+      if(len >= maxlength || fparents == 0) {
+        return null;
       }
-      // For testing minimum length:
-      final int mminlength = minlength - (plen + 1);
-      if(mminlength > 0) {
-        int fparents = 0;
+      // Last level: the supports are known, no tree needed.
+      if(len + 1 == maxlength) {
         for(int i = 0; i < item; i++) {
           if(buf3[i] >= minsupp) {
-            fparents += 1;
+            postfix[len] = i;
+            collect(buf3[i], len + 1);
           }
         }
-        if(fparents < mminlength) {
-          return; // Not enough parents that are still frequent.
-        }
+        return null;
       }
-      // Build projected tree:
-      final int last = item - 1;
-      FPTree proj = new FPTree(item);
-      for(FPNode cur = header[item]; cur != null; cur = cur.sibling) {
+      // Build the conditional tree, skipping paths too short for minlength.
+      final int mminlength = minlength - len;
+      FPTree proj = new FPTree(item, chain + 1);
+      for(int cur = t.head[item]; cur >= 0; cur = t.next[cur]) {
         int j = buf2.length;
-        for(FPNode parent = cur.parent; parent.key >= 0; parent = parent.parent) {
-          if(buf3[parent.key] >= minsupp) {
-            buf2[--j] = parent.key;
+        for(int p = t.parent[cur]; p > 0; p = t.parent[p]) {
+          if(buf3[t.key[p]] >= minsupp) {
+            buf2[--j] = t.key[p];
           }
         }
         if(buf2.length - j >= mminlength) {
-          proj.insert(proj, buf2, j, buf2.length, cur.count);
+          proj.insert(buf2, j, buf2.length, t.count[cur]);
         }
       }
-      // Release memory:
       proj.reduceMemory();
-      // TODO: other pruning techniques we should have employed here?
-      postfix[plen++] = item;
-      if(plen >= minlength && plen <= maxlength) {
-        col.collect(support, postfix, 0, plen);
-      }
-      for(int j = last; j >= 0; j--) {
-        proj.extract(minsupp, minlength, maxlength, j, postfix, plen, buf2, buf3, destruct, col);
-      }
-      if(destruct) {
-        header[item] = null;
+      if(proj.singlepath) {
+        enumerate(proj, 1, len);
+        return null;
       }
+      return proj;
     }
 
     /**
-     * Extract itemsets from a linear tree.
+     * Enumerate the itemsets of a tree consisting of a single path. The
+     * support of each itemset is the count of its deepest node.
      *
-     * @param supp Current support
-     * @param minlength Minimum length
-     * @param maxlength Maximum length
-     * @param item Current item
-     * @param postfix Postfix for extracted itemsets
+     * @param t Tree
+     * @param start First node to use
      * @param plen Postfix length
-     * @param buf2 Scratch buffer
-     * @param col Output collector
-     */
-    private void extractLinear(int supp, int minlength, int maxlength, int item, int[] postfix, int plen, int[] buf2, Collector col) {
-      // For testing minimum length:
-      final int mminlength = minlength - plen;
-      // Unsatisfiable even with current item:
-      if(item + 1 < mminlength) {
-        return;
-      }
-      // Add current item:
-      postfix[plen++] = item;
-      if(plen >= minlength && plen <= maxlength) {
-        col.collect(supp, postfix, 0, plen);
-      }
-      // Any more parents will exceed the maximum length:
-      if(plen == maxlength) {
-        return;
-      }
-      assert (header[item] != null);
-      // Look at parent nodes:
-      for(FPNode p = header[item].parent; p.key >= 0; p = p.parent) {
-        if(p.key < mminlength) {
-          break; // Too short.
+     */
+    private void enumerate(FPTree t, int start, int plen) {
+      for(int n = start; n < t.nodes; n++) {
+        final int support = t.count[n];
+        // Counts are non-increasing along the path
+        if(support < minsupp || plen + t.nodes - n < minlength) {
+          break;
+        }
+        postfix[plen] = t.key[n];
+        if(plen + 1 >= minlength) {
+          collect(support, plen + 1);
+        }
+        if(plen + 1 < maxlength) {
+          enumerate(t, n + 1, plen + 1);
         }
-        extractLinear(supp, minlength, maxlength, p.key, postfix, plen, buf2, col);
       }
     }
 
     /**
-     * Interface for collecting frequent itemsets found.
+     * Collect a single frequent itemset.
      *
-     * @author Erich Schubert
+     * @param support Support of the itemset
+     * @param len Itemset length
      */
-    interface Collector {
-      /**
-       * Collect a single frequent itemset
-       *
-       * @param support Support of the itemset
-       * @param buf Buffer
-       * @param start First valid buffer position
-       * @param end End of valid buffer
-       */
-      void collect(int support, int[] buf, int start, int end);
-    }
-
-    /**
-     * Output some statistics to logging.
-     */
-    public void logStatistics() {
-      LOG.statistics(new LongStatistic(STAT + "items", header.length));
-      LOG.statistics(new LongStatistic(STAT + "nodes", nodes));
-      LOG.statistics(new LongStatistic(STAT + "transactions", count));
+    private void collect(int support, int len) {
+      // Always translate the indexes back to the original values via 'idx'!
+      if(len == 1) {
+        solution.add(new OneItemset(idx[postfix[0]], support));
+        return;
+      }
+      // Copy from buffer to a permanent storage
+      int[] indices = new int[len];
+      for(int i = 0; i < len; i++) {
+        indices[i] = idx[postfix[i]]; // Translate to original items
+      }
+      Arrays.sort(indices);
+      solution.add(new SparseItemset(indices, support));
     }
   }
 
   /**
-   * A single node of the FP tree.
+   * FP-Tree data structure, stored in parallel arrays indexed by node number.
+   * Node 0 is the root, and the nodes of each item are chained for the header
+   * table. After construction, only the child-to-parent navigation is kept.
    *
    * @author Erich Schubert
-   * 
+   *
    * @assoc - - - Translator
    */
-  // FIXME: keep children sorted, and use binary search for faster construction?
-  // Or even use a hashset?
-  public static class FPNode {
+  public static class FPTree {
+    /**
+     * Node item, count, and parent.
+     */
+    int[] key, count, parent;
+
     /**
-     * Parent node and next in sequence.
+     * Next node of the same item.
      */
-    FPNode parent, sibling;
+    int[] next;
 
     /**
-     * Key, weight, and number of children.
+     * First child and next sibling (for construction only).
      */
-    int key, count = 0, numchildren = 0;
+    int[] child, sibling;
 
     /**
-     * Children.
+     * Header table: first node of each item, or -1.
      */
-    FPNode[] children = EMPTY_CHILDREN;
+    int[] head;
 
     /**
-     * Constant for leaf nodes.
+     * Total support of each item.
      */
-    final static FPNode[] EMPTY_CHILDREN = new FPNode[0];
+    int[] support;
 
     /**
-     * Initial size, after sizes 0 and 1.
+     * Number of nodes in the tree, including the root.
      */
-    final int INITIAL_SIZE = 7;
+    int nodes = 1;
+
+    /**
+     * Flag, if no node has more than one child.
+     */
+    boolean singlepath = true;
 
     /**
      * Constructor.
      *
-     * @param parent Parent node
-     * @param key Key
+     * @param items Number of items in header table
+     * @param capacity Initial capacity
      */
-    public FPNode(FPNode parent, int key) {
-      super();
-      this.parent = parent;
-      this.key = key;
+    public FPTree(int items, int capacity) {
+      capacity = Math.max(capacity, 8);
+      key = new int[capacity];
+      count = new int[capacity];
+      parent = new int[capacity];
+      next = new int[capacity];
+      child = new int[capacity];
+      sibling = new int[capacity];
+      key[0] = parent[0] = next[0] = child[0] = sibling[0] = -1;
+      head = new int[items];
+      Arrays.fill(head, -1);
+      support = new int[items];
     }
 
     /**
      * Insert an itemset into the tree.
      *
-     * @param buf Itemset buffer
-     * @param i Current index
-     * @param l Length
+     * @param buf Buffer, sorted ascending
+     * @param i Start position in buffer
+     * @param l End position in buffer
      * @param weight Weight
      */
-    public void insert(FPTree tree, int[] buf, int i, int l, int weight) {
-      count += weight;
-      if(i == l) {
-        return;
-      }
-      final int label = buf[i];
-      for(int j = 0; j < numchildren; j++) {
-        FPNode child = children[j];
-        if(child.key == label) {
-          child.insert(tree, buf, i + 1, l, weight);
-          return;
+    public void insert(int[] buf, int i, int l, int weight) {
+      count[0] += weight;
+      for(int node = 0; i < l; i++) {
+        final int label = buf[i];
+        int c = child[node], prev = -1;
+        while(c >= 0 && key[c] != label) {
+          c = sibling[prev = c];
+        }
+        if(c < 0) {
+          c = newNode(node, prev, label);
         }
+        count[c] += weight;
+        support[label] += weight;
+        node = c;
       }
-      // Make sure we have enough room to insert.
-      if(numchildren == children.length) {
-        ensureSize();
+    }
+
+    /**
+     * Create a new node of the FP-tree, linking it into the header table.
+     *
+     * @param par Parent node
+     * @param prev Last child of the parent, or -1
+     * @param label Node label
+     * @return New node
+     */
+    private int newNode(int par, int prev, int label) {
+      if(nodes == key.length) {
+        grow();
+      }
+      final int node = nodes++;
+      key[node] = label;
+      count[node] = 0;
+      parent[node] = par;
+      child[node] = sibling[node] = -1;
+      // Prepend to the item chain - there is no benefit in keeping a
+      // particular order, as far as I can tell.
+      next[node] = head[label];
+      head[label] = node;
+      // Append to the children, to keep frequent paths first.
+      if(prev >= 0) {
+        sibling[prev] = node;
+        singlepath = false;
+      }
+      else {
+        child[par] = node;
       }
-      FPNode sub = children[numchildren++] = tree.newNode(this, label);
-      sub.insert(tree, buf, i + 1, l, weight);
+      return node;
     }
 
     /**
-     * Ensure we have enough storage.
+     * Grow the node storage.
      */
-    private void ensureSize() {
-      if(children == EMPTY_CHILDREN) {
-        children = new FPNode[1];
-        return;
+    private void grow() {
+      final int newsize = (int) Math.min(key.length + (long) key.length, Integer.MAX_VALUE - 8);
+      if(newsize == key.length) {
+        throw new IllegalStateException("FP-tree exceeds the maximum number of nodes.");
       }
-      int newsize = children.length == 1 ? INITIAL_SIZE : (children.length << 1);
-      children = Arrays.copyOf(children, newsize);
+      key = Arrays.copyOf(key, newsize);
+      count = Arrays.copyOf(count, newsize);
+      parent = Arrays.copyOf(parent, newsize);
+      next = Arrays.copyOf(next, newsize);
+      child = Arrays.copyOf(child, newsize);
+      sibling = Arrays.copyOf(sibling, newsize);
     }
 
     /**
-     * Debugging function: build a text representation of the tree.
+     * Release the memory occupied for the parent-to-child navigation, which is
+     * no longer needed after building the tree (only child-to-parent is needed
+     * in extracting itemsets), and trim the arrays.
+     */
+    public void reduceMemory() {
+      child = sibling = null;
+      if(nodes < key.length) {
+        key = Arrays.copyOf(key, nodes);
+        count = Arrays.copyOf(count, nodes);
+        parent = Arrays.copyOf(parent, nodes);
+        next = Arrays.copyOf(next, nodes);
+      }
+    }
+
+    /**
+     * Output some statistics to logging.
+     */
+    public void logStatistics() {
+      LOG.statistics(new LongStatistic(STAT + "items", head.length));
+      LOG.statistics(new LongStatistic(STAT + "nodes", nodes));
+      LOG.statistics(new LongStatistic(STAT + "transactions", count[0]));
+    }
+
+    /**
+     * Debugging function: build a text representation of the tree. Only
+     * available before {@link #reduceMemory}.
      *
      * @param buf Output buffer
      * @param t Translator to user-understandable items
      * @return Buffer
      */
     public StringBuilder appendTo(StringBuilder buf, Translator t) {
-      return appendTo(buf, t, 0);
+      return appendTo(buf, t, 0, 0);
     }
 
     /**
@@ -611,38 +716,24 @@ public class FPGrowth extends AbstractFrequentItemsetAlgorithm {
      *
      * @param buf Output buffer
      * @param t Translator to user-understandable items
+     * @param node Current node
      * @param depth Current depth
      * @return Buffer
      */
-    private StringBuilder appendTo(StringBuilder buf, Translator t, int depth) {
-      if(key >= 0) {
-        t.appendTo(buf, key).append(": ");
+    private StringBuilder appendTo(StringBuilder buf, Translator t, int node, int depth) {
+      if(key[node] >= 0) {
+        t.appendTo(buf, key[node]).append(": ");
       }
-      buf.append(count).append('\n');
-      for(int i = 0; i < numchildren; i++) {
+      buf.append(count[node]).append('\n');
+      for(int c = child[node]; c >= 0; c = sibling[c]) {
         for(int j = depth; j > 0; j -= SPACES.length) {
           buf.append(SPACES, 0, Math.min(j, SPACES.length));
         }
-        children[i].appendTo(buf, t, depth + 1);
+        appendTo(buf, t, c, depth + 1);
       }
       return buf;
     }
 
-    /**
-     * Release the memory occupied for the parent-to-child navigation, which is
-     * no longer needed after building the tree (only child-to-parent is needed
-     * in extracting itemsets).
-     */
-    public void reduceMemory() {
-      if(children == null) {
-        return;
-      }
-      for(int i = 0; i < numchildren; ++i) {
-        children[i].reduceMemory();
-      }
-      children = null;
-    }
-
     /**
      * Translator class for tree printing.
      *
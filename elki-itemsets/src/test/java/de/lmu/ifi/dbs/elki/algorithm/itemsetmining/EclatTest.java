@@ -21,6 +21,7 @@
 package de.lmu.ifi.dbs.elki.algorithm.itemsetmining;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -111,4 +112,25 @@ public class EclatTest extends AbstractFrequentItemsetAlgorithmTest {
         .with(Eclat.Parameterizer.MINSUPP_ID, 200).build().run(db);
     assertEquals("Size not as expected.", 184, res.getItemsets().size());
   }
+
+  @Test
+  public void testLargeLowSupport() {
+    Database db = loadTransactions(UNITTEST + "itemsets/zutaten.txt.gz", 16401);
+    {
+      FrequentItemsetsResult res = new ELKIBuilder<>(Eclat.class) //
+          .with(Eclat.Parameterizer.MINSUPP_ID, 20).build().run(db);
+      assertEquals("Size not as expected.", 3363, res.getItemsets().size());
+    }
+    {
+      FrequentItemsetsResult res = new ELKIBuilder<>(Eclat.class) //
+          .with(Eclat.Parameterizer.MINSUPP_ID, 20) //
+          .with(Eclat.Parameterizer.MINLENGTH_ID, 2) //
+          .with(Eclat.Parameterizer.MAXLENGTH_ID, 3) //
+          .build().run(db);
+      assertEquals("Size not as expected.", 1197 + 1241, res.getItemsets().size());
+      for(Itemset i : res.getItemsets()) {
+        assertTrue("Bad length", i.length() >= 2 && i.length() <= 3);
+      }
+    }
+  }
 }
@@ -39,6 +39,7 @@ import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
 import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.parallel.processor.*;
@@ -125,7 +126,9 @@ public class ParallelLOF<O> extends AbstractDistanceBasedAlgorithm<O, OutlierRes
       kdistm.connectOutput(kdistv);
       storem.connectInput(kdistv);
 
-      ParallelExecutor.run(ids, knnm, storek, kdistm, storem);
+      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("k-nearest neighbors", ids.size(), LOG) : null;
+      ParallelExecutor.run(ids, prog, LOG, knnm, storek, kdistm, storem);
+      LOG.ensureCompleted(prog);
     }
 
     // Phase two: lrd
@@ -39,6 +39,7 @@ import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
 import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.parallel.processor.DoubleMinMaxProcessor;
@@ -120,7 +121,9 @@ public class ParallelSimplifiedLOF<O> extends AbstractDistanceBasedAlgorithm<O,
       knnm.connectKNNOutput(knnv);
       storek.connectInput(knnv);
 
-      ParallelExecutor.run(ids, knnm, storek);
+      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("k-nearest neighbors", ids.size(), LOG) : null;
+      ParallelExecutor.run(ids, prog, LOG, knnm, storek);
+      LOG.ensureCompleted(prog);
     }
 
     // Phase two: simplified-lrd
@@ -61,7 +61,7 @@ public class MemoryPageFile<P extends Page> extends AbstractStoringPageFile<P> {
   }
 
   @Override
-  protected void writePage(int pageID, P page) {
+  protected synchronized void writePage(int pageID, P page) {
     countWrite();
     file.put(pageID, page);
     page.setDirty(false);
@@ -21,12 +21,15 @@
 package de.lmu.ifi.dbs.elki.index;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
@@ -251,4 +254,91 @@ public abstract class AbstractIndexStructureTest {
       assertTrue("Wrong range result", DBIDUtil.equal(range.iter(), first));
     }
   }
+
+  /**
+   * Test dynamic insertions and deletions, by comparing the index to a linear
+   * scan of the objects currently indexed.
+   *
+   * @param factory Index factory, must produce a dynamic kNN and range index
+   */
+  protected void testDynamic(IndexFactory<NumberVector> factory) {
+    Random r = new Random(0L);
+    double[][] data = new double[2000][2];
+    for(int i = 0; i < data.length; i++) {
+      // Include some duplicates:
+      data[i] = i % 50 == 1 ? data[i - 1].clone() : new double[] { r.nextDouble(), r.nextDouble() };
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    DistanceQuery<NumberVector> dist = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    Index index = factory.instantiate(rel);
+    DynamicIndex dyn = (DynamicIndex) index;
+    @SuppressWarnings("unchecked")
+    KNNIndex<NumberVector> knnidx = (KNNIndex<NumberVector>) index;
+    @SuppressWarnings("unchecked")
+    RangeIndex<NumberVector> rangeidx = (RangeIndex<NumberVector>) index;
+    KNNQuery<NumberVector> knnq = knnidx.getKNNQuery(dist);
+    RangeQuery<NumberVector> rangeq = rangeidx.getRangeQuery(dist);
+
+    // Insert one at a time:
+    ArrayModifiableDBIDs all = DBIDUtil.newArray(rel.getDBIDs());
+    for(DBIDIter it = all.iter(); it.valid(); it.advance()) {
+      dyn.insert(it);
+    }
+    assertQueries(rel, dist, knnq, rangeq, all);
+    // Remove every other object, including the first (i.e., the root):
+    ArrayModifiableDBIDs del = DBIDUtil.newArray(), keep = DBIDUtil.newArray();
+    int i = 0;
+    for(DBIDIter it = all.iter(); it.valid(); it.advance(), i++) {
+      ((i & 1) == 0 ? del : keep).add(it);
+    }
+    dyn.deleteAll(del);
+    assertFalse("Deleted object was found again.", dyn.delete(del.iter()));
+    assertQueries(rel, dist, knnq, rangeq, keep);
+    dyn.insertAll(del);
+    assertQueries(rel, dist, knnq, rangeq, all);
+    // Remove everything:
+    dyn.deleteAll(all);
+    assertEquals("Empty index returned objects.", 0, knnq.getKNNForDBID(all.iter(), 1).size());
+  }
+
+  /**
+   * Compare kNN and range queries to a linear scan.
+   *
+   * @param rel Data relation
+   * @param dist Distance query
+   * @param knnq kNN query to test
+   * @param rangeq Range query to test
+   * @param indexed Objects currently indexed
+   */
+  private void assertQueries(Relation<NumberVector> rel, DistanceQuery<NumberVector> dist, KNNQuery<NumberVector> knnq, RangeQuery<NumberVector> rangeq, DBIDs indexed) {
+    int i = 0;
+    for(DBIDIter q = rel.iterDBIDs(); q.valid(); q.advance()) {
+      if(i++ % 20 != 0) {
+        continue;
+      }
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(DBIDIter it = indexed.iter(); it.valid(); it.advance()) {
+        heap.insert(dist.distance(q, it), it);
+      }
+      KNNList truth = heap.toKNNList(), knn = knnq.getKNNForDBID(q, k);
+      assertEquals("kNN size does not match.", truth.size(), knn.size());
+      for(DoubleDBIDListIter a = truth.iter(), b = knn.iter(); a.valid(); a.advance(), b.advance()) {
+        assertEquals("kNN distance does not match.", a.doubleValue(), b.doubleValue(), 1e-15);
+      }
+      final double radius = truth.getKNNDistance();
+      ModifiableDBIDs rtruth = DBIDUtil.newHashSet();
+      for(DBIDIter it = indexed.iter(); it.valid(); it.advance()) {
+        if(dist.distance(q, it) <= radius) {
+          rtruth.add(it);
+        }
+      }
+      DoubleDBIDList range = rangeq.getRangeForDBID(q, radius);
+      assertEquals("Range query size does not match.", rtruth.size(), range.size());
+      for(DBIDIter it = range.iter(); it.valid(); it.advance()) {
+        assertTrue("Range query returned a wrong object.", rtruth.contains(it));
+      }
+    }
+  }
 }
@@ -23,6 +23,9 @@ package de.lmu.ifi.dbs.elki.algorithm;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
@@ -46,7 +49,8 @@ import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialNode;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialPointLeafEntry;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
-import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.result.ResultUtil;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.ComparableMinHeap;
@@ -63,18 +67,15 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
  * This algorithm only supports spatial databases based on a spatial index
  * structure.
  * <p>
- * Since this method compares the MBR of every single leaf with every other
- * leaf, it is essentially quadratic in the number of leaves, which may not be
- * appropriate for large trees. It does currently not yet use the tree structure
- * for pruning.
- * <p>
- * TODO: exploit the tree structure.
+ * The join is a dual-tree traversal of the index: pairs of subtrees are
+ * pruned when their minimum distance exceeds the current kNN distance bound of
+ * the query subtree, and different query subtrees are processed in parallel.
  *
  * @author Elke Achtert
  * @author Erich Schubert
  * @since 0.1
  *
- * @composed - - - Task
+ * @composed - - - DualTreeJoin
  *
  * @param <V> the type of FeatureVector handled by this Algorithm
  * @param <N> the type of node used in the spatial index structure
@@ -149,93 +150,8 @@ public class KNNJoin<V extends NumberVector, N extends SpatialNode<N, E>, E exte
   public WritableDataStore<KNNList> run(SpatialIndexTree<N, E> index, DBIDs ids) {
     @SuppressWarnings("unchecked")
     SpatialPrimitiveDistanceFunction<V> distFunction = (SpatialPrimitiveDistanceFunction<V>) getDistanceFunction();
-
-    // data pages
-    List<E> ps_candidates = new ArrayList<>(index.getLeaves());
-    // knn heaps
-    List<List<KNNHeap>> heaps = new ArrayList<>(ps_candidates.size());
-
-    // Initialize with the page self-pairing
-    for(int i = 0; i < ps_candidates.size(); i++) {
-      heaps.add(initHeaps(distFunction, index.getNode(ps_candidates.get(i))));
-    }
-
-    // Build priority queue
-    final int sqsize = ps_candidates.size() * (ps_candidates.size() - 1) >>> 1;
-    ComparableMinHeap<Task> pq = new ComparableMinHeap<>(sqsize);
-    if(LOG.isDebuggingFine()) {
-      LOG.debugFine("Number of leaves: " + ps_candidates.size() + " so " + sqsize + " MBR computations.");
-    }
-    FiniteProgress mprogress = LOG.isVerbose() ? new FiniteProgress("Comparing leaf MBRs", sqsize, LOG) : null;
-    for(int i = 0; i < ps_candidates.size(); i++) {
-      E pr_entry = ps_candidates.get(i);
-      N pr = index.getNode(pr_entry);
-      List<KNNHeap> pr_heaps = heaps.get(i);
-      double pr_knn_distance = computeStopDistance(pr_heaps);
-
-      for(int j = i + 1; j < ps_candidates.size(); j++) {
-        E ps_entry = ps_candidates.get(j);
-        N ps = index.getNode(ps_entry);
-        List<KNNHeap> ps_heaps = heaps.get(j);
-        double ps_knn_distance = computeStopDistance(ps_heaps);
-        double minDist = distFunction.minDist(pr_entry, ps_entry);
-        // Resolve immediately:
-        if(minDist <= 0.) {
-          processDataPages(distFunction, pr_heaps, ps_heaps, pr, ps);
-        }
-        else if(minDist <= pr_knn_distance || minDist <= ps_knn_distance) {
-          pq.add(new Task(minDist, i, j));
-        }
-        LOG.incrementProcessed(mprogress);
-      }
-    }
-    LOG.ensureCompleted(mprogress);
-
-    // Process the queue
-    FiniteProgress qprogress = LOG.isVerbose() ? new FiniteProgress("Processing queue", pq.size(), LOG) : null;
-    IndefiniteProgress fprogress = LOG.isVerbose() ? new IndefiniteProgress("Full comparisons", LOG) : null;
-    while(!pq.isEmpty()) {
-      Task task = pq.poll();
-      List<KNNHeap> pr_heaps = heaps.get(task.i);
-      List<KNNHeap> ps_heaps = heaps.get(task.j);
-      double pr_knn_distance = computeStopDistance(pr_heaps);
-      double ps_knn_distance = computeStopDistance(ps_heaps);
-      boolean dor = task.mindist <= pr_knn_distance;
-      boolean dos = task.mindist <= ps_knn_distance;
-      if(dor || dos) {
-        N pr = index.getNode(ps_candidates.get(task.i));
-        N ps = index.getNode(ps_candidates.get(task.j));
-        if(dor && dos) {
-          processDataPages(distFunction, pr_heaps, ps_heaps, pr, ps);
-        }
-        else if(dor) {
-          processDataPages(distFunction, pr_heaps, null, pr, ps);
-        }
-        else /* if(dos) */ {
-          processDataPages(distFunction, ps_heaps, null, ps, pr);
-        }
-        LOG.incrementProcessed(fprogress);
-      }
-      LOG.incrementProcessed(qprogress);
-    }
-    LOG.ensureCompleted(qprogress);
-    LOG.setCompleted(fprogress);
-
     WritableDataStore<KNNList> knnLists = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_STATIC, KNNList.class);
-    FiniteProgress pageprog = LOG.isVerbose() ? new FiniteProgress("Number of processed data pages", ps_candidates.size(), LOG) : null;
-    for(int i = 0; i < ps_candidates.size(); i++) {
-      N pr = index.getNode(ps_candidates.get(i));
-      List<KNNHeap> pr_heaps = heaps.get(i);
-
-      // Finalize lists
-      for(int j = 0; j < pr.getNumEntries(); j++) {
-        knnLists.put(((LeafEntry) pr.getEntry(j)).getDBID(), pr_heaps.get(j).toKNNList());
-      }
-      // Forget heaps and pq
-      heaps.set(i, null);
-      LOG.incrementProcessed(pageprog);
-    }
-    LOG.ensureCompleted(pageprog);
+    new DualTreeJoin(index, distFunction, knnLists).run();
     return knnLists;
   }
 
@@ -254,7 +170,7 @@ public class KNNJoin<V extends NumberVector, N extends SpatialNode<N, E>, E exte
     }
     // Self-join first, as this is expected to improve most and cannot be
     // pruned.
-    processDataPages(distFunction, pr_heaps, null, pr, pr);
+    processDataPages(distFunction, pr_heaps, pr, pr);
     return pr_heaps;
   }
 
@@ -266,21 +182,40 @@ public class KNNJoin<V extends NumberVector, N extends SpatialNode<N, E>, E exte
    * @param pr the first data page
    * @param ps the second data page
    * @param pr_heaps the knn lists for each data object
-   * @param ps_heaps the knn lists for each data object in ps
    */
-  private void processDataPages(SpatialPrimitiveDistanceFunction<? super V> df, List<KNNHeap> pr_heaps, List<KNNHeap> ps_heaps, N pr, N ps) {
+  private void processDataPages(SpatialPrimitiveDistanceFunction<? super V> df, List<KNNHeap> pr_heaps, N pr, N ps) {
     // Compare pairwise
     for(int j = 0; j < ps.getNumEntries(); j++) {
       final SpatialPointLeafEntry s_e = (SpatialPointLeafEntry) ps.getEntry(j);
-      final KNNHeap hj = ps_heaps != null ? ps_heaps.get(j) : null;
       final DBID s_id = s_e.getDBID();
       for(int i = 0; i < pr.getNumEntries(); i++) {
         final SpatialPointLeafEntry r_e = (SpatialPointLeafEntry) pr.getEntry(i);
-        double distance = df.minDist(s_e, r_e);
-        pr_heaps.get(i).insert(distance, s_id);
-        if(hj != null) {
-          hj.insert(distance, r_e.getDBID());
-        }
+        pr_heaps.get(i).insert(df.minDist(s_e, r_e), s_id);
+      }
+    }
+  }
+
+  /**
+   * Determines the k-nearest neighbors of the objects in pr in the data page ps.
+   * Objects whose kNN distance is smaller than the minimum distance to the page
+   * are skipped.
+   *
+   * @param df the distance function to use
+   * @param pr_heaps the knn lists for each data object in pr
+   * @param pr the query data page
+   * @param ps the reference data page
+   */
+  private void processDataPage(SpatialPrimitiveDistanceFunction<? super V> df, List<KNNHeap> pr_heaps, N pr, JoinNode ps) {
+    final N psnode = ps.leaf;
+    for(int i = 0; i < pr.getNumEntries(); i++) {
+      final SpatialPointLeafEntry r_e = (SpatialPointLeafEntry) pr.getEntry(i);
+      final KNNHeap hi = pr_heaps.get(i);
+      if(df.minDist(r_e, ps.entry) > hi.getKNNDistance()) {
+        continue;
+      }
+      for(int j = 0; j < psnode.getNumEntries(); j++) {
+        final SpatialPointLeafEntry s_e = (SpatialPointLeafEntry) psnode.getEntry(j);
+        hi.insert(df.minDist(s_e, r_e), s_e.getDBID());
       }
     }
   }
@@ -315,6 +250,320 @@ public class KNNJoin<V extends NumberVector, N extends SpatialNode<N, E>, E exte
     return LOG;
   }
 
+  /**
+   * Node of the in-memory skeleton of the index used by the join.
+   *
+   * @author Erich Schubert
+   */
+  private class JoinNode {
+    /**
+     * Index entry, {@code null} for the root.
+     */
+    final E entry;
+
+    /**
+     * Leaf node, {@code null} for directory nodes.
+     */
+    final N leaf;
+
+    /**
+     * Child nodes, {@code null} for leaf nodes.
+     */
+    final List<JoinNode> children;
+
+    /**
+     * kNN heaps of the leaf entries, {@code null} for directory nodes.
+     */
+    List<KNNHeap> heaps;
+
+    /**
+     * Upper bound of the kNN distances of all objects in this subtree.
+     */
+    double bound = Double.POSITIVE_INFINITY;
+
+    /**
+     * Constructor.
+     *
+     * @param entry Index entry
+     * @param node Index node
+     */
+    JoinNode(E entry, N node) {
+      this.entry = entry;
+      this.leaf = node.isLeaf() ? node : null;
+      this.children = node.isLeaf() ? null : new ArrayList<JoinNode>(node.getNumEntries());
+    }
+
+    /**
+     * Test for leaf nodes.
+     *
+     * @return {@code true} if this is a leaf node.
+     */
+    boolean isLeaf() {
+      return leaf != null;
+    }
+  }
+
+  /**
+   * Dual-tree traversal of the index.
+   * <p>
+   * In a first pass, we build a lightweight copy of the tree structure, and
+   * initialize the kNN heaps of every leaf with the page self-pairing. Each
+   * node stores the maximum kNN distance of the objects within, which is an
+   * upper bound for the final kNN distances. Then the tree is traversed
+   * simultaneously as query and as reference tree: pairs of nodes whose
+   * minimum distance exceeds the bound of the query node are pruned.
+   * <p>
+   * Only the heaps of the query side are modified, so different query subtrees
+   * are independent, and are processed in parallel.
+   *
+   * @author Erich Schubert
+   */
+  private class DualTreeJoin {
+    /**
+     * Index to process.
+     */
+    final SpatialIndexTree<N, E> index;
+
+    /**
+     * Distance function.
+     */
+    final SpatialPrimitiveDistanceFunction<V> distFunction;
+
+    /**
+     * Output storage.
+     */
+    final WritableDataStore<KNNList> knnLists;
+
+    /**
+     * Number of compared pairs of leaves.
+     */
+    final AtomicLong leafPairs = new AtomicLong();
+
+    /**
+     * Progress of leaf processing.
+     */
+    FiniteProgress progress;
+
+    /**
+     * Constructor.
+     *
+     * @param index Index to process
+     * @param distFunction Distance function
+     * @param knnLists Output storage
+     */
+    DualTreeJoin(SpatialIndexTree<N, E> index, SpatialPrimitiveDistanceFunction<V> distFunction, WritableDataStore<KNNList> knnLists) {
+      this.index = index;
+      this.distFunction = distFunction;
+      this.knnLists = knnLists;
+    }
+
+    /**
+     * Run the join.
+     */
+    void run() {
+      ParallelCore core = ParallelCore.getCore();
+      final JoinNode root = core.invoke(new InitTask(null, index.getRoot()));
+      int leaves = countLeaves(root);
+      if(LOG.isDebuggingFine()) {
+        LOG.debugFine("Number of leaves: " + leaves);
+      }
+      progress = LOG.isVerbose() ? new FiniteProgress("Processing data pages", leaves, LOG) : null;
+      List<JoinNode> candidates = new ArrayList<>(1);
+      candidates.add(root);
+      core.invoke(new JoinTask(root, candidates));
+      LOG.ensureCompleted(progress);
+      LOG.statistics(new LongStatistic(KNNJoin.class.getName() + ".leaf-pairs", leafPairs.get()));
+    }
+
+    /**
+     * Count the number of leaves.
+     *
+     * @param node Subtree root
+     * @return Number of leaves
+     */
+    private int countLeaves(JoinNode node) {
+      if(node.isLeaf()) {
+        return 1;
+      }
+      int c = 0;
+      for(JoinNode child : node.children) {
+        c += countLeaves(child);
+      }
+      return c;
+    }
+
+    /**
+     * Expand the candidates of a query node to the candidates of its child.
+     *
+     * @param child Query node
+     * @param candidates Candidates of the parent
+     * @return Candidates of the child
+     */
+    private List<JoinNode> expandCandidates(JoinNode child, List<JoinNode> candidates) {
+      List<JoinNode> next = new ArrayList<>();
+      for(JoinNode cand : candidates) {
+        if(cand.isLeaf()) { // Only for unbalanced trees.
+          if(distFunction.minDist(child.entry, cand.entry) <= child.bound) {
+            next.add(cand);
+          }
+          continue;
+        }
+        for(JoinNode c : cand.children) {
+          if(distFunction.minDist(child.entry, c.entry) <= child.bound) {
+            next.add(c);
+          }
+        }
+      }
+      return next;
+    }
+
+    /**
+     * Join a query leaf with the candidate subtrees, closest first.
+     *
+     * @param q Query leaf
+     * @param candidates Candidate subtrees
+     */
+    private void joinLeaf(JoinNode q, List<JoinNode> candidates) {
+      ComparableMinHeap<Task> pq = new ComparableMinHeap<>(candidates.size());
+      for(JoinNode cand : candidates) {
+        if(cand != q) { // Self-pairing was already processed.
+          pq.add(new Task(distFunction.minDist(q.entry, cand.entry), cand));
+        }
+      }
+      double bound = q.bound;
+      while(!pq.isEmpty()) {
+        Task task = pq.poll();
+        if(task.mindist > bound) {
+          break; // All remaining candidates are farther away.
+        }
+        if(!task.node.isLeaf()) { // Only for unbalanced trees.
+          for(JoinNode c : task.node.children) {
+            double mindist = distFunction.minDist(q.entry, c.entry);
+            if(mindist <= bound) {
+              pq.add(new Task(mindist, c));
+            }
+          }
+          continue;
+        }
+        processDataPage(distFunction, q.heaps, q.leaf, task.node);
+        leafPairs.incrementAndGet();
+        bound = computeStopDistance(q.heaps);
+      }
+      // Finalize lists
+      final N leaf = q.leaf;
+      synchronized(knnLists) {
+        for(int j = 0; j < leaf.getNumEntries(); j++) {
+          knnLists.put(((LeafEntry) leaf.getEntry(j)).getDBID(), q.heaps.get(j).toKNNList());
+        }
+      }
+      q.heaps = null; // Forget the heaps
+      LOG.incrementProcessed(progress);
+    }
+
+    /**
+     * Task to build the skeleton of a subtree, and initialize its heaps.
+     *
+     * @author Erich Schubert
+     */
+    private class InitTask extends RecursiveTask<JoinNode> {
+      /**
+       * Serialization version.
+       */
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * Index entry.
+       */
+      private final E entry;
+
+      /**
+       * Index node.
+       */
+      private final N node;
+
+      /**
+       * Constructor.
+       *
+       * @param entry Index entry
+       * @param node Index node
+       */
+      InitTask(E entry, N node) {
+        this.entry = entry;
+        this.node = node;
+      }
+
+      @Override
+      protected JoinNode compute() {
+        JoinNode jn = new JoinNode(entry, node);
+        if(node.isLeaf()) {
+          jn.heaps = initHeaps(distFunction, node);
+          jn.bound = computeStopDistance(jn.heaps);
+          return jn;
+        }
+        List<InitTask> tasks = new ArrayList<>(node.getNumEntries());
+        for(int i = 0; i < node.getNumEntries(); i++) {
+          E e = node.getEntry(i);
+          tasks.add(new InitTask(e, index.getNode(e)));
+        }
+        invokeAll(tasks);
+        double bound = 0.;
+        for(InitTask task : tasks) {
+          JoinNode child = task.join();
+          jn.children.add(child);
+          bound = child.bound > bound ? child.bound : bound;
+        }
+        jn.bound = bound;
+        return jn;
+      }
+    }
+
+    /**
+     * Task to join a query subtree with its candidate subtrees.
+     *
+     * @author Erich Schubert
+     */
+    private class JoinTask extends RecursiveAction {
+      /**
+       * Serialization version.
+       */
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * Query node.
+       */
+      private final JoinNode q;
+
+      /**
+       * Candidate reference nodes.
+       */
+      private final List<JoinNode> candidates;
+
+      /**
+       * Constructor.
+       *
+       * @param q Query node
+       * @param candidates Candidate reference nodes
+       */
+      JoinTask(JoinNode q, List<JoinNode> candidates) {
+        this.q = q;
+        this.candidates = candidates;
+      }
+
+      @Override
+      protected void compute() {
+        if(q.isLeaf()) {
+          joinLeaf(q, candidates);
+          return;
+        }
+        List<JoinTask> tasks = new ArrayList<>(q.children.size());
+        for(JoinNode child : q.children) {
+          tasks.add(new JoinTask(child, expandCandidates(child, candidates)));
+        }
+        invokeAll(tasks);
+      }
+    }
+  }
+
   /**
    * Task in the processing queue.
    *
@@ -327,27 +576,20 @@ public class KNNJoin<V extends NumberVector, N extends SpatialNode<N, E>, E exte
     final double mindist;
 
     /**
-     * First offset.
-     */
-    final int i;
-
-    /**
-     * Second offset.
+     * Reference node.
      */
-    final int j;
+    final JoinNode node;
 
     /**
      * Constructor.
      *
      * @param mindist Minimum distance
-     * @param i First offset
-     * @param j Second offset
+     * @param node Reference node
      */
-    public Task(double mindist, int i, int j) {
+    public Task(double mindist, JoinNode node) {
       super();
       this.mindist = mindist;
-      this.i = i;
-      this.j = j;
+      this.node = node;
     }
 
     @Override
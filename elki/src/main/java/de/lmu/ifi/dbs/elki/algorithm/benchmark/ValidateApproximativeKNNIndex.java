@@ -60,7 +60,8 @@ import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
 /**
  * Algorithm to validate the quality of an approximative kNN index, by
  * performing a number of queries and comparing them to the results obtained by
- * exact indexing (e.g. linear scanning).
+ * exact indexing (e.g. linear scanning). The query throughput of both is
+ * reported, too.
  * 
  * @author Erich Schubert
  * @since 0.6.0
@@ -164,12 +165,17 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
       MeanVariance mvdist = new MeanVariance(), mvdaerr = new MeanVariance(),
           mvdrerr = new MeanVariance();
       int misses = 0;
+      long atime = 0L, etime = 0L;
       for(DBIDIter iditer = sample.iter(); iditer.valid(); iditer.advance()) {
         if(pattern == null || pattern.matcher(lrel.get(iditer)).find()) {
           // Query index:
+          long start = System.nanoTime();
           KNNList knns = knnQuery.getKNNForDBID(iditer, k);
+          atime += System.nanoTime() - start;
           // Query reference:
+          start = System.nanoTime();
           KNNList trueknns = truekNNQuery.getKNNForDBID(iditer, k);
+          etime += System.nanoTime() - start;
 
           // Put adjusted knn size:
           mv.put(knns.size() * k / (double) trueknns.size());
@@ -205,6 +211,7 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
         if(misses > 0) {
           LOG.statistics(String.format("Number of queries that returned less than k=%d objects: %d (%.2f%%)", k, misses, misses * 100. / mv.getCount()));
         }
+        logThroughput(mv.getCount(), atime, etime);
       }
     }
     else {
@@ -230,6 +237,7 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
       MeanVariance mvdist = new MeanVariance(), mvdaerr = new MeanVariance(),
           mvdrerr = new MeanVariance();
       int misses = 0;
+      long atime = 0L, etime = 0L;
       for(DBIDIter iditer = sample.iter(); iditer.valid(); iditer.advance()) {
         int off = sids.binarySearch(iditer);
         assert (off >= 0);
@@ -237,9 +245,13 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
         O o = (O) bundle.data(off, col);
 
         // Query index:
+        long start = System.nanoTime();
         KNNList knns = knnQuery.getKNNForObject(o, k);
+        atime += System.nanoTime() - start;
         // Query reference:
+        start = System.nanoTime();
         KNNList trueknns = truekNNQuery.getKNNForObject(o, k);
+        etime += System.nanoTime() - start;
 
         // Put adjusted knn size:
         mv.put(knns.size() * k / (double) trueknns.size());
@@ -273,11 +285,27 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
         if(misses > 0) {
           LOG.statistics(String.format("Number of queries that returned less than k=%d objects: %d (%.2f%%)", k, misses, misses * 100. / mv.getCount()));
         }
+        logThroughput(mv.getCount(), atime, etime);
       }
     }
     return null;
   }
 
+  /**
+   * Log the query throughput of the approximate and the exact queries.
+   *
+   * @param count Number of queries
+   * @param atime Total time of approximate queries, in nanoseconds
+   * @param etime Total time of exact queries, in nanoseconds
+   */
+  private void logThroughput(double count, long atime, long etime) {
+    if(count > 0 && atime > 0 && etime > 0) {
+      LOG.statistics(String.format("Approximate queries per second: %.1f", count * 1e9 / atime));
+      LOG.statistics(String.format("Exact queries per second: %.1f", count * 1e9 / etime));
+      LOG.statistics(String.format("Speedup over exact queries: %.2f", etime / (double) atime));
+    }
+  }
+
   @Override
   public TypeInformation[] getInputTypeRestriction() {
     return TypeUtil.array(getDistanceFunction().getInputTypeRestriction());
@@ -64,6 +64,7 @@ import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
  * @author Erich Schubert
  *
  * @has - - - QuadTree
+ * @has - - - Forces
  *
  * @param <O> Object type
  */
@@ -176,7 +177,14 @@ public class BarnesHutTSNE<O> extends TSNE<O> {
     }
   }
 
-  private void computeGradient(AffinityMatrix pij, double[][] solution, double[] grad) {
+  /**
+   * Compute the gradients.
+   *
+   * @param pij Desired affinity matrix
+   * @param solution Current solution coordinates
+   * @param grad Point metadata (gradient, momentum, learning rate)
+   */
+  protected void computeGradient(AffinityMatrix pij, double[][] solution, double[] grad) {
     final int dim3 = 3 * dim;
     // Reset gradient / forces
     for(int off = 0; off < grad.length; off += dim3) {
@@ -184,9 +192,10 @@ public class BarnesHutTSNE<O> extends TSNE<O> {
     }
     // Compute repulsive forces first:
     QuadTree tree = QuadTree.build(dim, solution);
+    Forces forces = new Forces();
     double z = 0.;
     for(int i = 0, off = 0; i < solution.length; i++, off += dim3) {
-      z -= computeRepulsiveForces(grad, off, solution[i], tree);
+      z -= forces.repulsive(grad, off, solution[i], tree);
     }
     // Normalize repulsive forces:
     double s = 1 / z; // Scaling factor
@@ -196,78 +205,130 @@ public class BarnesHutTSNE<O> extends TSNE<O> {
       }
     }
     // Compute attractive forces second
-    computeAttractiveForces(grad, pij, solution);
+    for(int i = 0, off = 0; off < grad.length; i++, off += dim3) {
+      forces.attractive(grad, off, pij, i, solution);
+    }
+    projectedDistances += forces.distances;
   }
 
-  private void computeAttractiveForces(double[] attr, AffinityMatrix pij, double[][] sol) {
-    final int dim3 = 3 * dim;
-    for(int i = 0, off = 0; off < attr.length; i++, off += dim3) {
-      final double[] sol_i = sol[i];
-      for(int offj = pij.iter(i); pij.iterValid(i, offj); offj = pij.iterAdvance(i, offj)) {
-        final double[] sol_j = sol[pij.iterDim(i, offj)];
-        final double pij_ij = pij.iterValue(i, offj);
-        final double a = pij_ij / (1. + sqDist(sol_i, sol_j));
-        for(int k = 0; k < dim; k++) {
-          attr[off + k] += a * (sol_i[k] - sol_j[k]);
-        }
-      }
-    }
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(affinity.getInputTypeRestriction());
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
   }
 
   /**
-   * Compute the repulsive forces for a single point
-   * 
-   * @param rep_i Repulsive forces array
-   * @param off Point offset
-   * @param sol_i Solution vector
-   * @param node Quad tree
-   * @return force strength
+   * Computation of the forces acting on a single point.
+   * <p>
+   * The coordinate differences are kept in a scratch buffer, because they are
+   * needed both for the distance and for the direction of the force. Because
+   * of this buffer, and the counter of distance computations, every thread
+   * needs its own instance.
+   *
+   * @author Erich Schubert
    */
-  private double computeRepulsiveForces(double[] rep_i, int off, double[] sol_i, QuadTree node) {
-    final double[] center = node.center;
-    double dist = sqDist(sol_i, center);
-    // Barnes-Hut approximation:
-    if(node.weight == 1 || node.squareSize / dist < sqtheta) {
-      double u = 1. / (1. + dist);
-      double z = node.weight * u;
-      double a = z * u;
+  protected class Forces {
+    /**
+     * Coordinate differences of the last distance computation.
+     */
+    private final double[] diff;
+
+    /**
+     * Number of distance computations performed in projected space.
+     */
+    public long distances = 0L;
+
+    /**
+     * Constructor.
+     */
+    public Forces() {
+      super();
+      this.diff = new double[dim];
+    }
+
+    /**
+     * Squared distance, in projection space, keeping the coordinate
+     * differences.
+     *
+     * @param v1 First vector
+     * @param v2 Second vector
+     * @return Squared distance
+     */
+    private double sqDist(double[] v1, double[] v2) {
+      double sum = 0;
       for(int k = 0; k < dim; k++) {
-        // TODO: van der Maaten avoids computing this difference twice (also
-        // done in sqDist) - we should also use this optimization.
-        rep_i[off + k] += a * (sol_i[k] - center[k]);
+        final double d = diff[k] = v1[k] - v2[k];
+        sum += d * d;
       }
-      return z;
+      ++distances;
+      return sum;
     }
-    double z = 0.;
-    // Aggregate points in this node:
-    if(node.points != null) {
-      for(double[] point : node.points) {
-        double pdist = sqDist(sol_i, point);
-        double pz = 1. / (1. + pdist);
-        double a = pz * pz;
+
+    /**
+     * Compute the repulsive forces for a single point
+     *
+     * @param rep_i Repulsive forces array
+     * @param off Point offset
+     * @param sol_i Solution vector
+     * @param node Quad tree
+     * @return force strength
+     */
+    public double repulsive(double[] rep_i, int off, double[] sol_i, QuadTree node) {
+      double dist = sqDist(sol_i, node.center);
+      // Barnes-Hut approximation:
+      if(node.weight == 1 || node.squareSize / dist < sqtheta) {
+        double u = 1. / (1. + dist);
+        double z = node.weight * u;
+        double a = z * u;
         for(int k = 0; k < dim; k++) {
-          rep_i[off + k] += a * (sol_i[k] - point[k]);
+          rep_i[off + k] += a * diff[k];
         }
-        z += pz;
+        return z;
       }
-    }
-    // Recurse into subtrees:
-    if(node.children != null) {
-      for(QuadTree child : node.children) {
-        z += computeRepulsiveForces(rep_i, off, sol_i, child);
+      double z = 0.;
+      // Aggregate points in this node:
+      if(node.points != null) {
+        for(double[] point : node.points) {
+          double pz = 1. / (1. + sqDist(sol_i, point));
+          double a = pz * pz;
+          for(int k = 0; k < dim; k++) {
+            rep_i[off + k] += a * diff[k];
+          }
+          z += pz;
+        }
+      }
+      // Recurse into subtrees:
+      if(node.children != null) {
+        for(QuadTree child : node.children) {
+          z += repulsive(rep_i, off, sol_i, child);
+        }
       }
+      return z;
     }
-    return z;
-  }
-
-  @Override
-  public TypeInformation[] getInputTypeRestriction() {
-    return TypeUtil.array(affinity.getInputTypeRestriction());
-  }
 
-  @Override
-  protected Logging getLogger() {
-    return LOG;
+    /**
+     * Compute the attractive forces for a single point.
+     *
+     * @param attr Attractive forces array
+     * @param off Point offset
+     * @param pij Affinity matrix
+     * @param i Point number
+     * @param sol Solution
+     */
+    public void attractive(double[] attr, int off, AffinityMatrix pij, int i, double[][] sol) {
+      final double[] sol_i = sol[i];
+      for(int offj = pij.iter(i); pij.iterValid(i, offj); offj = pij.iterAdvance(i, offj)) {
+        final double pij_ij = pij.iterValue(i, offj);
+        final double a = pij_ij / (1. + sqDist(sol_i, sol[pij.iterDim(i, offj)]));
+        for(int k = 0; k < dim; k++) {
+          attr[off + k] += a * diff[k];
+        }
+      }
+    }
   }
 
   /**
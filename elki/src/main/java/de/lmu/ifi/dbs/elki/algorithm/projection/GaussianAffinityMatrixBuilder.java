@@ -36,6 +36,9 @@ import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor.RangeProcessor;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -48,6 +51,12 @@ import net.jafama.FastMath;
  * Compute the affinity matrix for SNE and tSNE using a Gaussian distribution
  * with a constant sigma.
  * <p>
+ * The distance matrix and the affinities are computed for blocks of rows on
+ * all cores of the shared {@link ParallelCore}; the only way to run this on a
+ * single thread is to limit the parallelism of that core. Every row is
+ * computed independently, so the result does not depend on the number of
+ * threads.
+ * <p>
  * Reference:
  * <p>
  * G. Hinton, S. Roweis<br>
@@ -74,6 +83,11 @@ public class GaussianAffinityMatrixBuilder<O> implements AffinityMatrixBuilder<O
    */
   protected static final double MIN_PIJ = 1e-12;
 
+  /**
+   * Minimum number of rows per block, when processing rows in parallel.
+   */
+  private static final int MIN_BLOCK = 16;
+
   /**
    * Input distance function.
    */
@@ -112,24 +126,28 @@ public class GaussianAffinityMatrixBuilder<O> implements AffinityMatrixBuilder<O
    * @param dq Distance query
    * @return Distance matrix
    */
-  protected double[][] buildDistanceMatrix(ArrayDBIDs ids, DistanceQuery<?> dq) {
+  protected double[][] buildDistanceMatrix(final ArrayDBIDs ids, final DistanceQuery<?> dq) {
     final int size = ids.size();
-    double[][] dmat = new double[size][size];
+    final double[][] dmat = new double[size][size];
     final boolean square = !dq.getDistanceFunction().isSquared();
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing distance matrix", (size * (size - 1)) >>> 1, LOG) : null;
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing distance matrix", (size * (size - 1)) >>> 1, LOG) : null;
     Duration timer = LOG.isStatistics() ? LOG.newDuration(this.getClass().getName() + ".runtime.distancematrix").begin() : null;
-    DBIDArrayIter ix = ids.iter(), iy = ids.iter();
-    for(ix.seek(0); ix.valid(); ix.advance()) {
-      double[] dmat_x = dmat[ix.getOffset()];
-      for(iy.seek(ix.getOffset() + 1); iy.valid(); iy.advance()) {
-        final double dist = dq.distance(ix, iy);
-        dmat[iy.getOffset()][ix.getOffset()] = dmat_x[iy.getOffset()] = square ? (dist * dist) : dist;
-      }
-      if(prog != null) {
-        int row = ix.getOffset() + 1;
-        prog.setProcessed(row * size - ((row * (row + 1)) >>> 1), LOG);
+    processRows(size, new RangeProcessor() {
+      @Override
+      public void process(int begin, int end) {
+        DBIDArrayIter ix = ids.iter(), iy = ids.iter();
+        for(ix.seek(begin); ix.getOffset() < end; ix.advance()) {
+          double[] dmat_x = dmat[ix.getOffset()];
+          for(iy.seek(ix.getOffset() + 1); iy.valid(); iy.advance()) {
+            final double dist = dq.distance(ix, iy);
+            dmat[iy.getOffset()][ix.getOffset()] = dmat_x[iy.getOffset()] = square ? (dist * dist) : dist;
+          }
+          if(prog != null) {
+            prog.incrementProcessed(size - 1 - ix.getOffset(), LOG);
+          }
+        }
       }
-    }
+    });
     LOG.ensureCompleted(prog);
     if(timer != null) {
       LOG.statistics(timer.end());
@@ -145,22 +163,29 @@ public class GaussianAffinityMatrixBuilder<O> implements AffinityMatrixBuilder<O
    * @param initialScale Initial scale
    * @return Affinity matrix pij
    */
-  protected static double[][] computePij(double[][] dist, double sigma, double initialScale) {
+  protected static double[][] computePij(final double[][] dist, double sigma, double initialScale) {
     final int size = dist.length;
     final double msigmasq = -.5 / (sigma * sigma);
-    double[][] pij = new double[size][size];
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing affinities", size, LOG) : null;
+    final double[][] pij = new double[size][size];
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing affinities", size, LOG) : null;
     Duration timer = LOG.isStatistics() ? LOG.newDuration(GaussianAffinityMatrixBuilder.class.getName() + ".runtime.pijmatrix").begin() : null;
-    MeanVariance mv = LOG.isStatistics() ? new MeanVariance() : null;
-    for(int i = 0; i < size; i++) {
-      double logP = computeH(i, dist[i], pij[i], msigmasq);
-      if(mv != null) {
-        mv.put(FastMath.exp(logP));
+    // Observed perplexities, for statistics only.
+    final double[] perp = LOG.isStatistics() ? new double[size] : null;
+    processRows(size, new RangeProcessor() {
+      @Override
+      public void process(int begin, int end) {
+        for(int i = begin; i < end; i++) {
+          double logP = computeH(i, dist[i], pij[i], msigmasq);
+          if(perp != null) {
+            perp[i] = FastMath.exp(logP);
+          }
+          LOG.incrementProcessed(prog);
+        }
       }
-      LOG.incrementProcessed(prog);
-    }
+    });
     LOG.ensureCompleted(prog);
-    if(LOG.isStatistics()) { // timer != null, mv != null
+    if(LOG.isStatistics()) { // timer != null, perp != null
+      MeanVariance mv = new MeanVariance().put(perp);
       LOG.statistics(timer.end());
       LOG.statistics(new DoubleStatistic(GaussianAffinityMatrixBuilder.class.getName() + ".perplexity.average", mv.getMean()));
       LOG.statistics(new DoubleStatistic(GaussianAffinityMatrixBuilder.class.getName() + ".perplexity.stddev", mv.getSampleStddev()));
@@ -215,6 +240,21 @@ public class GaussianAffinityMatrixBuilder<O> implements AffinityMatrixBuilder<O
     return FastMath.log(sumP) - mbeta * sum;
   }
 
+  /**
+   * Process all rows, in blocks of consecutive rows, using all available
+   * cores.
+   * <p>
+   * Every row is processed exactly once, so as long as the processor only
+   * writes to the rows it is given (or to entries owned by these rows), the
+   * result does not depend on the number of threads.
+   *
+   * @param size Number of rows
+   * @param proc Row processor
+   */
+  protected static void processRows(int size, RangeProcessor proc) {
+    ParallelExecutor.run(0, size, MIN_BLOCK, proc);
+  }
+
   /**
    * Supported input data.
    *
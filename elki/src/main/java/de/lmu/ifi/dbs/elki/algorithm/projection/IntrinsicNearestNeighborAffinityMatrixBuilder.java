@@ -41,6 +41,8 @@ import de.lmu.ifi.dbs.elki.math.Mean;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.AggregatedHillEstimator;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.IntrinsicDimensionalityEstimator;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor.RangeProcessor;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.IntegerArray;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
@@ -61,6 +63,10 @@ import net.jafama.FastMath;
  * use \(\sqrt{p_{ij} \cdot p_{ji}}\), which prevents outliers from attaching
  * closely to nearby clusters.
  * <p>
+ * As in {@link NearestNeighborAffinityMatrixBuilder}, the rows are processed
+ * in parallel on the shared {@link ParallelCore}, without a separate option to
+ * disable this.
+ * <p>
  * Reference:
  * <p>
  * Erich Schubert, Michael Gertz<br>
@@ -134,34 +140,46 @@ public class IntrinsicNearestNeighborAffinityMatrixBuilder<O> extends NearestNei
    * @param indices Output of indexes
    * @param initialScale Initial scaling factor
    */
-  protected void computePij(DBIDRange ids, KNNQuery<?> knnq, boolean square, int numberOfNeighbours, double[][] pij, int[][] indices, double initialScale) {
+  protected void computePij(final DBIDRange ids, final KNNQuery<?> knnq, final boolean square, final int numberOfNeighbours, final double[][] pij, final int[][] indices, double initialScale) {
     Duration timer = LOG.isStatistics() ? LOG.newDuration(this.getClass().getName() + ".runtime.neighborspijmatrix").begin() : null;
     final double logPerp = FastMath.log(perplexity);
-    // Scratch arrays, resizable
-    DoubleArray dists = new DoubleArray(numberOfNeighbours + 10);
-    IntegerArray inds = new IntegerArray(numberOfNeighbours + 10);
     // Compute nearest-neighbor sparse affinity matrix
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Finding neighbors and optimizing perplexity", ids.size(), LOG) : null;
-    MeanVariance mv = LOG.isStatistics() ? new MeanVariance() : null;
-    Mean mid = LOG.isStatistics() ? new Mean() : null;
-    for(DBIDArrayIter ix = ids.iter(); ix.valid(); ix.advance()) {
-      dists.clear();
-      inds.clear();
-      KNNList neighbours = knnq.getKNNForDBID(ix, numberOfNeighbours + 1);
-      convertNeighbors(ids, ix, square, neighbours, dists, inds, mid);
-      double beta = computeSigma(ix.getOffset(), dists, perplexity, logPerp, //
-          pij[ix.getOffset()] = new double[dists.size()]);
-      if(mv != null) {
-        mv.put(beta > 0 ? FastMath.sqrt(.5 / beta) : 0.); // Sigma
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Finding neighbors and optimizing perplexity", ids.size(), LOG) : null;
+    // Kernel bandwidths, for statistics only.
+    final double[] sigmas = LOG.isStatistics() ? new double[ids.size()] : null;
+    final Mean mid = LOG.isStatistics() ? new Mean() : null;
+    processRows(ids.size(), new RangeProcessor() {
+      @Override
+      public void process(int begin, int end) {
+        // Scratch arrays, resizable
+        DoubleArray dists = new DoubleArray(numberOfNeighbours + 10);
+        IntegerArray inds = new IntegerArray(numberOfNeighbours + 10);
+        Mean bmid = mid != null ? new Mean() : null;
+        for(DBIDArrayIter ix = ids.iter().seek(begin); ix.getOffset() < end; ix.advance()) {
+          dists.clear();
+          inds.clear();
+          KNNList neighbours = knnq.getKNNForDBID(ix, numberOfNeighbours + 1);
+          convertNeighbors(ids, ix, square, neighbours, dists, inds, bmid);
+          double beta = computeSigma(ix.getOffset(), dists, perplexity, logPerp, //
+              pij[ix.getOffset()] = new double[dists.size()]);
+          if(sigmas != null) {
+            sigmas[ix.getOffset()] = beta > 0 ? FastMath.sqrt(.5 / beta) : 0.;
+          }
+          indices[ix.getOffset()] = inds.toArray();
+          LOG.incrementProcessed(prog);
+        }
+        if(mid != null) {
+          synchronized(mid) {
+            mid.put(bmid);
+          }
+        }
       }
-      indices[ix.getOffset()] = inds.toArray();
-      LOG.incrementProcessed(prog);
-    }
+    });
     LOG.ensureCompleted(prog);
     if(mid != null) {
       LOG.statistics(new DoubleStatistic(getClass() + ".average-original-id", mid.getMean()));
     }
-    // Sum of the sparse affinity matrix:
+    // Sum of the sparse affinity matrix, sequentially for reproducibility:
     double sum = 0.;
     for(int i = 0; i < pij.length; i++) {
       final double[] pij_i = pij[i];
@@ -178,26 +196,33 @@ public class IntrinsicNearestNeighborAffinityMatrixBuilder<O> extends NearestNei
       }
     }
     final double scale = initialScale / (2 * sum);
-    for(int i = 0; i < pij.length; i++) {
-      final double[] pij_i = pij[i];
-      for(int offi = 0; offi < pij_i.length; offi++) {
-        int j = indices[i][offi];
-        assert (i != j);
-        int offj = containsIndex(indices[j], i);
-        if(offj >= 0) { // Found
-          assert (indices[j][offj] == i);
-          // Exploit symmetry:
-          if(i < j) {
-            final double val = FastMath.sqrt(pij_i[offi] * pij[j][offj]); // Symmetrize
-            pij_i[offi] = pij[j][offj] = MathUtil.max(val * scale, MIN_PIJ);
+    // Every pair is symmetrized by its smaller index, so rows are independent:
+    processRows(pij.length, new RangeProcessor() {
+      @Override
+      public void process(int begin, int end) {
+        for(int i = begin; i < end; i++) {
+          final double[] pij_i = pij[i];
+          for(int offi = 0; offi < pij_i.length; offi++) {
+            int j = indices[i][offi];
+            assert (i != j);
+            int offj = containsIndex(indices[j], i);
+            if(offj >= 0) { // Found
+              assert (indices[j][offj] == i);
+              // Exploit symmetry:
+              if(i < j) {
+                final double val = FastMath.sqrt(pij_i[offi] * pij[j][offj]); // Symmetrize
+                pij_i[offi] = pij[j][offj] = MathUtil.max(val * scale, MIN_PIJ);
+              }
+            }
+            else { // Not found, so zero.
+              pij_i[offi] = 0;
+            }
           }
         }
-        else { // Not found, so zero.
-          pij_i[offi] = 0;
-        }
       }
-    }
-    if(LOG.isStatistics()) { // timer != null, mv != null
+    });
+    if(LOG.isStatistics()) { // timer != null, sigmas != null
+      MeanVariance mv = new MeanVariance().put(sigmas);
       LOG.statistics(timer.end());
       LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.average", mv.getMean()));
       LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.stddev", mv.getSampleStddev()));
@@ -37,6 +37,8 @@ import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor.RangeProcessor;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.IntegerArray;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
@@ -46,6 +48,11 @@ import net.jafama.FastMath;
 /**
  * Build sparse affinity matrix using the nearest neighbors only.
  * <p>
+ * The kNN queries, the perplexity search, and the symmetrization run in
+ * parallel on all cores of the shared {@link ParallelCore}. There is no
+ * separate option to disable this. The sum used for normalization is computed
+ * sequentially, so the result does not depend on the number of threads.
+ * <p>
  * Reference:
  * <p>
  * L. J. P. van der Maaten<br>
@@ -130,28 +137,34 @@ public class NearestNeighborAffinityMatrixBuilder<O> extends PerplexityAffinityM
    * @param indices Output of indexes
    * @param initialScale Initial scaling factor
    */
-  protected void computePij(DBIDRange ids, KNNQuery<?> knnq, boolean square, int numberOfNeighbours, double[][] pij, int[][] indices, double initialScale) {
+  protected void computePij(final DBIDRange ids, final KNNQuery<?> knnq, final boolean square, final int numberOfNeighbours, final double[][] pij, final int[][] indices, double initialScale) {
     Duration timer = LOG.isStatistics() ? LOG.newDuration(this.getClass().getName() + ".runtime.neighborspijmatrix").begin() : null;
     final double logPerp = FastMath.log(perplexity);
-    // Scratch arrays, resizable
-    DoubleArray dists = new DoubleArray(numberOfNeighbours + 10);
-    IntegerArray inds = new IntegerArray(numberOfNeighbours + 10);
     // Compute nearest-neighbor sparse affinity matrix
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Finding neighbors and optimizing perplexity", ids.size(), LOG) : null;
-    MeanVariance mv = LOG.isStatistics() ? new MeanVariance() : null;
-    for(DBIDArrayIter ix = ids.iter(); ix.valid(); ix.advance()) {
-      dists.clear();
-      inds.clear();
-      KNNList neighbours = knnq.getKNNForDBID(ix, numberOfNeighbours + 1);
-      convertNeighbors(ids, ix, square, neighbours, dists, inds);
-      double beta = computeSigma(ix.getOffset(), dists, perplexity, logPerp, //
-          pij[ix.getOffset()] = new double[dists.size()]);
-      if(mv != null) {
-        mv.put(beta > 0 ? FastMath.sqrt(.5 / beta) : 0.); // Sigma
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Finding neighbors and optimizing perplexity", ids.size(), LOG) : null;
+    // Kernel bandwidths, for statistics only.
+    final double[] sigmas = LOG.isStatistics() ? new double[ids.size()] : null;
+    processRows(ids.size(), new RangeProcessor() {
+      @Override
+      public void process(int begin, int end) {
+        // Scratch arrays, resizable
+        DoubleArray dists = new DoubleArray(numberOfNeighbours + 10);
+        IntegerArray inds = new IntegerArray(numberOfNeighbours + 10);
+        for(DBIDArrayIter ix = ids.iter().seek(begin); ix.getOffset() < end; ix.advance()) {
+          dists.clear();
+          inds.clear();
+          KNNList neighbours = knnq.getKNNForDBID(ix, numberOfNeighbours + 1);
+          convertNeighbors(ids, ix, square, neighbours, dists, inds);
+          double beta = computeSigma(ix.getOffset(), dists, perplexity, logPerp, //
+              pij[ix.getOffset()] = new double[dists.size()]);
+          if(sigmas != null) {
+            sigmas[ix.getOffset()] = beta > 0 ? FastMath.sqrt(.5 / beta) : 0.;
+          }
+          indices[ix.getOffset()] = inds.toArray();
+          LOG.incrementProcessed(prog);
+        }
       }
-      indices[ix.getOffset()] = inds.toArray();
-      LOG.incrementProcessed(prog);
-    }
+    });
     LOG.ensureCompleted(prog);
     // Sum of the sparse affinity matrix:
     double sum = 0.;
@@ -162,28 +175,35 @@ public class NearestNeighborAffinityMatrixBuilder<O> extends PerplexityAffinityM
       }
     }
     final double scale = initialScale / (2 * sum);
-    for(int i = 0; i < pij.length; i++) {
-      final double[] pij_i = pij[i];
-      for(int offi = 0; offi < pij_i.length; offi++) {
-        int j = indices[i][offi];
-        assert (i != j);
-        int offj = containsIndex(indices[j], i);
-        if(offj >= 0) { // Found
-          assert (indices[j][offj] == i);
-          // Exploit symmetry:
-          if(i < j) {
-            final double val = pij_i[offi] + pij[j][offj]; // Symmetrize
-            pij_i[offi] = pij[j][offj] = MathUtil.max(val * scale, MIN_PIJ);
+    // Every pair is symmetrized by its smaller index, so rows are independent:
+    processRows(pij.length, new RangeProcessor() {
+      @Override
+      public void process(int begin, int end) {
+        for(int i = begin; i < end; i++) {
+          final double[] pij_i = pij[i];
+          for(int offi = 0; offi < pij_i.length; offi++) {
+            int j = indices[i][offi];
+            assert (i != j);
+            int offj = containsIndex(indices[j], i);
+            if(offj >= 0) { // Found
+              assert (indices[j][offj] == i);
+              // Exploit symmetry:
+              if(i < j) {
+                final double val = pij_i[offi] + pij[j][offj]; // Symmetrize
+                pij_i[offi] = pij[j][offj] = MathUtil.max(val * scale, MIN_PIJ);
+              }
+            }
+            else { // Not found
+              // TODO: the original code produces a symmetric matrix
+              // And it will now not sum to EARLY_EXAGGERATION anymore.
+              pij_i[offi] = MathUtil.max(pij_i[offi] * scale, MIN_PIJ);
+            }
           }
         }
-        else { // Not found
-          // TODO: the original code produces a symmetric matrix
-          // And it will now not sum to EARLY_EXAGGERATION anymore.
-          pij_i[offi] = MathUtil.max(pij_i[offi] * scale, MIN_PIJ);
-        }
       }
-    }
-    if(LOG.isStatistics()) { // timer != null, mv != null
+    });
+    if(LOG.isStatistics()) { // timer != null, sigmas != null
+      MeanVariance mv = new MeanVariance().put(sigmas);
       LOG.statistics(timer.end());
       LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.average", mv.getMean()));
       LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.stddev", mv.getSampleStddev()));
@@ -35,6 +35,8 @@ import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor.RangeProcessor;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -46,6 +48,9 @@ import net.jafama.FastMath;
 /**
  * Compute the affinity matrix for SNE and tSNE.
  * <p>
+ * The perplexity search of the rows runs in parallel, on all cores of the
+ * shared {@link ParallelCore}. There is no separate option to disable this.
+ * <p>
  * Reference:
  * <p>
  * G. Hinton, S. Roweis<br>
@@ -121,22 +126,30 @@ public class PerplexityAffinityMatrixBuilder<O> extends GaussianAffinityMatrixBu
    * @param initialScale Initial scale
    * @return Affinity matrix pij
    */
-  protected static double[][] computePij(double[][] dist, double perplexity, double initialScale) {
+  protected static double[][] computePij(final double[][] dist, final double perplexity, double initialScale) {
     final int size = dist.length;
     final double logPerp = FastMath.log(perplexity);
-    double[][] pij = new double[size][size];
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Optimizing perplexities", size, LOG) : null;
+    final double[][] pij = new double[size][size];
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Optimizing perplexities", size, LOG) : null;
     Duration timer = LOG.isStatistics() ? LOG.newDuration(PerplexityAffinityMatrixBuilder.class.getName() + ".runtime.pijmatrix").begin() : null;
-    MeanVariance mv = LOG.isStatistics() ? new MeanVariance() : null;
-    for(int i = 0; i < size; i++) {
-      double beta = computePi(i, dist[i], pij[i], perplexity, logPerp);
-      if(mv != null) {
-        mv.put(beta > 0 ? FastMath.sqrt(.5 / beta) : 0.); // Sigma
+    // Kernel bandwidths, for statistics only.
+    final double[] sigmas = LOG.isStatistics() ? new double[size] : null;
+    // The binary searches of the rows are independent:
+    processRows(size, new RangeProcessor() {
+      @Override
+      public void process(int begin, int end) {
+        for(int i = begin; i < end; i++) {
+          double beta = computePi(i, dist[i], pij[i], perplexity, logPerp);
+          if(sigmas != null) {
+            sigmas[i] = beta > 0 ? FastMath.sqrt(.5 / beta) : 0.;
+          }
+          LOG.incrementProcessed(prog);
+        }
       }
-      LOG.incrementProcessed(prog);
-    }
+    });
     LOG.ensureCompleted(prog);
-    if(LOG.isStatistics()) { // timer != null, mv != null
+    if(LOG.isStatistics()) { // timer != null, sigmas != null
+      MeanVariance mv = new MeanVariance().put(sigmas);
       LOG.statistics(timer.end());
       LOG.statistics(new DoubleStatistic(PerplexityAffinityMatrixBuilder.class.getName() + ".sigma.average", mv.getMean()));
       LOG.statistics(new DoubleStatistic(PerplexityAffinityMatrixBuilder.class.getName() + ".sigma.stddev", mv.getSampleStddev()));
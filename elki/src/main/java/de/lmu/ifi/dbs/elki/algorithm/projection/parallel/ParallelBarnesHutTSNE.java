@@ -0,0 +1,265 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.projection.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.algorithm.projection.AffinityMatrix;
+import de.lmu.ifi.dbs.elki.algorithm.projection.AffinityMatrixBuilder;
+import de.lmu.ifi.dbs.elki.algorithm.projection.BarnesHutTSNE;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Multi-threaded tSNE using Barnes-Hut-Approximation.
+ * <p>
+ * The quad tree is built once per iteration; then the repulsive forces (by
+ * traversing the tree) and the attractive forces (over the sparse affinity
+ * matrix) are computed for blocks of consecutive points on different threads.
+ * Each thread uses its own buffer for the coordinate differences, and every
+ * point only writes its own gradient, so no locking is necessary. The block
+ * size does not depend on the number of threads, and the normalization sums
+ * are added in block order, so the result is reproducible on any number of
+ * cores. It differs from the result of {@link BarnesHutTSNE} only by the
+ * summation order of floating point values.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <O> Object type
+ */
+public class ParallelBarnesHutTSNE<O> extends BarnesHutTSNE<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelBarnesHutTSNE.class);
+
+  /**
+   * Constructor.
+   *
+   * @param affinity Affinity matrix builder
+   * @param dim Output dimensionality
+   * @param finalMomentum Final momentum
+   * @param learningRate Learning rate
+   * @param maxIterations Maximum number of iterations
+   * @param random Random generator
+   * @param keep Keep the original data (or remove it)
+   * @param theta Theta parameter
+   */
+  public ParallelBarnesHutTSNE(AffinityMatrixBuilder<? super O> affinity, int dim, double finalMomentum, double learningRate, int maxIterations, RandomFactory random, boolean keep, double theta) {
+    super(affinity, dim, finalMomentum, learningRate, maxIterations, random, keep, theta);
+  }
+
+  @Override
+  protected void optimizetSNE(AffinityMatrix pij, double[][] sol) {
+    final ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      super.optimizetSNE(pij, sol);
+    }
+    finally {
+      core.disconnect();
+    }
+  }
+
+  @Override
+  protected void computeGradient(AffinityMatrix pij, double[][] solution, double[] grad) {
+    final int size = solution.length;
+    final QuadTree tree = QuadTree.build(dim, solution);
+    // Compute repulsive forces first:
+    List<RepulsiveTask> rtasks = new ArrayList<>((size + ParallelTSNE.BLOCKSIZE - 1) / ParallelTSNE.BLOCKSIZE);
+    for(int begin = 0; begin < size; begin += ParallelTSNE.BLOCKSIZE) {
+      rtasks.add(new RepulsiveTask(solution, grad, tree, begin, Math.min(begin + ParallelTSNE.BLOCKSIZE, size)));
+    }
+    ParallelExecutor.run(rtasks);
+    double z = 0.;
+    for(RepulsiveTask task : rtasks) {
+      z -= task.z;
+    }
+    // Normalize repulsive forces, and add attractive forces:
+    List<AttractiveTask> atasks = new ArrayList<>(rtasks.size());
+    for(RepulsiveTask task : rtasks) {
+      atasks.add(new AttractiveTask(pij, solution, grad, 1 / z, task));
+    }
+    ParallelExecutor.run(atasks);
+    for(RepulsiveTask task : rtasks) {
+      projectedDistances += task.forces.distances;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Compute the repulsive forces of a block of points.
+   *
+   * @author Erich Schubert
+   */
+  private class RepulsiveTask implements Runnable {
+    /**
+     * Current solution coordinates
+     */
+    private final double[][] solution;
+
+    /**
+     * Point metadata, starting with the gradient
+     */
+    private final double[] grad;
+
+    /**
+     * Quad tree of the current solution
+     */
+    private final QuadTree tree;
+
+    /**
+     * Block of points to process.
+     */
+    final int begin, end;
+
+    /**
+     * Thread-local force computation.
+     */
+    final Forces forces = new Forces();
+
+    /**
+     * Sum of the force strengths.
+     */
+    double z;
+
+    /**
+     * Constructor.
+     *
+     * @param solution Current solution coordinates
+     * @param grad Point metadata
+     * @param tree Quad tree
+     * @param begin First point
+     * @param end End of block (exclusive)
+     */
+    RepulsiveTask(double[][] solution, double[] grad, QuadTree tree, int begin, int end) {
+      this.solution = solution;
+      this.grad = grad;
+      this.tree = tree;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    public void run() {
+      final int dim3 = 3 * dim;
+      double z = 0.;
+      for(int i = begin, off = begin * dim3; i < end; i++, off += dim3) {
+        Arrays.fill(grad, off, off + dim, 0.); // Reset gradient
+        z += forces.repulsive(grad, off, solution[i], tree);
+      }
+      this.z = z;
+    }
+  }
+
+  /**
+   * Normalize the repulsive forces of a block of points, and add the
+   * attractive forces.
+   *
+   * @author Erich Schubert
+   */
+  private class AttractiveTask implements Runnable {
+    /**
+     * Desired affinity matrix
+     */
+    private final AffinityMatrix pij;
+
+    /**
+     * Current solution coordinates
+     */
+    private final double[][] solution;
+
+    /**
+     * Point metadata, starting with the gradient
+     */
+    private final double[] grad;
+
+    /**
+     * Scaling factor of the repulsive forces
+     */
+    private final double s;
+
+    /**
+     * Block of points to process.
+     */
+    private final int begin, end;
+
+    /**
+     * Force computation, reused from the repulsive task.
+     */
+    private final Forces forces;
+
+    /**
+     * Constructor.
+     *
+     * @param pij Desired affinity matrix
+     * @param solution Current solution coordinates
+     * @param grad Point metadata
+     * @param s Scaling factor of the repulsive forces
+     * @param block Repulsive task of the same block
+     */
+    AttractiveTask(AffinityMatrix pij, double[][] solution, double[] grad, double s, RepulsiveTask block) {
+      this.pij = pij;
+      this.solution = solution;
+      this.grad = grad;
+      this.s = s;
+      this.begin = block.begin;
+      this.end = block.end;
+      this.forces = block.forces;
+    }
+
+    @Override
+    public void run() {
+      final int dim3 = 3 * dim;
+      for(int i = begin, off = begin * dim3; i < end; i++, off += dim3) {
+        for(int j = 0; j < dim; j++) {
+          grad[off + j] *= s;
+        }
+        forces.attractive(grad, off, pij, i, solution);
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Parameterizer<O> extends BarnesHutTSNE.Parameterizer<O> {
+    @Override
+    protected ParallelBarnesHutTSNE<O> makeInstance() {
+      return new ParallelBarnesHutTSNE<>(affinity, dim, finalMomentum, learningRate, iterations, random, keep, theta);
+    }
+  }
+}
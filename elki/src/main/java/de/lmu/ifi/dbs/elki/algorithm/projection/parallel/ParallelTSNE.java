@@ -0,0 +1,279 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.projection.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.algorithm.projection.AffinityMatrix;
+import de.lmu.ifi.dbs.elki.algorithm.projection.AffinityMatrixBuilder;
+import de.lmu.ifi.dbs.elki.algorithm.projection.TSNE;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.math.MathUtil;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Multi-threaded t-Stochastic Neighbor Embedding.
+ * <p>
+ * The projected affinities and the gradients are computed for blocks of
+ * consecutive points on different threads. Each point only writes its own
+ * rows, so no locking is necessary. The block size does not depend on the
+ * number of threads, and the block sums are added in block order; hence the
+ * result is reproducible on any number of cores. It differs from the result
+ * of {@link TSNE} only by the summation order of floating point values.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <O> Object type
+ */
+public class ParallelTSNE<O> extends TSNE<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelTSNE.class);
+
+  /**
+   * Number of points per block. This must not depend on the number of
+   * threads, for reproducible results.
+   */
+  static final int BLOCKSIZE = 256;
+
+  /**
+   * Constructor.
+   *
+   * @param affinity Affinity matrix builder
+   * @param dim Output dimensionality
+   * @param finalMomentum Final momentum
+   * @param learningRate Learning rate
+   * @param iterations Number of iterations
+   * @param random Random generator
+   * @param keep Keep the original data (or remove it)
+   */
+  public ParallelTSNE(AffinityMatrixBuilder<? super O> affinity, int dim, double finalMomentum, double learningRate, int iterations, RandomFactory random, boolean keep) {
+    super(affinity, dim, finalMomentum, learningRate, iterations, random, keep);
+  }
+
+  @Override
+  protected void optimizetSNE(AffinityMatrix pij, double[][] sol) {
+    final ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      super.optimizetSNE(pij, sol);
+    }
+    finally {
+      core.disconnect();
+    }
+  }
+
+  @Override
+  protected double computeQij(final double[][] qij, final double[][] solution) {
+    final int size = qij.length;
+    List<QijTask> tasks = new ArrayList<>((size + BLOCKSIZE - 1) / BLOCKSIZE);
+    for(int begin = 0; begin < size; begin += BLOCKSIZE) {
+      tasks.add(new QijTask(qij, solution, begin, Math.min(begin + BLOCKSIZE, size)));
+    }
+    ParallelExecutor.run(tasks);
+    double qij_sum = 0;
+    for(QijTask task : tasks) {
+      qij_sum += task.sum;
+    }
+    projectedDistances += (size * (size - 1L)) >>> 1;
+    return qij_sum * 2; // Symmetry
+  }
+
+  @Override
+  protected void computeGradient(AffinityMatrix pij, double[][] qij, double qij_isum, double[][] sol, double[] meta) {
+    final int size = pij.size();
+    List<GradientTask> tasks = new ArrayList<>((size + BLOCKSIZE - 1) / BLOCKSIZE);
+    for(int begin = 0; begin < size; begin += BLOCKSIZE) {
+      tasks.add(new GradientTask(pij, qij, qij_isum, sol, meta, begin, Math.min(begin + BLOCKSIZE, size)));
+    }
+    ParallelExecutor.run(tasks);
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Compute the projected affinities of a block of rows.
+   * <p>
+   * Row i computes the entries j &lt; i, and also writes the symmetric entry
+   * to row j; each entry thus is written by exactly one task.
+   *
+   * @author Erich Schubert
+   */
+  private class QijTask implements Runnable {
+    /**
+     * Qij matrix (output)
+     */
+    private final double[][] qij;
+
+    /**
+     * Solution matrix (input)
+     */
+    private final double[][] solution;
+
+    /**
+     * Block of rows to process.
+     */
+    private final int begin, end;
+
+    /**
+     * Sum of the computed affinities.
+     */
+    double sum;
+
+    /**
+     * Constructor.
+     *
+     * @param qij Qij matrix (output)
+     * @param solution Solution matrix (input)
+     * @param begin First row
+     * @param end End of block (exclusive)
+     */
+    QijTask(double[][] qij, double[][] solution, int begin, int end) {
+      this.qij = qij;
+      this.solution = solution;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    public void run() {
+      double sum = 0;
+      for(int i = begin; i < end; i++) {
+        final double[] qij_i = qij[i], vi = solution[i];
+        for(int j = 0; j < i; j++) {
+          final double[] vj = solution[j];
+          double dist = 0;
+          for(int k = 0; k < vi.length; k++) {
+            final double diff = vi[k] - vj[k];
+            dist += diff * diff;
+          }
+          sum += qij_i[j] = qij[j][i] = 1. / (1. + dist);
+        }
+      }
+      this.sum = sum;
+    }
+  }
+
+  /**
+   * Compute the gradients of a block of points.
+   *
+   * @author Erich Schubert
+   */
+  private class GradientTask implements Runnable {
+    /**
+     * Desired affinity matrix
+     */
+    private final AffinityMatrix pij;
+
+    /**
+     * Projected affinity matrix
+     */
+    private final double[][] qij;
+
+    /**
+     * Normalization factor
+     */
+    private final double qij_isum;
+
+    /**
+     * Current solution coordinates
+     */
+    private final double[][] sol;
+
+    /**
+     * Point metadata
+     */
+    private final double[] meta;
+
+    /**
+     * Block of points to process.
+     */
+    private final int begin, end;
+
+    /**
+     * Constructor.
+     *
+     * @param pij Desired affinity matrix
+     * @param qij Projected affinity matrix
+     * @param qij_isum Normalization factor
+     * @param sol Current solution coordinates
+     * @param meta Point metadata
+     * @param begin First point
+     * @param end End of block (exclusive)
+     */
+    GradientTask(AffinityMatrix pij, double[][] qij, double qij_isum, double[][] sol, double[] meta, int begin, int end) {
+      this.pij = pij;
+      this.qij = qij;
+      this.qij_isum = qij_isum;
+      this.sol = sol;
+      this.meta = meta;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    public void run() {
+      final int dim3 = dim * 3, size = sol.length;
+      for(int i = begin, off = begin * dim3; i < end; i++, off += dim3) {
+        final double[] sol_i = sol[i], qij_i = qij[i];
+        Arrays.fill(meta, off, off + dim, 0.); // Clear gradient only
+        for(int j = 0; j < size; j++) {
+          if(i == j) {
+            continue;
+          }
+          final double[] sol_j = sol[j];
+          final double qij_ij = qij_i[j];
+          // Qij after scaling!
+          final double q = MathUtil.max(qij_ij * qij_isum, MIN_QIJ);
+          double a = (pij.get(i, j) - q) * qij_ij;
+          for(int k = 0; k < dim; k++) {
+            meta[off + k] += a * (sol_i[k] - sol_j[k]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Parameterizer<O> extends TSNE.Parameterizer<O> {
+    @Override
+    protected ParallelTSNE<O> makeInstance() {
+      return new ParallelTSNE<>(affinity, dim, finalMomentum, learningRate, iterations, random, keep);
+    }
+  }
+}
@@ -0,0 +1,432 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.persistent;
+
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.AtomicLongCounter;
+import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * A page cache for concurrent access, split into independently locked
+ * segments, each of which uses CLOCK (second chance) eviction.
+ * <p>
+ * In contrast to {@link LRUCache}, which serializes all accesses on a single
+ * monitor, threads only contend when they access pages in the same segment,
+ * and pages are read from the backing file without holding a lock. The
+ * backing file must then support concurrent reads, as
+ * {@link PersistentPageFile} does.
+ * <p>
+ * The byte budget is divided evenly among the segments.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @assoc - - - PageFile
+ *
+ * @param <P> Page type
+ */
+public class ConcurrentPageCache<P extends Page> extends AbstractPageFile<P> {
+  /**
+   * Our class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ConcurrentPageCache.class);
+
+  /**
+   * Cache size in bytes.
+   */
+  protected int cacheSizeBytes;
+
+  /**
+   * Requested number of segments.
+   */
+  protected int numSegments;
+
+  /**
+   * The underlying file of this cache.
+   */
+  protected PageFile<P> file;
+
+  /**
+   * Cache segments.
+   */
+  private Segment[] segments;
+
+  /**
+   * Mask to choose the segment.
+   */
+  private int mask;
+
+  /**
+   * Page size.
+   */
+  private int pageSize;
+
+  /**
+   * Cache hits, misses, and evictions.
+   */
+  private final Counter hits, misses, evictions;
+
+  /**
+   * Constructor.
+   *
+   * @param cacheSizeBytes the maximum number of bytes for this cache
+   * @param numSegments Number of segments (will be rounded to a power of two)
+   * @param file the underlying file of this cache
+   */
+  public ConcurrentPageCache(int cacheSizeBytes, int numSegments, PageFile<P> file) {
+    super();
+    this.cacheSizeBytes = cacheSizeBytes;
+    this.numSegments = numSegments;
+    this.file = file;
+    final String prefix = this.getClass().getName();
+    this.hits = new AtomicLongCounter(prefix + ".hits");
+    this.misses = new AtomicLongCounter(prefix + ".misses");
+    this.evictions = new AtomicLongCounter(prefix + ".evictions");
+  }
+
+  /**
+   * Choose the segment of a page.
+   *
+   * @param pageID Page id
+   * @return Segment
+   */
+  private Segment segment(int pageID) {
+    // Spread consecutive page ids across segments.
+    return segments[((pageID * 0x9E3779B9) >>> 16) & mask];
+  }
+
+  @Override
+  public P readPage(int pageID) {
+    countRead();
+    final Segment seg = segment(pageID);
+    synchronized(seg) {
+      @SuppressWarnings("unchecked")
+      P page = (P) seg.get(pageID);
+      if(page != null) {
+        hits.increment();
+        return page;
+      }
+    }
+    misses.increment();
+    // Read without holding the lock:
+    P page = file.readPage(pageID);
+    synchronized(seg) {
+      // Another thread may have loaded the page concurrently.
+      @SuppressWarnings("unchecked")
+      P other = (P) seg.get(pageID);
+      if(other != null) {
+        return other;
+      }
+      put(seg, pageID, page);
+    }
+    return page;
+  }
+
+  @Override
+  protected void writePage(int pageID, P page) {
+    countWrite();
+    page.setDirty(true);
+    final Segment seg = segment(pageID);
+    synchronized(seg) {
+      put(seg, pageID, page);
+    }
+  }
+
+  /**
+   * Put a page into a segment, and expire the evicted page, if any. Must hold
+   * the lock of the segment.
+   *
+   * @param seg Segment
+   * @param pageID Page id
+   * @param page Page
+   */
+  @SuppressWarnings("unchecked")
+  private void put(Segment seg, int pageID, P page) {
+    Object evicted = seg.put(pageID, page);
+    if(evicted != null) {
+      evictions.increment();
+      expirePage((P) evicted);
+    }
+  }
+
+  @Override
+  public void deletePage(int pageID) {
+    countWrite();
+    final Segment seg = segment(pageID);
+    synchronized(seg) {
+      seg.remove(pageID);
+    }
+    file.deletePage(pageID);
+  }
+
+  /**
+   * Write page through to disk.
+   *
+   * @param page page
+   */
+  protected void expirePage(P page) {
+    if(page.isDirty()) {
+      file.writePage(page);
+    }
+  }
+
+  @Override
+  public int setPageID(P page) {
+    return file.setPageID(page);
+  }
+
+  @Override
+  public int getNextPageID() {
+    return file.getNextPageID();
+  }
+
+  @Override
+  public void setNextPageID(int nextPageID) {
+    file.setNextPageID(nextPageID);
+  }
+
+  @Override
+  public int getPageSize() {
+    return file.getPageSize();
+  }
+
+  @Override
+  public boolean initialize(PageHeader header) {
+    boolean created = file.initialize(header);
+    pageSize = header.getPageSize();
+    final int cacheSize = cacheSizeBytes / pageSize;
+    if(cacheSize <= 0) {
+      throw new AbortException("Invalid cache size: " + cacheSizeBytes + " / " + pageSize + " = " + cacheSize);
+    }
+    // Power of two, but at least one page per segment:
+    int nseg = Integer.highestOneBit(Math.max(1, Math.min(numSegments, cacheSize)));
+    mask = nseg - 1;
+    segments = new Segment[nseg];
+    for(int i = 0; i < nseg; i++) {
+      segments[i] = new Segment(cacheSize / nseg + (i < cacheSize % nseg ? 1 : 0));
+    }
+    if(LOG.isDebugging()) {
+      LOG.debug("Concurrent cache size is " + cacheSize + " pages in " + nseg + " segments.");
+    }
+    return created;
+  }
+
+  @Override
+  public void close() {
+    flush();
+    file.close();
+  }
+
+  /**
+   * Flushes this caches by writing any entry to the underlying file.
+   */
+  @SuppressWarnings("unchecked")
+  public void flush() {
+    for(Segment seg : segments) {
+      synchronized(seg) {
+        for(int i = 0; i < seg.used; i++) {
+          expirePage((P) seg.pages[i]);
+        }
+        seg.clear();
+      }
+    }
+  }
+
+  /**
+   * Clears this cache.
+   */
+  @Override
+  public void clear() {
+    for(Segment seg : segments) {
+      synchronized(seg) {
+        seg.clear();
+      }
+    }
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    LOG.statistics(hits);
+    LOG.statistics(misses);
+    LOG.statistics(evictions);
+    long used = 0;
+    for(Segment seg : segments) {
+      synchronized(seg) {
+        used += seg.used;
+      }
+    }
+    LOG.statistics(new LongStatistic(this.getClass().getName() + ".cached-bytes", used * pageSize));
+    file.logStatistics();
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * A segment of the cache, using CLOCK eviction. All methods must be called
+   * while holding the lock of the segment.
+   *
+   * @author Erich Schubert
+   */
+  private static class Segment {
+    /**
+     * Page ids.
+     */
+    private final int[] ids;
+
+    /**
+     * Cached pages.
+     */
+    final Object[] pages;
+
+    /**
+     * Referenced since the clock hand last passed.
+     */
+    private final boolean[] referenced;
+
+    /**
+     * Map from page ids to slots.
+     */
+    private final Int2IntOpenHashMap slots;
+
+    /**
+     * Number of slots in use.
+     */
+    int used = 0;
+
+    /**
+     * Clock hand.
+     */
+    private int hand = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity Capacity in pages
+     */
+    Segment(int capacity) {
+      ids = new int[capacity];
+      pages = new Object[capacity];
+      referenced = new boolean[capacity];
+      slots = new Int2IntOpenHashMap(capacity);
+      slots.defaultReturnValue(-1);
+    }
+
+    /**
+     * Get a cached page.
+     *
+     * @param pageID Page id
+     * @return Page, or {@code null}
+     */
+    Object get(int pageID) {
+      final int slot = slots.get(pageID);
+      if(slot < 0) {
+        return null;
+      }
+      referenced[slot] = true;
+      return pages[slot];
+    }
+
+    /**
+     * Add or replace a page.
+     *
+     * @param pageID Page id
+     * @param page Page
+     * @return Evicted page, or {@code null}
+     */
+    Object put(int pageID, Object page) {
+      Object evicted = null;
+      int slot = slots.get(pageID);
+      if(slot < 0) {
+        if(used < pages.length) {
+          slot = used++;
+        }
+        else {
+          slot = nextVictim();
+          evicted = pages[slot];
+          slots.remove(ids[slot]);
+        }
+        ids[slot] = pageID;
+        slots.put(pageID, slot);
+      }
+      pages[slot] = page;
+      referenced[slot] = true;
+      return evicted;
+    }
+
+    /**
+     * Remove a page, without writing it.
+     *
+     * @param pageID Page id
+     */
+    void remove(int pageID) {
+      final int slot = slots.remove(pageID);
+      if(slot < 0) {
+        return;
+      }
+      // Move the last slot into the gap:
+      final int last = --used;
+      if(slot != last) {
+        ids[slot] = ids[last];
+        pages[slot] = pages[last];
+        referenced[slot] = referenced[last];
+        slots.put(ids[slot], slot);
+      }
+      pages[last] = null;
+    }
+
+    /**
+     * Choose the slot to evict, using the CLOCK strategy: pages referenced
+     * since the last pass of the hand get a second chance.
+     *
+     * @return Slot to reuse
+     */
+    private int nextVictim() {
+      while(referenced[hand]) {
+        referenced[hand] = false;
+        hand = hand + 1 < used ? hand + 1 : 0;
+      }
+      final int slot = hand;
+      hand = hand + 1 < used ? hand + 1 : 0;
+      return slot;
+    }
+
+    /**
+     * Empty the segment.
+     */
+    void clear() {
+      for(int i = 0; i < used; i++) {
+        pages[i] = null;
+        referenced[i] = false;
+      }
+      slots.clear();
+      used = 0;
+      hand = 0;
+    }
+  }
+}
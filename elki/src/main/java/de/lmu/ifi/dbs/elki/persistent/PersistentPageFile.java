@@ -27,6 +27,8 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import de.lmu.ifi.dbs.elki.index.tree.TreeIndexHeader;
 import de.lmu.ifi.dbs.elki.logging.Logging;
@@ -36,6 +38,10 @@ import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
  * A PersistentPageFile stores objects persistently that implement the
  * <code>Page</code> interface. For convenience each page is represented by a
  * single file. All pages are stored in a specified directory.
+ * <p>
+ * Pages are read and written with positional I/O on a {@link FileChannel},
+ * so concurrent page reads (e.g., from a {@link ConcurrentPageCache}) do not
+ * interfere with each other.
  * 
  * @author Elke Achtert
  * @since 0.1
@@ -66,6 +72,11 @@ public class PersistentPageFile<P extends ExternalizablePage> extends AbstractSt
    */
   private final RandomAccessFile file;
 
+  /**
+   * Channel of the file, for positional page I/O.
+   */
+  private final FileChannel channel;
+
   /**
    * The header of this page file.
    */
@@ -101,6 +112,7 @@ public class PersistentPageFile<P extends ExternalizablePage> extends AbstractSt
     catch(IOException e) {
       throw new AbortException("IO error in loading persistent page file.", e);
     }
+    channel = file.getChannel();
   }
 
   /**
@@ -115,8 +127,12 @@ public class PersistentPageFile<P extends ExternalizablePage> extends AbstractSt
       countRead();
       long offset = ((long) (header.getReservedPages() + pageID)) * (long) pageSize;
       byte[] buffer = new byte[pageSize];
-      file.seek(offset);
-      file.read(buffer);
+      ByteBuffer buf = ByteBuffer.wrap(buffer);
+      while(buf.hasRemaining()) {
+        if(channel.read(buf, offset + buf.position()) < 0) {
+          break; // Past end of file, remainder is empty.
+        }
+      }
       return byteArrayToPage(buffer);
     }
     catch(IOException e) {
@@ -139,8 +155,7 @@ public class PersistentPageFile<P extends ExternalizablePage> extends AbstractSt
       countWrite();
       byte[] array = pageToByteArray(null);
       long offset = ((long) (header.getReservedPages() + pageID)) * (long) pageSize;
-      file.seek(offset);
-      file.write(array);
+      writeFully(array, offset);
     }
     catch(IOException e) {
       throw new RuntimeException(e);
@@ -160,8 +175,7 @@ public class PersistentPageFile<P extends ExternalizablePage> extends AbstractSt
       byte[] array = pageToByteArray(page);
       long offset = ((long) (header.getReservedPages() + pageID)) * (long) pageSize;
       assert offset >= 0 : header.getReservedPages() + " " + pageID + " " + pageSize + " " + offset;
-      file.seek(offset);
-      file.write(array);
+      writeFully(array, offset);
       page.setDirty(false);
     }
     catch(IOException e) {
@@ -169,6 +183,20 @@ public class PersistentPageFile<P extends ExternalizablePage> extends AbstractSt
     }
   }
 
+  /**
+   * Write a page buffer at the given position.
+   *
+   * @param array Data to write
+   * @param offset File offset
+   * @throws IOException on IO errors
+   */
+  private void writeFully(byte[] array, long offset) throws IOException {
+    ByteBuffer buf = ByteBuffer.wrap(array);
+    while(buf.hasRemaining()) {
+      channel.write(buf, offset + buf.position());
+    }
+  }
+
   /**
    * Closes this file.
    */
@@ -33,6 +33,7 @@ import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialEntry;
@@ -134,6 +135,36 @@ public class KNNJoinTest {
     doKNNJoin(spatparams);
   }
 
+  /**
+   * Compare the join on a deeper {@link RStarTree} to a linear scan.
+   */
+  @Test
+  public void testKNNJoinRtreeExact() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, RStarTreeFactory.class);
+    spatparams.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "3clusters-and-noise-2d.csv", 330, spatparams);
+    assertExactJoin(db, EuclideanDistanceFunction.STATIC);
+    assertExactJoin(db, ManhattanDistanceFunction.STATIC);
+  }
+
+  /**
+   * Compare the 5NN join result to a linear scan.
+   *
+   * @param db Database
+   * @param df Distance function
+   */
+  private void assertExactJoin(Database db, NumberVectorDistanceFunction<? super NumberVector> df) {
+    Relation<NumberVector> relation = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    KNNQuery<NumberVector> knnq = QueryUtil.getLinearScanKNNQuery(db.getDistanceQuery(relation, df));
+    Relation<KNNList> result = new KNNJoin<DoubleVector, RStarTreeNode, SpatialEntry>(df, 5).run(db);
+    for(DBIDIter id = relation.iterDBIDs(); id.valid(); id.advance()) {
+      KNNList exact = knnq.getKNNForDBID(id, 5), join = result.get(id);
+      org.junit.Assert.assertEquals("kNN list size", exact.size(), join.size());
+      org.junit.Assert.assertEquals("kNN distance", exact.getKNNDistance(), join.getKNNDistance(), 1e-15);
+    }
+  }
+
   /**
    * Actual test routine.
    *
@@ -0,0 +1,50 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.projection.parallel;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.projection.BarnesHutTSNE;
+
+/**
+ * Unit test for the multi-threaded Barnes-Hut tSNE.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class ParallelBarnesHutTSNETest {
+  @Test
+  public void testReproducible() {
+    double[][] single = ParallelTSNETest.project(ParallelBarnesHutTSNE.class, 100, 1);
+    double[][] multi = ParallelTSNETest.project(ParallelBarnesHutTSNE.class, 100, 4);
+    for(int i = 0; i < single.length; i++) {
+      assertArrayEquals("Result depends on the number of threads.", single[i], multi[i], 0.);
+    }
+  }
+
+  @Test
+  public void testSerial() {
+    // Only the summation order differs, so compare the first iterations.
+    ParallelTSNETest.assertSimilar(ParallelTSNETest.project(BarnesHutTSNE.class, 30, 1), ParallelTSNETest.project(ParallelBarnesHutTSNE.class, 30, 4), 1e-8);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.projection.parallel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.projection.AbstractProjectionAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.projection.TSNE;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for the multi-threaded tSNE.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class ParallelTSNETest {
+  /**
+   * Data set to use.
+   */
+  static final String DATASET = AbstractSimpleAlgorithmTest.UNITTEST + "3clusters-and-noise-2d.csv";
+
+  /**
+   * Size of the data set.
+   */
+  static final int SIZE = 330;
+
+  @Test
+  public void testReproducible() {
+    double[][] single = project(ParallelTSNE.class, 100, 1);
+    double[][] multi = project(ParallelTSNE.class, 100, 4);
+    for(int i = 0; i < SIZE; i++) {
+      assertArrayEquals("Result depends on the number of threads.", single[i], multi[i], 0.);
+    }
+  }
+
+  @Test
+  public void testSerial() {
+    // Only the summation order differs, but the optimization amplifies this
+    // over many iterations; so only compare the first iterations.
+    assertSimilar(project(TSNE.class, 30, 1), project(ParallelTSNE.class, 30, 4), 1e-8);
+  }
+
+  /**
+   * Run a projection with a fixed seed.
+   *
+   * @param cls Projection class
+   * @param iterations Number of iterations
+   * @param parallelism Number of threads
+   * @return Projected coordinates, in database order
+   */
+  static double[][] project(Class<?> cls, int iterations, int parallelism) {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(DATASET, SIZE);
+    @SuppressWarnings("unchecked")
+    final Class<Object> ocls = (Class<Object>) cls;
+    AbstractProjectionAlgorithm<?> alg = new ELKIBuilder<Object>(ocls) //
+        .with(TSNE.Parameterizer.ITER_ID, iterations) //
+        .with(TSNE.Parameterizer.RANDOM_ID, 0L) //
+        .<AbstractProjectionAlgorithm<?>> build();
+    final ParallelCore core = ParallelCore.getCore();
+    core.setParallelism(parallelism);
+    final Relation<?> res;
+    try {
+      res = (Relation<?>) alg.run(db);
+    }
+    finally {
+      core.setParallelism(ParallelCore.ALL_PROCESSORS);
+    }
+    double[][] out = new double[res.size()][];
+    int i = 0;
+    for(DBIDIter it = res.iterDBIDs(); it.valid(); it.advance()) {
+      out[i++] = ((DoubleVector) res.get(it)).toArray();
+    }
+    return out;
+  }
+
+  /**
+   * Compare two projections, relative to their extent.
+   *
+   * @param expected Expected coordinates
+   * @param actual Actual coordinates
+   * @param tol Relative tolerance
+   */
+  static void assertSimilar(double[][] expected, double[][] actual, double tol) {
+    assertEquals("Wrong result size.", expected.length, actual.length);
+    double extent = 0.;
+    for(double[] row : expected) {
+      for(double v : row) {
+        extent = Math.max(extent, Math.abs(v));
+      }
+    }
+    for(int i = 0; i < expected.length; i++) {
+      assertArrayEquals("Result differs from the serial version.", expected[i], actual[i], tol * extent);
+    }
+  }
+}
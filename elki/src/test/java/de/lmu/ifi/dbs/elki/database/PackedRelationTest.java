@@ -0,0 +1,91 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.PackedDoubleVectorRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.AbstractDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.filter.FixedDBIDsFilter;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test that loads a data file into packed arrays, and compares the
+ * results to the regular object storage.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class PackedRelationTest {
+  public static final String filename = "elki/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  @Test
+  public void testPackedRelation() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(filename, -1);
+    ListParameterization params = new ListParameterization();
+    params.addParameter(AbstractDatabaseConnection.Parameterizer.FILTERS_ID, new FixedDBIDsFilter(1));
+    params.addFlag(StaticArrayDatabase.Parameterizer.PACKED_ID);
+    Database pdb = AbstractSimpleAlgorithmTest.makeSimpleDatabase(filename, -1, params);
+
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    Relation<NumberVector> prel = pdb.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    assertTrue("Relation was not packed.", ((Relation<?>) prel) instanceof PackedDoubleVectorRelation);
+    assertEquals("Size does not match.", rel.size(), prel.size());
+
+    DBIDIter it = rel.iterDBIDs(), pit = prel.iterDBIDs();
+    for(; it.valid() && pit.valid(); it.advance(), pit.advance()) {
+      NumberVector v = rel.get(it), p = prel.get(pit);
+      assertEquals("Dimensionality does not match.", v.getDimensionality(), p.getDimensionality());
+      for(int d = 0; d < v.getDimensionality(); d++) {
+        assertEquals("Values do not match.", v.doubleValue(d), p.doubleValue(d), 0.);
+      }
+    }
+
+    KNNQuery<NumberVector> knnq = QueryUtil.getKNNQuery(rel, EuclideanDistanceFunction.STATIC);
+    KNNQuery<NumberVector> pknnq = QueryUtil.getKNNQuery(prel, EuclideanDistanceFunction.STATIC);
+    RangeQuery<NumberVector> rq = QueryUtil.getRangeQuery(rel, EuclideanDistanceFunction.STATIC);
+    RangeQuery<NumberVector> prq = QueryUtil.getRangeQuery(prel, EuclideanDistanceFunction.STATIC);
+    for(it = rel.iterDBIDs(), pit = prel.iterDBIDs(); it.valid(); it.advance(), pit.advance()) {
+      KNNList knn = knnq.getKNNForDBID(it, 10), pknn = pknnq.getKNNForDBID(pit, 10);
+      assertEquals("kNN sizes do not match.", knn.size(), pknn.size());
+      for(DoubleDBIDListIter ki = knn.iter(), pki = pknn.iter(); ki.valid(); ki.advance(), pki.advance()) {
+        assertEquals("kNN distances do not match.", ki.doubleValue(), pki.doubleValue(), 0.);
+      }
+      DoubleDBIDList range = rq.getRangeForDBID(it, knn.getKNNDistance());
+      DoubleDBIDList prange = prq.getRangeForDBID(pit, pknn.getKNNDistance());
+      assertEquals("Range query sizes do not match.", range.size(), prange.size());
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.datasource.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.BundleDatabaseConnection;
+
+/**
+ * Write a bundle, and read it back memory-mapped.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class MappedBundleTest {
+  @Test
+  public void testMappedBundle() throws IOException {
+    final int size = 1000, dim = 3;
+    Random r = new Random(0L);
+    List<DoubleVector> vecs = new ArrayList<>(size);
+    for(int i = 0; i < size; i++) {
+      double[] v = new double[dim];
+      for(int d = 0; d < dim; d++) {
+        v[d] = r.nextDouble();
+      }
+      vecs.add(DoubleVector.wrap(v));
+    }
+    MultipleObjectsBundle bundle = MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(DoubleVector.FACTORY, dim), vecs);
+
+    File file = File.createTempFile("elki-mapped-bundle", ".bundle");
+    file.deleteOnExit();
+    try (FileOutputStream fos = new FileOutputStream(file)) {
+      new BundleWriter().writeBundleStream(bundle.asStream(), fos.getChannel());
+    }
+
+    Database db = new StaticArrayDatabase(new BundleDatabaseConnection(null, file, true), null);
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    assertEquals("Size does not match.", size, rel.size());
+    int i = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance(), i++) {
+      NumberVector v = rel.get(it);
+      assertTrue("Not decoded as DoubleVector.", v instanceof DoubleVector);
+      for(int d = 0; d < dim; d++) {
+        assertEquals("Values do not match.", vecs.get(i).doubleValue(d), v.doubleValue(d), 0.);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.index.PagedIndexFactory;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.query.RStarTreeKNNQuery;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.query.RStarTreeRangeQuery;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar.RStarTreeFactory;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for the concurrent page cache.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class ConcurrentPageCacheTest extends AbstractIndexStructureTest {
+  /**
+   * Test an R*-tree on a small cache, so that pages need to be evicted.
+   */
+  @Test
+  public void testRStarTree() {
+    RStarTreeFactory<NumberVector> factory = new ELKIBuilder<>(RStarTreeFactory.class) //
+        .with(PagedIndexFactory.Parameterizer.PAGEFILE_ID, ConcurrentPageCacheFactory.class) //
+        .with(LRUCachePageFileFactory.Parameterizer.PAGEFILE_ID, MemoryPageFileFactory.class) //
+        .with(LRUCachePageFileFactory.Parameterizer.CACHE_SIZE_ID, 3000) //
+        .with(ConcurrentPageCacheFactory.Parameterizer.SEGMENTS_ID, 4) //
+        .with(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300) //
+        .build();
+    testExactEuclidean(factory, RStarTreeKNNQuery.class, RStarTreeRangeQuery.class);
+    testSinglePoint(factory, RStarTreeKNNQuery.class, RStarTreeRangeQuery.class);
+  }
+
+  /**
+   * Read pages from multiple threads.
+   *
+   * @throws InterruptedException on interruption
+   */
+  @Test
+  public void testConcurrentReads() throws InterruptedException {
+    final int numpages = 100;
+    final ConcurrentPageCache<TestPage> cache = new ConcurrentPageCache<>(10 * 100, 4, new MemoryPageFile<TestPage>(100));
+    cache.initialize(new DefaultPageHeader(100));
+    for(int i = 0; i < numpages; i++) {
+      assertEquals(i, cache.writePage(new TestPage()));
+    }
+    final AtomicInteger errors = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for(int t = 0; t < threads.length; t++) {
+      final Random rnd = new Random(t);
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for(int j = 0; j < 10000; j++) {
+            final int id = rnd.nextInt(numpages);
+            TestPage page = cache.readPage(id);
+            if(page == null || page.getPageID() != id) {
+              errors.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for(Thread t : threads) {
+      t.join();
+    }
+    assertEquals("Pages read incorrectly.", 0, errors.get());
+    // All evicted pages must have been written back:
+    for(int i = 0; i < numpages; i++) {
+      TestPage page = cache.readPage(i);
+      assertNotNull("Page lost.", page);
+      assertEquals(i, page.getPageID());
+    }
+    cache.flush();
+    for(int i = 0; i < numpages; i++) {
+      assertFalse("Page still dirty.", cache.readPage(i).isDirty());
+    }
+  }
+
+  /**
+   * Minimal page for testing.
+   *
+   * @author Erich Schubert
+   */
+  private static class TestPage implements Page {
+    /**
+     * Page id.
+     */
+    int id = -1;
+
+    /**
+     * Dirty flag.
+     */
+    boolean dirty;
+
+    @Override
+    public int getPageID() {
+      return id;
+    }
+
+    @Override
+    public void setPageID(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public boolean isDirty() {
+      return dirty;
+    }
+
+    @Override
+    public void setDirty(boolean dirty) {
+      this.dirty = dirty;
+    }
+  }
+}